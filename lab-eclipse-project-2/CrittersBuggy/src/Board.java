@@ -0,0 +1,31 @@
+/**
+ * A Board stores which critter, if any, is on each position of the world.
+ * It holds critters by their slot numbers in the CritterModel's table of
+ * live critters rather than by reference, so that a board can live outside
+ * the heap; see MappedBoard.  Slot 0 means the position is empty.
+ *
+ * Tiles stepped in parallel (see CritterModel.setTileSize()) set disjoint
+ * positions of the board from several threads at once.
+ */
+public interface Board {
+	/** @return the width of the board */
+	public int getWidth();
+
+	/** @return the height of the board */
+	public int getHeight();
+
+	/**
+	 * @return the slot of the critter at position (x, y), or 0 if it is empty
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public int get(int x, int y);
+
+	/**
+	 * Puts the critter with the given slot at position (x, y).
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @param slot the slot, or 0 to empty the position
+	 */
+	public void set(int x, int y, int slot);
+}
@@ -0,0 +1,126 @@
+/**
+ * A CellBitmap is a set of cell indices in [0, capacity) stored as one bit
+ * per cell, for recording which positions of a world changed.  On top of the
+ * bits it keeps a summary with one bit per word of 64 cells, set iff the
+ * word has a member, so iterating over the members and clearing the set
+ * only visit the words that have any rather than the whole world.
+ *
+ * The set costs capacity / 8 bytes plus a 64th of that for the summary,
+ * against the 8 bytes per cell of a CellSet, which in turn can sample its
+ * members.  Members are visited in increasing order, e.g.,
+ *
+ *   for (int cell = set.next(0); cell >= 0; cell = set.next(cell + 1)) {
+ *       ...
+ *   }
+ */
+public class CellBitmap {
+	private long[] words;
+	// Bit i of summary[j] is set iff words[64 * j + i] isn't zero.
+	private long[] summary;
+	private int size;
+
+	/**
+	 * Constructs a new, empty set.
+	 * @param capacity one more than the largest cell index the set can hold
+	 */
+	public CellBitmap(int capacity) {
+		this.words = new long[(int) (((long) capacity + 63) >>> 6)];
+		this.summary = new long[(words.length + 63) >>> 6];
+		this.size = 0;
+	}
+
+	/** @return the number of cells in the set */
+	public int size() { return size; }
+
+	/**
+	 * @return true iff the given cell is in the set
+	 * @param cell the cell index
+	 */
+	public boolean contains(int cell) { return (words[cell >>> 6] & 1L << cell) != 0; }
+
+	/**
+	 * Adds the given cell to the set.
+	 * @return true iff the cell was not already in the set
+	 * @param cell the cell index
+	 */
+	public boolean add(int cell) {
+		int w = cell >>> 6;
+		long word = words[w];
+		long bit = 1L << cell;
+		if ((word & bit) != 0) {
+			return false;
+		}
+		words[w] = word | bit;
+		summary[w >>> 6] |= 1L << w;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Adds every member of the given set to this one.  Costs O(the words of
+	 * the other set that have members).
+	 * @param other the set to add, with the same capacity as this one
+	 */
+	public void addAll(CellBitmap other) {
+		for (int s = 0; s < other.summary.length; s++) {
+			long chunks = other.summary[s];
+			while (chunks != 0) {
+				int w = (s << 6) + Long.numberOfTrailingZeros(chunks);
+				chunks &= chunks - 1;
+				long added = other.words[w] & ~words[w];
+				if (added != 0) {
+					words[w] |= added;
+					summary[s] |= 1L << w;
+					size += Long.bitCount(added);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the smallest member of the set that is at least the given
+	 * cell, or -1 if there is none
+	 * @param cell the cell index to start from, at least 0
+	 */
+	public int next(int cell) {
+		int w = cell >>> 6;
+		if (w >= words.length) {
+			return -1;
+		}
+		long word = words[w] & -1L << cell;
+		if (word != 0) {
+			return (w << 6) + Long.numberOfTrailingZeros(word);
+		}
+		// Skip ahead to the next word with members.
+		w++;
+		int s = w >>> 6;
+		if (s >= summary.length) {
+			return -1;
+		}
+		long chunks = summary[s] & -1L << w;
+		while (chunks == 0) {
+			if (++s == summary.length) {
+				return -1;
+			}
+			chunks = summary[s];
+		}
+		w = (s << 6) + Long.numberOfTrailingZeros(chunks);
+		return (w << 6) + Long.numberOfTrailingZeros(words[w]);
+	}
+
+	/** Removes every cell from the set, visiting only the words with members. */
+	public void clear() {
+		if (size == 0) {
+			return;
+		}
+		for (int s = 0; s < summary.length; s++) {
+			long chunks = summary[s];
+			while (chunks != 0) {
+				words[(s << 6) + Long.numberOfTrailingZeros(chunks)] = 0;
+				chunks &= chunks - 1;
+			}
+			summary[s] = 0;
+		}
+		size = 0;
+	}
+}
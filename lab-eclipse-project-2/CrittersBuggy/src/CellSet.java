@@ -0,0 +1,107 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A CellSet is a set of cell indices in [0, capacity) stored as a sparse set:
+ * a dense array of the members plus an array mapping each cell to its
+ * position in the dense array.  Adding, removing, and testing membership of a
+ * cell are all O(1), as is picking a uniformly random member, and iterating
+ * over the members costs O(size) rather than O(capacity).  Uniform sampling
+ * without replacement is O(1) per sample via get(rand.nextInt(size())) and
+ * removal, or O(k) for a sample of k via shufflePrefix().
+ *
+ * Members are kept in no particular order; removing a cell moves the last
+ * member into its place.
+ */
+public class CellSet {
+	// Marks a cell that is not a member of the set.
+	private static final int ABSENT = -1;
+
+	private int[] dense;
+	private int[] positions;
+	private int size;
+
+	/**
+	 * Constructs a new, empty set.
+	 * @param capacity one more than the largest cell index the set can hold
+	 */
+	public CellSet(int capacity) {
+		this.dense = new int[capacity];
+		this.positions = new int[capacity];
+		this.size = 0;
+		Arrays.fill(positions, ABSENT);
+	}
+
+	/** @return the number of cells in the set */
+	public int size() { return size; }
+
+	/**
+	 * @return the i-th member of the set, 0 <= i < size()
+	 * @param i the position of the member
+	 */
+	public int get(int i) { return dense[i]; }
+
+	/**
+	 * @return true iff the given cell is in the set
+	 * @param cell the cell index
+	 */
+	public boolean contains(int cell) { return positions[cell] != ABSENT; }
+
+	/**
+	 * Adds the given cell to the set.
+	 * @return true iff the cell was not already in the set
+	 * @param cell the cell index
+	 */
+	public boolean add(int cell) {
+		if (positions[cell] != ABSENT) {
+			return false;
+		}
+		dense[size] = cell;
+		positions[cell] = size;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes the given cell from the set.
+	 * @return true iff the cell was in the set
+	 * @param cell the cell index
+	 */
+	public boolean remove(int cell) {
+		int pos = positions[cell];
+		if (pos == ABSENT) {
+			return false;
+		}
+		int last = dense[--size];
+		dense[pos] = last;
+		positions[last] = pos;
+		positions[cell] = ABSENT;
+		return true;
+	}
+
+	/**
+	 * Shuffles the first k members of the set into a uniformly random sample
+	 * of k distinct members, i.e., a partial Fisher-Yates shuffle.  After
+	 * this call, get(0) through get(k - 1) are the sample.  Costs O(k).
+	 * @param k the size of the sample, at most size()
+	 * @param rand the source of randomness
+	 */
+	public void shufflePrefix(int k, Random rand) {
+		for (int i = 0; i < k; i++) {
+			int j = i + rand.nextInt(size - i);
+			int cell = dense[j];
+			dense[j] = dense[i];
+			positions[dense[j]] = j;
+			dense[i] = cell;
+			positions[cell] = i;
+		}
+	}
+
+	/** Removes every cell from the set in O(size) time. */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[dense[i]] = ABSENT;
+		}
+		size = 0;
+	}
+}
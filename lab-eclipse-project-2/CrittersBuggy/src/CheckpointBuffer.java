@@ -0,0 +1,317 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A CheckpointBuffer reads or writes the binary checkpoint of a simulation,
+ * a flat sequence of little-endian primitives and arrays.
+ *
+ * Writing goes through a direct buffer that is drained to a FileChannel
+ * whenever it fills up.  Reading maps the file into memory a window at a
+ * time, so restoring a large world is mostly bulk copies out of the page
+ * cache.  Either way, arrays are copied in bulk rather than one element at
+ * a time.
+ */
+public class CheckpointBuffer implements Closeable {
+	/** The size of the write buffer. */
+	public static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	/** The largest window of the file that is mapped at once when reading. */
+	public static final long READ_WINDOW_SIZE = 1L << 30;
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private boolean writing;
+	// The offset in the file of the start of the buffer when reading.
+	private long windowStart;
+
+	/**
+	 * Constructs a new buffer over the given channel.
+	 * @param channel the channel
+	 * @param writing true to write, false to read
+	 */
+	private CheckpointBuffer(FileChannel channel, boolean writing) throws IOException {
+		this.channel = channel;
+		this.writing = writing;
+		this.windowStart = 0;
+		if (writing) {
+			this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		} else {
+			this.buffer = map(0);
+		}
+	}
+
+	/**
+	 * @return a new buffer that writes to the given file, replacing it
+	 * @param file the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static CheckpointBuffer openForWriting(File file) throws IOException {
+		return new CheckpointBuffer(FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+		                                             StandardOpenOption.TRUNCATE_EXISTING,
+		                                             StandardOpenOption.WRITE), true);
+	}
+
+	/**
+	 * @return a new buffer that reads from the given file
+	 * @param file the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static CheckpointBuffer openForReading(File file) throws IOException {
+		return new CheckpointBuffer(FileChannel.open(file.toPath(), StandardOpenOption.READ), false);
+	}
+
+	/** Writes out anything left in the buffer and closes the file. */
+	public void close() throws IOException {
+		try {
+			if (writing) {
+				drain();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	///// WRITING /////
+
+	/**
+	 * Writes a byte.
+	 * @param value the byte
+	 */
+	public void putByte(int value) throws IOException {
+		ensureRoom(1);
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Writes an int.
+	 * @param value the int
+	 */
+	public void putInt(int value) throws IOException {
+		ensureRoom(4);
+		buffer.putInt(value);
+	}
+
+	/**
+	 * Writes a long.
+	 * @param value the long
+	 */
+	public void putLong(long value) throws IOException {
+		ensureRoom(8);
+		buffer.putLong(value);
+	}
+
+	/**
+	 * Writes a string as its length in bytes followed by its UTF-8 bytes.
+	 * @param value the string
+	 */
+	public void putString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putInt(bytes.length);
+		putBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes a range of a byte array.
+	 * @param values the array
+	 * @param offset the index of the first byte to write
+	 * @param length the number of bytes to write
+	 */
+	public void putBytes(byte[] values, int offset, int length) throws IOException {
+		while (length > 0) {
+			ensureRoom(1);
+			int n = Math.min(length, buffer.remaining());
+			buffer.put(values, offset, n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Writes a range of an int array.
+	 * @param values the array
+	 * @param offset the index of the first int to write
+	 * @param length the number of ints to write
+	 */
+	public void putInts(int[] values, int offset, int length) throws IOException {
+		while (length > 0) {
+			ensureRoom(4);
+			int n = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(values, offset, n);
+			buffer.position(buffer.position() + n * 4);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Writes the members of a CellSet, in order.
+	 * @param set the set
+	 */
+	public void putCellSet(CellSet set) throws IOException {
+		putInt(set.size());
+		for (int i = 0; i < set.size(); i++) {
+			putInt(set.get(i));
+		}
+	}
+
+	/**
+	 * Writes the state of a random number generator.
+	 * @param rand the generator
+	 */
+	public void putRandom(SavableRandom rand) throws IOException {
+		putLong(rand.getState());
+		putByte(rand.isHoldingGaussian() ? 1 : 0);
+		putLong(Double.doubleToRawLongBits(rand.getHeldGaussian()));
+	}
+
+	///// READING /////
+
+	/** @return the next byte */
+	public byte getByte() throws IOException {
+		ensureAvailable(1);
+		return buffer.get();
+	}
+
+	/** @return the next int */
+	public int getInt() throws IOException {
+		ensureAvailable(4);
+		return buffer.getInt();
+	}
+
+	/** @return the next long */
+	public long getLong() throws IOException {
+		ensureAvailable(8);
+		return buffer.getLong();
+	}
+
+	/** @return the next string; see putString() */
+	public String getString() throws IOException {
+		byte[] bytes = new byte[getLength()];
+		getBytes(bytes, 0, bytes.length);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads bytes into a range of an array.
+	 * @param values the array
+	 * @param offset the index of the first byte to read into
+	 * @param length the number of bytes to read
+	 */
+	public void getBytes(byte[] values, int offset, int length) throws IOException {
+		while (length > 0) {
+			ensureAvailable(1);
+			int n = Math.min(length, buffer.remaining());
+			buffer.get(values, offset, n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Reads ints into a range of an array.
+	 * @param values the array
+	 * @param offset the index of the first int to read into
+	 * @param length the number of ints to read
+	 */
+	public void getInts(int[] values, int offset, int length) throws IOException {
+		while (length > 0) {
+			ensureAvailable(4);
+			int n = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(values, offset, n);
+			buffer.position(buffer.position() + n * 4);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Reads the members of a CellSet, in order, into the given set.
+	 * @param set the set; it is cleared first
+	 */
+	public void getCellSet(CellSet set) throws IOException {
+		set.clear();
+		int size = getLength();
+		for (int i = 0; i < size; i++) {
+			int cell = getInt();
+			if (!set.add(cell)) {
+				throw new IOException("Corrupt checkpoint: cell " + cell + " appears twice");
+			}
+		}
+	}
+
+	/** @return the next random number generator; see putRandom() */
+	public SavableRandom getRandom() throws IOException {
+		long state = getLong();
+		byte holdingGaussian = getByte();
+		double heldGaussian = Double.longBitsToDouble(getLong());
+		if (holdingGaussian != 0 && holdingGaussian != 1) {
+			throw new IOException("Corrupt checkpoint: bad random state");
+		}
+		try {
+			return SavableRandom.restore(state, holdingGaussian == 1, heldGaussian);
+		} catch (IllegalArgumentException ex) {
+			throw new IOException("Corrupt checkpoint: bad random state", ex);
+		}
+	}
+
+	/** @return the next int, which must be a valid length */
+	private int getLength() throws IOException {
+		int length = getInt();
+		if (length < 0) {
+			throw new IOException("Corrupt checkpoint: negative length " + length);
+		}
+		return length;
+	}
+
+	///// BUFFER MANAGEMENT /////
+
+	/**
+	 * Makes room for at least the given number of bytes in the write buffer,
+	 * draining it to the file if need be.
+	 * @param n the number of bytes
+	 */
+	private void ensureRoom(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			drain();
+		}
+	}
+
+	/** Writes the contents of the write buffer to the file and empties it. */
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Makes sure at least the given number of bytes can be read from the
+	 * mapped window, sliding the window forward if need be.
+	 * @param n the number of bytes
+	 */
+	private void ensureAvailable(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			buffer = map(windowStart + buffer.position());
+			if (buffer.remaining() < n) {
+				throw new IOException("Corrupt checkpoint: unexpected end of file");
+			}
+		}
+	}
+
+	/**
+	 * @return a new window of the file mapped into memory
+	 * @param start the offset in the file of the start of the window
+	 */
+	private ByteBuffer map(long start) throws IOException {
+		windowStart = start;
+		long size = Math.min(READ_WINDOW_SIZE, channel.size() - start);
+		return channel.map(FileChannel.MapMode.READ_ONLY, start, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
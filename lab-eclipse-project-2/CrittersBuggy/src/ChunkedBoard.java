@@ -0,0 +1,80 @@
+/**
+ * A Board for big, mostly empty worlds that only allocates the parts of the
+ * world that have critters on them.  The world is cut into chunks of
+ * CHUNK_SIZE x CHUNK_SIZE positions; a chunk's slots are allocated when the
+ * first critter lands on it and dropped when the last one leaves, so the
+ * board takes memory in proportion to the occupied area rather than to the
+ * size of the world.  Empty chunks cost a null reference each.
+ *
+ * Tiles may share a chunk, so setting a position is synchronized.
+ */
+public class ChunkedBoard implements Board {
+	/** The width and height of a chunk. */
+	public static final int CHUNK_SIZE = 64;
+
+	private static final int CHUNK_SHIFT = 6;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private int width;
+	private int height;
+	private int chunksDown;
+	// The slots of each chunk, by (x mod CHUNK_SIZE) * CHUNK_SIZE +
+	// (y mod CHUNK_SIZE), or null if no critter is on it.
+	private int[][] chunks;
+	private int[] occupants;
+	private int numAllocated;
+
+	/**
+	 * Constructs a new, empty board.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @throws IllegalArgumentException if the world has more chunks than fit
+	 * in an array
+	 */
+	public ChunkedBoard(int width, int height) {
+		long chunksAcross = (width + CHUNK_SIZE - 1L) >> CHUNK_SHIFT;
+		long numChunks = chunksAcross * ((height + CHUNK_SIZE - 1L) >> CHUNK_SHIFT);
+		if (numChunks > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A " + width + "x" + height + " world has too many chunks");
+		}
+		this.width = width;
+		this.height = height;
+		this.chunksDown = (int) ((height + CHUNK_SIZE - 1L) >> CHUNK_SHIFT);
+		this.chunks = new int[(int) numChunks][];
+		this.occupants = new int[(int) numChunks];
+	}
+
+	public int getWidth() { return width; }
+
+	public int getHeight() { return height; }
+
+	/** @return the number of chunks currently allocated */
+	public int getNumAllocatedChunks() { return numAllocated; }
+
+	public int get(int x, int y) {
+		int[] chunk = chunks[(x >> CHUNK_SHIFT) * chunksDown + (y >> CHUNK_SHIFT)];
+		return chunk == null ? 0 : chunk[(x & CHUNK_MASK) << CHUNK_SHIFT | y & CHUNK_MASK];
+	}
+
+	public synchronized void set(int x, int y, int slot) {
+		int c = (x >> CHUNK_SHIFT) * chunksDown + (y >> CHUNK_SHIFT);
+		int[] chunk = chunks[c];
+		if (chunk == null) {
+			if (slot == 0) {
+				return;
+			}
+			chunk = chunks[c] = new int[CHUNK_SIZE * CHUNK_SIZE];
+			numAllocated++;
+		}
+		int i = (x & CHUNK_MASK) << CHUNK_SHIFT | y & CHUNK_MASK;
+		if (chunk[i] == 0 && slot != 0) {
+			occupants[c]++;
+		} else if (chunk[i] != 0 && slot == 0 && --occupants[c] == 0) {
+			chunk[i] = 0;
+			chunks[c] = null;
+			numAllocated--;
+			return;
+		}
+		chunk[i] = slot;
+	}
+}
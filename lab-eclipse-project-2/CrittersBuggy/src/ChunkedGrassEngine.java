@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A GrassEngine for big, mostly bare worlds whose memory and cost per step
+ * both scale with the grassy area rather than with the size of the world.
+ * It grows grass by the same rules and with the same probabilities as a
+ * FrontierGrassEngine, but keeps the levels in chunks of CHUNK_SIZE x
+ * CHUNK_SIZE positions that are only allocated while they have grass.
+ *
+ * - A bitmap marks the chunks that have grass, so spreading scans those
+ *   chunks and skips the rest of the world a word of the bitmap at a time.
+ * - New grass is seeded by geometric skip sampling over the whole world, as
+ *   in a FrontierGrassEngine, so bare chunks cost nothing unless grass
+ *   spawns on them.
+ *
+ * Grass spreads in chunk order rather than in the order it appeared, so the
+ * grass differs from a FrontierGrassEngine's with the same seed, though not
+ * in distribution.
+ */
+public class ChunkedGrassEngine implements GrassEngine {
+	/** The width and height of a chunk. */
+	public static final int CHUNK_SIZE = 64;
+
+	private static final int CHUNK_SHIFT = 6;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+
+	private int width;
+	private int height;
+	private int chunksDown;
+	// The levels of each chunk, by (x mod CHUNK_SIZE) * CHUNK_SIZE +
+	// (y mod CHUNK_SIZE), or null if it has no grass; see FrontierGrassEngine.
+	private byte[][] chunks;
+	private int[] grassy;
+	private long[] grassyChunks;
+	private long grassCount;
+	private CellBitmap changed;
+	private double logSkip;
+	private SavableRandom rand;
+	private int[] candidateXs;
+	private int[] candidateYs;
+
+	/**
+	 * Constructs a new, grass-free engine.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @param randomGrassProb the factor by which grass randomly spawns
+	 * @param seed the seed of the engine's random stream
+	 * @throws IllegalArgumentException if the world has more chunks than fit
+	 * in an array
+	 */
+	public ChunkedGrassEngine(int width, int height, int randomGrassProb, long seed) {
+		long chunksAcross = (width + CHUNK_SIZE - 1L) >> CHUNK_SHIFT;
+		long numChunks = chunksAcross * ((height + CHUNK_SIZE - 1L) >> CHUNK_SHIFT);
+		if (numChunks > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A " + width + "x" + height + " world has too many chunks");
+		}
+		this.width = width;
+		this.height = height;
+		this.chunksDown = (int) ((height + CHUNK_SIZE - 1L) >> CHUNK_SHIFT);
+		this.chunks = new byte[(int) numChunks][];
+		this.grassy = new int[(int) numChunks];
+		this.grassyChunks = new long[(int) ((numChunks + 63) >> 6)];
+		this.logSkip = Math.log1p(-1.0 / randomGrassProb);
+		this.rand = new SavableRandom(seed);
+		this.candidateXs = new int[Critter.Directions.length];
+		this.candidateYs = new int[Critter.Directions.length];
+	}
+
+	/** @return the number of positions that currently have grass */
+	public long getGrassCount() { return grassCount; }
+
+	/** @return the number of chunks currently allocated */
+	public int getNumAllocatedChunks() { return countChunks(); }
+
+	public boolean hasGrass(int x, int y) {
+		return levelAt(x, y) != 0;
+	}
+
+	public void plant(int x, int y) {
+		int c = chunkOf(x, y);
+		byte[] chunk = chunks[c];
+		if (chunk == null) {
+			chunk = chunks[c] = new byte[CHUNK_CELLS];
+			grassyChunks[c >>> 6] |= 1L << c;
+		}
+		int i = indexInChunk(x, y);
+		if (chunk[i] == 0) {
+			grassy[c]++;
+			grassCount++;
+		}
+		chunk[i] = 1;
+	}
+
+	public void clear(int x, int y) {
+		int c = chunkOf(x, y);
+		byte[] chunk = chunks[c];
+		int i = indexInChunk(x, y);
+		if (chunk == null || chunk[i] == 0) {
+			return;
+		}
+		chunk[i] = 0;
+		grassCount--;
+		if (--grassy[c] == 0) {
+			chunks[c] = null;
+			grassyChunks[c >>> 6] &= ~(1L << c);
+		}
+	}
+
+	/**
+	 * Writes the grassy chunks in order, each as its index and its levels,
+	 * and the random stream.
+	 */
+	public void writeCheckpoint(CheckpointBuffer out) throws IOException {
+		out.putInt(countChunks());
+		for (int c = 0; c < chunks.length; c++) {
+			if (chunks[c] != null) {
+				out.putInt(c);
+				out.putBytes(chunks[c], 0, CHUNK_CELLS);
+			}
+		}
+		out.putRandom(rand);
+	}
+
+	public void readCheckpoint(CheckpointBuffer in) throws IOException {
+		Arrays.fill(chunks, null);
+		Arrays.fill(grassy, 0);
+		Arrays.fill(grassyChunks, 0);
+		grassCount = 0;
+		int numChunks = in.getInt();
+		int last = -1;
+		for (int k = 0; k < numChunks; k++) {
+			int c = in.getInt();
+			if (c <= last || c >= chunks.length) {
+				throw new IOException("Corrupt checkpoint: grass chunk " + c);
+			}
+			last = c;
+			byte[] chunk = new byte[CHUNK_CELLS];
+			in.getBytes(chunk, 0, CHUNK_CELLS);
+			for (byte level : chunk) {
+				if (level < 0 || level > FrontierGrassEngine.MAX_LEVEL) {
+					throw new IOException("Corrupt checkpoint: grass level " + level);
+				} else if (level != 0) {
+					grassy[c]++;
+				}
+			}
+			if (grassy[c] > 0) {
+				chunks[c] = chunk;
+				grassyChunks[c >>> 6] |= 1L << c;
+				grassCount += grassy[c];
+			}
+		}
+		rand = in.getRandom();
+	}
+
+	public void setChangedCells(CellBitmap changed) {
+		this.changed = changed;
+	}
+
+	public void propagate() {
+		spreadGrass();
+		spawnGrass();
+	}
+
+	/**
+	 * Gives each existing blade of grass its chance to spread, chunk by
+	 * chunk.  Spreading only lands on positions that already have grass, so
+	 * the grassy chunks don't change here.
+	 */
+	private void spreadGrass() {
+		for (int word = 0; word < grassyChunks.length; word++) {
+			for (long bits = grassyChunks[word]; bits != 0; bits &= bits - 1) {
+				int c = word << 6 | Long.numberOfTrailingZeros(bits);
+				byte[] chunk = chunks[c];
+				int x0 = c / chunksDown << CHUNK_SHIFT;
+				int y0 = c % chunksDown << CHUNK_SHIFT;
+				for (int i = 0; i < CHUNK_CELLS; i++) {
+					int level = chunk[i];
+					if (level == 0 || rand.nextInt(1 << (level - 1)) != 0) {
+						continue;
+					}
+					int x = x0 + (i >> CHUNK_SHIFT);
+					int y = y0 + (i & CHUNK_MASK);
+					int count = 0;
+					for (Critter.Direction direction : Critter.Directions) {
+						int nx = x;
+						int ny = y;
+						switch (direction) {
+							case NORTH: ny = y == 0 ? height - 1 : y - 1; break;
+							case EAST: nx = x == width - 1 ? 0 : x + 1; break;
+							case SOUTH: ny = y == height - 1 ? 0 : y + 1; break;
+							case WEST: nx = x == 0 ? width - 1 : x - 1; break;
+							default: break;
+						}
+						if (levelAt(nx, ny) != 0) {
+							candidateXs[count] = nx;
+							candidateYs[count++] = ny;
+						}
+					}
+					if (count > 0) {
+						int pick = rand.nextInt(count);
+						int nx = candidateXs[pick];
+						int ny = candidateYs[pick];
+						chunks[chunkOf(nx, ny)][indexInChunk(nx, ny)] = (byte) Math.min(level + 1,
+						                                                                FrontierGrassEngine.MAX_LEVEL);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Spawns new grass on bare positions by skipping ahead a geometrically
+	 * distributed number of positions between spawns; see
+	 * FrontierGrassEngine.
+	 */
+	private void spawnGrass() {
+		long numCells = (long) width * height;
+		for (long cell = nextSkip(); cell < numCells; cell += 1 + nextSkip()) {
+			int x = (int) (cell / height);
+			int y = (int) (cell % height);
+			if (levelAt(x, y) == 0) {
+				plant(x, y);
+				if (changed != null) {
+					changed.add((int) cell);
+				}
+			}
+		}
+	}
+
+	/** @return the number of positions to skip before the next one that spawns grass */
+	private long nextSkip() {
+		// 1 - nextDouble() is in (0, 1] so the log is never -infinity.
+		double skip = Math.floor(Math.log(1.0 - rand.nextDouble()) / logSkip);
+		return skip < Long.MAX_VALUE ? (long) skip : Long.MAX_VALUE / 2;
+	}
+
+	/** @return the number of chunks with grass */
+	private int countChunks() {
+		int count = 0;
+		for (long word : grassyChunks) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/** @return the level of the grass at (x, y) */
+	private int levelAt(int x, int y) {
+		byte[] chunk = chunks[chunkOf(x, y)];
+		return chunk == null ? 0 : chunk[indexInChunk(x, y)];
+	}
+
+	/** @return the index of the chunk of (x, y) */
+	private int chunkOf(int x, int y) {
+		return (x >> CHUNK_SHIFT) * chunksDown + (y >> CHUNK_SHIFT);
+	}
+
+	/** @return the index of (x, y) within its chunk */
+	private static int indexInChunk(int x, int y) {
+		return (x & CHUNK_MASK) << CHUNK_SHIFT | y & CHUNK_MASK;
+	}
+}
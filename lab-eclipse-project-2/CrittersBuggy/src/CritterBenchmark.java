@@ -0,0 +1,874 @@
+import java.awt.Color;
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * CritterBenchmark is a small, self-contained driver for timing the
+ * simulation engine from the command line, e.g.,
+ *
+ *   java -Xmx2g CritterBenchmark
+ *
+ * Each benchmark builds its own model with a fixed seed, warms it up, and
+ * then reports the average time per measured step.
+ *
+ * The suite, run with
+ *
+ *   java -Xmx4g CritterBenchmark suite [size ...]
+ *
+ * sweeps world sizes, grass ratios and species mixes and times step(),
+ * grass propagation, repopulation and toString() separately, along with
+ * the bytes allocated per step.
+ *
+ *   java -Xmx256m CritterBenchmark mapped 50000 [dir]
+ *   java -Xmx256m CritterBenchmark chunked 50000
+ *
+ * step a world kept in memory-mapped scratch files in dir, or in chunks
+ * allocated only where there are critters or grass, and report the time
+ * per step and the heap in use.
+ *
+ *   java CritterBenchmark neighborhood [radius ...]
+ *
+ * compares critters looking around themselves with getNeighborhood()
+ * against looking at each position in turn through chained
+ * getNeighbor() calls.
+ *
+ *   java CritterBenchmark churn
+ *
+ * steps a world where critters are born and die all the time with and
+ * without recycling critters, and reports the allocation and garbage
+ * collections per step.
+ *
+ *   java CritterBenchmark check
+ *
+ * steps a world of predators and prey, where critters fight all the time,
+ * in one piece and in tiles.  It checks that replaying its event log gives
+ * the same world after every step, and that what critters see with
+ * getNeighborhood() after steps with fights is what is around them.  It
+ * fails if any of them disagree.
+ */
+public class CritterBenchmark {
+
+	///// BENCHMARK CONSTANTS /////
+
+	public static final long SEED = 207L;
+	public static final int WARMUP_STEPS = 20;
+	public static final int MEASURED_STEPS = 100;
+	public static final int INSTANTIATIONS = 2000000;
+	public static final int[] SUITE_SIZES = { 50, 200, 1000, 4000 };
+	public static final double[] SUITE_GRASS_RATIOS = { 0.05, 0.15, 0.5 };
+	// The number of critters of each species per this many positions.
+	public static final int SUITE_CELLS_PER_CRITTER = 400;
+	// About how many position-steps each suite measurement covers, so that
+	// big worlds are stepped fewer times than small ones.
+	public static final long SUITE_CELL_STEPS = 200000000L;
+	public static final int HEAVY_WORK = 2000;
+	// The grass spawn factor of the worlds in the storage benchmarks.
+	public static final int STORAGE_GRASS_PROB = 1 << 20;
+	public static final int[] NEIGHBORHOOD_RADII = { 1, 2, 4, 8 };
+	public static final int NEIGHBORHOOD_ROUNDS = 20;
+	public static final int CHURN_STEPS = 2000;
+	public static final int CHECK_SIZE = 40;
+	public static final int CHECK_STEPS = 300;
+	public static final int CHECK_TILE_SIZE = 12;
+	public static final int[] CHECK_RADII = { 1, 3, 8 };
+
+	///// ======================================================= /////
+
+	/**
+	 * A synthetic critter whose constructor takes primitive arguments, so
+	 * that instantiating it exercises the random-argument path.
+	 */
+	@NoLoad
+	public static class ArgumentCritter extends Critter {
+		private int seed;
+
+		public ArgumentCritter(int seed, double ratio, boolean flag) { this.seed = seed; }
+		public Direction getMove() { return Direction.CENTER; }
+		public FoodType getFoodType() { return FoodType.GRASS; }
+		public Color getColor() { return Color.BLACK; }
+		public Speed getSpeed() { return Speed.SLOW; }
+		public String toString() { return seed % 2 == 0 ? "a" : "A"; }
+	}
+
+	/**
+	 * A synthetic critter with an expensive getMove(): it looks all around
+	 * itself and then churns through some arithmetic, like a strategy that
+	 * plans ahead.
+	 */
+	@NoLoad
+	public static class HeavyCritter extends Critter {
+		private int state;
+
+		public Direction getMove() {
+			int h = state;
+			for (Direction direction : Directions) {
+				h = h * 31 + info.getNeighbor(direction).hashCode();
+			}
+			for (int i = 0; i < HEAVY_WORK; i++) {
+				h = h * 1103515245 + 12345;
+			}
+			state = h;
+			return Directions[(h >>> 16) & 3];
+		}
+		public FoodType getFoodType() { return FoodType.GRASS; }
+		public Color getColor() { return Color.ORANGE; }
+		public Speed getSpeed() { return Speed.MEDIUM; }
+		public String toString() { return "h"; }
+	}
+
+	/**
+	 * A synthetic critter that holds still and keeps a list of its kind, so
+	 * that a benchmark can look around from where each of them is.
+	 */
+	@NoLoad
+	public static class ProbeCritter extends Critter {
+		// The probes made so far.
+		private static List<ProbeCritter> probes = new ArrayList<ProbeCritter>();
+
+		private boolean dead;
+
+		public ProbeCritter() { probes.add(this); }
+		public Direction getMove() { return Direction.CENTER; }
+		public FoodType getFoodType() { return FoodType.GRASS; }
+		public Color getColor() { return Color.BLUE; }
+		public Speed getSpeed() { return Speed.SLOW; }
+		public void onDeath() { dead = true; }
+		public String toString() { return "p"; }
+	}
+
+	// The living predators and prey, for checking what they see.
+	private static Set<Critter> living = new LinkedHashSet<Critter>();
+
+	/**
+	 * A synthetic critter that wanders at random and eats grass.  It keeps
+	 * pace with predators half the time, so that they may catch it before
+	 * its turn to move.
+	 */
+	@NoLoad
+	public static class PreyCritter extends Critter {
+		private Random rand;
+
+		public PreyCritter(int seed) {
+			rand = new Random(seed);
+			living.add(this);
+		}
+		public Direction getMove() { return Directions[rand.nextInt(Directions.length)]; }
+		public FoodType getFoodType() { return FoodType.GRASS; }
+		public Color getColor() { return Color.GREEN; }
+		public Speed getSpeed() { return rand.nextBoolean() ? Speed.SLOW : Speed.MEDIUM; }
+		public void onDeath() { living.remove(this); }
+		public String toString() { return "y"; }
+	}
+
+	/**
+	 * A synthetic critter that wanders at random and eats meat.
+	 */
+	@NoLoad
+	public static class PredatorCritter extends Critter {
+		private Random rand;
+
+		public PredatorCritter(int seed) {
+			rand = new Random(seed);
+			living.add(this);
+		}
+		public Direction getMove() { return Directions[rand.nextInt(Directions.length)]; }
+		public FoodType getFoodType() { return FoodType.MEAT; }
+		public Color getColor() { return Color.RED; }
+		public Speed getSpeed() { return Speed.MEDIUM; }
+		public void onDeath() { living.remove(this); }
+		public String toString() { return "x"; }
+	}
+
+	/**
+	 * Walks around a critter one getNeighbor() at a time, as a strategy
+	 * that only has getNeighbor() would have to.  Each step costs what
+	 * getNeighbor() does: a new Point for the position next door, wrapped
+	 * around the world, and the toString() of the critter there.  Steps
+	 * from the critter's own position are real getNeighbor() calls; the
+	 * others read the glyph from the model, since no CritterInfo sits there.
+	 */
+	private static class NeighborChain {
+		private CritterModel model;
+		private CritterInfo info;
+		private Point pos;
+		private String glyph;
+
+		/** @param model the world to walk around in */
+		public NeighborChain(CritterModel model) { this.model = model; }
+
+		/** Starts a new walk from the position of the given critter. */
+		public void start(CritterInfo info) {
+			this.info = info;
+			this.pos = new Point(info.getX(), info.getY());
+			this.glyph = null;
+		}
+
+		/** Steps to the position next door in the given direction and looks at it. */
+		public void step(Critter.Direction direction) {
+			boolean home = pos.x == info.getX() && pos.y == info.getY();
+			int width = info.getWidth();
+			int height = info.getHeight();
+			switch (direction) {
+				case NORTH: pos = new Point(pos.x, (pos.y + height - 1) % height); break;
+				case EAST: pos = new Point((pos.x + 1) % width, pos.y); break;
+				case SOUTH: pos = new Point(pos.x, (pos.y + 1) % height); break;
+				default: pos = new Point((pos.x + width - 1) % width, pos.y); break;
+			}
+			glyph = home ? info.getNeighbor(direction) : model.getGlyphAt(pos.x, pos.y);
+		}
+
+		/** @return the glyph at the position the walk is at */
+		public String getGlyph() { return glyph; }
+	}
+
+	/**
+	 * @return a new model for benchmarking over a fresh roster of the
+	 * built-in critters
+	 * @param size the width and height of the world
+	 * @param randomGrassProb the factor by which grass randomly spawns
+	 * @param numInitial the number of critters to spawn of each type
+	 * @param hungerLimit the hunger count at which a Critter dies
+	 * @param initialGrassRatio the initial ratio of grass to not-grass
+	 */
+	public static CritterModel createModel(int size, int randomGrassProb, int numInitial,
+	                                       int hungerLimit, double initialGrassRatio) {
+		return createModel(size, randomGrassProb, numInitial, hungerLimit, initialGrassRatio,
+		                   Arrays.<Class<?>>asList(Rock.class, Lemming.class));
+	}
+
+	/**
+	 * @return a new model for benchmarking over a fresh roster of the given
+	 * critters
+	 * @param size the width and height of the world
+	 * @param randomGrassProb the factor by which grass randomly spawns
+	 * @param numInitial the number of critters to spawn of each type
+	 * @param hungerLimit the hunger count at which a Critter dies
+	 * @param initialGrassRatio the initial ratio of grass to not-grass
+	 * @param roster the types of critters
+	 */
+	public static CritterModel createModel(int size, int randomGrassProb, int numInitial, int hungerLimit,
+	                                       double initialGrassRatio, List<Class<?>> roster) {
+		List<Class<?>> species = new ArrayList<Class<?>>(roster);
+		return new CritterModel(size, size, randomGrassProb, hungerLimit,
+		                        species, numInitial, CritterMain.NUM_ACTIVE_SPECIES,
+		                        initialGrassRatio, SEED);
+	}
+
+	/**
+	 * @return the average time in milliseconds of one step of the model,
+	 * measured after a warm-up
+	 * @param model the model to step
+	 */
+	public static double timeSteps(CritterModel model) {
+		for (int i = 0; i < WARMUP_STEPS; i++) {
+			model.step();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_STEPS; i++) {
+			model.step();
+		}
+		return (System.nanoTime() - start) / 1e6 / MEASURED_STEPS;
+	}
+
+	/**
+	 * Steps a 4000x4000 world with only a few thousand critters and little
+	 * grass in it.  Grass is handled by the FrontierGrassEngine and
+	 * repopulation is turned off so that the time per step is dominated by
+	 * the critters themselves.
+	 */
+	public static void benchmarkSparseWorld() {
+		int size = 4000;
+		int randomGrassProb = 1 << 20;
+		CritterModel model = createModel(size, randomGrassProb, 1000, 1000, 0.001);
+		model.setGrassEngine(new FrontierGrassEngine(size, size, randomGrassProb, SEED));
+		model.setRepopulatingWorld(false);
+		System.out.printf("sparse %dx%d world: %.3f ms/step%n", size, size, timeSteps(model));
+	}
+
+	/**
+	 * Steps a 1000x1000 world that repopulates itself, so that every step
+	 * checks for new species to add to the world.
+	 */
+	public static void benchmarkRepopulatingWorld() {
+		int size = 1000;
+		int randomGrassProb = 1 << 20;
+		CritterModel model = createModel(size, randomGrassProb, 1000, CritterMain.HUNGER_LIMIT, 0.001);
+		model.setGrassEngine(new FrontierGrassEngine(size, size, randomGrassProb, SEED));
+		model.setRepopulatingWorld(true);
+		System.out.printf("repopulating %dx%d world: %.3f ms/step%n", size, size, timeSteps(model));
+	}
+
+	/**
+	 * Steps a world whose board and grass are kept in memory-mapped scratch
+	 * files with a sprinkling of critters and grass in it, and reports the
+	 * time per step and how much of the heap is in use.
+	 * @param size the width and height of the world
+	 * @param dir the directory for the scratch files, or null for the
+	 * default temporary directory
+	 */
+	public static void benchmarkMappedWorld(int size, File dir) throws IOException {
+		benchmarkWorldStorage("mapped", size, 100000, 0.0001, new MappedBoard(size, size, dir),
+		                      new MappedGrassEngine(size, size, STORAGE_GRASS_PROB, SEED, dir));
+	}
+
+	/**
+	 * Steps a world whose board and grass are kept in chunks allocated only
+	 * where there are critters or grass; see benchmarkMappedWorld().  Every
+	 * critter or blade of grass on its own chunk costs the whole chunk, so
+	 * the world starts with fewer critters and no grass.
+	 * @param size the width and height of the world
+	 */
+	public static void benchmarkChunkedWorld(int size) {
+		benchmarkWorldStorage("chunked", size, 1000, 0, new ChunkedBoard(size, size),
+		                      new ChunkedGrassEngine(size, size, STORAGE_GRASS_PROB, SEED));
+	}
+
+	/**
+	 * Steps a world with a sprinkling of critters and grass in it kept in
+	 * the given storage, and reports the time per step and how much of the
+	 * heap is in use.
+	 * @param name the name of the storage
+	 * @param size the width and height of the world
+	 * @param numInitial the number of critters of each species
+	 * @param initialGrassRatio the initial ratio of grass to not-grass
+	 * @param board the board
+	 * @param grass the grass engine
+	 */
+	private static void benchmarkWorldStorage(String name, int size, int numInitial, double initialGrassRatio,
+	                                          Board board, GrassEngine grass) {
+		long start = System.nanoTime();
+		CritterModel model = new CritterModel(size, size, STORAGE_GRASS_PROB, 1000,
+		                                      Arrays.<Class<?>>asList(Rock.class, Lemming.class), numInitial,
+		                                      CritterMain.NUM_ACTIVE_SPECIES, initialGrassRatio, SEED, board, grass);
+		model.setRepopulatingWorld(false);
+		System.out.printf("%s %dx%d world: built in %.1f s%n", name, size, size, (System.nanoTime() - start) / 1e9);
+		for (int i = 0; i < 3; i++) {
+			start = System.nanoTime();
+			model.step();
+			Runtime runtime = Runtime.getRuntime();
+			System.out.printf("%s %dx%d world: %.3f s/step, %d MB of heap in use%n", name, size, size,
+			                  (System.nanoTime() - start) / 1e9, (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+		}
+	}
+
+	/**
+	 * Has every live probe in a 1000x1000 world look around itself, first
+	 * with getNeighborhood() and then by walking the same square one
+	 * getNeighbor() at a time, up and down its columns, and reports the
+	 * time and bytes allocated per look each way, and how many looks
+	 * disagree.
+	 * @param radius how far the probes look
+	 */
+	public static void benchmarkNeighborhood(int radius) {
+		int size = 1000;
+		ProbeCritter.probes.clear();
+		CritterModel model = createModel(size, CritterMain.RANDOM_GRASS_PROB, 5000, 1000, 0.15,
+		                                 Arrays.<Class<?>>asList(Rock.class, Lemming.class, ProbeCritter.class));
+		model.setRepopulatingWorld(false);
+		for (int i = 0; i < WARMUP_STEPS; i++) {
+			model.step();
+		}
+		List<CritterInfo> infos = new ArrayList<CritterInfo>();
+		for (ProbeCritter probe : ProbeCritter.probes) {
+			if (!probe.dead) {
+				infos.add(probe.info);
+			}
+		}
+		long[] indexed = new long[infos.size() * 3];
+		long[] scanned = new long[infos.size() * 3];
+		long indexedNanos = 0;
+		long scannedNanos = 0;
+		long allocated = 0;
+		long scanAllocated = 0;
+		NeighborChain chain = new NeighborChain(model);
+		// The first round warms up both ways of looking.
+		for (int round = 0; round <= NEIGHBORHOOD_ROUNDS; round++) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			for (int i = 0; i < infos.size(); i++) {
+				Neighborhood neighborhood = infos.get(i).getNeighborhood(radius);
+				indexed[i * 3] = neighborhood.getNumCritters();
+				indexed[i * 3 + 1] = neighborhood.getNumGrass();
+				indexed[i * 3 + 2] = neighborhood.getNumEmpty();
+			}
+			long time = System.nanoTime();
+			if (round > 0) {
+				indexedNanos += time - start;
+				allocated += allocatedBytes() - bytes;
+			}
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			for (int i = 0; i < infos.size(); i++) {
+				long critters = 0;
+				long grass = 0;
+				long empty = 0;
+				// Go to the north-west corner, then down the first column, up
+				// the next, and so on.
+				chain.start(infos.get(i));
+				for (int k = 0; k < radius; k++) {
+					chain.step(Critter.Direction.WEST);
+				}
+				for (int k = 0; k < radius; k++) {
+					chain.step(Critter.Direction.NORTH);
+				}
+				for (int dx = -radius; dx <= radius; dx++) {
+					boolean down = (dx + radius) % 2 == 0;
+					if (dx > -radius) {
+						chain.step(Critter.Direction.EAST);
+					}
+					for (int k = 0; k <= 2 * radius; k++) {
+						if (k > 0) {
+							chain.step(down ? Critter.Direction.SOUTH : Critter.Direction.NORTH);
+						}
+						int dy = down ? k - radius : radius - k;
+						if (dx == 0 && dy == 0) {
+							continue;
+						}
+						String glyph = chain.getGlyph();
+						if (glyph.equals(CritterModel.EMPTY_SYMBOL)) {
+							empty++;
+						} else if (glyph.equals(CritterModel.GRASS_SYMBOL)) {
+							grass++;
+						} else {
+							critters++;
+						}
+					}
+				}
+				scanned[i * 3] = critters;
+				scanned[i * 3 + 1] = grass;
+				scanned[i * 3 + 2] = empty;
+			}
+			if (round > 0) {
+				scannedNanos += System.nanoTime() - start;
+				scanAllocated += allocatedBytes() - bytes;
+			}
+		}
+		int disagreements = 0;
+		for (int i = 0; i < infos.size(); i++) {
+			if (indexed[i * 3] != scanned[i * 3] || indexed[i * 3 + 1] != scanned[i * 3 + 1]
+			    || indexed[i * 3 + 2] != scanned[i * 3 + 2]) {
+				disagreements++;
+			}
+		}
+		long looks = (long) infos.size() * NEIGHBORHOOD_ROUNDS;
+		System.out.printf("radius %d, %d probes: getNeighborhood %.0f ns/look (%s bytes/look), "
+		                  + "chained getNeighbor %.0f ns/look (%s bytes/look), %d disagree%n", radius,
+		                  infos.size(), (double) indexedNanos / looks,
+		                  allocated < 0 ? "n/a" : String.format("%.1f", (double) allocated / looks),
+		                  (double) scannedNanos / looks,
+		                  scanAllocated < 0 ? "n/a" : String.format("%.1f", (double) scanAllocated / looks),
+		                  disagreements);
+	}
+
+	/**
+	 * Steps a crowded 200x200 world of short-lived critters, first without
+	 * and then with recycling critters, twice over, and reports the time,
+	 * births and deaths, bytes allocated on the stepping thread, and
+	 * garbage collections per step.
+	 */
+	public static void benchmarkChurn() {
+		for (int round = 0; round < 4; round++) {
+			boolean recycling = round % 2 == 1;
+			CritterModel model = createModel(200, CritterMain.RANDOM_GRASS_PROB, 400, 10, 0.15,
+			                                 Arrays.<Class<?>>asList(Rock.class, Lemming.class, ArgumentCritter.class));
+			model.setRecyclingCritters(recycling);
+			final long[] churn = new long[1];
+			model.addListener(new SimulationAdapter() {
+				public void critterBorn(Class<?> species, int x, int y) { churn[0]++; }
+				public void critterDied(Class<?> species, int x, int y, SimulationListener.DeathCause cause,
+				                        boolean vacated) { churn[0]++; }
+			});
+			for (int i = 0; i < WARMUP_STEPS; i++) {
+				model.step();
+			}
+			churn[0] = 0;
+			long collections = 0;
+			long collectionMillis = 0;
+			for (java.lang.management.GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				collections -= gc.getCollectionCount();
+				collectionMillis -= gc.getCollectionTime();
+			}
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			for (int i = 0; i < CHURN_STEPS; i++) {
+				model.step();
+			}
+			double step = (System.nanoTime() - start) / 1e6 / CHURN_STEPS;
+			allocated = allocatedBytes() - allocated;
+			for (java.lang.management.GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				collections += gc.getCollectionCount();
+				collectionMillis += gc.getCollectionTime();
+			}
+			System.out.printf("churn, %s: %.3f ms/step, %.0f births+deaths/step, %s KB/step, "
+			                  + "%d collections (%d ms) per 1000 steps%n",
+			                  recycling ? "recycling" : "not recycling", step, (double) churn[0] / CHURN_STEPS,
+			                  allocated < 0 ? "n/a" : String.format("%.1f", allocated / 1024.0 / CHURN_STEPS),
+			                  collections * 1000 / CHURN_STEPS, collectionMillis * 1000 / CHURN_STEPS);
+		}
+	}
+
+	/**
+	 * @return a new, seeded model of predators, prey and rocks, which fight
+	 * and mate and starve all the time, for checking the engine against
+	 */
+	public static CritterModel createCheckModel() {
+		living.clear();
+		return createModel(CHECK_SIZE, CritterMain.RANDOM_GRASS_PROB, CHECK_SIZE * CHECK_SIZE / 10,
+		                   CritterMain.HUNGER_LIMIT, 0.15,
+		                   Arrays.<Class<?>>asList(PreyCritter.class, PredatorCritter.class, Rock.class));
+	}
+
+	/**
+	 * Steps a world of predators and prey and, after every step with a
+	 * fight, checks what each living predator and prey sees with
+	 * getNeighborhood() against a scan of the positions around it.
+	 * @return the number of steps with fights where some neighborhood is
+	 * wrong
+	 * @param tileSize the tile size to step the world with, or 0 to step it
+	 * in one piece
+	 */
+	public static int checkNeighborhoods(int tileSize) {
+		CritterModel model = createCheckModel();
+		model.setTileSize(tileSize);
+		final int[] fights = new int[1];
+		model.addListener(new SimulationAdapter() {
+			public void critterFought(int winnerX, int winnerY, int loserX, int loserY) { fights[0]++; }
+		});
+		int checked = 0;
+		int mismatches = 0;
+		for (int i = 0; i < CHECK_STEPS; i++) {
+			fights[0] = 0;
+			model.step();
+			if (fights[0] == 0) {
+				continue;
+			}
+			checked++;
+			boolean wrong = false;
+			for (Critter critter : living) {
+				for (int radius : CHECK_RADII) {
+					if (!checkNeighborhood(model, critter.info, radius)) {
+						wrong = true;
+					}
+				}
+			}
+			if (wrong) {
+				mismatches++;
+			}
+		}
+		System.out.printf("neighborhoods, %s: %d of %d steps with fights have a wrong neighborhood%n",
+		                  tileSize == 0 ? "untiled" : "tile size " + tileSize, mismatches, checked);
+		return mismatches;
+	}
+
+	/**
+	 * @return true iff the neighborhood of the given critter has the
+	 * critters, grass and empty positions that the model has around it
+	 * @param model the world the critter is in
+	 * @param info the critter's info
+	 * @param radius the radius of the neighborhood
+	 */
+	private static boolean checkNeighborhood(CritterModel model, CritterInfo info, int radius) {
+		Neighborhood neighborhood = info.getNeighborhood(radius);
+		int width = model.getWidth();
+		int height = model.getHeight();
+		for (int i = 0; i < neighborhood.getNumCritters(); i++) {
+			int x = Math.floorMod(info.getX() + neighborhood.getCritterDx(i), width);
+			int y = Math.floorMod(info.getY() + neighborhood.getCritterDy(i), height);
+			if (!model.getGlyphAt(x, y).equals(neighborhood.getCritter(i))) {
+				return false;
+			}
+		}
+		long critters = 0;
+		long grass = 0;
+		long positions = 0;
+		for (int dx = -radius; dx <= radius; dx++) {
+			for (int dy = -radius; dy <= radius; dy++) {
+				if (dx == 0 && dy == 0) {
+					continue;
+				}
+				String glyph = model.getGlyphAt(Math.floorMod(info.getX() + dx, width),
+				                                Math.floorMod(info.getY() + dy, height));
+				if (glyph.equals(CritterModel.GRASS_SYMBOL)) {
+					grass++;
+				} else if (!glyph.equals(CritterModel.EMPTY_SYMBOL)) {
+					critters++;
+				}
+				positions++;
+			}
+		}
+		return neighborhood.getNumPositions() == positions && neighborhood.getNumCritters() == critters
+		       && neighborhood.getNumGrass() == grass;
+	}
+
+	/**
+	 * Steps a world of predators and prey with an event log attached, then
+	 * replays the log and checks it against the world after every step.
+	 * @return the number of steps where the replay doesn't match the world
+	 * @param tileSize the tile size to step the world with, or 0 to step it
+	 * in one piece
+	 * @throws IOException if writing or reading the log fails
+	 */
+	public static int checkReplay(int tileSize) throws IOException {
+		CritterModel model = createCheckModel();
+		model.setTileSize(tileSize);
+		List<String> boards = new ArrayList<String>();
+		File file = File.createTempFile("critters", ".log");
+		try {
+			EventLogWriter writer = new EventLogWriter(model, file, EventLogWriter.DEFAULT_KEYFRAME_INTERVAL);
+			boards.add(describeBoard(model));
+			for (int i = 0; i < CHECK_STEPS; i++) {
+				model.step();
+				boards.add(describeBoard(model));
+			}
+			writer.close();
+			int mismatches = 0;
+			EventLogReplay replay = new EventLogReplay(file);
+			try {
+				for (int step = 0; step <= CHECK_STEPS; step++) {
+					if (step > 0) {
+						replay.stepForward();
+					}
+					if (!describeBoard(replay).equals(boards.get(step))) {
+						mismatches++;
+					}
+				}
+			} finally {
+				replay.close();
+			}
+			System.out.printf("replay, %s: %d of %d steps don't match the world%n",
+			                  tileSize == 0 ? "untiled" : "tile size " + tileSize, mismatches, CHECK_STEPS + 1);
+			return mismatches;
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return the species name and grass of every position of the given
+	 * world, one line per column
+	 * @param model the world
+	 */
+	private static String describeBoard(CritterModel model) {
+		StringBuilder board = new StringBuilder();
+		for (int x = 0; x < model.getWidth(); x++) {
+			for (int y = 0; y < model.getHeight(); y++) {
+				Class<?> species = model.getSpeciesAt(x, y);
+				board.append(species == null ? "-" : species.getName()).append(model.hasGrassAt(x, y) ? '*' : ' ');
+			}
+			board.append('\n');
+		}
+		return board.toString();
+	}
+
+	/**
+	 * @return the species name and grass of every position of the given
+	 * replay at its current step, as describeBoard(CritterModel) has them
+	 * @param replay the replay
+	 */
+	private static String describeBoard(EventLogReplay replay) {
+		StringBuilder board = new StringBuilder();
+		for (int x = 0; x < replay.getWidth(); x++) {
+			for (int y = 0; y < replay.getHeight(); y++) {
+				String species = replay.getSpeciesAt(x, y);
+				board.append(species == null ? "-" : species).append(replay.hasGrassAt(x, y) ? '*' : ' ');
+			}
+			board.append('\n');
+		}
+		return board.toString();
+	}
+
+	/**
+	 * @return a new instance of the given Critter class created the way the
+	 * model used to: reflectively, rediscovering the constructor and its
+	 * parameter types on every call
+	 * @param type the Critter class to instantiate
+	 * @param rand the source of the constructor's random arguments
+	 */
+	private static Critter newInstanceReflectively(Class<?> type, Random rand) throws Exception {
+		Constructor<?> ctor = type.getConstructors()[0];
+		Class<?>[] types = ctor.getParameterTypes();
+		Object[] args = new Object[types.length];
+		for (int i = 0; i < types.length; i++) {
+			if (types[i].equals(int.class)) {
+				args[i] = rand.nextInt();
+			} else if (types[i].equals(double.class)) {
+				args[i] = rand.nextDouble();
+			} else if (types[i].equals(boolean.class)) {
+				args[i] = rand.nextBoolean();
+			}
+		}
+		return (Critter) ctor.newInstance(args);
+	}
+
+	/**
+	 * Compares the throughput of creating critters reflectively against
+	 * creating them through a CritterFactory.
+	 * @param type the Critter class to instantiate
+	 */
+	public static void benchmarkInstantiation(Class<?> type) throws Exception {
+		Random rand = new Random(SEED);
+		CritterFactory factory = new CritterFactory(type);
+		// Run each path twice and report the second run, after warm-up.
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < INSTANTIATIONS; i++) {
+				newInstanceReflectively(type, rand);
+			}
+			double reflective = INSTANTIATIONS / ((System.nanoTime() - start) / 1e9);
+			start = System.nanoTime();
+			for (int i = 0; i < INSTANTIATIONS; i++) {
+				factory.newInstance(rand);
+			}
+			double handle = INSTANTIATIONS / ((System.nanoTime() - start) / 1e9);
+			if (round == 1) {
+				System.out.printf("instantiate %s: reflective %.2f M/s, factory %.2f M/s%n",
+				                  type.getSimpleName(), reflective / 1e6, handle / 1e6);
+			}
+		}
+	}
+
+	/**
+	 * Runs one configuration of the suite and prints a row of the results:
+	 * the time per step(), per grass propagation, spent repopulating per
+	 * step, and per toString(), and the bytes allocated per step on the
+	 * stepping thread.
+	 * @param size the width and height of the world
+	 * @param initialGrassRatio the initial ratio of grass to not-grass
+	 * @param mix the name of the species mix
+	 * @param roster the species in the mix
+	 */
+	public static void benchmarkSuiteConfiguration(int size, double initialGrassRatio, String mix,
+	                                               List<Class<?>> roster) {
+		long cells = (long) size * size;
+		int steps = (int) Math.max(3, Math.min(MEASURED_STEPS, SUITE_CELL_STEPS / cells));
+		CritterModel model = createModel(size, CritterMain.RANDOM_GRASS_PROB,
+		                                 (int) Math.max(1, cells / SUITE_CELLS_PER_CRITTER),
+		                                 CritterMain.HUNGER_LIMIT, initialGrassRatio, roster);
+		for (int i = 0; i < Math.min(WARMUP_STEPS, steps); i++) {
+			model.step();
+		}
+		// The profiler is only used for the time spent repopulating, which
+		// happens in the middle of a step.
+		StepProfiler profiler = new StepProfiler();
+		model.setProfiler(profiler);
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < steps; i++) {
+			model.step();
+		}
+		double step = (System.nanoTime() - start) / 1e6 / steps;
+		allocated = allocatedBytes() - allocated;
+		model.setProfiler(null);
+		double populate = profiler.getPhaseTotalNanos()[StepProfiler.Phase.POPULATE_WORLD.ordinal()] / 1e6 / steps;
+		start = System.nanoTime();
+		for (int i = 0; i < steps; i++) {
+			model.getGrassEngine().propagate();
+		}
+		double propagate = (System.nanoTime() - start) / 1e6 / steps;
+		int renders = Math.max(1, steps / 10);
+		start = System.nanoTime();
+		for (int i = 0; i < renders; i++) {
+			model.toString();
+		}
+		double render = (System.nanoTime() - start) / 1e6 / renders;
+		System.out.printf("%5d %6.2f %-20s %10.3f %10.3f %10.3f %10.3f %12s%n", size, initialGrassRatio, mix,
+		                  step, propagate, populate, render,
+		                  allocated < 0 ? "n/a" : String.format("%.1f", allocated / 1024.0 / steps));
+	}
+
+	/**
+	 * Runs the suite over every combination of the given sizes, the grass
+	 * ratios, and the species mixes.
+	 * @param sizes the world sizes
+	 */
+	public static void benchmarkSuite(int[] sizes) {
+		String[] mixes = { "rock+lemming", "rock+lemming+heavy" };
+		List<List<Class<?>>> rosters = new ArrayList<List<Class<?>>>();
+		rosters.add(Arrays.<Class<?>>asList(Rock.class, Lemming.class));
+		rosters.add(Arrays.<Class<?>>asList(Rock.class, Lemming.class, HeavyCritter.class));
+		System.out.printf("%5s %6s %-20s %10s %10s %10s %10s %12s%n", "size", "grass", "species",
+		                  "step ms", "grass ms", "repop ms", "toString", "alloc KB/st");
+		for (int size : sizes) {
+			for (double ratio : SUITE_GRASS_RATIOS) {
+				for (int i = 0; i < mixes.length; i++) {
+					benchmarkSuiteConfiguration(size, ratio, mixes[i], rosters.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes allocated so far by the current thread, or
+	 * -1 if the JVM can't tell us
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+			if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+				return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("suite")) {
+			int[] sizes = SUITE_SIZES;
+			if (args.length > 1) {
+				sizes = new int[args.length - 1];
+				for (int i = 1; i < args.length; i++) {
+					sizes[i - 1] = Integer.parseInt(args[i]);
+				}
+			}
+			benchmarkSuite(sizes);
+			return;
+		}
+		if (args.length > 1 && args[0].equals("mapped")) {
+			benchmarkMappedWorld(Integer.parseInt(args[1]), args.length > 2 ? new File(args[2]) : null);
+			return;
+		}
+		if (args.length > 1 && args[0].equals("chunked")) {
+			benchmarkChunkedWorld(Integer.parseInt(args[1]));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("check")) {
+			int failures = checkReplay(0) + checkReplay(CHECK_TILE_SIZE)
+			               + checkNeighborhoods(0) + checkNeighborhoods(CHECK_TILE_SIZE);
+			if (failures > 0) {
+				throw new IllegalStateException(failures + " checked steps failed");
+			}
+			return;
+		}
+		if (args.length > 0 && args[0].equals("churn")) {
+			benchmarkChurn();
+			return;
+		}
+		if (args.length > 0 && args[0].equals("neighborhood")) {
+			int[] radii = NEIGHBORHOOD_RADII;
+			if (args.length > 1) {
+				radii = new int[args.length - 1];
+				for (int i = 1; i < args.length; i++) {
+					radii[i - 1] = Integer.parseInt(args[i]);
+				}
+			}
+			for (int radius : radii) {
+				benchmarkNeighborhood(radius);
+			}
+			return;
+		}
+		benchmarkInstantiation(Lemming.class);
+		benchmarkInstantiation(ArgumentCritter.class);
+		benchmarkSparseWorld();
+		benchmarkRepopulatingWorld();
+	}
+}
@@ -0,0 +1,138 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.Random;
+
+/**
+ * A CritterFactory creates new instances of a single species of Critter.
+ * All of the reflective work---finding the constructor, checking that we can
+ * call it, and working out what kind of random value each of its parameters
+ * receives---happens once when the factory is built, so creating a critter
+ * is a direct MethodHandle invocation.
+ *
+ * As before, constructor parameters of primitive types receive a random
+ * value in their range and parameters of object types receive null.
+ */
+public class CritterFactory {
+	// The kinds of random arguments, one per primitive type.
+	private static final int NULL = 0;
+	private static final int INT = 1;
+	private static final int LONG = 2;
+	private static final int CHAR = 3;
+	private static final int SHORT = 4;
+	private static final int BYTE = 5;
+	private static final int DOUBLE = 6;
+	private static final int FLOAT = 7;
+	private static final int BOOLEAN = 8;
+
+	private Class<?> type;
+	private MethodHandle ctor;
+	private int[] argumentKinds;
+
+	/**
+	 * Constructs a new factory for the given species.
+	 * @param type the Critter class to instantiate; we assume that it is a
+	 * subclass of Critter with a single public constructor
+	 */
+	public CritterFactory(Class<?> type) {
+		this.type = type;
+		if (Modifier.isAbstract(type.getModifiers())) {
+			throw new IllegalArgumentException(type + " is abstract!");
+		}
+		Constructor<?> constructor = type.getConstructors()[0];
+		Class<?>[] types = constructor.getParameterTypes();
+		this.argumentKinds = new int[types.length];
+		for (int i = 0; i < types.length; i++) {
+			argumentKinds[i] = kindOf(types[i]);
+		}
+		MethodHandle handle;
+		try {
+			// Our own lookup, since critters needn't be public classes: the
+			// default package's classes can make each other.
+			handle = MethodHandles.lookup().unreflectConstructor(constructor);
+		} catch (IllegalAccessException ex) {
+			throw new IllegalArgumentException(type + " is not accessible!");
+		}
+		if (types.length == 0) {
+			this.ctor = handle.asType(MethodType.methodType(Critter.class));
+		} else {
+			this.ctor = handle.asSpreader(Object[].class, types.length)
+			                  .asType(MethodType.methodType(Critter.class, Object[].class));
+		}
+	}
+
+	/** @return the species this factory creates */
+	public Class<?> getType() { return type; }
+
+	/**
+	 * @return a new instance of this factory's species
+	 * @param rand the source of the constructor's random arguments
+	 */
+	public Critter newInstance(Random rand) {
+		try {
+			if (argumentKinds.length == 0) {
+				return (Critter) ctor.invokeExact();
+			} else {
+				return (Critter) ctor.invokeExact(createRandomArguments(rand));
+			}
+		} catch (Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			throw new IllegalArgumentException("Instantiating " + type + " gave an exception!\n" + ex.toString());
+		}
+	}
+
+	/**
+	 * @return an array of random arguments for the constructor, in
+	 * particular, primitive types receive a random value in their range
+	 * and object types receive null
+	 * @param rand the source of randomness
+	 */
+	private Object[] createRandomArguments(Random rand) {
+		Object[] ret = new Object[argumentKinds.length];
+		for (int i = 0; i < argumentKinds.length; i++) {
+			switch (argumentKinds[i]) {
+				case INT: ret[i] = rand.nextInt(); break;
+				case LONG: ret[i] = rand.nextLong(); break;
+				case CHAR: ret[i] = (char) rand.nextInt(65536); break;
+				case SHORT: ret[i] = (short) (rand.nextInt(65536) - 65536/2); break;
+				case BYTE: ret[i] = (byte) (rand.nextInt(128) - 128/2); break;
+				case DOUBLE: ret[i] = rand.nextDouble(); break;
+				case FLOAT: ret[i] = rand.nextFloat(); break;
+				case BOOLEAN: ret[i] = rand.nextBoolean(); break;
+				default: ret[i] = null; break;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the kind of random argument a parameter of the given type receives
+	 * @param type the parameter type
+	 */
+	private static int kindOf(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return NULL;
+		} else if (type.equals(int.class)) {
+			return INT;
+		} else if (type.equals(long.class)) {
+			return LONG;
+		} else if (type.equals(char.class)) {
+			return CHAR;
+		} else if (type.equals(short.class)) {
+			return SHORT;
+		} else if (type.equals(byte.class)) {
+			return BYTE;
+		} else if (type.equals(double.class)) {
+			return DOUBLE;
+		} else if (type.equals(float.class)) {
+			return FLOAT;
+		} else if (type.equals(boolean.class)) {
+			return BOOLEAN;
+		} else {
+			return NULL;
+		}
+	}
+}
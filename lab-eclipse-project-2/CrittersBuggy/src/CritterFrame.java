@@ -1,7 +1,6 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.util.Map;
-import java.util.Set;
+import java.io.File;
 import javax.swing.*;
 import javax.swing.event.*;
 
@@ -10,15 +9,39 @@ import javax.swing.event.*;
  * the CritterPanel that renders the world along with buttons and other widgits
  * that allow the user to control stepping as well as get additional
  * info about the current simulation.
+ *
+ * The simulation itself runs on a SimulationThread; the frame periodically
+ * renders the latest snapshot that thread has published.  The world scrolls
+ * and zooms, so even very large worlds fit on screen.  Next to it, a
+ * PopulationChart plots the history of the populations and the grass.
  */
 
 public class CritterFrame extends JFrame {
 	private static final long serialVersionUID = -4250377699984602669L;
+	// The delay between refreshes of the display, in milliseconds.
+	private static final int REFRESH_DELAY = 30;
+	// The largest the world view starts out, in pixels; bigger worlds scroll.
+	private static final int MAX_VIEW_SIZE = 800;
+	// The number of steps of population history kept in memory for the chart.
+	private static final int HISTORY_ROWS = 1 << 16;
+	private static final int CHART_WIDTH = 320;
+	private static final int CHART_HEIGHT = 200;
 	private CritterModel model;
 	private CritterPanel critterPanel;
-	private Timer timer;
+	private SnapshotBuffer snapshots;
+	private SimulationThread simulation;
+	private Timer refreshTimer;
+	private int lastRenderedStep;
+	private int framesSinceSample;
+	private long sampleStart;
+	private double framesPerSecond;
 	private JLabel stepsCountLabel;
+	private JButton runButton;
+	private JButton stepButton;
+	private boolean failureReported;
 	private JLabel[] critterCounts;
+	private PopulationRecorder recorder;
+	private PopulationChart chart;
 	
 	/** @return the newly initialized bottom panel of the frame. */ 
 	private JPanel initializeBottomPanel() {
@@ -36,23 +59,23 @@ public class CritterFrame extends JFrame {
 		timerSlider.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				JSlider slider = (JSlider) e.getSource();
-				timer.setDelay(slider.getValue());
+				simulation.setDelay(slider.getValue());
 			}
 		});
 		panel.add(timerSlider);
 		panel.add(Box.createVerticalGlue());
 		
 		// Continuous step button
-		final JButton runButton = new JButton("Run!");
+		runButton = new JButton("Run!");
 		runButton.setMnemonic('R');
 		runButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				if (!timer.isRunning()) {
-					timer.start();
+				if (!simulation.isRunning()) {
+					simulation.setRunning(true);
 					runButton.setText("Stop!");
 					runButton.repaint();
 				} else {
-					timer.stop();
+					simulation.setRunning(false);
 					runButton.setText("Run!");
 					runButton.repaint();
 				}
@@ -62,11 +85,11 @@ public class CritterFrame extends JFrame {
 		panel.add(Box.createVerticalGlue());
 		
 		// Single step button
-		JButton stepButton = new JButton("Step!");
+		stepButton = new JButton("Step!");
 		stepButton.setMnemonic('S');
 		stepButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				if (!timer.isRunning()) {
+				if (!simulation.isRunning()) {
 					stepOnce();
 				}
 			}
@@ -91,6 +114,34 @@ public class CritterFrame extends JFrame {
 		panel.add(repopCheckbox);
 		panel.add(Box.createVerticalGlue());
 		
+		// Turbo checkbox
+		JCheckBox turboCheckbox = new JCheckBox("Turbo", false);
+		turboCheckbox.addItemListener(new ItemListener() {
+			public void itemStateChanged(ItemEvent e) {
+				JCheckBox cb = (JCheckBox) e.getItem();
+				simulation.setTurbo(cb.isSelected());
+			}
+		});
+		panel.add(turboCheckbox);
+		panel.add(Box.createVerticalGlue());
+		
+		// Zoom buttons
+		JButton zoomInButton = new JButton("+");
+		zoomInButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				critterPanel.zoomIn();
+			}
+		});
+		panel.add(zoomInButton);
+		JButton zoomOutButton = new JButton("-");
+		zoomOutButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				critterPanel.zoomOut();
+			}
+		});
+		panel.add(zoomOutButton);
+		panel.add(Box.createVerticalGlue());
+		
 		return panel;
 	}
 	
@@ -105,6 +156,8 @@ public class CritterFrame extends JFrame {
 			panel.add(Box.createVerticalGlue());
 		}
 		updateCountsLabels();
+		chart = new PopulationChart(recorder, CHART_WIDTH, CHART_HEIGHT);
+		panel.add(chart);
 		return panel;
 	}
 	
@@ -115,49 +168,132 @@ public class CritterFrame extends JFrame {
 	 * @param model the model this frame renders
 	 */
 	public CritterFrame(int width, int height, final CritterModel model) {
+		this(model, new SimulationThread(model, new SnapshotBuffer(model)));
+	}
+	
+	/**
+	 * Constructs a new CritterFrame that steps the given model on the given
+	 * thread, which it starts.
+	 * @param model the model this frame renders
+	 * @param simulation the unstarted thread to step the model on
+	 */
+	public CritterFrame(final CritterModel model, SimulationThread simulation) {
 		setTitle("CSC 207 (Fall 2015) Critter Zoo!");
 		setDefaultCloseOperation(EXIT_ON_CLOSE);
 		this.model = model;
-		this.critterPanel = new CritterPanel(model);
-		timer = new Timer(1000, new ActionListener() {
+		this.snapshots = simulation.getSnapshots();
+		this.critterPanel = new CritterPanel(snapshots);
+		this.simulation = simulation;
+		this.recorder = new PopulationRecorder(model, HISTORY_ROWS);
+		simulation.setDelay(250);
+		this.lastRenderedStep = model.getNumSteps();
+		refreshTimer = new Timer(REFRESH_DELAY, new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				stepOnce();
+				refresh();
 			}
 		});
-		timer.setInitialDelay(0);
 		
-		add(critterPanel, BorderLayout.CENTER);
+		JScrollPane scrollPane = new JScrollPane(critterPanel);
+		Dimension size = critterPanel.getPreferredSize();
+		scrollPane.getViewport().setPreferredSize(new Dimension(Math.min(size.width, MAX_VIEW_SIZE),
+		                                                        Math.min(size.height, MAX_VIEW_SIZE)));
+		add(scrollPane, BorderLayout.CENTER);
 		add(initializeBottomPanel(), BorderLayout.SOUTH);
 		add(initializeRightPanel(), BorderLayout.EAST);
+		simulation.start();
+		refreshTimer.start();
 	}
 	
-	/** Updates the label that displays the number of steps taken so far. */
+	/**
+	 * Updates the label that displays the number of steps taken so far along
+	 * with the current steps and frames per second.
+	 */
 	public void updateStepsLabel() {
-		stepsCountLabel.setText("Steps: " + model.getNumSteps());
+		int steps;
+		synchronized (snapshots) {
+			steps = snapshots.getFront().getNumSteps();
+		}
+		stepsCountLabel.setText(String.format("Steps: %d (%.0f steps/s, %.0f fps)",
+		                                      steps, simulation.getStepsPerSecond(), framesPerSecond));
 		stepsCountLabel.repaint();
 	}
 	
 	/** Updates the label that displays the populations of each species. */
 	public void updateCountsLabels() {
-		Map<Class<?>, Integer> counts = model.getCritterCounts();
-		Set<Class<?>> species = counts.keySet();
 		for (int i = 0; i < critterCounts.length; i++) {
 			critterCounts[i].setText("");
 		}
-		int i = 0;
-		for (Class<?> type : species) {
-			critterCounts[i++].setText(type.getName() + ": " + counts.get(type));
+		synchronized (snapshots) {
+			RenderSnapshot snapshot = snapshots.getFront();
+			for (int i = 0; i < snapshot.getNumSpecies(); i++) {
+				critterCounts[i].setText(snapshot.getSpeciesName(i) + ": " + snapshot.getSpeciesCount(i));
+			}
 		}
 		if (critterCounts.length > 0) {
 			critterCounts[0].getParent().repaint();
 		}
 	}
 	
-	/** Steps the simulation once and renders the model to the frame. */
+	/**
+	 * Checkpoints the model to the given file every so many steps; see
+	 * SimulationThread.setCheckpointing().
+	 * @param file the checkpoint file, or null to stop checkpointing
+	 * @param interval the number of steps between checkpoints
+	 */
+	public void setCheckpointing(File file, int interval) {
+		simulation.setCheckpointing(file, interval);
+	}
+	
+	/** @return the recorder that keeps the population history charted by this frame */
+	public PopulationRecorder getPopulationRecorder() {
+		return recorder;
+	}
+	
+	/** Asks the simulation to step once; the frame renders it when it is done. */
 	public void stepOnce() {
-		model.step();
-		updateStepsLabel();
-		updateCountsLabels();
-		critterPanel.repaint();
+		simulation.requestStep();
+	}
+	
+	/**
+	 * Renders the latest snapshot to the frame if the simulation has moved
+	 * on.  However many steps the simulation took since the last refresh,
+	 * the labels and the panel are updated at most once per refresh.
+	 */
+	private void refresh() {
+		if (simulation.getFailure() != null && !failureReported) {
+			reportFailure(simulation.getFailure());
+		}
+		int step;
+		synchronized (snapshots) {
+			step = snapshots.getFront().getNumSteps();
+		}
+		if (step != lastRenderedStep) {
+			lastRenderedStep = step;
+			framesSinceSample++;
+			updateStepsLabel();
+			updateCountsLabels();
+			chart.refresh();
+			critterPanel.refresh();
+		}
+		long now = System.nanoTime();
+		if (now - sampleStart >= 1000000000L) {
+			framesPerSecond = framesSinceSample * 1e9 / (now - sampleStart);
+			framesSinceSample = 0;
+			sampleStart = now;
+		}
+	}
+	
+	/**
+	 * Tells the user that the simulation stopped because a step failed, and
+	 * disables the controls that would step it.
+	 * @param failure what the step threw
+	 */
+	private void reportFailure(Throwable failure) {
+		failureReported = true;
+		runButton.setText("Run!");
+		runButton.setEnabled(false);
+		stepButton.setEnabled(false);
+		JOptionPane.showMessageDialog(this, "The simulation stopped: " + failure, "Simulation failed",
+		                              JOptionPane.ERROR_MESSAGE);
 	}
 }
\ No newline at end of file
@@ -4,6 +4,11 @@
  * the CritterInfo field of their critter (defined in the Critter class)
  * to make more informed decisions.  This field is updated by the
  * simulation at the beginning of each time step.
+ *
+ * Once a critter has died and been cleared from the world, its CritterInfo
+ * throws IllegalStateException and suicide() does nothing, even if the
+ * simulation reuses the critter for a newborn, which gets an info of its
+ * own.
  */
 public interface CritterInfo {
 	/** @return the current x-coordinate of the critter in the world. */
@@ -28,6 +33,18 @@ public interface CritterInfo {
 	 */
 	public String getNeighbor(Critter.Direction direction);
 	
+	/**
+	 * @return what the critter sees within the given radius: the square of
+	 * positions at most radius away along each axis, wrapping around the
+	 * world like getNeighbor() does but not past a border.  The same
+	 * Neighborhood is refilled on every call, so read it before calling
+	 * again.
+	 * @param radius how far to look, e.g., 1 for the eight surrounding
+	 * positions
+	 * @throws IllegalArgumentException if the radius is negative
+	 */
+	public Neighborhood getNeighborhood(int radius);
+
 	/**
 	 * @return the hunger level of the critter where 0 means that the
 	 * critter is not hungry at all.
@@ -15,6 +15,13 @@ public class CritterMain {
 	public static final int NUM_INITIAL_CRITTERS = 25;
 	public static final int NUM_ACTIVE_SPECIES = 8;
 	public static final double INITIAL_GRASS_RATIO = .15;
+	public static final int TERMINAL_FRAMES_PER_SECOND = 30;
+	public static final int CHECKPOINT_INTERVAL = 5000;
+	public static final int PROFILE_LOG_PERIOD = 5000;
+	public static final int MAX_OVERRUNS = 3;
+	public static final String CRITTER_INDEX = ".critter-index";
+	public static final int HISTORY_ROWS = 1 << 16;
+	public static final long EXIT_HALT_TIMEOUT = 10000;
 	
 	///// ======================================================= /////
 
@@ -32,42 +39,240 @@ public class CritterMain {
 
 	/**
 	 * @return an array of Class objects that correspond to subclasses of the
-	 * Critter class found in the given directory
+	 * Critter class found in the given directory, its subdirectories, and the
+	 * jars in them.  The classes are read without being loaded, and what was
+	 * found is remembered in the CRITTER_INDEX file in the directory.
 	 * @param dir the directory to search
 	 */
 	public static List<Class<?>> discoverCritters(File dir) {
-		List<Class<?>> classes = new ArrayList<Class<?>>();
-		String[] names = dir.list(new FilenameFilter() {
-			public boolean accept(File dir, String name) {
-				return name.endsWith(".class");
+		return new CritterScanner(new File(dir, CRITTER_INDEX)).scan(Collections.singletonList(dir));
+	}
+
+	/**
+	 * Runs the simulation without a GUI, drawing it to the terminal until the
+	 * program is killed or a step fails.
+	 * @param model the model to run
+	 * @param turbo true to run the simulation as fast as it goes
+	 * @param checkpoint the file to checkpoint the model to, or null
+	 */
+	public static void runHeadless(CritterModel model, boolean turbo, File checkpoint)
+			throws IOException, InterruptedException {
+		runHeadless(model, new SimulationThread(model, new SnapshotBuffer(model)), turbo, checkpoint);
+	}
+
+	/**
+	 * Runs the simulation without a GUI on the given, unstarted thread,
+	 * drawing it to the terminal until the program is killed or a step
+	 * fails.
+	 * @param model the model to run
+	 * @param simulation the thread to step the model on
+	 * @param turbo true to run the simulation as fast as it goes
+	 * @param checkpoint the file to checkpoint the model to, or null
+	 */
+	public static void runHeadless(CritterModel model, final SimulationThread simulation, boolean turbo,
+	                               File checkpoint) throws IOException, InterruptedException {
+		SnapshotBuffer snapshots = simulation.getSnapshots();
+		if (checkpoint != null) {
+			simulation.setCheckpointing(checkpoint, CHECKPOINT_INTERVAL);
+		}
+		simulation.setTurbo(turbo);
+		simulation.setDelay(turbo ? 0 : 1000 / TERMINAL_FRAMES_PER_SECOND);
+		final TerminalRenderer renderer = new TerminalRenderer(snapshots, System.out,
+		                                                       getTerminalSize("COLUMNS", model.getWidth()),
+		                                                       getTerminalSize("LINES", model.getHeight() + 1) - 1);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				haltForExit(simulation);
+				try {
+					renderer.close();
+				} catch (IOException ex) {
+					// Nothing left to do.
+				}
 			}
 		});
-		for (String name : names) {
-			name = name.substring(0, name.lastIndexOf(".class"));
-			// NOTE: we make the assumption that the fully-qualified class name
-			// coincides directly with the name of the file.  This is only true
-			// when the class is in the default package (i.e., has no qualifications).
-			Class<?> cls = null;
-			try {
-				cls = Class.forName(name);
-			} catch (ClassNotFoundException e) {
-				System.out.println("WARNING: class with non-trivial qualified name: " + name);
+		simulation.start();
+		simulation.setRunning(true);
+		// A failed step has already been reported; the last frame stays up.
+		while (simulation.getFailure() == null) {
+			StringBuilder status = new StringBuilder();
+			synchronized (snapshots) {
+				RenderSnapshot snapshot = snapshots.getFront();
+				status.append(String.format("Steps: %d (%.0f steps/s)", snapshot.getNumSteps(),
+				                            simulation.getStepsPerSecond()));
+				for (int i = 0; i < snapshot.getNumSpecies(); i++) {
+					status.append("  ").append(snapshot.getSpeciesName(i)).append(": ").append(snapshot.getSpeciesCount(i));
+				}
 			}
-			if (cls != null && isValidCritterClass(cls) && cls.getAnnotation(NoLoad.class) == null) {
-				classes.add(cls);
+			renderer.render(status.toString());
+			Thread.sleep(1000 / TERMINAL_FRAMES_PER_SECOND);
+		}
+	}
+
+	/**
+	 * Stops the given simulation from a shutdown hook, waiting up to
+	 * EXIT_HALT_TIMEOUT milliseconds for the step in progress, so that the
+	 * hook doesn't flush or close what the model writes to mid-step.
+	 * @param simulation the simulation
+	 */
+	private static void haltForExit(SimulationThread simulation) {
+		try {
+			if (!simulation.halt(EXIT_HALT_TIMEOUT)) {
+				System.err.println("WARNING: the simulation is still stepping; what it writes may be cut off");
 			}
+		} catch (InterruptedException ex) {
+			// Flush what there is anyway.
 		}
-		return classes;
 	}
 
-	public static void main(String[] args) {
-		String path = System.getProperty("user.dir");
-		List<Class<?>> species = discoverCritters(new File(path));
-		System.out.println("Loaded " + species.size() + " critters...");
-		CritterModel model = new CritterModel(WIDTH, HEIGHT, RANDOM_GRASS_PROB, HUNGER_LIMIT,
-		                                      species, NUM_INITIAL_CRITTERS, NUM_ACTIVE_SPECIES,
-														  INITIAL_GRASS_RATIO);
-		CritterFrame frame = new CritterFrame(WIDTH, HEIGHT, model);
+	/**
+	 * @return the given dimension of the terminal, as exported by the shell,
+	 * or the given default if it isn't known
+	 * @param variable the environment variable holding the dimension
+	 * @param defaultSize the default
+	 */
+	private static int getTerminalSize(String variable, int defaultSize) {
+		try {
+			return Integer.parseInt(System.getenv(variable));
+		} catch (NumberFormatException ex) {
+			return defaultSize;
+		}
+	}
+
+	/**
+	 * Has the given recorder spill to the given file, and export everything
+	 * it recorded to the file plus ".csv" when the program exits, once the
+	 * given simulation has stopped.
+	 * @param recorder the recorder
+	 * @param history the file
+	 * @param simulation the thread that steps the recorded model
+	 */
+	private static void recordHistory(final PopulationRecorder recorder, File history,
+	                                  final SimulationThread simulation) throws IOException {
+		recorder.spillTo(history);
+		final File csv = new File(history.getPath() + ".csv");
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				haltForExit(simulation);
+				try {
+					recorder.exportCsv(csv);
+				} catch (IOException ex) {
+					System.err.println("WARNING: could not export the population history: " + ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Records everything that happens in the given model to the given event
+	 * log, which is closed when the program exits, once the given
+	 * simulation has stopped.
+	 * @param model the model
+	 * @param log the file
+	 * @param simulation the thread that steps the model
+	 */
+	private static void logEvents(CritterModel model, File log, final SimulationThread simulation)
+			throws IOException {
+		final EventLogWriter writer = new EventLogWriter(model, log, EventLogWriter.DEFAULT_KEYFRAME_INTERVAL);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				haltForExit(simulation);
+				try {
+					writer.close();
+				} catch (IOException ex) {
+					System.err.println("WARNING: could not finish the event log: " + ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs the critter zoo.  With the argument --headless, the simulation is
+	 * drawn to the terminal instead of a window; adding --turbo runs it as
+	 * fast as it goes.  With --checkpoint FILE, the simulation is resumed
+	 * from FILE if it exists and is checkpointed to it every
+	 * CHECKPOINT_INTERVAL steps.  With --profile, each step is profiled; the
+	 * profile is available through JMX and summarized to standard error
+	 * every PROFILE_LOG_PERIOD milliseconds.  With --budget MILLIS, each call
+	 * to a critter's strategy may take at most MILLIS milliseconds, and
+	 * critters that overrun it MAX_OVERRUNS times die; the overruns of each
+	 * species are printed to standard error on exit.  With --history FILE,
+	 * the population history that doesn't fit in memory is spilled to FILE,
+	 * and the whole history is exported to FILE.csv on exit.  With --tiles
+	 * SIZE, critters are stepped in parallel tiles of SIZE x SIZE positions.
+	 * With --log FILE, everything that happens is recorded to the event log
+	 * FILE, with a keyframe every EventLogWriter.DEFAULT_KEYFRAME_INTERVAL
+	 * steps, for EventLogReplay to play back.
+	 * @param args the command-line arguments
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		List<String> options = Arrays.asList(args);
+		File checkpoint = null;
+		int i = options.indexOf("--checkpoint");
+		if (i >= 0 && i + 1 < options.size()) {
+			checkpoint = new File(options.get(i + 1));
+		}
+		CritterModel model;
+		if (checkpoint != null && checkpoint.exists()) {
+			model = CritterModel.restoreCheckpoint(checkpoint);
+			System.out.println("Resumed from " + checkpoint + " at step " + model.getNumSteps() + "...");
+		} else {
+			String path = System.getProperty("user.dir");
+			List<Class<?>> species = discoverCritters(new File(path));
+			System.out.println("Loaded " + species.size() + " critters...");
+			model = new CritterModel(WIDTH, HEIGHT, RANDOM_GRASS_PROB, HUNGER_LIMIT,
+			                         species, NUM_INITIAL_CRITTERS, NUM_ACTIVE_SPECIES,
+			                         INITIAL_GRASS_RATIO);
+		}
+		// Shutdown hooks stop this thread before they flush anything the
+		// model writes to.
+		final SimulationThread simulation = new SimulationThread(model, new SnapshotBuffer(model));
+		if (options.contains("--profile")) {
+			StepProfiler profiler = new StepProfiler();
+			profiler.register("main");
+			profiler.setLogging(System.err, PROFILE_LOG_PERIOD);
+			model.setProfiler(profiler);
+		}
+		i = options.indexOf("--budget");
+		if (i >= 0 && i + 1 < options.size()) {
+			final StrategyWatchdog watchdog = new StrategyWatchdog(Long.parseLong(options.get(i + 1)) * 1000000L,
+			                                                       MAX_OVERRUNS);
+			model.setWatchdog(watchdog);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					haltForExit(simulation);
+					for (String line : watchdog.getOverrunReport()) {
+						System.err.println(line);
+					}
+				}
+			});
+		}
+		i = options.indexOf("--tiles");
+		if (i >= 0 && i + 1 < options.size()) {
+			model.setTileSize(Integer.parseInt(options.get(i + 1)));
+		}
+		i = options.indexOf("--log");
+		if (i >= 0 && i + 1 < options.size()) {
+			logEvents(model, new File(options.get(i + 1)), simulation);
+		}
+		File history = null;
+		i = options.indexOf("--history");
+		if (i >= 0 && i + 1 < options.size()) {
+			history = new File(options.get(i + 1));
+		}
+		if (options.contains("--headless")) {
+			if (history != null) {
+				recordHistory(new PopulationRecorder(model, HISTORY_ROWS), history, simulation);
+			}
+			runHeadless(model, simulation, options.contains("--turbo"), checkpoint);
+			return;
+		}
+		CritterFrame frame = new CritterFrame(model, simulation);
+		if (checkpoint != null) {
+			frame.setCheckpointing(checkpoint, CHECKPOINT_INTERVAL);
+		}
+		if (history != null) {
+			recordHistory(frame.getPopulationRecorder(), history, simulation);
+		}
 		frame.pack();
 		frame.setVisible(true);
 		frame.repaint();
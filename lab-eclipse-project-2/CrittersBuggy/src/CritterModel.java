@@ -1,15 +1,15 @@
 import java.awt.Color;
 import java.awt.Point;
-import java.lang.reflect.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * The CritterModel is the object that represents the entire simulation.
@@ -25,14 +25,65 @@ public class CritterModel {
 	// The symbol used for an empty space in the world.
 	public static final String EMPTY_SYMBOL = " ";
 	
-	// Our random object for the simulation.
-	private static final Random RAND = new Random();
+	// How many random positions to try when placing a critter in a world
+	// with no index of free cells.
+	private static final int MAX_PLACEMENT_TRIES = 64;
+
+	/** The smallest tile size for setTileSize(). */
+	public static final int MIN_TILE_SIZE = TileStepper.MIN_SIZE;
+
+	/**
+	 * The number of stripes of the default grass engine.  Each stripe has
+	 * its own random stream, so this is fixed rather than the number of
+	 * processors: a seed gives the same world on every machine.
+	 */
+	public static final int DEFAULT_GRASS_STRIPES = 8;
 
-	private List<Class<?>> inactiveSpecies;
+	private SpeciesRegistry species;
+	// A copy of the counts of the active species as of the last step, for
+	// other threads; see getCritterCounts().
+	private volatile Map<Class<?>, Integer> counts;
+	// The ids of the species that are not active, waiting to be added.
+	private List<Integer> inactiveSpecies;
 	private List<ConcreteCritter> critters;
-	private ConcreteCritter[][] board;
-	private Map<Class<?>, Integer> critterCounts;
-	private int[][] grass;
+	private List<ConcreteCritter> deaths;
+	private Board board;
+	// The live critters by slot, the numbers the board holds them by; slot
+	// 0 is never used.  Slots of dead critters are reused.  Tile workers
+	// read it without the lock, so it is only replaced by a filled copy.
+	private volatile ConcreteCritter[] slots;
+	private int numSlots;
+	private int[] freeSlots;
+	private int numFreeSlots;
+	private final Object slotLock = new Object();
+	// The dead critters kept for reuse by the next babies, by species id,
+	// or null if critters aren't recycled; see setRecyclingCritters().
+	private List<List<ConcreteCritter>> recycled;
+	private CellSet freeCells;
+	// Where the live critters are by slot, for critters looking around
+	// themselves.  Only changed on the thread that steps the model, so
+	// tiles see it as of the start of their phase.
+	private SpatialIndex spatialIndex;
+	private CellBitmap changedCells;
+	// The positions where grass spawned while propagating, if anyone cares.
+	private CellBitmap grassSpawns;
+	private SimulationListener[] listeners;
+	private StepProfiler profiler;
+	private StrategyWatchdog watchdog;
+	// The strategy callbacks deferred until the watchdog runs them.
+	private List<PendingCallback> pendingCallbacks;
+	private GrassEngine grass;
+	// Applies the effects of stepping critters directly to the model, as
+	// the profiler, watchdog and tiles call for; see updateDirectContext().
+	private StepContext direct = new DirectContext();
+	// Steps the critters in tiles, or null to step them sequentially; see
+	// setTileSize().
+	private TileStepper tileStepper;
+	// The borders of the world, or null if it wraps around west to east;
+	// see setBorders().
+	private WorldBorders borders;
+	// Our random object for the simulation.
+	private SavableRandom rand;
 	private int width;
 	private int height;
 	private int numSteps;
@@ -40,7 +91,8 @@ public class CritterModel {
 	private int numActiveSpecies;
 	private int randomGrassProb;
 	private int hungerLimit;
-	private boolean repopulatingWorld;
+	// Volatile because the GUI may toggle it while the simulation runs.
+	private volatile boolean repopulatingWorld;
 
 	///// PUBLIC METHODS /////
 
@@ -59,13 +111,103 @@ public class CritterModel {
 	public CritterModel(int width, int height, int randomGrassProb, int hungerLimit,
 	                    List<Class<?>> critterTypes, int numInitial, int numActiveSpecies,
 							  double initialGrassRatio) {
+		this(width, height, randomGrassProb, hungerLimit, critterTypes, numInitial,
+		     numActiveSpecies, initialGrassRatio, new Random().nextLong());
+	}
+
+	/**
+	 * Constructs a new model whose random streams are seeded from the given
+	 * seed.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @param randomGrassProb the factor by which grass randomly spawns; larger
+	 * numbers means it is less likely for more grass to spawn.
+	 * @param hungerLimit the hunger count at which a Critter dies
+	 * @param critterTypes the types of critters to spawn in this simulation
+	 * @param numInitial the number of critters to spawn of each type
+	 * @param numActiveSpecies the max number of active species in the world
+	 * @param initialGrassRatio the initial ratio of grass to not-grass in the world.
+	 * @param seed the seed for the simulation's random streams
+	 */
+	public CritterModel(int width, int height, int randomGrassProb, int hungerLimit,
+	                    List<Class<?>> critterTypes, int numInitial, int numActiveSpecies,
+							  double initialGrassRatio, long seed) {
+		this(width, height, randomGrassProb, hungerLimit, critterTypes, numInitial, numActiveSpecies,
+		     initialGrassRatio, seed, new HeapBoard(width, height), null, true);
+	}
+
+	/**
+	 * Constructs a new model whose board and grass are kept in the given
+	 * storage, e.g., a MappedBoard and a MappedGrassEngine for a world too
+	 * big for the heap.  Only the live critters are kept on the heap: the
+	 * model keeps no index of the free positions, so it places new species
+	 * by picking random positions until it finds empty ones and should be
+	 * mostly empty.  For the same reason it can't be checkpointed, and if
+	 * it has more than Integer.MAX_VALUE positions, it can't track changes
+	 * or have listeners, since they number positions with ints.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @param randomGrassProb the factor by which grass randomly spawns; larger
+	 * numbers means it is less likely for more grass to spawn.
+	 * @param hungerLimit the hunger count at which a Critter dies
+	 * @param critterTypes the types of critters to spawn in this simulation
+	 * @param numInitial the number of critters to spawn of each type
+	 * @param numActiveSpecies the max number of active species in the world
+	 * @param initialGrassRatio the initial ratio of grass to not-grass in the world.
+	 * @param seed the seed for the simulation's random streams
+	 * @param board the board, which must be empty and sized for the world
+	 * @param grass the grass engine, which must be grass-free and sized for
+	 * the world
+	 */
+	public CritterModel(int width, int height, int randomGrassProb, int hungerLimit,
+	                    List<Class<?>> critterTypes, int numInitial, int numActiveSpecies,
+	                    double initialGrassRatio, long seed, Board board, GrassEngine grass) {
+		this(width, height, randomGrassProb, hungerLimit, critterTypes, numInitial, numActiveSpecies,
+		     initialGrassRatio, seed, board, grass, false);
+	}
+
+	/**
+	 * Constructs a new model; see the public constructors.
+	 * @param board the board, which must be empty and sized for the world
+	 * @param grass the grass engine, or null for a StripedGrassEngine of
+	 * DEFAULT_GRASS_STRIPES stripes seeded from the given seed
+	 * @param indexFreeCells whether to keep an index of the free positions
+	 */
+	private CritterModel(int width, int height, int randomGrassProb, int hungerLimit,
+	                     List<Class<?>> critterTypes, int numInitial, int numActiveSpecies,
+	                     double initialGrassRatio, long seed, Board board, GrassEngine grass,
+	                     boolean indexFreeCells) {
+		if (board.getWidth() != width || board.getHeight() != height) {
+			throw new IllegalArgumentException("The board is " + board.getWidth() + "x" + board.getHeight()
+			                                   + ", not " + width + "x" + height);
+		}
 		this.width = width;
 		this.height = height;
-		this.inactiveSpecies = critterTypes;
-		this.critterCounts = new HashMap<Class<?>, Integer>();
-		this.critters = new LinkedList<ConcreteCritter>();
-		this.board = new ConcreteCritter[width][height];
-		this.grass = new int[width][height];
+		this.species = new SpeciesRegistry(critterTypes);
+		this.inactiveSpecies = new ArrayList<Integer>();
+		for (int id = 0; id < species.size(); id++) {
+			inactiveSpecies.add(id);
+		}
+		this.critters = new ArrayList<ConcreteCritter>();
+		this.deaths = new ArrayList<ConcreteCritter>();
+		this.board = board;
+		this.slots = new ConcreteCritter[16];
+		this.numSlots = 1;
+		this.freeSlots = new int[16];
+		this.spatialIndex = new SpatialIndex(width, height);
+		setRecyclingCritters(true);
+		if (indexFreeCells) {
+			this.freeCells = new CellSet(width * height);
+			for (int cell = 0; cell < width * height; cell++) {
+				freeCells.add(cell);
+			}
+		}
+		this.listeners = new SimulationListener[0];
+		Random seeder = new Random(seed);
+		this.rand = new SavableRandom(seeder.nextLong());
+		long grassSeed = seeder.nextLong();
+		this.grass = grass != null ? grass : new StripedGrassEngine(width, height, randomGrassProb,
+		                                                            DEFAULT_GRASS_STRIPES, grassSeed);
 		this.numSteps = 0;
 		this.numInitial = numInitial;
 		this.numActiveSpecies = numActiveSpecies;
@@ -73,6 +215,7 @@ public class CritterModel {
 		this.hungerLimit = hungerLimit;
 		this.repopulatingWorld = true;
 		initializeWorld(initialGrassRatio);
+		publishCounts();
 	}
 
 	/** @return the number of steps so far taken in this simulation. */
@@ -90,10 +233,10 @@ public class CritterModel {
 	 * @param y the y-coordinate
 	 */
 	public String getGlyphAt(int x, int y) {
-		ConcreteCritter critter = board[x][y];
+		ConcreteCritter critter = critterAt(x, y);
 		if (critter != null) {
 			return critter.toString();
-		} else if (grass[x][y] > 0) {
+		} else if (grass.hasGrass(x, y)) {
 			return GRASS_SYMBOL;
 		} else {
 			return EMPTY_SYMBOL;
@@ -106,10 +249,10 @@ public class CritterModel {
 	 * @param y the y-coordinate
 	 */
 	public Color getColorAt(int x, int y) {
-		ConcreteCritter critter = board[x][y];
+		ConcreteCritter critter = critterAt(x, y);
 		if (critter != null) {
 			return critter.strategy.getColor();
-		} else if (grass[x][y] > 0) {
+		} else if (grass.hasGrass(x, y)) {
 			return Color.GREEN;
 		} else {
 			return null;
@@ -139,16 +282,317 @@ public class CritterModel {
 		return numActiveSpecies;
 	}
 	
-	/** @return a map of currently active species and their counts. */
+	/** @return the engine that owns the grass of this world. */
+	public GrassEngine getGrassEngine() {
+		return grass;
+	}
+
+	/**
+	 * Replaces the engine that owns the grass of this world.  The grass
+	 * currently in the world is carried over to the new engine.
+	 * @param engine the new grass engine; it must be empty and sized for
+	 * this world
+	 */
+	public void setGrassEngine(GrassEngine engine) {
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				if (grass.hasGrass(i, j)) {
+					engine.plant(i, j);
+				}
+			}
+		}
+		engine.setChangedCells(grassSpawns);
+		this.grass = engine;
+	}
+
+	/** @return true iff the model reuses the objects it keeps for dead critters */
+	public boolean isRecyclingCritters() {
+		return recycled != null;
+	}
+
+	/**
+	 * Sets whether the model keeps the objects behind dead critters, other
+	 * than their strategies, to reuse for babies of the same species.  On
+	 * by default.  Either way, the CritterInfo of a critter that is dead
+	 * and gone throws IllegalStateException, and a recycled critter gets a
+	 * new info, so an info kept past its critter's death never describes
+	 * another critter.
+	 * @param recycling true iff the model should recycle
+	 */
+	public void setRecyclingCritters(boolean recycling) {
+		if (!recycling) {
+			recycled = null;
+		} else if (recycled == null) {
+			recycled = new ArrayList<List<ConcreteCritter>>();
+			for (int id = 0; id < species.size(); id++) {
+				recycled.add(new ArrayList<ConcreteCritter>());
+			}
+		}
+	}
+
+	/**
+	 * Turns on or off tracking of the positions whose appearance may have
+	 * changed; see collectChangedCells().
+	 * @param tracking true iff the model should track changed positions
+	 */
+	public void setTrackingChanges(boolean tracking) {
+		if (tracking && (long) width * height > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Can't track the changes of a world with more than 2^31 positions");
+		}
+		if (tracking && changedCells == null) {
+			changedCells = new CellBitmap(width * height);
+		} else if (!tracking) {
+			changedCells = null;
+		}
+		updateGrassSpawns();
+	}
+
+	/**
+	 * Adds a listener to be notified of everything that happens as the model
+	 * steps.
+	 * @param listener the listener
+	 */
+	public void addListener(SimulationListener listener) {
+		if ((long) width * height > Integer.MAX_VALUE) {
+			throw new IllegalStateException("A world with more than 2^31 positions can't have listeners");
+		}
+		listeners = Arrays.copyOf(listeners, listeners.length + 1);
+		listeners[listeners.length - 1] = listener;
+		updateGrassSpawns();
+	}
+
+	/**
+	 * Removes a listener added with addListener().
+	 * @param listener the listener
+	 */
+	public void removeListener(SimulationListener listener) {
+		List<SimulationListener> remaining = new ArrayList<SimulationListener>(Arrays.asList(listeners));
+		remaining.remove(listener);
+		listeners = remaining.toArray(new SimulationListener[remaining.size()]);
+		updateGrassSpawns();
+	}
+
+	/**
+	 * Attaches a profiler that measures the phases of each step and the
+	 * strategy calls of each species.  Without one, nothing is measured.
+	 * @param profiler the profiler, or null to stop profiling
+	 */
+	public void setProfiler(StepProfiler profiler) {
+		if (this.profiler != null) {
+			removeListener(this.profiler);
+		}
+		this.profiler = profiler;
+		if (profiler != null) {
+			addListener(profiler);
+		}
+		updateDirectContext();
+	}
+
+	/**
+	 * Runs the strategy methods of the critters through the given watchdog,
+	 * which gives each call a time budget and falls back to a harmless result
+	 * for calls that overrun it.  Critters that overrun the budget
+	 * getMaxOverruns() times die.  Without a watchdog, which is the default,
+	 * strategies are called directly.
+	 *
+	 * So that the watchdog can run them in batches, each critter's move,
+	 * speed and food type are sampled once per step, all together, and the
+	 * onEat(), onWin(), onMate() and onDeath() callbacks of a step are run
+	 * together after everyone has moved.
+	 * @param watchdog the watchdog, or null to call strategies directly
+	 */
+	public void setWatchdog(StrategyWatchdog watchdog) {
+		if (watchdog != null && tileStepper != null) {
+			throw new IllegalStateException("A watchdog can't run critters stepped in tiles");
+		}
+		this.watchdog = watchdog;
+		this.pendingCallbacks = new ArrayList<PendingCallback>();
+		updateDirectContext();
+	}
+
+	/**
+	 * Steps the critters in parallel, in square tiles of the given size.
+	 * Each tile first samples the move, speed and food type of its critters
+	 * and then, for each speed, steps them: moves, fights, matings and all.
+	 * Only critters far enough from the border of their tile that nothing
+	 * they do can reach past it are stepped by their tile; the critters
+	 * near the borders, and so near other tiles, are sampled and stepped
+	 * afterwards on the calling thread, in critter order.  The world wraps
+	 * around, but no tile does, so critters whose step wraps are always
+	 * near a border.
+	 *
+	 * The tiles buffer everything that happens outside their own positions
+	 * --- listener notifications, deaths, births, callbacks, changes to the
+	 * free positions and the grass --- and replay it in tile order once
+	 * they are all done.  Each tile has its own random stream, reseeded from
+	 * the model's every step.  So a step gives the same results for a given
+	 * seed and tile size however many threads run it, but not the same
+	 * results as stepping sequentially, since critters go in a different
+	 * order.
+	 *
+	 * As with a watchdog, each critter's move, speed and food type are
+	 * sampled once per step.  Strategy callbacks always run on the calling
+	 * thread, but the constructors of babies and the sampling of critters
+	 * inside tiles run on worker threads, and the call latencies of a
+	 * profiler only cover the critters near borders.
+	 * @param tileSize the width and height of a tile, at least
+	 * MIN_TILE_SIZE, or 0 to step critters sequentially
+	 * @throws IllegalStateException if a watchdog is attached
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize == 0) {
+			this.tileStepper = null;
+			updateDirectContext();
+			return;
+		}
+		TileStepper stepper = new TileStepper(this, board, tileSize);
+		if (watchdog != null) {
+			throw new IllegalStateException("A watchdog can't run critters stepped in tiles");
+		}
+		this.tileStepper = stepper;
+		updateDirectContext();
+	}
+
+	/** @return the size of the tiles critters are stepped in, or 0 if they are stepped sequentially */
+	public int getTileSize() {
+		return tileStepper == null ? 0 : tileStepper.getTileSize();
+	}
+
+	/**
+	 * Makes the west and east edges of the world border on other worlds
+	 * instead of wrapping around to each other, e.g., for a band of a
+	 * DistributedSimulation.  A critter at either edge sees the glyphs in
+	 * the given arrays, indexed by y, beyond it; the caller keeps them up
+	 * to date between steps.  A critter that moves across an edge onto an
+	 * empty or grassy position leaves the world: it is reported dead with
+	 * cause MIGRATED and queued for takeEmigrants().  One that moves across
+	 * onto a critter stays where it is, so there are no fights or matings
+	 * across a border, and no babies are placed across one either.  Grass
+	 * still wraps around.  Borders are not saved in checkpoints.
+	 * @param west the glyphs beyond x = 0, or null to wrap around again
+	 * @param east the glyphs beyond x = width - 1, or null to wrap around again
+	 * @throws IllegalArgumentException if only one of the arrays is given,
+	 * they aren't as long as the world is high, or the world is less than 3
+	 * wide
+	 */
+	public void setBorders(String[] west, String[] east) {
+		if ((west == null) != (east == null)) {
+			throw new IllegalArgumentException("A world has borders on both sides or neither");
+		}
+		this.borders = west == null ? null : new WorldBorders(west, east, width, height);
+	}
+
+	/**
+	 * @return the critters that left the world across a border since the
+	 * last call, in the order they left; see setBorders()
+	 */
+	public List<Migrant> takeEmigrants() {
+		if (borders == null) {
+			return new ArrayList<Migrant>();
+		}
+		return borders.takeEmigrants();
+	}
+
+	/**
+	 * Adds a critter that crossed a border into this world; see
+	 * setBorders().  It lands on the edge it crossed at its y, or if that
+	 * is taken, on a random empty position next to it.  Its strategy is
+	 * re-instantiated through its public constructor, as in
+	 * restoreCheckpoint(), but it keeps its hunger and whether it has
+	 * mated.  Its species is activated if it isn't active.  Only call this
+	 * between steps.
+	 * @return true iff there was room for it
+	 * @param migrant the critter
+	 * @throws IllegalArgumentException if its species isn't in the roster
+	 */
+	public boolean immigrate(Migrant migrant) {
+		int id = species.idOf(migrant.getSpecies());
+		if (id < 0) {
+			throw new IllegalArgumentException(migrant.getSpecies() + " is not in this world's roster");
+		}
+		int x = migrant.getDirection() == Critter.Direction.EAST ? 0 : width - 1;
+		int y = migrant.getY();
+		if (critterAt(x, y) != null) {
+			Point pos = findRandomEmptyAdjacentPosition(x, y, rand);
+			if (pos == null) {
+				return false;
+			}
+			x = pos.x;
+			y = pos.y;
+		}
+		if (!species.isActive(id)) {
+			species.activate(id);
+			inactiveSpecies.remove(Integer.valueOf(id));
+		}
+		ConcreteCritter critter = createCritter(id, x, y);
+		critter.state.hunger = migrant.getHunger();
+		critter.state.hasMated = migrant.hasMated();
+		addToWorld(critter);
+		publishCounts();
+		return true;
+	}
+
+	/**
+	 * @return the species of the critter at position (x, y) in the world, or
+	 * null if there is none
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public Class<?> getSpeciesAt(int x, int y) {
+		ConcreteCritter critter = critterAt(x, y);
+		return critter == null ? null : critter.strategy.getClass();
+	}
+
+	/**
+	 * @return true iff position (x, y) in the world has grass
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public boolean hasGrassAt(int x, int y) {
+		return grass.hasGrass(x, y);
+	}
+
+	/**
+	 * @return the set of positions, as indices x * height + y, whose glyph or
+	 * color may have changed since the set was last cleared.  That is every
+	 * position a critter or grass has appeared on or disappeared from, plus
+	 * the position of every live critter, since a critter's glyph and color
+	 * are up to its strategy.  The caller should clear the set once it has
+	 * consumed it.  Requires that change tracking is on.
+	 */
+	public CellBitmap collectChangedCells() {
+		for (ConcreteCritter critter : critters) {
+			changedCells.add(critter.getX() * height + critter.getY());
+		}
+		return changedCells;
+	}
+
+	/**
+	 * @return a map of the active species and their counts, in the order
+	 * they became active, as of the end of the last step or immigrate().
+	 * The map is a read-only copy, so any thread may read it while the
+	 * model steps on.
+	 */
 	public Map<Class<?>, Integer> getCritterCounts() {
-		return critterCounts;
+		return counts;
+	}
+
+	/** @return the registry of this simulation's species */
+	public SpeciesRegistry getSpeciesRegistry() {
+		return species;
 	}
 
 	/** Steps the world forward one time step. */
 	public void step() {
 		stepCritters();
+		long time = profiler == null ? 0 : System.nanoTime();
 		propogateGrass();
+		lap(StepProfiler.Phase.PROPAGATE_GRASS, time);
 		numSteps++;
+		publishCounts();
+		for (SimulationListener listener : listeners) {
+			listener.stepEnded(numSteps);
+		}
 	}
 
 	/**
@@ -156,15 +600,16 @@ public class CritterModel {
 	 * printing
 	 */
 	public String toString() {
-		StringBuffer ret = new StringBuffer();
+		StringBuilder ret = new StringBuilder((width + 1) * height + 16);
 		ret.append("Steps = ");
 		ret.append(numSteps);
 		ret.append("\n");
 		for (int j = 0; j < height; j++) {
 			for (int i = 0; i < width; i++) {
-				if (board[i][j] != null) {
-					ret.append(board[i][j].toString());
-				} else if (grass[i][j] > 0) {
+				ConcreteCritter critter = critterAt(i, j);
+				if (critter != null) {
+					ret.append(critter.toString());
+				} else if (grass.hasGrass(i, j)) {
 					ret.append(GRASS_SYMBOL);
 				} else {
 					ret.append(".");
@@ -175,83 +620,258 @@ public class CritterModel {
 		return ret.toString();
 	}
 
+	/**
+	 * Writes the complete state of the simulation to the given file in a
+	 * compact binary format: the model's parameters and random state, the
+	 * species roster, the free cells, the state and species of every critter
+	 * in order, and the grass engine's grass and random state.  The file is
+	 * written next to the destination and then moved into place, so a failed
+	 * checkpoint never clobbers the previous one.  Only call this between
+	 * steps.
+	 *
+	 * Critter strategies are not saved, only their species; see
+	 * restoreCheckpoint().
+	 * @param file the file to write
+	 * @throws IOException if writing the file fails
+	 * @throws IllegalStateException if the world is kept in other storage
+	 * than the heap
+	 */
+	public void saveCheckpoint(File file) throws IOException {
+		if (freeCells == null) {
+			throw new IllegalStateException("Only a world kept on the heap can be checkpointed");
+		}
+		ModelCheckpoint checkpoint = new ModelCheckpoint();
+		checkpoint.width = width;
+		checkpoint.height = height;
+		checkpoint.randomGrassProb = randomGrassProb;
+		checkpoint.hungerLimit = hungerLimit;
+		checkpoint.numInitial = numInitial;
+		checkpoint.numActiveSpecies = numActiveSpecies;
+		checkpoint.numSteps = numSteps;
+		checkpoint.repopulatingWorld = repopulatingWorld;
+		checkpoint.rand = rand;
+		checkpoint.species = species;
+		checkpoint.inactiveSpecies = inactiveSpecies;
+		checkpoint.freeCells = freeCells;
+		checkpoint.numCritters = critters.size();
+		checkpoint.critterSpecies = new int[critters.size()];
+		checkpoint.critterXs = new int[critters.size()];
+		checkpoint.critterYs = new int[critters.size()];
+		checkpoint.critterHungers = new int[critters.size()];
+		checkpoint.critterMated = new boolean[critters.size()];
+		for (int i = 0; i < critters.size(); i++) {
+			CritterState state = critters.get(i).state;
+			checkpoint.critterSpecies[i] = critters.get(i).species;
+			checkpoint.critterXs[i] = state.x;
+			checkpoint.critterYs[i] = state.y;
+			checkpoint.critterHungers[i] = state.hunger;
+			checkpoint.critterMated[i] = state.hasMated;
+		}
+		checkpoint.grass = grass;
+		checkpoint.write(file);
+	}
+
+	/**
+	 * @return a new model holding the simulation saved in the given file by
+	 * saveCheckpoint().  The species must be loadable by name.  Each critter's
+	 * strategy is re-instantiated through its public constructor, so a
+	 * strategy's own fields start over; everything else continues exactly
+	 * where the checkpoint left off.  Change tracking starts out off.
+	 * @param file the file to read
+	 * @throws IOException if reading the file fails, it is not a checkpoint,
+	 * or a species cannot be loaded
+	 */
+	public static CritterModel restoreCheckpoint(File file) throws IOException {
+		return new CritterModel(ModelCheckpoint.read(file));
+	}
+
 	///// PRIVATE HELPER METHODS /////
 
 	/**
-	 * @return a randomized list of each of the points in the world
+	 * Constructs a new model from a checkpoint; see restoreCheckpoint().
+	 * @param checkpoint the checkpoint, checked to describe a consistent
+	 * world
 	 */
-	private List<Point> getRandomizedAvailablePositions() {
-		List<Point> positions = new LinkedList<Point>();
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				if (board[i][j] == null) {
-					positions.add(new Point(i, j));
-				}
+	private CritterModel(ModelCheckpoint checkpoint) {
+		this.width = checkpoint.width;
+		this.height = checkpoint.height;
+		this.randomGrassProb = checkpoint.randomGrassProb;
+		this.hungerLimit = checkpoint.hungerLimit;
+		this.numInitial = checkpoint.numInitial;
+		this.numActiveSpecies = checkpoint.numActiveSpecies;
+		this.numSteps = checkpoint.numSteps;
+		this.repopulatingWorld = checkpoint.repopulatingWorld;
+		this.species = checkpoint.species;
+		this.inactiveSpecies = checkpoint.inactiveSpecies;
+		this.freeCells = checkpoint.freeCells;
+		this.listeners = new SimulationListener[0];
+		this.critters = new ArrayList<ConcreteCritter>();
+		this.deaths = new ArrayList<ConcreteCritter>();
+		this.board = new HeapBoard(width, height);
+		this.slots = new ConcreteCritter[16];
+		this.numSlots = 1;
+		this.freeSlots = new int[16];
+		this.spatialIndex = new SpatialIndex(width, height);
+		setRecyclingCritters(true);
+		// Instantiating strategies may draw random constructor arguments; draw
+		// them from a scratch stream so the saved one picks up where it was.
+		this.rand = new SavableRandom();
+		for (int i = 0; i < checkpoint.numCritters; i++) {
+			ConcreteCritter critter = createCritter(checkpoint.critterSpecies[i], checkpoint.critterXs[i],
+			                                        checkpoint.critterYs[i]);
+			critter.state.hunger = checkpoint.critterHungers[i];
+			critter.state.hasMated = checkpoint.critterMated[i];
+			critter.index = critters.size();
+			critters.add(critter);
+			board.set(critter.getX(), critter.getY(), critter.slot);
+			spatialIndex.put(critter.slot, critter.getX(), critter.getY());
+			species.increment(critter.species);
+		}
+		this.rand = checkpoint.rand;
+		this.grass = checkpoint.grass;
+		publishCounts();
+	}
+
+	/** Publishes a copy of the current counts for getCritterCounts(). */
+	private void publishCounts() {
+		counts = Collections.unmodifiableMap(new LinkedHashMap<Class<?>, Integer>(species.getCountsView()));
+	}
+
+	/**
+	 * Places the given critter on the board at (x, y), keeping the index of
+	 * free cells up to date.
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @param critter the critter to place
+	 */
+	private void occupy(int x, int y, ConcreteCritter critter) {
+		board.set(x, y, critter.slot);
+		if (freeCells != null) {
+			freeCells.remove(x * height + y);
+		}
+		markChanged(x, y);
+	}
+
+	/**
+	 * Empties the board at (x, y), keeping the index of free cells up to
+	 * date.
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	private void vacate(int x, int y) {
+		board.set(x, y, 0);
+		if (freeCells != null) {
+			freeCells.add(x * height + y);
+		}
+		markChanged(x, y);
+	}
+
+	/**
+	 * @return the critter at position (x, y), or null if there is none
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	private ConcreteCritter critterAt(int x, int y) {
+		int slot = board.get(x, y);
+		return slot == 0 ? null : slots[slot];
+	}
+
+	/**
+	 * @return a free slot for the given new critter, which is put in it.
+	 * Tiles create babies on worker threads, hence the lock.
+	 * @param critter the critter
+	 */
+	private int allocateSlot(ConcreteCritter critter) {
+		synchronized (slotLock) {
+			int slot;
+			if (numFreeSlots > 0) {
+				slot = freeSlots[--numFreeSlots];
+			} else {
+				slot = numSlots++;
 			}
+			if (slot == slots.length) {
+				// Publish the grown array only once it holds every critter,
+				// this one included.
+				ConcreteCritter[] grown = Arrays.copyOf(slots, slot * 2);
+				grown[slot] = critter;
+				slots = grown;
+			} else {
+				slots[slot] = critter;
+			}
+			return slot;
 		}
-		Collections.shuffle(positions);
-		return positions;
 	}
-	
+
 	/**
-	 * @return an array of random arguments to a constructor object, in
-	 * particular, primitive types receive a random value in their range
-	 * and object types receive null
-	 * @param ctor the constructor to invoke
-	 */
-	private Object[] createRandomArguments(Constructor<?> ctor) {
-		Class<?>[] types = ctor.getParameterTypes();
-		Object[] ret = new Object[types.length];
-		for (int i = 0; i < types.length; i++) {
-			Class<?> type = types[i];
-			if (!type.isPrimitive()) {
-				ret[i] = null;
-			} else if (type.equals(int.class)) {
-				ret[i] = RAND.nextInt();
-			} else if (type.equals(long.class)) {
-				ret[i] = RAND.nextLong();
-			} else if (type.equals(char.class)) {
-				int max = 65536;
-				ret[i] = (char) RAND.nextInt(max);
-			} else if (type.equals(short.class)) {
-				int max = 65536;
-				ret[i] = (short) (RAND.nextInt(max) - max/2);
-			} else if (type.equals(byte.class)) {
-				int max = 128;
-				ret[i] = (byte) (RAND.nextInt(max) - max/2);
-			} else if (type.equals(double.class)) {
-				ret[i] = RAND.nextDouble();
-			} else if (type.equals(float.class)) {
-				ret[i] = RAND.nextFloat();
-			} else if (type.equals(boolean.class)) {
-				ret[i] = RAND.nextBoolean();
-			}
-		}
-		return ret;
+	 * Frees the slot of a critter that has left the board for good.
+	 * @param slot the slot
+	 */
+	private void releaseSlot(int slot) {
+		synchronized (slotLock) {
+			slots[slot] = null;
+			if (numFreeSlots == freeSlots.length) {
+				freeSlots = Arrays.copyOf(freeSlots, numFreeSlots * 2);
+			}
+			freeSlots[numFreeSlots++] = slot;
+		}
+	}
+
+	/**
+	 * Records that the appearance of position (x, y) may have changed if we
+	 * are tracking changes.
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	private void markChanged(int x, int y) {
+		if (changedCells != null) {
+			changedCells.add(x * height + y);
+		}
+	}
+
+	/**
+	 * Has the grass engine record where grass spawns iff someone needs to
+	 * know: either we are tracking changes or there are listeners.
+	 */
+	private void updateGrassSpawns() {
+		if (changedCells == null && listeners.length == 0) {
+			grassSpawns = null;
+		} else if (grassSpawns == null) {
+			grassSpawns = new CellBitmap(width * height);
+		}
+		grass.setChangedCells(grassSpawns);
 	}
 
 	/** 
-	 * @return a new instance of the given Critter class at the given
-	 * location
-	 * @param type the Critter class to instantiate
+	 * @return a new instance of the given species at the given location
+	 * @param id the id of the species to instantiate; it must be active
 	 * @param x the x-coordinate of the Critter's location
 	 * @param y the y-coordinate of the Critter's location
 	 **/
-	private ConcreteCritter createCritter(Class<?> type, int x, int y) {
-		// NOTE: We assume that the Class objects we receive are subclasses of
-		// Critter with a single constructor so this will always succeed.
-		Constructor<?> ctor = type.getConstructors()[0];
-		ConcreteCritter critter = null;
-		try {
-			critter = new ConcreteCritter((Critter) ctor.newInstance(createRandomArguments(ctor)), x, y);
-		} catch (InstantiationException ex) {
-			throw new IllegalArgumentException(type + " is abstract!");
-		} catch (IllegalAccessException ex) {
-			throw new IllegalArgumentException(type + " is not accessible!");
-		} catch (InvocationTargetException ex) {
-			throw new IllegalArgumentException("Instantiating " + type + " gave an exception!\n" + ex.toString());
-		}
-		return critter;
+	private ConcreteCritter createCritter(int id, int x, int y) {
+		return createCritter(id, x, y, rand);
+	}
+
+	/** 
+	 * @return a new instance of the given species at the given location
+	 * @param id the id of the species to instantiate; it must be active
+	 * @param x the x-coordinate of the Critter's location
+	 * @param y the y-coordinate of the Critter's location
+	 * @param rand the source of the constructor's random arguments
+	 **/
+	private ConcreteCritter createCritter(int id, int x, int y, Random rand) {
+		Critter strategy = species.getFactory(id).newInstance(rand);
+		// Tiles create babies on worker threads, hence the lock.
+		List<ConcreteCritter> pool = recycled == null ? null : recycled.get(id);
+		if (pool != null) {
+			synchronized (pool) {
+				if (!pool.isEmpty()) {
+					ConcreteCritter critter = pool.remove(pool.size() - 1);
+					critter.bind(strategy, x, y);
+					return critter;
+				}
+			}
+		}
+		return new ConcreteCritter(strategy, id, x, y);
 	}
 	
 	/**
@@ -260,23 +880,14 @@ public class CritterModel {
 	 * @param critter the Critter to add to the world.
 	 */
 	private void addToWorld(ConcreteCritter critter) {
+		critter.index = critters.size();
 		critters.add(critter);
-		board[critter.getX()][critter.getY()] = critter;
-		critterCounts.put(critter.strategy.getClass(), critterCounts.get(critter.strategy.getClass()) + 1);
-	}
-	
-	/**
-	 * Adds the given critter to the world including both the critter list
-	 * and the board.  This overload should be used when the addition needs
-	 * to happen while traversing the critter list.
-	 * @param critter the critter to add
-	 * @param crittersIter the iterator currently being used to traverse the
-	 * critter list
-	 */
-	private void addToWorld(ConcreteCritter critter, ListIterator<ConcreteCritter> crittersIter) {
-		crittersIter.add(critter);
-		board[critter.getX()][critter.getY()] = critter;
-		critterCounts.put(critter.strategy.getClass(), critterCounts.get(critter.strategy.getClass()) + 1);
+		occupy(critter.getX(), critter.getY(), critter);
+		spatialIndex.put(critter.slot, critter.getX(), critter.getY());
+		species.increment(critter.species);
+		for (SimulationListener listener : listeners) {
+			listener.critterBorn(species.getSpecies(critter.species), critter.getX(), critter.getY());
+		}
 	}
 
 	/**
@@ -284,17 +895,43 @@ public class CritterModel {
 	 * the maximum.
 	 */
 	private void populateWorld() {
-		List<Point> positions = getRandomizedAvailablePositions();
-		int numSpeciesToAdd = Math.min(inactiveSpecies.size(), numActiveSpecies - critterCounts.size());
-		Collections.shuffle(inactiveSpecies);
+		int numSpeciesToAdd = Math.min(inactiveSpecies.size(), numActiveSpecies - species.getNumActive());
+		Collections.shuffle(inactiveSpecies, rand);
 		for (int i = 0; i < numSpeciesToAdd; i++) {
-			Class<?> species = inactiveSpecies.remove(RAND.nextInt(inactiveSpecies.size()));
-			critterCounts.put(species, 0);
-			for (int j = 0; j < numInitial && positions.size() > 0; j++) {
-				Point pos = positions.remove(0);
-				addToWorld(createCritter(species, pos.x, pos.y));
+			int id = inactiveSpecies.remove(rand.nextInt(inactiveSpecies.size()));
+			species.activate(id);
+			if (freeCells == null) {
+				for (int j = 0; j < numInitial; j++) {
+					Point pos = findRandomEmptyPosition();
+					if (pos != null) {
+						addToWorld(createCritter(id, pos.x, pos.y));
+					}
+				}
+				continue;
+			}
+			// Occupying a cell removes it from the free cells, so this samples
+			// without replacement.
+			for (int j = 0; j < numInitial && freeCells.size() > 0; j++) {
+				int cell = freeCells.get(rand.nextInt(freeCells.size()));
+				addToWorld(createCritter(id, cell / height, cell % height));
+			}
+		}
+	}
+
+	/**
+	 * @return a random empty position, found by trying random positions, or
+	 * null if MAX_PLACEMENT_TRIES of them were all taken; for worlds with no
+	 * index of free cells
+	 */
+	private Point findRandomEmptyPosition() {
+		for (int i = 0; i < MAX_PLACEMENT_TRIES; i++) {
+			int x = rand.nextInt(width);
+			int y = rand.nextInt(height);
+			if (critterAt(x, y) == null) {
+				return new Point(x, y);
 			}
 		}
+		return null;
 	}
 	
 	/**
@@ -302,13 +939,26 @@ public class CritterModel {
 	 * @param initialGrassRatio the ratio of grass to board positions
 	 */
 	private void addInitialGrass(double initialGrassRatio) {
+		if (freeCells == null) {
+			// Plant at distinct random positions instead.
+			long numGrass = Math.min((long) (width * (double) height * initialGrassRatio), (long) width * height);
+			for (long planted = 0; planted < numGrass; ) {
+				int x = rand.nextInt(width);
+				int y = rand.nextInt(height);
+				if (!grass.hasGrass(x, y)) {
+					grass.plant(x, y);
+					planted++;
+				}
+			}
+			return;
+		}
 		// N.B. this is dependent on the board being empty --- so that
-		// getRandomizedAvailablePositions returns all the board positions.
-		List<Point> positions = getRandomizedAvailablePositions();
-		int numGrass = (int) (width * height * initialGrassRatio);
+		// freeCells holds all the board positions.
+		int numGrass = Math.min((int) (width * height * initialGrassRatio), freeCells.size());
+		freeCells.shufflePrefix(numGrass, rand);
 		for (int i = 0; i < numGrass; i++) {
-			Point pos = positions.remove(0);
-			grass[pos.x][pos.y] = 1;
+			int cell = freeCells.get(i);
+			grass.plant(cell / height, cell % height);
 		}
 	}
 
@@ -352,66 +1002,97 @@ public class CritterModel {
 		}
 	}
 
+	/**
+	 * @return true iff a step from x-coordinate fromX to the adjacent toX
+	 * crosses a border rather than wrapping around; see setBorders()
+	 * @param fromX the x-coordinate stepped from
+	 * @param toX the x-coordinate stepped to
+	 */
+	private boolean crossesBorder(int fromX, int toX) {
+		return borders != null && borders.crosses(fromX, toX);
+	}
+
+	/**
+	 * @return the glyph beyond the border next to (x, y), where x is 0 or
+	 * width - 1
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	private String glyphBeyond(int x, int y) {
+		return borders.glyphBeyond(x, y);
+	}
+
 	/**
 	 * @return a random Point that is an empty spot adjacent to the given
 	 * position or null if no such spot exists.
 	 * @param x the x-coordinate of the position
 	 * @param y the y-coordinate of the position
+	 * @param rand the random stream to pick with
 	 */
-	private Point findRandomEmptyAdjacentPosition(int x, int y) {
+	private Point findRandomEmptyAdjacentPosition(int x, int y, Random rand) {
 		List<Point> candidates = new ArrayList<Point>();
 		for (Critter.Direction direction : Critter.Directions) {
 			Point pos = calculateRelativePosition(x, y, direction);
-			if (board[pos.x][pos.y] == null) { candidates.add(pos); }
+			if (critterAt(pos.x, pos.y) == null && !crossesBorder(x, pos.x)) { candidates.add(pos); }
 		}
 		if (candidates.size() == 0) {
 			return null;
 		}
 		else {
-			Collections.shuffle(candidates);
+			Collections.shuffle(candidates, rand);
 			return candidates.get(0);
 		}
 	}
 	
 	/**
-	 * Goes through both the critter list and grid and removes dead critters.
+	 * Removes the critters that died this step from both the critter list
+	 * and the board.  Critters record themselves in the death buffer when
+	 * they die, so this costs O(deaths) rather than a scan of the world.
 	 */
 	private void clearTheDead() {
-		// Clear the dead from the Critter list
-		ListIterator<ConcreteCritter> iter = critters.listIterator();
-		while (iter.hasNext()) {
-			ConcreteCritter critter = iter.next();
-			if (critter.isDead()) {
-				iter.remove();
-				critterCounts.put(critter.strategy.getClass(), critterCounts.get(critter.strategy.getClass()) - 1);
-			}
-		}
-		// Clear the dead from the Critter board
-		for (int i = 0; i < board.length; i++) {
-			for (int j = 0; j < board[i].length; j++) {
-				ConcreteCritter critter = board[i][j];
-				if (critter != null && critter.isDead()) {
-					board[i][j] = null;
-				}
+		for (ConcreteCritter critter : deaths) {
+			// Swap the last critter into the dead critter's slot.
+			ConcreteCritter last = critters.remove(critters.size() - 1);
+			if (last != critter) {
+				last.index = critter.index;
+				critters.set(last.index, last);
+			}
+			// The dead critter may have already been replaced on the board by
+			// the critter that killed it.
+			boolean vacated = critterAt(critter.getX(), critter.getY()) == critter;
+			if (vacated) {
+				vacate(critter.getX(), critter.getY());
 			}
+			releaseSlot(critter.slot);
+			for (SimulationListener listener : listeners) {
+				listener.critterDied(species.getSpecies(critter.species), critter.getX(), critter.getY(),
+				                     critter.state.causeOfDeath, vacated);
+			}
+			species.decrement(critter.species);
+			critter.retire();
 		}
+		deaths.clear();
 	}
 	
 	/**
 	 * Removes the extinct species from the active list to the inactive list.
 	 */
 	private void removeExtinctSpecies() {
-		List<Class<?>> toRemove = new ArrayList<Class<?>>();
-		Set<Class<?>> activeSpecies = critterCounts.keySet();
-		for (Class<?> species : activeSpecies) {
-			if (critterCounts.get(species) <= 0) {
-				toRemove.add(species);
+		// Deactivating keeps the order of the others, so walk backwards.
+		for (int i = species.getNumActive() - 1; i >= 0; i--) {
+			int id = species.getActiveId(i);
+			if (species.getCount(id) <= 0) {
+				species.deactivate(id);
+				inactiveSpecies.add(id);
+				// Keep only what repopulating with the species would reuse.
+				if (recycled != null) {
+					List<ConcreteCritter> pool = recycled.get(id);
+					if (pool.size() > numInitial) {
+						pool.subList(numInitial, pool.size()).clear();
+					}
+				}
 			}
 		}
-		for (Class<?> species : toRemove) {
-			critterCounts.remove(species);
-			inactiveSpecies.add(species);
-		}
 	}
 	
 	/**
@@ -419,8 +1100,11 @@ public class CritterModel {
 	 */
 	private Map<ConcreteCritter, Point> calculatePotentialMoves() {
 		Map<ConcreteCritter, Point> moves = new HashMap<ConcreteCritter, Point>();
+		if (watchdog != null) {
+			sample(critters);
+		}
 		for (ConcreteCritter critter : critters) {
-			Critter.Direction move = critter.strategy.getMove();
+			Critter.Direction move = direct.moveOf(critter);
 			moves.put(critter, calculateRelativePosition(critter.getX(), critter.getY(), move));
 		}
 		return moves;
@@ -430,15 +1114,170 @@ public class CritterModel {
 	 * Steps the critters forward one time step.
 	 */
 	private void stepCritters() {
-		Map<ConcreteCritter, Point> moves = calculatePotentialMoves();
-		for (Critter.Speed speed : Critter.Speeds) {
-			stepCritterKind(speed, moves);
+		long time = profiler == null ? 0 : System.nanoTime();
+		if (tileStepper == null) {
+			Map<ConcreteCritter, Point> moves = calculatePotentialMoves();
+			time = lap(StepProfiler.Phase.CALCULATE_MOVES, time);
+			for (Critter.Speed speed : Critter.Speeds) {
+				stepCritterKind(speed, moves);
+			}
+		} else {
+			time = stepCrittersInTiles(time);
 		}
+		if (watchdog != null) {
+			runCallbacks();
+		}
+		time = lap(StepProfiler.Phase.STEP_CRITTER_KIND, time);
 		clearTheDead();
+		time = lap(StepProfiler.Phase.CLEAR_THE_DEAD, time);
 		removeExtinctSpecies();
+		time = lap(StepProfiler.Phase.REMOVE_EXTINCT_SPECIES, time);
 		if (repopulatingWorld) {
 			populateWorld();
 		}
+		lap(StepProfiler.Phase.POPULATE_WORLD, time);
+	}
+
+	/**
+	 * Records the time since the given time as spent in the given phase, if
+	 * we are profiling.
+	 * @return the current time, or 0 if we are not profiling
+	 * @param phase the phase that just ended
+	 * @param start the time the phase started
+	 */
+	private long lap(StepProfiler.Phase phase, long start) {
+		if (profiler == null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		profiler.recordPhase(phase, now - start);
+		return now;
+	}
+
+	/**
+	 * Picks the direct context for the profiler, watchdog and tiles we have,
+	 * so that stepping critters never has to check for them.
+	 */
+	private void updateDirectContext() {
+		DirectContext live = profiler == null ? new DirectContext() : new ProfiledContext();
+		if (watchdog != null) {
+			direct = new WatchdogContext();
+		} else if (tileStepper != null) {
+			direct = new SampledContext(live);
+		} else {
+			direct = live;
+		}
+	}
+
+	/**
+	 * Samples the move, speed and food type of the given critter by calling
+	 * its strategy directly.
+	 * @param critter the critter
+	 * @param context where the critter's death goes if it commits suicide
+	 */
+	void sample(ConcreteCritter critter, StepContext context) {
+		CritterState state = critter.state;
+		state.move = critter.strategy.getMove();
+		state.speed = critter.strategy.getSpeed();
+		state.foodType = critter.strategy.getFoodType();
+		finishSampling(critter, context);
+	}
+
+	/**
+	 * Marks the given critter as sampled this step, killing it now if it
+	 * committed suicide while its tile was running in parallel.
+	 * @param critter the critter
+	 * @param context where the critter's death goes
+	 */
+	private void finishSampling(ConcreteCritter critter, StepContext context) {
+		critter.state.sampledStep = numSteps;
+		if (critter.state.suicided) {
+			critter.state.suicided = false;
+			critter.dead(SimulationListener.DeathCause.SUICIDE, context);
+		}
+	}
+
+	/**
+	 * Samples the move, speed and food type of each of the given critters
+	 * through the watchdog, in one batch.
+	 * @param sampled the critters
+	 */
+	private void sample(final List<ConcreteCritter> sampled) {
+		final StrategyWatchdog.Call[] calls = {
+			StrategyWatchdog.Call.GET_MOVE, StrategyWatchdog.Call.GET_SPEED, StrategyWatchdog.Call.GET_FOOD_TYPE
+		};
+		long[] nanos = profiler == null ? null : new long[sampled.size() * calls.length];
+		Object[] results = watchdog.run(new StrategyWatchdog.Batch() {
+			public Critter strategyOf(int i) { return sampled.get(i / calls.length).strategy; }
+			public StrategyWatchdog.Call callOf(int i) { return calls[i % calls.length]; }
+			public Object call(int i) {
+				Critter strategy = strategyOf(i);
+				switch (callOf(i)) {
+					case GET_MOVE: return strategy.getMove();
+					case GET_SPEED: return strategy.getSpeed();
+					default: return strategy.getFoodType();
+				}
+			}
+			public void overran(int i) { countOverrun(sampled.get(i / calls.length)); }
+		}, sampled.size() * calls.length, nanos);
+		for (int i = 0; i < sampled.size(); i++) {
+			ConcreteCritter critter = sampled.get(i);
+			critter.state.move = (Critter.Direction) results[i * calls.length];
+			critter.state.speed = (Critter.Speed) results[i * calls.length + 1];
+			critter.state.foodType = (Critter.FoodType) results[i * calls.length + 2];
+			critter.state.sampledStep = numSteps;
+			// A critter still stuck in an earlier step's call overruns again.
+			if (watchdog.isStalled(critter.strategy)) {
+				countOverrun(critter);
+			}
+			if (profiler != null) {
+				Class<?> species = critter.strategy.getClass();
+				profiler.recordCall(species, StepProfiler.Call.GET_MOVE, nanos[i * calls.length]);
+				profiler.recordCall(species, StepProfiler.Call.GET_SPEED, nanos[i * calls.length + 1]);
+				profiler.recordCall(species, StepProfiler.Call.GET_FOOD_TYPE, nanos[i * calls.length + 2]);
+			}
+		}
+	}
+
+	/**
+	 * Runs the deferred callbacks through the watchdog, in the order they
+	 * were deferred, until no more are deferred.
+	 */
+	private void runCallbacks() {
+		while (!pendingCallbacks.isEmpty()) {
+			final List<PendingCallback> pending = pendingCallbacks;
+			pendingCallbacks = new ArrayList<PendingCallback>();
+			watchdog.run(new StrategyWatchdog.Batch() {
+				public Critter strategyOf(int i) { return pending.get(i).critter.strategy; }
+				public StrategyWatchdog.Call callOf(int i) { return pending.get(i).call; }
+				public Object call(int i) {
+					PendingCallback callback = pending.get(i);
+					switch (callback.call) {
+						case ON_EAT: callback.critter.strategy.onEat(); break;
+						case ON_WIN: callback.critter.strategy.onWin(); break;
+						case ON_MATE: callback.critter.strategy.onMate(callback.other.strategy); break;
+						default: callback.critter.strategy.onDeath(); break;
+					}
+					return null;
+				}
+				public void overran(int i) { countOverrun(pending.get(i).critter); }
+			}, pending.size(), null);
+		}
+	}
+
+	/**
+	 * Counts an overrun of the watchdog's budget against the given critter,
+	 * at most once a step, killing it if it has overrun too often.
+	 * @param critter the critter
+	 */
+	private void countOverrun(ConcreteCritter critter) {
+		if (critter.state.lastOverrunStep == numSteps) {
+			return;
+		}
+		critter.state.lastOverrunStep = numSteps;
+		if (++critter.state.overruns >= watchdog.getMaxOverruns() && !critter.isDead()) {
+			critter.dead(SimulationListener.DeathCause.TIMEOUT);
+		}
 	}
 
 	/**
@@ -447,108 +1286,171 @@ public class CritterModel {
 	 * @param moves a map of target positions for each critter
 	 */
 	private void stepCritterKind(Critter.Speed speed, Map<ConcreteCritter, Point> moves) {
-		ListIterator<ConcreteCritter> iter = critters.listIterator();
-		while (iter.hasNext()) {
-			ConcreteCritter critter = iter.next();
-			boolean ateFood = false;
-			if (critter.strategy.getSpeed() == speed && moves.containsKey(critter)) {
-				Point dest = moves.get(critter);
-				// There are two cases when we try to execute a move.
-				// 1. The destination is empty: move there.
-				if (board[dest.x][dest.y] == null) {
-					critter.moveTo(dest.x, dest.y);
-					// Note: if there's grass and the critter eats grass, then eat it as well.
-					if (critter.strategy.getFoodType() == Critter.FoodType.GRASS && grass[dest.x][dest.y] != 0) {
+		// N.B. babies are appended to the end of the critter list as they are
+		// born; they have no move this step so we only visit the critters
+		// that were alive at the start.
+		int numCritters = critters.size();
+		for (int i = 0; i < numCritters; i++) {
+			ConcreteCritter critter = critters.get(i);
+			if (!critter.isDead() && direct.speedOf(critter) == speed && moves.containsKey(critter)) {
+				stepCritter(critter, moves.get(critter), direct);
+			}
+		}
+	}
+
+	/**
+	 * Steps the critters in tiles; see setTileSize().
+	 * @return the current time, or 0 if we are not profiling
+	 * @param time the time the step started
+	 */
+	private long stepCrittersInTiles(long time) {
+		tileStepper.sample(critters, rand, direct);
+		time = lap(StepProfiler.Phase.CALCULATE_MOVES, time);
+		for (Critter.Speed speed : Critter.Speeds) {
+			tileStepper.step(speed, direct);
+		}
+		return time;
+	}
+
+	/**
+	 * @return the position the given critter moves to, by its sampled move
+	 * @param critter the critter
+	 */
+	private Point destinationOf(ConcreteCritter critter) {
+		return calculateRelativePosition(critter.getX(), critter.getY(), critter.state.move);
+	}
+
+	/**
+	 * Executes the move the given critter was sampled to make this step.
+	 * @param critter the critter
+	 * @param context where the effects of the move go
+	 */
+	void stepSampled(ConcreteCritter critter, StepContext context) {
+		stepCritter(critter, destinationOf(critter), context);
+	}
+
+	/**
+	 * Executes the potential move of a critter.
+	 * @param critter the critter
+	 * @param dest the position it moves to
+	 * @param context where the effects of the move go
+	 */
+	private void stepCritter(ConcreteCritter critter, Point dest, StepContext context) {
+		// A critter killed earlier in the step stays where it died until it
+		// is cleared.  If it moved, it could vacate the cell of the critter
+		// that killed it and take it over.
+		if (critter.isDead()) {
+			return;
+		}
+		if (crossesBorder(critter.getX(), dest.x)) {
+			// Only critters near the edges, which tiles leave to the calling
+			// thread, can get here, so this always runs directly.
+			String beyond = glyphBeyond(critter.getX(), dest.y);
+			if (beyond.equals(EMPTY_SYMBOL) || beyond.equals(GRASS_SYMBOL)) {
+				emigrate(critter);
+				return;
+			}
+			dest = new Point(critter.getX(), critter.getY());
+		}
+		boolean ateFood = false;
+		// There are two cases when we try to execute a move.
+		// 1. The destination is empty: move there.
+		ConcreteCritter other = critterAt(dest.x, dest.y);
+		if (other == null) {
+			critter.moveTo(dest.x, dest.y, context);
+			// Note: if there's grass and the critter eats grass, then eat it as well.
+			if (context.foodTypeOf(critter) == Critter.FoodType.GRASS && context.hasGrass(dest.x, dest.y)) {
+				ateFood = true;
+				context.ateGrass(dest.x, dest.y);
+			}
+		//	2. The destination is not empty: mate or fight.
+		} else {
+			if (!critter.equals(other)) {
+				// Case: if the critters can mate, then mate.
+				if (critter.canMate(other)) {
+					if (!critter.hasMated() && !other.hasMated()) {
+						// Try to find a place to drop off the baby
+						Point birthLoc = findRandomEmptyAdjacentPosition(critter.getX(), critter.getY(), context.rand());
+						if (birthLoc == null) {
+							birthLoc = findRandomEmptyAdjacentPosition(dest.x, dest.y, context.rand());
+						}
+						// If there is an available, then mate!  Otherwise, don't bother.
+						if (birthLoc != null) {
+							context.mated(critter.getX(), critter.getY(), dest.x, dest.y);
+							ConcreteCritter baby = createCritter(critter.species, birthLoc.x, birthLoc.y, context.rand());
+							context.born(baby);
+							critter.mate(other, context);
+							other.mate(critter, context);
+						}
+					}
+				// Case: otherwise, the critters must fight; there is a winner and a loser.
+				} else if (critter.fight(other, context)) {
+					context.fought(critter.getX(), critter.getY(), dest.x, dest.y);
+					other.dead(SimulationListener.DeathCause.FIGHT, context);
+					critter.moveTo(dest.x, dest.y, context);
+					context.callback(critter, StrategyWatchdog.Call.ON_WIN, null);
+					if (context.foodTypeOf(critter) == Critter.FoodType.MEAT) {
 						ateFood = true;
-						grass[dest.x][dest.y] = 0;
 					}
-				//	2. The destination is not empty: mate or fight.
 				} else {
-					ConcreteCritter other = board[dest.x][dest.y];
-					if (!critter.equals(other)) {
-						// Case: if the critters can mate, then mate.
-						if (critter.canMate(other)) {
-							if (!critter.hasMated() && !other.hasMated()) {
-								// Try to find a place to drop off the baby
-								Point birthLoc = findRandomEmptyAdjacentPosition(critter.getX(), critter.getY());
-								if (birthLoc == null) {
-									birthLoc = findRandomEmptyAdjacentPosition(dest.x, dest.y);
-								}
-								// If there is an available, then mate!  Otherwise, don't bother.
-								if (birthLoc != null) {
-									ConcreteCritter baby = createCritter(critter.strategy.getClass(), birthLoc.x, birthLoc.y);
-									addToWorld(baby, iter);
-									critter.mate(other);
-									other.mate(critter);
-								}
-							}
-						// Case: otherwise, the critters must fight; there is a winner and a loser.
-						} else if (critter.fight(other)) {
-							other.dead();
-							critter.moveTo(dest.x, dest.y);
-							critter.strategy.onWin();
-							if (critter.strategy.getFoodType() == Critter.FoodType.MEAT) {
-								ateFood = true;
-							}
-						} else {
-							critter.dead();
-							other.strategy.onWin();
-							if (other.strategy.getFoodType() == Critter.FoodType.MEAT) {
-								other.eat();
-							}
-						}
+					context.fought(dest.x, dest.y, critter.getX(), critter.getY());
+					critter.dead(SimulationListener.DeathCause.FIGHT, context);
+					context.callback(other, StrategyWatchdog.Call.ON_WIN, null);
+					if (context.foodTypeOf(other) == Critter.FoodType.MEAT) {
+						other.eat(context);
 					}
 				}
-				// If we ate food, then trigger an eat; otherwise starve
-				if (ateFood) {
-					critter.eat();
-				} else {
-					critter.starve();
-				}
-				// After executing the critter's move, check to see if it starved to death.
-				if (critter.hasStarvedToDeath()) {
-					critter.dead();
-				}
 			}
 		}
+		// If we ate food, then trigger an eat; otherwise starve
+		if (ateFood) {
+			critter.eat(context);
+		} else {
+			critter.starve();
+		}
+		// After executing the critter's move, check to see if it starved to death.
+		if (critter.hasStarvedToDeath()) {
+			critter.dead(SimulationListener.DeathCause.STARVATION, context);
+		}
 	}
 
 	/**
-	 * Randomly spawns grass adjacent to the given position
-	 * @param x the x-coordinate
-	 * @param y the y-coordinate
+	 * Moves a critter across a border out of the world, unless it starves
+	 * on the way; see setBorders().
+	 * @param critter the critter
 	 */
-	private void spawnAdjacentGrass(int x, int y) {
-		int grassValue = grass[x][y];
-		List<Point> candidates = new ArrayList<Point>();
-		if (grassValue != 0 && RAND.nextInt(grassValue) == 0) {
-			for (Critter.Direction direction : Critter.Directions) {
-				Point pos = calculateRelativePosition(x, y, direction);
-				if (grass[pos.x][pos.y] != 0) {
-					candidates.add(pos);
-				}
-			}
-		}
-		if (candidates.size() > 0) {
-			Collections.shuffle(candidates);
-			Point pos = candidates.get(0);
-			grass[pos.x][pos.y] = grass[x][y] * 2;
+	private void emigrate(ConcreteCritter critter) {
+		critter.starve();
+		if (critter.hasStarvedToDeath()) {
+			critter.dead(SimulationListener.DeathCause.STARVATION);
+			return;
 		}
+		Critter.Direction direction = critter.getX() == 0 ? Critter.Direction.WEST : Critter.Direction.EAST;
+		borders.emigrated(new Migrant(species.getSpecies(critter.species), direction, critter.getY(),
+		                              critter.state.hunger, critter.state.hasMated));
+		// Leaving isn't dying, so there is no onDeath() callback.
+		critter.state.died = true;
+		critter.state.causeOfDeath = SimulationListener.DeathCause.MIGRATED;
+		deaths.add(critter);
+		spatialIndex.remove(critter.slot);
 	}
 
 	/**
 	 * Propagate grass in one time step by spawning adjacent grass and new
-	 * grass.
+	 * grass.  See the GrassEngine in use for the details.
 	 */
 	private void propogateGrass() {
-		for (int i = 0; i < grass.length; i++) {
-			for (int j = 0; j < grass[0].length; j++) {
-				if (grass[i][j] != 0) {
-					spawnAdjacentGrass(i, j);
-				} else {
-					grass[i][j] = RAND.nextInt(randomGrassProb) == 0 ? 1 : 0;
+		grass.propagate();
+		if (grassSpawns != null) {
+			for (int cell = grassSpawns.next(0); cell >= 0; cell = grassSpawns.next(cell + 1)) {
+				int x = cell / height;
+				int y = cell % height;
+				markChanged(x, y);
+				for (SimulationListener listener : listeners) {
+					listener.grassChanged(x, y, true);
 				}
 			}
+			grassSpawns.clear();
 		}
 	}
 
@@ -563,15 +1465,253 @@ public class CritterModel {
 		public int hunger;
 		public boolean hasMated;
 		public boolean died;
+		public SimulationListener.DeathCause causeOfDeath;
+		// The number of steps in which a call overran the watchdog's budget,
+		// and the last of them.
+		public int overruns;
+		public int lastOverrunStep = -1;
+		// The results of the strategy calls sampled by the watchdog, and
+		// the step they were sampled in.
+		public Critter.Direction move;
+		public Critter.Speed speed;
+		public Critter.FoodType foodType;
+		public int sampledStep = -1;
+		// Whether the critter committed suicide while its tile was running
+		// in parallel, to be recorded by the tile.
+		public boolean suicided;
 		public int x;
 		public int y;
 	
 		public CritterState(int x, int y) {
+			reset(x, y);
+		}
+
+		/** Sets this state to that of a newborn critter at (x, y). */
+		public void reset(int x, int y) {
 			this.x = x;
 			this.y = y;
 			this.hunger = 0;
 			hasMated = false;
 			died = false;
+			causeOfDeath = null;
+			overruns = 0;
+			lastOverrunStep = -1;
+			move = null;
+			speed = null;
+			foodType = null;
+			sampledStep = -1;
+			suicided = false;
+		}
+	}
+
+	/**
+	 * The direct context for critters stepped sequentially: it applies the
+	 * effects of stepping them to the model directly and calls their
+	 * strategies live.
+	 */
+	private class DirectContext extends StepContext {
+		public Random rand() { return rand; }
+
+		public boolean hasGrass(int x, int y) { return grass.hasGrass(x, y); }
+
+		public void sample(ConcreteCritter critter) { CritterModel.this.sample(critter, this); }
+
+		public Critter.Direction moveOf(ConcreteCritter critter) { return critter.strategy.getMove(); }
+
+		public Critter.Speed speedOf(ConcreteCritter critter) { return critter.strategy.getSpeed(); }
+
+		public Critter.FoodType foodTypeOf(ConcreteCritter critter) { return critter.strategy.getFoodType(); }
+
+		public void moved(ConcreteCritter critter, int fromX, int fromY, int toX, int toY) {
+			for (SimulationListener listener : listeners) {
+				listener.critterMoved(fromX, fromY, toX, toY);
+			}
+			vacate(fromX, fromY);
+			occupy(toX, toY, critter);
+			spatialIndex.put(critter.slot, toX, toY);
+		}
+
+		public void ateGrass(int x, int y) {
+			grass.clear(x, y);
+			markChanged(x, y);
+			for (SimulationListener listener : listeners) {
+				listener.grassChanged(x, y, false);
+			}
+		}
+
+		public void fought(int winnerX, int winnerY, int loserX, int loserY) {
+			for (SimulationListener listener : listeners) {
+				listener.critterFought(winnerX, winnerY, loserX, loserY);
+			}
+		}
+
+		public void mated(int x, int y, int mateX, int mateY) {
+			for (SimulationListener listener : listeners) {
+				listener.critterMated(x, y, mateX, mateY);
+			}
+		}
+
+		public void born(ConcreteCritter baby) { addToWorld(baby); }
+
+		public void died(ConcreteCritter critter) {
+			deaths.add(critter);
+			spatialIndex.remove(critter.slot);
+		}
+
+		public void callback(ConcreteCritter critter, StrategyWatchdog.Call call, ConcreteCritter other) {
+			switch (call) {
+				case ON_EAT: critter.strategy.onEat(); break;
+				case ON_WIN: critter.strategy.onWin(); break;
+				case ON_MATE: critter.strategy.onMate(other.strategy); break;
+				case ON_DEATH: critter.strategy.onDeath(); break;
+				default: throw new IllegalArgumentException("Not a callback: " + call);
+			}
+		}
+	}
+
+	/**
+	 * A direct context that times the strategy calls it makes for the
+	 * profiler.
+	 */
+	private class ProfiledContext extends DirectContext {
+		public void sample(ConcreteCritter critter) {
+			CritterState state = critter.state;
+			Class<?> species = critter.strategy.getClass();
+			long start = System.nanoTime();
+			state.move = critter.strategy.getMove();
+			long time = System.nanoTime();
+			profiler.recordCall(species, StepProfiler.Call.GET_MOVE, time - start);
+			start = time;
+			state.speed = critter.strategy.getSpeed();
+			time = System.nanoTime();
+			profiler.recordCall(species, StepProfiler.Call.GET_SPEED, time - start);
+			start = time;
+			state.foodType = critter.strategy.getFoodType();
+			profiler.recordCall(species, StepProfiler.Call.GET_FOOD_TYPE, System.nanoTime() - start);
+			finishSampling(critter, this);
+		}
+
+		public Critter.Direction moveOf(ConcreteCritter critter) {
+			long start = System.nanoTime();
+			Critter.Direction move = critter.strategy.getMove();
+			profiler.recordCall(critter.strategy.getClass(), StepProfiler.Call.GET_MOVE, System.nanoTime() - start);
+			return move;
+		}
+
+		public Critter.Speed speedOf(ConcreteCritter critter) {
+			long start = System.nanoTime();
+			Critter.Speed speed = critter.strategy.getSpeed();
+			profiler.recordCall(critter.strategy.getClass(), StepProfiler.Call.GET_SPEED, System.nanoTime() - start);
+			return speed;
+		}
+
+		public Critter.FoodType foodTypeOf(ConcreteCritter critter) {
+			long start = System.nanoTime();
+			Critter.FoodType food = critter.strategy.getFoodType();
+			profiler.recordCall(critter.strategy.getClass(), StepProfiler.Call.GET_FOOD_TYPE,
+			                    System.nanoTime() - start);
+			return food;
+		}
+	}
+
+	/**
+	 * The direct context for critters stepped in tiles, whose strategies are
+	 * sampled once per step: it reports what they sampled, sampling babies
+	 * born this step through a live context.
+	 */
+	private class SampledContext extends DirectContext {
+		private DirectContext live;
+
+		/** @param live the context that samples critters, timing the calls or not */
+		public SampledContext(DirectContext live) { this.live = live; }
+
+		public void sample(ConcreteCritter critter) { live.sample(critter); }
+
+		public Critter.Direction moveOf(ConcreteCritter critter) { return sampled(critter).getSampledMove(); }
+
+		public Critter.Speed speedOf(ConcreteCritter critter) { return sampled(critter).getSampledSpeed(); }
+
+		public Critter.FoodType foodTypeOf(ConcreteCritter critter) {
+			return sampled(critter).getSampledFoodType();
+		}
+	}
+
+	/**
+	 * The direct context for critters run through a watchdog: it reports
+	 * what they sampled, sampling babies born this step through the
+	 * watchdog, and defers their callbacks until runCallbacks().
+	 */
+	private class WatchdogContext extends DirectContext {
+		public void sample(ConcreteCritter critter) {
+			CritterModel.this.sample(Collections.singletonList(critter));
+		}
+
+		public Critter.Direction moveOf(ConcreteCritter critter) { return sampled(critter).getSampledMove(); }
+
+		public Critter.Speed speedOf(ConcreteCritter critter) { return sampled(critter).getSampledSpeed(); }
+
+		public Critter.FoodType foodTypeOf(ConcreteCritter critter) {
+			return sampled(critter).getSampledFoodType();
+		}
+
+		public void callback(ConcreteCritter critter, StrategyWatchdog.Call call, ConcreteCritter other) {
+			pendingCallbacks.add(new PendingCallback(critter, call, other));
+		}
+	}
+
+	/** A critter that left a world across a border; see setBorders(). */
+	public static class Migrant {
+		private Class<?> species;
+		private Critter.Direction direction;
+		private int y;
+		private int hunger;
+		private boolean hasMated;
+
+		/**
+		 * @param species the critter's species
+		 * @param direction the way it crossed, WEST or EAST
+		 * @param y the y-coordinate at which it crossed
+		 * @param hunger its hunger
+		 * @param hasMated whether it has mated
+		 * @throws IllegalArgumentException if the direction isn't WEST or EAST
+		 */
+		public Migrant(Class<?> species, Critter.Direction direction, int y, int hunger, boolean hasMated) {
+			if (direction != Critter.Direction.WEST && direction != Critter.Direction.EAST) {
+				throw new IllegalArgumentException("Critters only cross borders west or east: " + direction);
+			}
+			this.species = species;
+			this.direction = direction;
+			this.y = y;
+			this.hunger = hunger;
+			this.hasMated = hasMated;
+		}
+
+		/** @return the critter's species */
+		public Class<?> getSpecies() { return species; }
+
+		/** @return the way it crossed, WEST or EAST */
+		public Critter.Direction getDirection() { return direction; }
+
+		/** @return the y-coordinate at which it crossed */
+		public int getY() { return y; }
+
+		/** @return its hunger */
+		public int getHunger() { return hunger; }
+
+		/** @return whether it has mated */
+		public boolean hasMated() { return hasMated; }
+	}
+
+	/** A strategy callback deferred until the watchdog runs it. */
+	private static class PendingCallback {
+		public ConcreteCritter critter;
+		public StrategyWatchdog.Call call;
+		public ConcreteCritter other;
+
+		public PendingCallback(ConcreteCritter critter, StrategyWatchdog.Call call, ConcreteCritter other) {
+			this.critter = critter;
+			this.call = call;
+			this.other = other;
 		}
 	}
 
@@ -581,55 +1721,207 @@ public class CritterModel {
 	 * This is an example of the Strategy design pattern where we allow the behavior
 	 * of an object to be determined at runtime by separating it into its own class.
 	 */
-	private class ConcreteCritter {
+	class ConcreteCritter {
 		private CritterState state;
 		private Critter strategy;
+		// The info handed to the strategy this critter is bound to, or null
+		// once it is retired.
+		private CritterInfo info;
+		// The id of this critter's species.
+		private int species;
+		// The position of this critter in the critter list.
+		private int index;
+		// The number the board holds this critter by.
+		private int slot;
 	
 		/**
 		 * Initializes the CritterInfo for this ConcreteCritter's Critter object.
 		 * This effectively "ties the knot" between CritterState and Critter.
+		 * A recycled critter gets a new info each time it is bound, and the
+		 * old one throws, so an info kept past its critter's death never
+		 * describes the critter it became.
 		 */
 		private void initializeInfo() {
 			// NOTE: this is an example of an anonymous inner class, a one-off class
 			// that implements the CritterInfo interface.
-			strategy.setCritterInfo(new CritterInfo() {
-				public int getX() { return state.x; }
-				public int getY() { return state.y; }
-				public int getWidth() { return width; }
-				public int getHeight() { return height; }
-				public int getNumSteps() { return numSteps; }
+			info = new CritterInfo() {
+				// Refilled by every getNeighborhood(), made on the first.
+				private Neighborhood neighborhood;
+				private SpatialIndex.Hits hits;
+
+				public int getX() { return bound().x; }
+				public int getY() { return bound().y; }
+				public int getWidth() {
+					bound();
+					return width;
+				}
+				public int getHeight() {
+					bound();
+					return height;
+				}
+				public int getNumSteps() {
+					bound();
+					return numSteps;
+				}
 				public String getNeighbor(Critter.Direction direction) {
+					CritterState state = bound();
 					Point loc = calculateRelativePosition(state.x, state.y, direction);
-					if (board[loc.x][loc.y] != null) {
-						return board[loc.x][loc.y].toString();
-					} else if (grass[loc.x][loc.y] != 0) {
+					if (crossesBorder(state.x, loc.x)) {
+						return glyphBeyond(state.x, loc.y);
+					}
+					ConcreteCritter other = critterAt(loc.x, loc.y);
+					if (other != null) {
+						return other.toString();
+					} else if (grass.hasGrass(loc.x, loc.y)) {
 						return GRASS_SYMBOL;
 					} else {
 						return EMPTY_SYMBOL;
 					}
 				}
-				public int getHungerLevel() { return state.hunger; }
-				public boolean hasMated() { return state.hasMated; }
-				public void suicide() { dead(); }
-			});
+				public Neighborhood getNeighborhood(int radius) {
+					if (radius < 0) {
+						throw new IllegalArgumentException("Negative radius: " + radius);
+					}
+					bound();
+					if (neighborhood == null) {
+						neighborhood = new Neighborhood();
+						hits = new SpatialIndex.Hits();
+					}
+					// A call abandoned by the watchdog may still be running
+					// while the model changes the index, so it sees nothing.
+					if (StrategyWatchdog.isAbandonedCall()) {
+						neighborhood.clear(radius, 0);
+						return neighborhood;
+					}
+					fillNeighborhood(radius, neighborhood, hits);
+					return neighborhood;
+				}
+				public int getHungerLevel() { return bound().hunger; }
+				public boolean hasMated() { return bound().hasMated; }
+				public void suicide() {
+					// A call abandoned by the watchdog may still be running
+					// while the model moves on, so it mustn't touch the model.
+					// The dead and gone can't die again.
+					if (StrategyWatchdog.isAbandonedCall() || info != this) {
+						return;
+					} else if (tileStepper != null && tileStepper.isInParallelPhase()) {
+						state.suicided = true;
+					} else {
+						dead(SimulationListener.DeathCause.SUICIDE);
+					}
+				}
+				/**
+				 * @return the state of this info's critter
+				 * @throws IllegalStateException if the critter has been
+				 * cleared from the world since this info was handed out
+				 */
+				private CritterState bound() {
+					if (info != this) {
+						throw new IllegalStateException("This critter is dead and gone");
+					}
+					return state;
+				}
+			};
+			strategy.setCritterInfo(info);
 		}
 	
+		/**
+		 * Fills in what this critter sees within the given radius from the
+		 * index of critters and the grass.
+		 * @param radius the radius
+		 * @param neighborhood the neighborhood to fill in
+		 * @param hits scratch space for the critters found
+		 */
+		private void fillNeighborhood(int radius, Neighborhood neighborhood, SpatialIndex.Hits hits) {
+			int x = state.x;
+			int y = state.y;
+			long numPositions = spatialIndex.query(x, y, radius, borders == null, slot, hits) - 1;
+			neighborhood.clear(radius, numPositions);
+			long numGrass = 0;
+			int y0 = Math.floorMod(y + hits.getMinDy(), height);
+			for (int dx = hits.getMinDx(); dx <= hits.getMaxDx(); dx++) {
+				int gx = Math.floorMod(x + dx, width);
+				int gy = y0;
+				for (int dy = hits.getMinDy(); dy <= hits.getMaxDy(); dy++) {
+					if (grass.hasGrass(gx, gy) && (dx != 0 || dy != 0)) {
+						numGrass++;
+					}
+					gy = gy + 1 == height ? 0 : gy + 1;
+				}
+			}
+			for (int i = 0; i < hits.size(); i++) {
+				neighborhood.addCritter(slots[hits.getId(i)].toString(), hits.getDx(i), hits.getDy(i));
+				if (grass.hasGrass(hits.getX(i), hits.getY(i))) {
+					numGrass--;
+				}
+			}
+			neighborhood.setNumGrass(numGrass);
+		}
+
 		/** 
 		 * @param strategy the strategy associated with this critter
+		 * @param species the id of the critter's species
 		 * @param x the x-coordinate of the position
 		 * @param y the y-oordinate of the position
 		 */
-		public ConcreteCritter(Critter strategy, int x, int y) {
+		public ConcreteCritter(Critter strategy, int species, int x, int y) {
 			state = new CritterState(x, y);
 			this.strategy = strategy;
+			this.species = species;
+			this.slot = allocateSlot(this);
+			initializeInfo();
+		}
+
+		/**
+		 * Brings this retired critter back as a newborn with the given
+		 * strategy at the given position, keeping its species.
+		 * @param strategy the new strategy
+		 * @param x the x-coordinate of the position
+		 * @param y the y-oordinate of the position
+		 */
+		public void bind(Critter strategy, int x, int y) {
+			state.reset(x, y);
+			this.strategy = strategy;
+			this.slot = allocateSlot(this);
 			initializeInfo();
 		}
+
+		/**
+		 * Cuts this critter, which has been cleared from the world, off from
+		 * its strategy, whose info throws from now on, and keeps it for
+		 * reuse if we are recycling.
+		 */
+		public void retire() {
+			info = null;
+			strategy = null;
+			if (recycled != null) {
+				recycled.get(species).add(this);
+			}
+		}
 	
 		/** @return the x-coordinate of this critter */
 		public int getX() { return state.x; }
 		
 		/** @return the y-coordinate of this critter */
 		public int getY() { return state.y; }
+
+		/** @return the number the board holds this critter by */
+		public int getSlot() { return slot; }
+
+		/** @return true iff this critter's strategy has been sampled this step */
+		public boolean isSampled() { return state.sampledStep == numSteps; }
+
+		/** @return the move this critter's strategy was last sampled to make */
+		public Critter.Direction getSampledMove() { return state.move; }
+
+		/** @return the speed this critter's strategy was last sampled to have */
+		public Critter.Speed getSampledSpeed() { return state.speed; }
+
+		/**
+		 * @return the food type this critter's strategy was last sampled to
+		 * have, which with a watchdog is null if the call overran
+		 */
+		public Critter.FoodType getSampledFoodType() { return state.foodType; }
 	
 		/**
 		 * @return true if this critter can mate with the other critter,
@@ -639,7 +1931,7 @@ public class CritterModel {
 		public boolean canMate(ConcreteCritter other) {
 		// NOTE: really Critter should define canMate, but because we don't want
 		// to expose that functionality to implementors, we place the logic here.
-			return strategy.getClass().equals(other.strategy.getClass());
+			return species == other.species;
 		}
 	
 		/** @return true if this critter has mated already */
@@ -656,20 +1948,21 @@ public class CritterModel {
 		 * board in the process.
 		 * @param x the x-coordinate
 		 * @param y the y-coordinate
+		 * @param context where the move goes
 		 */
-		public void moveTo(int x, int y) {
-			board[state.x][state.y] = null;
-			board[x][y] = this;
+		public void moveTo(int x, int y, StepContext context) {
+			context.moved(this, state.x, state.y, x, y);
 			state.x = x;
 			state.y = y;
 		}
 	
 		/**
 		 * Causes this critter to eat.
+		 * @param context where the callback goes
 		 */
-		public void eat() {
+		public void eat(StepContext context) {
 			state.hunger = 0;
-			strategy.onEat();
+			context.callback(this, StrategyWatchdog.Call.ON_EAT, null);
 		}
 	
 		/**
@@ -680,34 +1973,53 @@ public class CritterModel {
 		}
 	
 		/**
-		 * Marks this critter for death.
+		 * Marks this critter for death, recording it in the death buffer the
+		 * first time it dies.
+		 * @param cause the reason it died
 		 */
-		public void dead() {
-			strategy.onDeath();
-			state.died = true;
+		public void dead(SimulationListener.DeathCause cause) {
+			dead(cause, direct);
+		}
+
+		/**
+		 * Marks this critter for death, recording it in the death buffer the
+		 * first time it dies.
+		 * @param cause the reason it died
+		 * @param context where the death goes
+		 */
+		public void dead(SimulationListener.DeathCause cause, StepContext context) {
+			context.callback(this, StrategyWatchdog.Call.ON_DEATH, null);
+			if (!state.died) {
+				state.died = true;
+				state.causeOfDeath = cause;
+				context.died(this);
+			}
 		}
 	
 		/**
 		 * Causes this critter to mate.
 		 * @param other the critter's mate
+		 * @param context where the callback goes
 		 */
-		public void mate(ConcreteCritter other) {
-			strategy.onMate(other.strategy);
+		public void mate(ConcreteCritter other, StepContext context) {
+			context.callback(this, StrategyWatchdog.Call.ON_MATE, other);
 			state.hasMated = true;
 		}
 	
 		/**
 		 * @return true if this critter beats the other critter in a fight.
 		 * @param other the critter's opponent
+		 * @param context the context of the fight, for the critters' speeds
+		 * and the coin toss
 		 */
-		public boolean fight(ConcreteCritter other) {
-			int comp = strategy.getSpeed().compareTo(other.strategy.getSpeed());
+		public boolean fight(ConcreteCritter other, StepContext context) {
+			int comp = context.speedOf(this).compareTo(context.speedOf(other));
 			if (comp < 0) {
 				return false;
 			} else if (comp > 0) {
 				return true;
 			} else {
-				return RAND.nextBoolean();
+				return context.rand().nextBoolean();
 			}
 		}
 	
@@ -1,48 +1,351 @@
 import java.awt.*;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 import javax.swing.*;
 
 /**
  * The CritterPanel is our "view" of the model.  Here we render the model
- * onto a JPanel which is "blank slate" Java Swing GUI component.
+ * onto a JPanel which is "blank slate" Java Swing GUI component.  The panel
+ * never reads the model directly; it renders the latest snapshot published
+ * by the simulation thread.
+ *
+ * The panel is meant to live in a JScrollPane and only ever draws the part
+ * of the world that is visible, into an offscreen image the size of the
+ * visible rectangle.  How it draws depends on the zoom level:
+ *
+ * - At full size, each position is a glyph, blitted from a sprite cached
+ *   per palette code (i.e., per (glyph, color) pair).
+ * - Zoomed out to a few pixels per position, each position is a square of
+ *   its glyph's color.
+ * - Zoomed out past one pixel per position, each pixel shows a heatmap of
+ *   the density and colors of the critters (or else grass) in the square of
+ *   positions under it, summed from the snapshot's per-block counts.
+ *
+ * Either way the work per frame is bounded by the number of visible pixels
+ * (or, for the heatmap, of visible blocks, which are at most
+ * RenderSnapshot.MAX_BLOCKS_PER_SIDE along a side), not the size of the
+ * world.  Between frames, only the positions the
+ * snapshot buffer reports as dirty are redrawn, and only the rectangle
+ * around them is repainted.
  */
 public class CritterPanel extends JPanel {
 	private static final long serialVersionUID = -6411955578595419157L;
 	public static final int FONT_SIZE = 12;
 	public static final Font FONT = new Font("Monospace", Font.BOLD, FONT_SIZE + 4);
 	private static final Color BACKGROUND_COLOR = new Color(220, 255, 220);
-	
-	private CritterModel model;
-	
+	// The zoom levels in pixels per position (> 0) or, for the heatmap,
+	// negated positions per pixel (< 0).
+	private static final int[] ZOOMS = { FONT_SIZE, 6, 3, 2, 1, -2, -4, -8, -16, -32, -64 };
+
+	private SnapshotBuffer snapshots;
+	private int worldWidth;
+	private int worldHeight;
+	private int zoom;
+	private BufferedImage view;
+	private Rectangle viewRect;
+	private int viewZoom;
+	private BufferedImage[] sprites;
+
 	/**
-	 * Constructs a new CritterPanel tied to the given model.
-	 * @param model the model this panel renders
+	 * Constructs a new CritterPanel tied to the given snapshots.
+	 * @param snapshots the snapshots of the model this panel renders
 	 */
-	public CritterPanel(CritterModel model) {
-		this.model = model;
+	public CritterPanel(SnapshotBuffer snapshots) {
+		this.snapshots = snapshots;
+		this.sprites = new BufferedImage[16];
+		this.zoom = 0;
 		setFont(FONT);
 		setBackground(BACKGROUND_COLOR);
-		setPreferredSize(new Dimension(FONT_SIZE * model.getWidth() + 1,
-		                               FONT_SIZE * model.getHeight() + FONT_SIZE / 2));
+		synchronized (snapshots) {
+			worldWidth = snapshots.getFront().getWidth();
+			worldHeight = snapshots.getFront().getHeight();
+		}
+		updatePreferredSize();
+		addMouseWheelListener(new MouseWheelListener() {
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				if (e.isControlDown()) {
+					if (e.getWheelRotation() < 0) {
+						zoomIn();
+					} else {
+						zoomOut();
+					}
+				} else if (getParent() != null) {
+					// Let the enclosing scroll pane scroll as usual.
+					getParent().dispatchEvent(SwingUtilities.convertMouseEvent(CritterPanel.this, e, getParent()));
+				}
+			}
+		});
 	}
-	
+
+	/** Zooms in one level, if possible. */
+	public void zoomIn() { setZoom(zoom - 1); }
+
+	/** Zooms out one level, if possible. */
+	public void zoomOut() { setZoom(zoom + 1); }
+
 	/**
-	 * Renders the model to the panel each time the panel is repainted.
+	 * Redraws the positions that changed since the last refresh into the
+	 * offscreen image and repaints the part of the panel that covers them.
+	 */
+	public void refresh() {
+		Rectangle visible = getVisibleRect();
+		RenderSnapshot snapshot = snapshots.acquire();
+		try {
+			if (view == null || viewZoom != zoom || !visible.equals(viewRect)) {
+				// The next paint redraws everything anyway.
+				repaint();
+				return;
+			}
+			int scale = ZOOMS[zoom];
+			CellBitmap dirty = snapshots.getDirtyCells();
+			long visibleCells = scale > 0 ? (long) (visible.width / scale + 2) * (visible.height / scale + 2) : 0;
+			if (scale < 0 || dirty.size() > visibleCells) {
+				drawView(snapshot);
+				repaint(viewRect);
+				return;
+			}
+			int minX = Integer.MAX_VALUE;
+			int minY = Integer.MAX_VALUE;
+			int maxX = -1;
+			int maxY = -1;
+			Graphics g = view.getGraphics();
+			for (int cell = dirty.next(0); cell >= 0; cell = dirty.next(cell + 1)) {
+				int x = cell / worldHeight;
+				int y = cell % worldHeight;
+				if (drawCell(g, snapshot, x, y)) {
+					minX = Math.min(minX, x);
+					minY = Math.min(minY, y);
+					maxX = Math.max(maxX, x);
+					maxY = Math.max(maxY, y);
+				}
+			}
+			g.dispose();
+			if (maxX >= 0) {
+				repaint(minX * scale, minY * scale, (maxX - minX + 1) * scale, (maxY - minY + 1) * scale);
+			}
+		} finally {
+			snapshots.release();
+		}
+	}
+
+	/**
+	 * Renders the visible part of the world to the panel each time the panel
+	 * is repainted.
 	 * @param g the graphics component to draw on
 	 */
 	@Override
 	public void paintComponent(Graphics g) {
 		super.paintComponent(g);
-		for (int i = 0; i < model.getWidth(); i++) {
-			for (int j = 0; j < model.getHeight(); j++) {
-				String text = model.getGlyphAt(i, j);
-				Color color = model.getColorAt(i, j);
-				if (!text.equals(" ")) {
-					drawWithShadow(g, i * FONT_SIZE + 10, j * FONT_SIZE + 20, text, color);
+		Rectangle visible = getVisibleRect();
+		if (visible.isEmpty()) {
+			return;
+		}
+		if (view == null || viewZoom != zoom || !visible.equals(viewRect)) {
+			if (view == null || view.getWidth() != visible.width || view.getHeight() != visible.height) {
+				view = new BufferedImage(visible.width, visible.height, BufferedImage.TYPE_INT_RGB);
+			}
+			viewRect = visible;
+			viewZoom = zoom;
+			RenderSnapshot snapshot = snapshots.acquire();
+			try {
+				drawView(snapshot);
+			} finally {
+				snapshots.release();
+			}
+		}
+		g.drawImage(view, viewRect.x, viewRect.y, null);
+	}
+
+	/**
+	 * Changes the zoom level, resizing the panel to match.
+	 * @param zoom the index of the new zoom level
+	 */
+	private void setZoom(int zoom) {
+		if (zoom >= 0 && zoom < ZOOMS.length && zoom != this.zoom) {
+			this.zoom = zoom;
+			updatePreferredSize();
+			revalidate();
+			repaint();
+		}
+	}
+
+	/** Sizes the panel to fit the whole world at the current zoom level. */
+	private void updatePreferredSize() {
+		int scale = ZOOMS[zoom];
+		if (scale > 0) {
+			setPreferredSize(new Dimension(worldWidth * scale, worldHeight * scale));
+		} else {
+			setPreferredSize(new Dimension((worldWidth - 1) / -scale + 1, (worldHeight - 1) / -scale + 1));
+		}
+	}
+
+	/**
+	 * Draws the entire visible part of the world into the offscreen image.
+	 * @param snapshot the snapshot to draw
+	 */
+	private void drawView(RenderSnapshot snapshot) {
+		int scale = ZOOMS[zoom];
+		if (scale < 0) {
+			drawHeatmap(snapshot, -scale);
+			return;
+		}
+		Graphics g = view.getGraphics();
+		g.setColor(BACKGROUND_COLOR);
+		g.fillRect(0, 0, view.getWidth(), view.getHeight());
+		int x0 = viewRect.x / scale;
+		int y0 = viewRect.y / scale;
+		int x1 = Math.min(worldWidth, (viewRect.x + viewRect.width) / scale + 1);
+		int y1 = Math.min(worldHeight, (viewRect.y + viewRect.height) / scale + 1);
+		for (int x = x0; x < x1; x++) {
+			for (int y = y0; y < y1; y++) {
+				if (snapshot.getCodeAt(x, y) != GlyphPalette.EMPTY) {
+					drawCell(g, snapshot, x, y);
 				}
 			}
 		}
+		g.dispose();
 	}
-	
+
+	/**
+	 * Draws a single position of the world into the offscreen image.
+	 * @return false iff the position is not visible
+	 * @param g the graphics context of the offscreen image
+	 * @param snapshot the snapshot to draw
+	 * @param x the x-coordinate of the position
+	 * @param y the y-coordinate of the position
+	 */
+	private boolean drawCell(Graphics g, RenderSnapshot snapshot, int x, int y) {
+		int scale = ZOOMS[zoom];
+		int px = x * scale - viewRect.x;
+		int py = y * scale - viewRect.y;
+		if (px + scale <= 0 || py + scale <= 0 || px >= viewRect.width || py >= viewRect.height) {
+			return false;
+		}
+		char code = snapshot.getCodeAt(x, y);
+		if (scale == FONT_SIZE && code == GlyphPalette.OVERFLOW) {
+			// There's no sprite for pairs that didn't fit in the palette.
+			Graphics cell = g.create(px, py, FONT_SIZE, FONT_SIZE);
+			drawGlyph(cell, snapshot.getGlyphAt(x, y), snapshot.getColorAt(x, y));
+			cell.dispose();
+		} else if (scale == FONT_SIZE && code != GlyphPalette.EMPTY) {
+			g.drawImage(getSprite(snapshot.getPalette(), code), px, py, null);
+		} else {
+			Color color = snapshot.getColorAt(x, y);
+			g.setColor(code == GlyphPalette.EMPTY || color == null ? BACKGROUND_COLOR : color);
+			g.fillRect(px, py, scale, scale);
+		}
+		return true;
+	}
+
+	/**
+	 * Draws the visible part of the world as a heatmap, one pixel per square
+	 * of positions.  Each pixel sums the blocks that cover its square and
+	 * shows their density over the area they cover; blocks bigger than a
+	 * pixel are spread evenly over it.
+	 * @param snapshot the snapshot to draw
+	 * @param cellsPerPixel the number of positions along the side of a pixel
+	 */
+	private void drawHeatmap(RenderSnapshot snapshot, int cellsPerPixel) {
+		int[] pixels = ((DataBufferInt) view.getRaster().getDataBuffer()).getData();
+		int background = BACKGROUND_COLOR.getRGB() & 0xffffff;
+		int grassColor = Color.GREEN.darker().getRGB() & 0xffffff;
+		int shift = snapshot.getBlockShift();
+		Arrays.fill(pixels, background);
+		for (int py = 0; py < viewRect.height; py++) {
+			int y0 = (viewRect.y + py) * cellsPerPixel;
+			if (y0 >= worldHeight) {
+				break;
+			}
+			// The rows of blocks under the pixel and the rows they cover.
+			int by0 = y0 >> shift;
+			int by1 = (Math.min(y0 + cellsPerPixel, worldHeight) - 1) >> shift;
+			int rows = Math.min((by1 + 1) << shift, worldHeight) - (by0 << shift);
+			for (int px = 0; px < viewRect.width; px++) {
+				int x0 = (viewRect.x + px) * cellsPerPixel;
+				if (x0 >= worldWidth) {
+					break;
+				}
+				int bx0 = x0 >> shift;
+				int bx1 = (Math.min(x0 + cellsPerPixel, worldWidth) - 1) >> shift;
+				int columns = Math.min((bx1 + 1) << shift, worldWidth) - (bx0 << shift);
+				int critters = 0;
+				int grass = 0;
+				int red = 0;
+				int green = 0;
+				int blue = 0;
+				for (int bx = bx0; bx <= bx1; bx++) {
+					for (int by = by0; by <= by1; by++) {
+						int block = snapshot.getBlockAt(bx << shift, by << shift);
+						critters += snapshot.getBlockCritters(block);
+						grass += snapshot.getBlockGrass(block);
+						red += snapshot.getBlockRed(block);
+						green += snapshot.getBlockGreen(block);
+						blue += snapshot.getBlockBlue(block);
+					}
+				}
+				double area = (double) columns * rows;
+				int rgb;
+				if (critters > 0) {
+					double density = Math.min(1.0, 0.3 + 0.7 * Math.sqrt(critters / area));
+					rgb = blend(background, (red / critters) << 16 | (green / critters) << 8 | (blue / critters), density);
+				} else {
+					rgb = blend(background, grassColor, Math.min(1.0, grass / area));
+				}
+				pixels[py * viewRect.width + px] = rgb;
+			}
+		}
+	}
+
+	/**
+	 * @return the RGB color that is the given fraction of the way from one
+	 * color to another
+	 * @param from the RGB color at fraction 0
+	 * @param to the RGB color at fraction 1
+	 * @param fraction how far to go, in [0, 1]
+	 */
+	private static int blend(int from, int to, double fraction) {
+		int r = (int) (((from >> 16) & 0xff) * (1 - fraction) + ((to >> 16) & 0xff) * fraction);
+		int g = (int) (((from >> 8) & 0xff) * (1 - fraction) + ((to >> 8) & 0xff) * fraction);
+		int b = (int) ((from & 0xff) * (1 - fraction) + (to & 0xff) * fraction);
+		return r << 16 | g << 8 | b;
+	}
+
+	/**
+	 * @return the cached sprite for the given palette code, rendering it the
+	 * first time it is needed
+	 * @param palette the palette the code belongs to
+	 * @param code the code
+	 */
+	private BufferedImage getSprite(GlyphPalette palette, char code) {
+		if (code >= sprites.length) {
+			sprites = Arrays.copyOf(sprites, Math.max(sprites.length * 2, code + 1));
+		}
+		if (sprites[code] == null) {
+			BufferedImage sprite = new BufferedImage(FONT_SIZE, FONT_SIZE, BufferedImage.TYPE_INT_RGB);
+			Graphics g = sprite.getGraphics();
+			drawGlyph(g, palette.getGlyph(code), palette.getColor(code));
+			g.dispose();
+			sprites[code] = sprite;
+		}
+		return sprites[code];
+	}
+
+	/**
+	 * Draws a glyph over the background into a square of FONT_SIZE pixels.
+	 * @param g the graphics context of the square
+	 * @param glyph the glyph
+	 * @param color the color of the glyph
+	 */
+	private void drawGlyph(Graphics g, String glyph, Color color) {
+		g.setColor(BACKGROUND_COLOR);
+		g.fillRect(0, 0, FONT_SIZE, FONT_SIZE);
+		g.setFont(FONT);
+		drawWithShadow(g, 0, FONT_SIZE - 1, glyph, color);
+	}
+
 	/**
 	 * Draws the given text to the graphics context with a little drop shadow.
 	 * @param g the graphics context to draw on
@@ -57,4 +360,4 @@ public class CritterPanel extends JPanel {
 		g.setColor(color);
 		g.drawString(text, x, y);
 	}
-}
\ No newline at end of file
+}
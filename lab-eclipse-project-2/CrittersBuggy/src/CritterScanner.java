@@ -0,0 +1,591 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A CritterScanner finds the Critter subclasses in directories and jars.
+ * Rather than loading every class it finds, which runs static initializers
+ * and is slow with hundreds of species, it reads the class files directly:
+ * the superclass, the number of public constructors, whether the class is
+ * abstract, and whether it is annotated with NoLoad.  Only the classes that
+ * turn out to be critters are loaded, and even those are not initialized.
+ *
+ * Directories are searched recursively, so critters may be in packages, and
+ * every jar found along the way is searched too.  Class files and jars are
+ * read in parallel.  What was found in each of them is kept in an index file
+ * along with its modification time and size, so on a warm start, only the
+ * files that changed since the last scan are read again.
+ */
+public class CritterScanner {
+	/** The first int of an index file ("CIDX"). */
+	public static final int INDEX_MAGIC = 0x43494458;
+	/** The version of the index format. */
+	public static final int INDEX_VERSION = 1;
+
+	// The first int of every class file.
+	private static final int CLASS_MAGIC = 0xcafebabe;
+
+	// Access flags.
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_INTERFACE = 0x0200;
+	private static final int ACC_ABSTRACT = 0x0400;
+	private static final int ACC_MODULE = 0x8000;
+
+	// Constant pool tags.
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_FLOAT = 4;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	private static final int CONSTANT_METHOD_HANDLE = 15;
+	private static final int CONSTANT_METHOD_TYPE = 16;
+	private static final int CONSTANT_DYNAMIC = 17;
+	private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	private static final int CONSTANT_MODULE = 19;
+	private static final int CONSTANT_PACKAGE = 20;
+
+	// The internal name of the Critter class and the descriptor of NoLoad.
+	private static final String CRITTER = "Critter";
+	private static final String NO_LOAD = "LNoLoad;";
+
+	/** What the scanner needs to know about a class. */
+	private static class ClassInfo {
+		// Internal names, with '/' between packages.
+		public String name;
+		public String superName;
+		public boolean isAbstract;
+		public int numPublicConstructors;
+		public boolean noLoad;
+	}
+
+	/** A class file or jar and the classes found in it. */
+	private static class Source {
+		public String path;
+		public long modified;
+		public long length;
+		public List<ClassInfo> classes;
+	}
+
+	private File indexFile;
+
+	/**
+	 * Constructs a new scanner.
+	 * @param indexFile the index file to read and update, or null to scan
+	 * every file every time
+	 */
+	public CritterScanner(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * @return the loadable Critter subclasses found in the given directories
+	 * and jars, sorted by name.  Files that can't be read are skipped with a
+	 * warning.
+	 * @param roots the directories and jars to search
+	 */
+	public List<Class<?>> scan(List<File> roots) {
+		List<File> files = new ArrayList<File>();
+		List<File> classPath = new ArrayList<File>();
+		for (File root : roots) {
+			if (root.isDirectory()) {
+				classPath.add(root);
+				collect(root, files, classPath);
+			} else if (root.getName().endsWith(".jar")) {
+				files.add(root);
+				classPath.add(root);
+			}
+		}
+		Map<String, Source> index = readIndex();
+		List<Source> sources = readSources(files, index);
+		int numUnchanged = 0;
+		for (Source source : sources) {
+			if (index.get(source.path) == source) {
+				numUnchanged++;
+			}
+		}
+		if (indexFile != null && (numUnchanged != sources.size() || numUnchanged != index.size())) {
+			writeIndex(sources);
+		}
+		return load(sources, classPath);
+	}
+
+	///// PRIVATE HELPERS /////
+
+	/**
+	 * Adds the class files and jars in the given directory and those below
+	 * it, skipping hidden directories.
+	 * @param dir the directory
+	 * @param files where to add the class files and jars
+	 * @param classPath where to add the jars
+	 */
+	private static void collect(File dir, List<File> files, List<File> classPath) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			System.out.println("WARNING: could not list " + dir);
+			return;
+		}
+		for (File child : children) {
+			String name = child.getName();
+			if (child.isDirectory()) {
+				if (!name.startsWith(".")) {
+					collect(child, files, classPath);
+				}
+			} else if (name.endsWith(".class")) {
+				files.add(child);
+			} else if (name.endsWith(".jar")) {
+				files.add(child);
+				classPath.add(child);
+			}
+		}
+	}
+
+	/**
+	 * @return what was found in each of the given files, taken from the index
+	 * for those that haven't changed since and read afresh, in parallel, for
+	 * the others
+	 * @param files the class files and jars
+	 * @param index the sources in the index, by path
+	 */
+	private static List<Source> readSources(List<File> files, Map<String, Source> index) {
+		List<Source> sources = new ArrayList<Source>();
+		List<Callable<Source>> tasks = new ArrayList<Callable<Source>>();
+		for (final File file : files) {
+			Source indexed = index.get(file.getAbsolutePath());
+			if (indexed != null && indexed.modified == file.lastModified() && indexed.length == file.length()) {
+				sources.add(indexed);
+			} else {
+				tasks.add(new Callable<Source>() {
+					public Source call() {
+						return readSource(file);
+					}
+				});
+			}
+		}
+		if (tasks.isEmpty()) {
+			return sources;
+		}
+		int numThreads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+		try {
+			for (Future<Source> f : workers.invokeAll(tasks)) {
+				Source source = f.get();
+				if (source != null) {
+					sources.add(source);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while scanning for critters", ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException("Scanning for critters gave an exception!", ex.getCause());
+		} finally {
+			workers.shutdown();
+		}
+		return sources;
+	}
+
+	/**
+	 * @return the classes in the given class file or jar, or null if it
+	 * can't be read
+	 * @param file the file
+	 */
+	private static Source readSource(File file) {
+		Source source = new Source();
+		source.path = file.getAbsolutePath();
+		source.modified = file.lastModified();
+		source.length = file.length();
+		source.classes = new ArrayList<ClassInfo>();
+		try {
+			if (file.getName().endsWith(".jar")) {
+				ZipFile jar = new ZipFile(file);
+				try {
+					Enumeration<? extends ZipEntry> entries = jar.entries();
+					while (entries.hasMoreElements()) {
+						ZipEntry entry = entries.nextElement();
+						// Versioned entries only shadow the plain ones.
+						if (entry.getName().endsWith(".class") && !entry.getName().startsWith("META-INF/")) {
+							InputStream in = jar.getInputStream(entry);
+							try {
+								addClass(source, in.readAllBytes());
+							} catch (IOException ex) {
+								System.out.println("WARNING: could not read " + entry.getName() + " in " + file
+								                   + ": " + ex.getMessage());
+							} finally {
+								in.close();
+							}
+						}
+					}
+				} finally {
+					jar.close();
+				}
+			} else {
+				addClass(source, Files.readAllBytes(file.toPath()));
+			}
+		} catch (IOException ex) {
+			System.out.println("WARNING: could not read " + file + ": " + ex.getMessage());
+			return null;
+		}
+		return source;
+	}
+
+	/**
+	 * Adds the class in the given class file to the given source, unless it
+	 * is a module descriptor.
+	 * @param source the source
+	 * @param bytes the class file
+	 * @throws IOException if the class file is corrupt
+	 */
+	private static void addClass(Source source, byte[] bytes) throws IOException {
+		ClassInfo info = parseClass(bytes);
+		if (info != null) {
+			source.classes.add(info);
+		}
+	}
+
+	/**
+	 * @return what the scanner needs to know about the class in the given
+	 * class file, or null if it is a module descriptor
+	 * @param bytes the class file
+	 * @throws IOException if the class file is corrupt
+	 */
+	private static ClassInfo parseClass(byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			if (in.readInt() != CLASS_MAGIC) {
+				throw new IOException("Not a class file");
+			}
+			in.readUnsignedShort();
+			in.readUnsignedShort();
+			// The constant pool: we only keep the UTF-8 strings and the class
+			// references, which point at UTF-8 strings.
+			int poolSize = in.readUnsignedShort();
+			String[] utf8 = new String[poolSize];
+			int[] classNames = new int[poolSize];
+			for (int i = 1; i < poolSize; i++) {
+				int tag = in.readUnsignedByte();
+				switch (tag) {
+					case CONSTANT_UTF8: utf8[i] = in.readUTF(); break;
+					case CONSTANT_CLASS: classNames[i] = in.readUnsignedShort(); break;
+					case CONSTANT_STRING:
+					case CONSTANT_METHOD_TYPE:
+					case CONSTANT_MODULE:
+					case CONSTANT_PACKAGE: in.skipBytes(2); break;
+					case CONSTANT_METHOD_HANDLE: in.skipBytes(3); break;
+					case CONSTANT_INTEGER:
+					case CONSTANT_FLOAT:
+					case CONSTANT_FIELDREF:
+					case CONSTANT_METHODREF:
+					case CONSTANT_INTERFACE_METHODREF:
+					case CONSTANT_NAME_AND_TYPE:
+					case CONSTANT_DYNAMIC:
+					case CONSTANT_INVOKE_DYNAMIC: in.skipBytes(4); break;
+					case CONSTANT_LONG:
+					case CONSTANT_DOUBLE:
+						// These take up two entries.
+						in.skipBytes(8);
+						i++;
+						break;
+					default: throw new IOException("Bad constant pool tag " + tag);
+				}
+			}
+			int access = in.readUnsignedShort();
+			if ((access & ACC_MODULE) != 0) {
+				return null;
+			}
+			ClassInfo info = new ClassInfo();
+			info.isAbstract = (access & (ACC_ABSTRACT | ACC_INTERFACE)) != 0;
+			info.name = classNameAt(utf8, classNames, in.readUnsignedShort());
+			int superIndex = in.readUnsignedShort();
+			info.superName = superIndex == 0 ? null : classNameAt(utf8, classNames, superIndex);
+			in.skipBytes(2 * in.readUnsignedShort());
+			// Fields, then methods, counting the public constructors.
+			int numFields = in.readUnsignedShort();
+			for (int i = 0; i < numFields; i++) {
+				in.skipBytes(6);
+				skipAttributes(in);
+			}
+			int numMethods = in.readUnsignedShort();
+			for (int i = 0; i < numMethods; i++) {
+				int methodAccess = in.readUnsignedShort();
+				String name = utf8At(utf8, in.readUnsignedShort());
+				in.skipBytes(2);
+				if (name.equals("<init>") && (methodAccess & ACC_PUBLIC) != 0) {
+					info.numPublicConstructors++;
+				}
+				skipAttributes(in);
+			}
+			// The class's own attributes, looking for NoLoad among its
+			// runtime-visible annotations.
+			int numAttributes = in.readUnsignedShort();
+			for (int i = 0; i < numAttributes; i++) {
+				String name = utf8At(utf8, in.readUnsignedShort());
+				int length = in.readInt();
+				if (name.equals("RuntimeVisibleAnnotations")) {
+					int numAnnotations = in.readUnsignedShort();
+					for (int j = 0; j < numAnnotations; j++) {
+						if (NO_LOAD.equals(utf8At(utf8, in.readUnsignedShort()))) {
+							info.noLoad = true;
+						}
+						skipAnnotationValues(in);
+					}
+				} else {
+					in.skipBytes(length);
+				}
+			}
+			return info;
+		} catch (EOFException ex) {
+			throw new IOException("Truncated class file", ex);
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			throw new IOException("Bad constant pool index", ex);
+		}
+	}
+
+	/**
+	 * @return the UTF-8 string at the given index of the constant pool
+	 * @throws IOException if there is none
+	 */
+	private static String utf8At(String[] utf8, int index) throws IOException {
+		if (utf8[index] == null) {
+			throw new IOException("Bad constant pool index " + index);
+		}
+		return utf8[index];
+	}
+
+	/**
+	 * @return the name of the class referenced at the given index of the
+	 * constant pool
+	 * @throws IOException if there is none
+	 */
+	private static String classNameAt(String[] utf8, int[] classNames, int index) throws IOException {
+		if (classNames[index] == 0) {
+			throw new IOException("Bad class index " + index);
+		}
+		return utf8At(utf8, classNames[index]);
+	}
+
+	/** Skips a table of attributes, which must be next in the stream. */
+	private static void skipAttributes(DataInputStream in) throws IOException {
+		int numAttributes = in.readUnsignedShort();
+		for (int i = 0; i < numAttributes; i++) {
+			in.skipBytes(2);
+			in.skipBytes(in.readInt());
+		}
+	}
+
+	/** Skips the element-value pairs of an annotation, which must be next in the stream. */
+	private static void skipAnnotationValues(DataInputStream in) throws IOException {
+		int numPairs = in.readUnsignedShort();
+		for (int i = 0; i < numPairs; i++) {
+			in.skipBytes(2);
+			skipElementValue(in);
+		}
+	}
+
+	/** Skips an annotation element value, which must be next in the stream. */
+	private static void skipElementValue(DataInputStream in) throws IOException {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+			case 'e': in.skipBytes(4); break;
+			case '@':
+				in.skipBytes(2);
+				skipAnnotationValues(in);
+				break;
+			case '[': {
+				int numValues = in.readUnsignedShort();
+				for (int i = 0; i < numValues; i++) {
+					skipElementValue(in);
+				}
+				break;
+			}
+			case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's': case 'c':
+				in.skipBytes(2);
+				break;
+			default: throw new IOException("Bad annotation element tag " + tag);
+		}
+	}
+
+	/**
+	 * @return the critters among the classes in the given sources, loaded
+	 * but not initialized, sorted by name
+	 * @param sources the sources
+	 * @param classPath the directories and jars to load them from
+	 */
+	private static List<Class<?>> load(List<Source> sources, List<File> classPath) {
+		Map<String, ClassInfo> classes = new HashMap<String, ClassInfo>();
+		for (Source source : sources) {
+			for (ClassInfo info : source.classes) {
+				classes.put(info.name, info);
+			}
+		}
+		List<String> names = new ArrayList<String>();
+		for (ClassInfo info : classes.values()) {
+			if (!info.isAbstract && !info.noLoad && info.numPublicConstructors == 1
+			    && extendsCritter(info, classes)) {
+				names.add(info.name.replace('/', '.'));
+			}
+		}
+		Collections.sort(names);
+		List<URL> urls = new ArrayList<URL>();
+		for (File file : classPath) {
+			try {
+				urls.add(file.toURI().toURL());
+			} catch (MalformedURLException ex) {
+				System.out.println("WARNING: bad class path entry: " + file);
+			}
+		}
+		// Classes that are already on the class path are found there first,
+		// so they share their Critter with the rest of the program.
+		ClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]),
+		                                        CritterScanner.class.getClassLoader());
+		List<Class<?>> critters = new ArrayList<Class<?>>();
+		for (String name : names) {
+			try {
+				critters.add(Class.forName(name, false, loader));
+			} catch (ClassNotFoundException | LinkageError ex) {
+				System.out.println("WARNING: could not load " + name + ": " + ex);
+			}
+		}
+		return critters;
+	}
+
+	/**
+	 * @return true if the given class is a subclass of Critter, going by the
+	 * scanned classes alone
+	 * @param info the class
+	 * @param classes the scanned classes, by name
+	 */
+	private static boolean extendsCritter(ClassInfo info, Map<String, ClassInfo> classes) {
+		// The length of the chain is bounded in case of a cycle, which no
+		// valid set of class files has.
+		String name = info.superName;
+		for (int depth = 0; name != null && depth <= classes.size(); depth++) {
+			if (name.equals(CRITTER)) {
+				return true;
+			}
+			ClassInfo parent = classes.get(name);
+			name = parent == null ? null : parent.superName;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the sources in the index file, by path, or none if there is no
+	 * index or it can't be read
+	 */
+	private Map<String, Source> readIndex() {
+		Map<String, Source> index = new HashMap<String, Source>();
+		if (indexFile == null || !indexFile.exists()) {
+			return index;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			try {
+				if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+					return index;
+				}
+				int numSources = in.readInt();
+				for (int i = 0; i < numSources; i++) {
+					Source source = new Source();
+					source.path = in.readUTF();
+					source.modified = in.readLong();
+					source.length = in.readLong();
+					int numClasses = in.readInt();
+					source.classes = new ArrayList<ClassInfo>(numClasses);
+					for (int j = 0; j < numClasses; j++) {
+						ClassInfo info = new ClassInfo();
+						info.name = in.readUTF();
+						info.superName = in.readBoolean() ? in.readUTF() : null;
+						info.isAbstract = in.readBoolean();
+						info.numPublicConstructors = in.readInt();
+						info.noLoad = in.readBoolean();
+						source.classes.add(info);
+					}
+					index.put(source.path, source);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			// A bad index only costs us a full scan.
+			System.out.println("WARNING: ignoring unreadable critter index " + indexFile);
+			index.clear();
+		}
+		return index;
+	}
+
+	/**
+	 * Replaces the index file with one holding the given sources.  Failing
+	 * to write it is only worth a warning.
+	 * @param sources the sources
+	 */
+	private void writeIndex(List<Source> sources) {
+		File tmp = new File(indexFile.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_VERSION);
+				out.writeInt(sources.size());
+				for (Source source : sources) {
+					out.writeUTF(source.path);
+					out.writeLong(source.modified);
+					out.writeLong(source.length);
+					out.writeInt(source.classes.size());
+					for (ClassInfo info : source.classes) {
+						out.writeUTF(info.name);
+						out.writeBoolean(info.superName != null);
+						if (info.superName != null) {
+							out.writeUTF(info.superName);
+						}
+						out.writeBoolean(info.isAbstract);
+						out.writeInt(info.numPublicConstructors);
+						out.writeBoolean(info.noLoad);
+					}
+				}
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				           StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ex) {
+			System.out.println("WARNING: could not write critter index " + indexFile + ": " + ex.getMessage());
+		}
+	}
+}
@@ -0,0 +1,395 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A DistributedSimulation splits a world into bands of columns and
+ * simulates each band in its own process, a SimulationWorker, on this
+ * machine, e.g.,
+ *
+ *   java DistributedSimulation 4 10000
+ *
+ * runs the critters in the current directory in four worker JVMs for 10000
+ * steps.  The coordinator starts the workers with the same java and class
+ * path as its own and talks to each over a TCP connection on the loopback
+ * address; see SimulationWorker for the protocol.
+ *
+ * Each step is a barrier: the coordinator sends every worker the columns
+ * just beyond its band and the critters that crossed into it, and then
+ * waits for every worker to step and send back its edge columns, the
+ * critters that crossed out of it, and its species counts.  Workers only
+ * talk to the coordinator, which passes what they send on to their
+ * neighbors without decoding it.  The bands wrap around, so the world is
+ * still a torus, but there are no fights or matings across bands, and
+ * grass wraps around within each band; see CritterModel.setBorders().  A
+ * critter that crosses into a band gets a new strategy object, as after a
+ * checkpoint, and one whose landing position was taken in the meantime
+ * lands next to it, or is lost if there is no room.
+ */
+public class DistributedSimulation {
+	// How long to wait for the workers to connect.
+	private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+	// How long to wait for a worker to exit once told to stop.
+	private static final int EXIT_TIMEOUT_MILLIS = 5000;
+
+	private List<Class<?>> roster;
+	private int width;
+	private int height;
+	private int[] bandStarts;
+	private Process[] processes;
+	private Socket[] sockets;
+	private DataInputStream[] ins;
+	private DataOutputStream[] outs;
+	// What each worker sent after its last step.
+	private byte[][] westColumns;
+	private byte[][] eastColumns;
+	private byte[][] westward;
+	private byte[][] eastward;
+	private int[][] bandCounts;
+	private int[] bandLost;
+	private int numSteps;
+
+	/**
+	 * Starts the workers of a new simulation and waits for them to set up
+	 * their bands; see the CritterModel constructor for the world
+	 * parameters.  Each band starts with its share of numInitial critters
+	 * of every species.
+	 * @param roster the species, which must be on the class path
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @param randomGrassProb the factor by which grass randomly spawns
+	 * @param hungerLimit the hunger count at which a Critter dies
+	 * @param numInitial the number of critters each species starts with
+	 * @param initialGrassRatio the initial ratio of grass to not-grass
+	 * @param repopulating whether each band repopulates itself with the
+	 * species that died out there
+	 * @param numWorkers the number of workers, and so of bands
+	 * @param seed the seed from which every band's seed is drawn
+	 * @throws IllegalArgumentException if the bands would be less than 3
+	 * wide
+	 * @throws IOException if starting or talking to a worker fails
+	 */
+	public DistributedSimulation(List<Class<?>> roster, int width, int height, int randomGrassProb,
+	                             int hungerLimit, int numInitial, double initialGrassRatio, boolean repopulating,
+	                             int numWorkers, long seed) throws IOException {
+		if (numWorkers < 1 || width / numWorkers < 3) {
+			throw new IllegalArgumentException("Can't split a world " + width + " wide into " + numWorkers
+			                                   + " bands at least 3 wide");
+		}
+		this.roster = new ArrayList<Class<?>>(roster);
+		this.width = width;
+		this.height = height;
+		this.bandStarts = new int[numWorkers + 1];
+		for (int i = 0; i <= numWorkers; i++) {
+			bandStarts[i] = (int) ((long) i * width / numWorkers);
+		}
+		this.processes = new Process[numWorkers];
+		this.sockets = new Socket[numWorkers];
+		this.ins = new DataInputStream[numWorkers];
+		this.outs = new DataOutputStream[numWorkers];
+		this.westColumns = new byte[numWorkers][];
+		this.eastColumns = new byte[numWorkers][];
+		this.westward = new byte[numWorkers][];
+		this.eastward = new byte[numWorkers][];
+		this.bandCounts = new int[numWorkers][roster.size()];
+		this.bandLost = new int[numWorkers];
+		boolean started = false;
+		try {
+			connect();
+			Random seeder = new Random(seed);
+			for (int i = 0; i < numWorkers; i++) {
+				int bandWidth = bandStarts[i + 1] - bandStarts[i];
+				DataOutputStream out = outs[i];
+				out.writeByte(SimulationWorker.CONFIG);
+				out.writeInt(SimulationWorker.MAGIC);
+				out.writeInt(SimulationWorker.VERSION);
+				out.writeInt(bandWidth);
+				out.writeInt(height);
+				out.writeInt(randomGrassProb);
+				out.writeInt(hungerLimit);
+				out.writeInt((int) Math.round((double) numInitial * bandWidth / width));
+				out.writeDouble(initialGrassRatio);
+				out.writeLong(seeder.nextLong());
+				out.writeBoolean(repopulating);
+				out.writeInt(roster.size());
+				for (Class<?> species : roster) {
+					out.writeUTF(species.getName());
+				}
+				out.flush();
+			}
+			readStepped();
+			started = true;
+		} finally {
+			if (!started) {
+				close();
+			}
+		}
+	}
+
+	/** @return the number of steps so far taken in this simulation */
+	public int getNumSteps() { return numSteps; }
+
+	/** @return the width of the simulation world */
+	public int getWidth() { return width; }
+
+	/** @return the height of the simulation world */
+	public int getHeight() { return height; }
+
+	/** @return the number of workers, and so of bands */
+	public int getNumWorkers() { return processes.length; }
+
+	/** @return the species of the simulation, in id order */
+	public List<Class<?>> getRoster() { return roster; }
+
+	/**
+	 * @return the number of critters of each species, by id, after the
+	 * last step
+	 */
+	public int[] getCounts() {
+		int[] counts = new int[roster.size()];
+		for (int[] band : bandCounts) {
+			for (int id = 0; id < counts.length; id++) {
+				counts[id] += band[id];
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the number of critters that crossed into a band with no room
+	 * to land, so far
+	 */
+	public int getNumLostMigrants() {
+		int lost = 0;
+		for (int n : bandLost) {
+			lost += n;
+		}
+		return lost;
+	}
+
+	/**
+	 * Steps the whole world forward one time step, returning once every
+	 * band has.
+	 * @throws IOException if talking to a worker fails, e.g., because a
+	 * critter threw and the worker died
+	 */
+	public void step() throws IOException {
+		int n = processes.length;
+		for (int i = 0; i < n; i++) {
+			int west = (i + n - 1) % n;
+			int east = (i + 1) % n;
+			DataOutputStream out = outs[i];
+			out.writeByte(SimulationWorker.STEP);
+			SimulationWorker.writeBlob(out, eastColumns[west]);
+			SimulationWorker.writeBlob(out, westColumns[east]);
+			// Critters coming from the west crossed eastward, and vice versa.
+			SimulationWorker.writeBlob(out, eastward[west]);
+			SimulationWorker.writeBlob(out, westward[east]);
+			out.flush();
+		}
+		readStepped();
+		numSteps++;
+	}
+
+	/**
+	 * @return the whole world drawn as text, in the format of
+	 * CritterModel.toString()
+	 * @throws IOException if talking to a worker fails
+	 */
+	public String snapshot() throws IOException {
+		String[][] columns = new String[width][height];
+		for (DataOutputStream out : outs) {
+			out.writeByte(SimulationWorker.SNAPSHOT);
+			out.flush();
+		}
+		for (int i = 0; i < processes.length; i++) {
+			expect(i, SimulationWorker.SNAPSHOT);
+			for (int x = bandStarts[i]; x < bandStarts[i + 1]; x++) {
+				SimulationWorker.decodeColumn(SimulationWorker.readBlob(ins[i]), columns[x]);
+			}
+		}
+		StringBuilder ret = new StringBuilder((width + 1) * height + 16);
+		ret.append("Steps = ");
+		ret.append(numSteps);
+		ret.append("\n");
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				String glyph = columns[i][j];
+				ret.append(glyph.equals(CritterModel.EMPTY_SYMBOL) ? "." : glyph);
+			}
+			ret.append("\n");
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Tells the workers to stop and hangs up on them, killing any that
+	 * don't exit in time.
+	 */
+	public void close() {
+		for (int i = 0; i < processes.length; i++) {
+			if (outs[i] != null) {
+				try {
+					outs[i].writeByte(SimulationWorker.STOP);
+					outs[i].flush();
+				} catch (IOException ex) {
+					// It's gone already.
+				}
+			}
+			if (sockets[i] != null) {
+				try {
+					sockets[i].close();
+				} catch (IOException ex) {
+					// Nothing more to do.
+				}
+			}
+		}
+		for (Process process : processes) {
+			if (process == null) {
+				continue;
+			}
+			try {
+				if (!process.waitFor(EXIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					process.destroyForcibly();
+				}
+			} catch (InterruptedException ex) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	///// PRIVATE HELPERS /////
+
+	/**
+	 * Starts the workers and waits for each to connect.
+	 * @throws IOException if a worker fails to start or connect in time
+	 */
+	private void connect() throws IOException {
+		ServerSocket server = new ServerSocket(0, processes.length, InetAddress.getLoopbackAddress());
+		try {
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			for (int i = 0; i < processes.length; i++) {
+				ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				                                            "SimulationWorker", String.valueOf(server.getLocalPort()),
+				                                            String.valueOf(i));
+				builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+				builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+				processes[i] = builder.start();
+			}
+			server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+			for (int connected = 0; connected < processes.length; connected++) {
+				Socket socket;
+				try {
+					socket = server.accept();
+				} catch (SocketTimeoutException ex) {
+					throw new IOException("Only " + connected + " of " + processes.length + " workers connected", ex);
+				}
+				socket.setTcpNoDelay(true);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				if (in.readByte() != SimulationWorker.HELLO) {
+					socket.close();
+					throw new IOException("A worker didn't say hello");
+				}
+				int index = in.readInt();
+				if (index < 0 || index >= processes.length || sockets[index] != null) {
+					socket.close();
+					throw new IOException("Unexpected worker " + index);
+				}
+				sockets[index] = socket;
+				ins[index] = in;
+				outs[index] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * Reads a STEPPED message from every worker.
+	 * @throws IOException if reading fails
+	 */
+	private void readStepped() throws IOException {
+		for (int i = 0; i < processes.length; i++) {
+			DataInputStream in = ins[i];
+			expect(i, SimulationWorker.STEPPED);
+			westColumns[i] = SimulationWorker.readBlob(in);
+			eastColumns[i] = SimulationWorker.readBlob(in);
+			westward[i] = SimulationWorker.readBlob(in);
+			eastward[i] = SimulationWorker.readBlob(in);
+			bandLost[i] = SimulationWorker.readVarint(in);
+			for (int id = 0; id < roster.size(); id++) {
+				bandCounts[i][id] = SimulationWorker.readVarint(in);
+			}
+		}
+	}
+
+	/**
+	 * Reads the type of the next message from a worker.
+	 * @param i the index of the worker
+	 * @param type the type it should be
+	 * @throws IOException if it isn't, or reading fails
+	 */
+	private void expect(int i, byte type) throws IOException {
+		byte actual;
+		try {
+			actual = ins[i].readByte();
+		} catch (IOException ex) {
+			throw new IOException("Lost worker " + i + "!", ex);
+		}
+		if (actual != type) {
+			throw new IOException("Worker " + i + " sent message type " + actual + " instead of " + type);
+		}
+	}
+
+	/**
+	 * Runs the critters in the current directory, which must be on the class
+	 * path, with the world parameters of CritterMain and no repopulation.
+	 * @param args the number of workers, the number of steps, and optionally
+	 * the seed
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: java DistributedSimulation WORKERS STEPS [SEED]");
+			System.exit(1);
+		}
+		int numWorkers = Integer.parseInt(args[0]);
+		int maxSteps = Integer.parseInt(args[1]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : new Random().nextLong();
+		List<Class<?>> species = CritterMain.discoverCritters(new File(System.getProperty("user.dir")));
+		System.out.println("Running " + species.size() + " critters in " + numWorkers + " workers (seed " + seed + ")...");
+		DistributedSimulation simulation = new DistributedSimulation(species, CritterMain.WIDTH, CritterMain.HEIGHT,
+		                                                             CritterMain.RANDOM_GRASS_PROB,
+		                                                             CritterMain.HUNGER_LIMIT,
+		                                                             CritterMain.NUM_INITIAL_CRITTERS,
+		                                                             CritterMain.INITIAL_GRASS_RATIO, false,
+		                                                             numWorkers, seed);
+		try {
+			long start = System.nanoTime();
+			for (int i = 0; i < maxSteps; i++) {
+				simulation.step();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.print(simulation.snapshot());
+			int[] counts = simulation.getCounts();
+			for (int id = 0; id < counts.length; id++) {
+				System.out.println(species.get(id).getName() + ": " + counts[id]);
+			}
+			System.out.printf("%d steps in %.1f s (%.0f steps/s), %d migrants lost%n", maxSteps, seconds,
+			                  maxSteps / seconds, simulation.getNumLostMigrants());
+		} finally {
+			simulation.close();
+		}
+	}
+}
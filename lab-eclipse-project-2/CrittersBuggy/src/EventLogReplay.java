@@ -0,0 +1,414 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An EventLogReplay plays back an event log written by an EventLogWriter,
+ * rebuilding the board (which species is where) and the grass after any
+ * logged step, without running a single critter strategy.
+ *
+ * Opening a log scans the block headers once to index where each block and
+ * keyframe is.  Seeking to a step then loads the last keyframe at or before
+ * it and applies the events of the steps in between.
+ */
+public class EventLogReplay implements Closeable {
+	private FileChannel channel;
+	private int width;
+	private int height;
+	// The offset and type of every block in the file.
+	private long[] blockOffsets;
+	private byte[] blockTypes;
+	private int numBlocks;
+	// For each keyframe, its block and the number of steps taken.
+	private List<int[]> keyframes;
+	private int lastStep;
+	// The current state: the species id + 1 at each position (0 if empty),
+	// whether it has grass, and the species table and populations.
+	private int[] species;
+	private boolean[] grass;
+	private List<String> speciesNames;
+	private int[] populations;
+	private int step;
+	private int nextBlock;
+	private ByteBuffer payload;
+
+	/**
+	 * Opens the given event log, positioned at its first keyframe.
+	 * @param file the log
+	 * @throws IOException if reading fails or the file is not an event log
+	 */
+	public EventLogReplay(File file) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(header, 0);
+		if (header.getInt() != EventLogWriter.MAGIC) {
+			throw new IOException("Not an event log: " + file);
+		}
+		int version = header.getInt();
+		if (version != EventLogWriter.VERSION) {
+			throw new IOException("Unsupported event log version " + version + ": " + file);
+		}
+		this.width = header.getInt();
+		this.height = header.getInt();
+		this.species = new int[width * height];
+		this.grass = new boolean[width * height];
+		this.speciesNames = new ArrayList<String>();
+		this.populations = new int[0];
+		this.payload = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		indexBlocks(16);
+		if (keyframes.isEmpty()) {
+			throw new IOException("Event log has no keyframes: " + file);
+		}
+		seek(getFirstStep());
+	}
+
+	/** Closes the log. */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/** @return the width of the world */
+	public int getWidth() { return width; }
+
+	/** @return the height of the world */
+	public int getHeight() { return height; }
+
+	/** @return the number of steps taken at the start of the log */
+	public int getFirstStep() { return keyframes.get(0)[1]; }
+
+	/** @return the number of steps taken at the end of the log */
+	public int getLastStep() { return lastStep; }
+
+	/** @return the number of steps taken in the current state */
+	public int getStep() { return step; }
+
+	/**
+	 * @return the name of the species at position (x, y), or null if there is
+	 * no critter there
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public String getSpeciesAt(int x, int y) {
+		int id = species[x * height + y];
+		return id == 0 ? null : speciesNames.get(id - 1);
+	}
+
+	/**
+	 * @return true iff position (x, y) has grass
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public boolean hasGrassAt(int x, int y) { return grass[x * height + y]; }
+
+	/**
+	 * @return the number of live critters of the given species
+	 * @param name the name of the species
+	 */
+	public int getPopulation(String name) {
+		int id = speciesNames.indexOf(name);
+		return id < 0 ? 0 : populations[id];
+	}
+
+	/**
+	 * Moves to the state after the given number of steps.
+	 * @param target the number of steps, getFirstStep() <= target <= getLastStep()
+	 * @throws IOException if reading fails or the log is corrupt
+	 */
+	public void seek(int target) throws IOException {
+		if (target < getFirstStep() || target > lastStep) {
+			throw new IllegalArgumentException("Step " + target + " is not in the log: [" + getFirstStep()
+			                                   + ", " + lastStep + "]");
+		}
+		int[] keyframe = keyframeBefore(target);
+		// Keep stepping from here unless a keyframe gets us there faster.
+		if (nextBlock == 0 || target < step || keyframe[1] > step) {
+			loadBlock(keyframe[0]);
+			readKeyframe(true);
+			nextBlock = keyframe[0] + 1;
+		}
+		while (step < target) {
+			stepForward();
+		}
+	}
+
+	/**
+	 * Applies the events of the next step.
+	 * @return false iff there are no more steps in the log
+	 * @throws IOException if reading fails or the log is corrupt
+	 */
+	public boolean stepForward() throws IOException {
+		while (nextBlock < numBlocks && blockTypes[nextBlock] == EventLogWriter.KEYFRAME) {
+			// Passing a keyframe only picks up the species it defines.
+			loadBlock(nextBlock++);
+			readKeyframe(false);
+		}
+		if (nextBlock == numBlocks) {
+			return false;
+		}
+		loadBlock(nextBlock++);
+		applyEvents();
+		step++;
+		return true;
+	}
+
+	/**
+	 * Scans the block headers, starting from the given offset, to index the
+	 * blocks and keyframes.
+	 * @param offset the offset of the first block
+	 */
+	private void indexBlocks(long offset) throws IOException {
+		blockOffsets = new long[64];
+		blockTypes = new byte[64];
+		keyframes = new ArrayList<int[]>();
+		ByteBuffer header = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+		long size = channel.size();
+		while (offset + 5 <= size) {
+			header.clear();
+			header.limit((int) Math.min(10, size - offset));
+			readFully(header, offset);
+			byte type = header.get();
+			int length = header.getInt();
+			if (length < 0 || offset + 5 + length > size) {
+				// A block cut short, e.g., by a crash; ignore it.
+				break;
+			}
+			if (numBlocks == blockOffsets.length) {
+				blockOffsets = Arrays.copyOf(blockOffsets, numBlocks * 2);
+				blockTypes = Arrays.copyOf(blockTypes, numBlocks * 2);
+			}
+			blockOffsets[numBlocks] = offset;
+			blockTypes[numBlocks] = type;
+			if (type == EventLogWriter.KEYFRAME) {
+				header.position(5);
+				lastStep = getVarint(header);
+				keyframes.add(new int[] { numBlocks, lastStep });
+			} else if (type == EventLogWriter.STEP) {
+				if (!keyframes.isEmpty()) {
+					lastStep++;
+				}
+			} else {
+				throw new IOException("Corrupt event log: bad block type " + type);
+			}
+			numBlocks++;
+			offset += 5 + length;
+		}
+	}
+
+	/** @return the last keyframe at or before the given step */
+	private int[] keyframeBefore(int target) {
+		int lo = 0;
+		int hi = keyframes.size() - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) / 2;
+			if (keyframes.get(mid)[1] <= target) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return keyframes.get(lo);
+	}
+
+	/**
+	 * Reads the payload of the given block into the payload buffer.
+	 * @param block the index of the block
+	 */
+	private void loadBlock(int block) throws IOException {
+		long offset = blockOffsets[block];
+		long end = block + 1 < numBlocks ? blockOffsets[block + 1] : channel.size();
+		int length = (int) (end - offset - 5);
+		if (payload.capacity() < length) {
+			payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		payload.clear();
+		payload.limit(length);
+		readFully(payload, offset + 5);
+	}
+
+	/**
+	 * Reads the keyframe in the payload buffer.
+	 * @param load true to load its state, false to only read its species
+	 */
+	private void readKeyframe(boolean load) throws IOException {
+		int keyframeStep = getVarint(payload);
+		int numSpecies = getVarint(payload);
+		for (int i = 0; i < numSpecies; i++) {
+			defineSpecies(i, getString(payload));
+		}
+		if (!load) {
+			return;
+		}
+		step = keyframeStep;
+		Arrays.fill(species, 0);
+		Arrays.fill(grass, false);
+		Arrays.fill(populations, 0);
+		int cell = -1;
+		for (int delta = getVarint(payload); delta != 0; delta = getVarint(payload)) {
+			cell += delta;
+			int id = getVarint(payload);
+			checkSpecies(id);
+			species[checkCell(cell)] = id + 1;
+			populations[id]++;
+		}
+		cell = -1;
+		for (int delta = getVarint(payload); delta != 0; delta = getVarint(payload)) {
+			cell += delta;
+			grass[checkCell(cell)] = true;
+		}
+	}
+
+	/** Applies the events of the step in the payload buffer. */
+	private void applyEvents() throws IOException {
+		int cell = 0;
+		while (payload.hasRemaining()) {
+			int op = payload.get() & 0xff;
+			if (op == EventLogWriter.OP_SPECIES) {
+				int id = getVarint(payload);
+				defineSpecies(id, getString(payload));
+				continue;
+			}
+			int zigzag = getVarint(payload);
+			cell = checkCell(cell + (zigzag >>> 1 ^ -(zigzag & 1)));
+			int low = op & ~EventLogWriter.OP_MASK;
+			switch (op & EventLogWriter.OP_MASK) {
+				case EventLogWriter.OP_MOVE: {
+					int to = neighbor(cell, low);
+					int id = species[cell];
+					species[cell] = 0;
+					species[to] = id;
+					break;
+				}
+				case EventLogWriter.OP_FIGHT:
+				case EventLogWriter.OP_MATE:
+					// These don't change the board; the deaths and births they
+					// lead to are events of their own.
+					break;
+				case EventLogWriter.OP_BIRTH: {
+					int id = checkSpecies(getVarint(payload));
+					species[cell] = id + 1;
+					populations[id]++;
+					break;
+				}
+				case EventLogWriter.OP_DEATH: {
+					int id = checkSpecies(getVarint(payload));
+					if ((low & 1) != 0) {
+						species[cell] = 0;
+					}
+					populations[id]--;
+					break;
+				}
+				case EventLogWriter.OP_GRASS_ON: grass[cell] = true; break;
+				case EventLogWriter.OP_GRASS_OFF: grass[cell] = false; break;
+				default: throw new IOException("Corrupt event log: bad opcode " + op);
+			}
+		}
+	}
+
+	/**
+	 * @return the position adjacent to the given one in the given direction,
+	 * wrapping around the edges like the model does
+	 * @param cell the index x * height + y of the position
+	 * @param direction the index of the direction in Critter.Directions
+	 */
+	private int neighbor(int cell, int direction) throws IOException {
+		int x = cell / height;
+		int y = cell % height;
+		if (direction >= Critter.Directions.length) {
+			throw new IOException("Corrupt event log: bad direction " + direction);
+		}
+		switch (Critter.Directions[direction]) {
+			case NORTH: return x * height + (y == 0 ? height - 1 : y - 1);
+			case EAST: return (x == width - 1 ? 0 : x + 1) * height + y;
+			case SOUTH: return x * height + (y == height - 1 ? 0 : y + 1);
+			case WEST: return (x == 0 ? width - 1 : x - 1) * height + y;
+			default: return cell;
+		}
+	}
+
+	/**
+	 * Records the name of a species.
+	 * @param id the id of the species
+	 * @param name its name
+	 */
+	private void defineSpecies(int id, String name) throws IOException {
+		if (id < speciesNames.size()) {
+			if (!speciesNames.get(id).equals(name)) {
+				throw new IOException("Corrupt event log: species " + id + " is both " + speciesNames.get(id)
+				                      + " and " + name);
+			}
+			return;
+		}
+		if (id != speciesNames.size()) {
+			throw new IOException("Corrupt event log: species " + id + " defined out of order");
+		}
+		speciesNames.add(name);
+		populations = Arrays.copyOf(populations, speciesNames.size());
+	}
+
+	/** @return the given species id, checking that it is defined */
+	private int checkSpecies(int id) throws IOException {
+		if (id < 0 || id >= speciesNames.size()) {
+			throw new IOException("Corrupt event log: undefined species " + id);
+		}
+		return id;
+	}
+
+	/** @return the given position, checking that it is in the world */
+	private int checkCell(int cell) throws IOException {
+		if (cell < 0 || cell >= species.length) {
+			throw new IOException("Corrupt event log: position " + cell + " is not in the world");
+		}
+		return cell;
+	}
+
+	/** @return the next unsigned LEB128 varint in the buffer */
+	private static int getVarint(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (!buffer.hasRemaining()) {
+				throw new IOException("Corrupt event log: truncated varint");
+			}
+			byte b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt event log: varint too long");
+	}
+
+	/** @return the next string, a varint length and UTF-8 bytes, in the buffer */
+	private static String getString(ByteBuffer buffer) throws IOException {
+		int length = getVarint(buffer);
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("Corrupt event log: bad string length " + length);
+		}
+		String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return s;
+	}
+
+	/**
+	 * Fills the given buffer from the file.
+	 * @param buffer the buffer, filled from its position to its limit
+	 * @param offset the offset in the file to read from
+	 */
+	private void readFully(ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, offset);
+			if (n < 0) {
+				throw new IOException("Corrupt event log: unexpected end of file");
+			}
+			offset += n;
+		}
+		buffer.flip();
+	}
+}
@@ -0,0 +1,419 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An EventLogWriter records everything that happens in a CritterModel to a
+ * compact binary event log that an EventLogReplay can play back without
+ * running any critter strategies.
+ *
+ * The log is a header followed by a sequence of blocks, each a type byte, a
+ * little-endian int length, and a payload:
+ *
+ * - A STEP block holds the events of one step.  Each event is an opcode byte,
+ *   which also packs the direction of the event (every move, fight and
+ *   mating is between adjacent positions) or the cause of a death, followed
+ *   by the position of the event as a zigzag varint delta from the position
+ *   of the previous event in the block.
+ * - A KEYFRAME block holds the number of steps taken, the species table, and
+ *   the occupied and grassy positions, again delta-encoded.  Keyframes are
+ *   written when the writer starts and every so many steps after, so a
+ *   replay can seek without starting from the beginning.
+ *
+ * Events are encoded on the simulation thread into a buffer per step.  At
+ * the end of each step the buffer is handed off to a writer thread, which
+ * does the actual I/O, so the simulation only waits on the disk if it gets
+ * more than a queue's worth of steps ahead of it.  If writing fails, the
+ * failure is reported to standard error at the end of the step and the
+ * writer detaches itself from the model, which carries on unlogged.
+ */
+public class EventLogWriter implements SimulationListener {
+	/** The first int of every event log ("CLOG"). */
+	public static final int MAGIC = 0x434c4f47;
+	/** The version of the format. */
+	public static final int VERSION = 1;
+	/** The default number of steps between keyframes. */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 1000;
+
+	// Block types.
+	static final byte STEP = 1;
+	static final byte KEYFRAME = 2;
+
+	// Opcodes; the low bits of moves, fights and matings hold the index of
+	// the direction of the other position, those of deaths hold the cause
+	// and whether the position was vacated.
+	static final int OP_MOVE = 0x10;
+	static final int OP_FIGHT = 0x20;
+	static final int OP_MATE = 0x30;
+	static final int OP_BIRTH = 0x40;
+	static final int OP_DEATH = 0x50;
+	static final int OP_GRASS_ON = 0x60;
+	static final int OP_GRASS_OFF = 0x70;
+	static final int OP_SPECIES = 0x80;
+	static final int OP_MASK = 0xf0;
+
+	// How many steps may be queued for the writer thread.
+	private static final int QUEUE_SIZE = 64;
+
+	private CritterModel model;
+	private int width;
+	private int height;
+	private int keyframeInterval;
+	private Map<Class<?>, Integer> speciesIds;
+	private String[] speciesNames;
+	private int numSpecies;
+	private byte[] block;
+	private int length;
+	private int lastCell;
+	private BlockingQueue<byte[]> queue;
+	private BlockingQueue<byte[]> free;
+	private Thread writerThread;
+	private volatile IOException failure;
+	// Whether we gave up on logging after a failure.
+	private boolean detached;
+
+	/**
+	 * Starts logging the given model to the given file, beginning with a
+	 * keyframe of its current state.
+	 * @param model the model to log
+	 * @param file the file to write, replacing it
+	 * @param keyframeInterval the number of steps between keyframes
+	 * @throws IOException if the file cannot be opened
+	 */
+	public EventLogWriter(CritterModel model, File file, int keyframeInterval) throws IOException {
+		if (keyframeInterval < 1) {
+			throw new IllegalArgumentException("Keyframe interval must be positive: " + keyframeInterval);
+		}
+		this.model = model;
+		this.width = model.getWidth();
+		this.height = model.getHeight();
+		this.keyframeInterval = keyframeInterval;
+		this.speciesIds = new HashMap<Class<?>, Integer>();
+		this.speciesNames = new String[8];
+		this.numSpecies = 0;
+		this.block = new byte[1 << 12];
+		this.queue = new ArrayBlockingQueue<byte[]>(QUEUE_SIZE);
+		this.free = new ArrayBlockingQueue<byte[]>(QUEUE_SIZE + 1);
+		this.detached = false;
+		final OutputStream out = new FileOutputStream(file);
+		this.writerThread = new Thread("event-log-writer") {
+			public void run() { drain(out); }
+		};
+		writerThread.setDaemon(true);
+		writerThread.start();
+		length = 0;
+		putInt(MAGIC);
+		putInt(VERSION);
+		putInt(width);
+		putInt(height);
+		enqueue(false);
+		writeKeyframe();
+		startStep();
+		model.addListener(this);
+	}
+
+	/**
+	 * Stops logging, waits for everything logged so far to be written, and
+	 * closes the file.  Call this on the thread that steps the model, or
+	 * while the model is not stepping.
+	 * @throws IOException if writing the log failed
+	 */
+	public void close() throws IOException {
+		model.removeListener(this);
+		try {
+			if (!detached) {
+				queue.put(new byte[0]);
+			}
+			writerThread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing the event log", ex);
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	///// SimulationListener /////
+
+	public void critterMoved(int fromX, int fromY, int toX, int toY) {
+		putEvent(OP_MOVE | directionIndex(fromX, fromY, toX, toY), fromX, fromY);
+	}
+
+	public void critterFought(int winnerX, int winnerY, int loserX, int loserY) {
+		putEvent(OP_FIGHT | directionIndex(winnerX, winnerY, loserX, loserY), winnerX, winnerY);
+	}
+
+	public void critterMated(int x, int y, int mateX, int mateY) {
+		putEvent(OP_MATE | directionIndex(x, y, mateX, mateY), x, y);
+	}
+
+	public void critterBorn(Class<?> species, int x, int y) {
+		int id = speciesId(species);
+		putEvent(OP_BIRTH, x, y);
+		putVarint(id);
+	}
+
+	public void critterDied(Class<?> species, int x, int y, DeathCause cause, boolean vacated) {
+		int id = speciesId(species);
+		putEvent(OP_DEATH | cause.ordinal() << 1 | (vacated ? 1 : 0), x, y);
+		putVarint(id);
+	}
+
+	public void grassChanged(int x, int y, boolean hasGrass) {
+		putEvent(hasGrass ? OP_GRASS_ON : OP_GRASS_OFF, x, y);
+	}
+
+	public void stepEnded(int numSteps) {
+		enqueue(true);
+		if (!detached && numSteps % keyframeInterval == 0) {
+			writeKeyframe();
+		}
+		startStep();
+	}
+
+	/** @return true iff writing failed and the writer detached itself; see close() */
+	public boolean isDetached() { return detached; }
+
+	///// ENCODING /////
+
+	/** Starts a new STEP block. */
+	private void startStep() {
+		length = 0;
+		putByte(STEP);
+		putInt(0);
+		lastCell = 0;
+	}
+
+	/** Writes a KEYFRAME block of the current state of the model. */
+	private void writeKeyframe() {
+		// Define the species first so the table below is complete.
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				Class<?> species = model.getSpeciesAt(x, y);
+				if (species != null) {
+					speciesId(species);
+				}
+			}
+		}
+		length = 0;
+		putByte(KEYFRAME);
+		putInt(0);
+		putVarint(model.getNumSteps());
+		putVarint(numSpecies);
+		for (int i = 0; i < numSpecies; i++) {
+			putString(speciesNames[i]);
+		}
+		// Occupied positions, then grassy positions, each terminated by a 0.
+		int last = -1;
+		for (int cell = 0; cell < width * height; cell++) {
+			Class<?> species = model.getSpeciesAt(cell / height, cell % height);
+			if (species != null) {
+				putVarint(cell - last);
+				putVarint(speciesIds.get(species));
+				last = cell;
+			}
+		}
+		putVarint(0);
+		last = -1;
+		for (int cell = 0; cell < width * height; cell++) {
+			if (model.hasGrassAt(cell / height, cell % height)) {
+				putVarint(cell - last);
+				last = cell;
+			}
+		}
+		putVarint(0);
+		enqueue(true);
+	}
+
+	/**
+	 * @return the id of the given species, defining it in the current block
+	 * the first time it is seen
+	 * @param species the species
+	 */
+	private int speciesId(Class<?> species) {
+		Integer id = speciesIds.get(species);
+		if (id == null) {
+			id = numSpecies++;
+			speciesIds.put(species, id);
+			if (id == speciesNames.length) {
+				speciesNames = Arrays.copyOf(speciesNames, speciesNames.length * 2);
+			}
+			speciesNames[id] = species.getName();
+			putByte(OP_SPECIES);
+			putVarint(id);
+			putString(species.getName());
+		}
+		return id;
+	}
+
+	/**
+	 * Appends an event at position (x, y).
+	 * @param op the opcode, with its low bits filled in
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	private void putEvent(int op, int x, int y) {
+		int cell = x * height + y;
+		putByte(op);
+		int delta = cell - lastCell;
+		putVarint(delta << 1 ^ delta >> 31);
+		lastCell = cell;
+	}
+
+	/**
+	 * @return the index in Critter.Directions of the direction from one
+	 * position to an adjacent one
+	 */
+	private int directionIndex(int fromX, int fromY, int toX, int toY) {
+		if (fromX == toX) {
+			return toY == (fromY + 1) % height ? Critter.Direction.SOUTH.ordinal()
+			     : toY == fromY ? Critter.Direction.CENTER.ordinal() : Critter.Direction.NORTH.ordinal();
+		} else {
+			return toX == (fromX + 1) % width ? Critter.Direction.EAST.ordinal() : Critter.Direction.WEST.ordinal();
+		}
+	}
+
+	/**
+	 * Appends an unsigned LEB128 varint.
+	 * @param value the value, treated as unsigned
+	 */
+	private void putVarint(int value) {
+		ensureRoom(5);
+		while ((value & ~0x7f) != 0) {
+			block[length++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		block[length++] = (byte) value;
+	}
+
+	/** Appends a byte. */
+	private void putByte(int value) {
+		ensureRoom(1);
+		block[length++] = (byte) value;
+	}
+
+	/** Appends a little-endian int. */
+	private void putInt(int value) {
+		ensureRoom(4);
+		block[length++] = (byte) value;
+		block[length++] = (byte) (value >> 8);
+		block[length++] = (byte) (value >> 16);
+		block[length++] = (byte) (value >> 24);
+	}
+
+	/** Appends a string as a varint length and UTF-8 bytes. */
+	private void putString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putVarint(bytes.length);
+		ensureRoom(bytes.length);
+		System.arraycopy(bytes, 0, block, length, bytes.length);
+		length += bytes.length;
+	}
+
+	/** Makes room in the current block for n more bytes. */
+	private void ensureRoom(int n) {
+		if (length + n > block.length) {
+			block = Arrays.copyOf(block, Math.max(block.length * 2, length + n));
+		}
+	}
+
+	///// HANDING OFF TO THE WRITER THREAD /////
+
+	/**
+	 * Queues a copy of the current block for the writer thread, unless
+	 * writing has failed, in which case we detach instead.
+	 * @param framed true iff the block starts with a type and a length to
+	 * fill in, i.e., it is not the header
+	 */
+	private void enqueue(boolean framed) {
+		if (detached) {
+			return;
+		} else if (failure != null) {
+			detach();
+			return;
+		}
+		if (framed) {
+			int payload = length - 5;
+			block[1] = (byte) payload;
+			block[2] = (byte) (payload >> 8);
+			block[3] = (byte) (payload >> 16);
+			block[4] = (byte) (payload >> 24);
+		}
+		byte[] copy = free.poll();
+		if (copy == null || copy.length < length + 4) {
+			copy = new byte[Math.max(length + 4, 1 << 12)];
+		}
+		// The copy is prefixed by the number of bytes in use.
+		copy[0] = (byte) length;
+		copy[1] = (byte) (length >> 8);
+		copy[2] = (byte) (length >> 16);
+		copy[3] = (byte) (length >> 24);
+		System.arraycopy(block, 0, copy, 4, length);
+		try {
+			queue.put(copy);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			failure = new IOException("Interrupted while logging events", ex);
+			detach();
+		}
+	}
+
+	/**
+	 * Reports the failure, stops listening to the model, and lets the writer
+	 * thread finish.  Throwing instead would leave the model half-stepped.
+	 */
+	private void detach() {
+		System.err.println("WARNING: could not write the event log, no longer logging: " + failure);
+		detached = true;
+		model.removeListener(this);
+		// What's queued would be dropped anyway; make room for the end.
+		queue.clear();
+		queue.offer(new byte[0]);
+	}
+
+	/**
+	 * Writes the queued blocks to the given stream until an empty block
+	 * arrives, then closes it.  Runs on the writer thread.  After a failure,
+	 * blocks are still taken off the queue, so the simulation never waits on
+	 * a dead writer, but they are dropped.
+	 * @param out the stream
+	 */
+	private void drain(OutputStream out) {
+		while (true) {
+			byte[] copy;
+			try {
+				copy = queue.take();
+			} catch (InterruptedException ex) {
+				failure = new IOException("Event log writer interrupted", ex);
+				break;
+			}
+			if (copy.length == 0) {
+				break;
+			}
+			int n = (copy[0] & 0xff) | (copy[1] & 0xff) << 8 | (copy[2] & 0xff) << 16 | (copy[3] & 0xff) << 24;
+			if (failure == null) {
+				try {
+					out.write(copy, 4, n);
+				} catch (IOException ex) {
+					failure = ex;
+				}
+			}
+			free.offer(copy);
+		}
+		try {
+			out.close();
+		} catch (IOException ex) {
+			if (failure == null) {
+				failure = ex;
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+
+/**
+ * A GrassEngine whose cost per step scales with the amount of grass in the
+ * world rather than with the size of the world.
+ *
+ * - The cells that have grass are kept in an active set, so spreading only
+ *   visits cells that actually have grass.
+ * - New grass is seeded by geometric skip sampling: rather than rolling the
+ *   dice once per empty cell, we draw the distance to the next cell that
+ *   spawns grass, so there is one random draw per spawned blade.
+ * - Each cell is a single byte holding the grass's level: 0 for no grass and
+ *   level k for grass of value 2^(k-1).  Spreading grass doubles its value,
+ *   i.e., increments its level, and saturates at MAX_LEVEL instead of
+ *   overflowing.
+ *
+ * Grass spreads and spawns with the same probabilities as in the original
+ * simulation: a blade of value v spreads with probability 1/v onto a random
+ * grassy neighbor (or itself), and an empty cell spawns grass with
+ * probability 1/randomGrassProb.
+ */
+public class FrontierGrassEngine implements GrassEngine {
+	/** The largest level a blade of grass can reach, i.e., a value of 2^30. */
+	public static final int MAX_LEVEL = 31;
+
+	private int width;
+	private int height;
+	private byte[] levels;
+	private CellSet active;
+	private CellBitmap changed;
+	private double logSkip;
+	private SavableRandom rand;
+	private int[] candidates;
+
+	/**
+	 * Constructs a new, grass-free engine.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @param randomGrassProb the factor by which grass randomly spawns
+	 * @param seed the seed of the engine's random stream
+	 */
+	public FrontierGrassEngine(int width, int height, int randomGrassProb, long seed) {
+		this.width = width;
+		this.height = height;
+		this.levels = new byte[width * height];
+		this.active = new CellSet(width * height);
+		// ln(1 - p) where p = 1/randomGrassProb; -infinity when every empty
+		// cell spawns grass.
+		this.logSkip = Math.log1p(-1.0 / randomGrassProb);
+		this.rand = new SavableRandom(seed);
+		this.candidates = new int[Critter.Directions.length];
+	}
+
+	/** @return the number of cells that currently have grass */
+	public int getGrassCount() { return active.size(); }
+
+	public boolean hasGrass(int x, int y) {
+		return levels[x * height + y] != 0;
+	}
+
+	public void plant(int x, int y) {
+		int cell = x * height + y;
+		levels[cell] = 1;
+		active.add(cell);
+	}
+
+	public void clear(int x, int y) {
+		int cell = x * height + y;
+		levels[cell] = 0;
+		active.remove(cell);
+	}
+
+	public void writeCheckpoint(CheckpointBuffer out) throws IOException {
+		out.putBytes(levels, 0, levels.length);
+		// The order of the active cells decides the order in which they spread.
+		out.putCellSet(active);
+		out.putRandom(rand);
+	}
+
+	public void readCheckpoint(CheckpointBuffer in) throws IOException {
+		in.getBytes(levels, 0, levels.length);
+		in.getCellSet(active);
+		rand = in.getRandom();
+	}
+
+	public void setChangedCells(CellBitmap changed) {
+		this.changed = changed;
+	}
+
+	public void propagate() {
+		spreadGrass();
+		spawnGrass();
+	}
+
+	/**
+	 * Gives each existing blade of grass its chance to spread.  Spreading
+	 * only lands on cells that already have grass, so the active set does not
+	 * change here.
+	 */
+	private void spreadGrass() {
+		for (int i = 0; i < active.size(); i++) {
+			int cell = active.get(i);
+			int level = levels[cell];
+			if (rand.nextInt(1 << (level - 1)) != 0) {
+				continue;
+			}
+			int x = cell / height;
+			int y = cell % height;
+			int count = 0;
+			for (Critter.Direction direction : Critter.Directions) {
+				int pos = neighbor(x, y, direction);
+				if (levels[pos] != 0) {
+					candidates[count++] = pos;
+				}
+			}
+			if (count > 0) {
+				levels[candidates[rand.nextInt(count)]] = (byte) Math.min(level + 1, MAX_LEVEL);
+			}
+		}
+	}
+
+	/**
+	 * Spawns new grass on empty cells by skipping ahead a geometrically
+	 * distributed number of cells between spawns.  Skipped-to cells that
+	 * already have grass are left alone, exactly as if we had only rolled for
+	 * the empty ones.
+	 */
+	private void spawnGrass() {
+		long numCells = (long) width * height;
+		for (long cell = nextSkip(); cell < numCells; cell += 1 + nextSkip()) {
+			if (levels[(int) cell] == 0) {
+				levels[(int) cell] = 1;
+				active.add((int) cell);
+				if (changed != null) {
+					changed.add((int) cell);
+				}
+			}
+		}
+	}
+
+	/** @return the number of cells to skip before the next one that spawns grass */
+	private long nextSkip() {
+		// 1 - nextDouble() is in (0, 1] so the log is never -infinity.
+		double skip = Math.floor(Math.log(1.0 - rand.nextDouble()) / logSkip);
+		return skip < Long.MAX_VALUE ? (long) skip : Long.MAX_VALUE / 2;
+	}
+
+	/**
+	 * @return the cell index adjacent to (x, y) in the given direction,
+	 * wrapping around the edges of the world
+	 */
+	private int neighbor(int x, int y, Critter.Direction direction) {
+		switch (direction) {
+			case NORTH: return x * height + (y == 0 ? height - 1 : y - 1);
+			case EAST: return (x == width - 1 ? 0 : x + 1) * height + y;
+			case SOUTH: return x * height + (y == height - 1 ? 0 : y + 1);
+			case WEST: return (x == 0 ? width - 1 : x - 1) * height + y;
+			default: return x * height + y;
+		}
+	}
+}
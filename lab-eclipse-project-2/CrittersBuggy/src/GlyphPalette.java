@@ -0,0 +1,103 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A GlyphPalette assigns a small code to each distinct (glyph, color) pair
+ * seen in the world so that snapshots can store two bytes per position.
+ * Code EMPTY is an empty position and code GRASS is grass; every other code
+ * is a critter's glyph and color, except OVERFLOW.  Once the palette is
+ * full, every new pair gets code OVERFLOW, and the snapshot stores the pair
+ * of each such position itself; see RenderSnapshot.
+ *
+ * Codes are only ever added, by the simulation thread.  Readers may look up
+ * any code that appears in a snapshot published after the code was added.
+ */
+public class GlyphPalette {
+	/** The code of an empty position. */
+	public static final char EMPTY = 0;
+
+	/** The code of a position with grass. */
+	public static final char GRASS = 1;
+
+	/** The most codes a palette can hold, counting OVERFLOW. */
+	public static final int MAX_CODES = Character.MAX_VALUE + 1;
+
+	/** The code of every pair seen after the palette filled up. */
+	public static final char OVERFLOW = (char) (MAX_CODES - 1);
+
+	private String[] glyphs;
+	private Color[] colors;
+	private int size;
+	private Map<String, Map<Color, Integer>> codes;
+
+	/** Constructs a new palette holding just the empty and grass codes. */
+	public GlyphPalette() {
+		this.glyphs = new String[16];
+		this.colors = new Color[16];
+		this.codes = new HashMap<String, Map<Color, Integer>>();
+		glyphs[EMPTY] = CritterModel.EMPTY_SYMBOL;
+		glyphs[GRASS] = CritterModel.GRASS_SYMBOL;
+		colors[GRASS] = Color.GREEN;
+		this.size = 2;
+		codes.put(CritterModel.EMPTY_SYMBOL, new HashMap<Color, Integer>());
+		codes.get(CritterModel.EMPTY_SYMBOL).put(null, (int) EMPTY);
+		codes.put(CritterModel.GRASS_SYMBOL, new HashMap<Color, Integer>());
+		codes.get(CritterModel.GRASS_SYMBOL).put(Color.GREEN, (int) GRASS);
+	}
+
+	/**
+	 * @return the code of the given glyph and color, adding it to the palette
+	 * if need be, or OVERFLOW if the palette is full.  Only the simulation
+	 * thread may call this.
+	 * @param glyph the glyph
+	 * @param color the color
+	 */
+	public char codeOf(String glyph, Color color) {
+		Map<Color, Integer> byColor = codes.get(glyph);
+		if (byColor == null) {
+			byColor = new HashMap<Color, Integer>();
+			codes.put(glyph, byColor);
+		}
+		Integer code = byColor.get(color);
+		if (code == null) {
+			if (size == OVERFLOW) {
+				return OVERFLOW;
+			}
+			if (size == glyphs.length) {
+				grow();
+			}
+			glyphs[size] = glyph;
+			colors[size] = color;
+			code = size++;
+			byColor.put(color, code);
+		}
+		return (char) code.intValue();
+	}
+
+	/**
+	 * @return the glyph of the given code, or null for OVERFLOW
+	 * @param code the code
+	 */
+	public String getGlyph(char code) { return getGlyphs()[code]; }
+
+	/**
+	 * @return the color of the given code or null for an empty position or
+	 * OVERFLOW
+	 * @param code the code
+	 */
+	public Color getColor(char code) { return getColors()[code]; }
+
+	/** @return the glyphs indexed by code; do not modify the result */
+	public synchronized String[] getGlyphs() { return glyphs; }
+
+	/** @return the colors indexed by code; do not modify the result */
+	public synchronized Color[] getColors() { return colors; }
+
+	/** Doubles the room for codes. */
+	private synchronized void grow() {
+		glyphs = Arrays.copyOf(glyphs, glyphs.length * 2);
+		colors = Arrays.copyOf(colors, colors.length * 2);
+	}
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+
+/**
+ * A GrassEngine owns the grass layer of the simulation world: which
+ * positions currently have grass and how that grass spreads and spawns from
+ * one time step to the next.  The CritterModel only ever asks whether a
+ * position has grass, plants or clears grass at a position, and tells the
+ * engine when to propagate.
+ */
+public interface GrassEngine {
+	/**
+	 * @return true iff position (x, y) has grass.
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public boolean hasGrass(int x, int y);
+
+	/**
+	 * Plants a fresh blade of grass at position (x, y).
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public void plant(int x, int y);
+
+	/**
+	 * Removes any grass at position (x, y), e.g., because it was eaten.
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public void clear(int x, int y);
+
+	/** Propagates the grass forward one time step. */
+	public void propagate();
+
+	/**
+	 * Asks the engine to record, in the given set, the index (x * height + y)
+	 * of every position whose grass appears or disappears while propagating.
+	 * @param changed the set to record into, or null to stop recording
+	 */
+	public void setChangedCells(CellBitmap changed);
+
+	/**
+	 * Writes the grass, along with the state of the engine's random streams,
+	 * to a checkpoint.
+	 * @param out the checkpoint to write to
+	 * @throws IOException if writing fails
+	 */
+	public void writeCheckpoint(CheckpointBuffer out) throws IOException;
+
+	/**
+	 * Replaces the grass and the state of the engine's random streams with
+	 * those read from a checkpoint written by an engine of the same class,
+	 * size and spawn rate, so that propagating afterwards continues exactly
+	 * as the checkpointed engine would have.
+	 * @param in the checkpoint to read from
+	 * @throws IOException if reading fails or the checkpoint is corrupt
+	 */
+	public void readCheckpoint(CheckpointBuffer in) throws IOException;
+}
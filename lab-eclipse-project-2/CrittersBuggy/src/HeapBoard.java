@@ -0,0 +1,38 @@
+/**
+ * A Board kept on the heap in a flat array of slots, indexed x * height + y
+ * like the model's cell sets.  It is the default for worlds small enough to
+ * index that way.
+ */
+public class HeapBoard implements Board {
+	private int width;
+	private int height;
+	private int[] slots;
+
+	/**
+	 * Constructs a new, empty board.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @throws IllegalArgumentException if the world has more positions than
+	 * fit in an array
+	 */
+	public HeapBoard(int width, int height) {
+		if ((long) width * height > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A " + width + "x" + height + " world is too big for the heap");
+		}
+		this.width = width;
+		this.height = height;
+		this.slots = new int[width * height];
+	}
+
+	public int getWidth() { return width; }
+
+	public int getHeight() { return height; }
+
+	public int get(int x, int y) {
+		return slots[x * height + y];
+	}
+
+	public void set(int x, int y, int slot) {
+		slots[x * height + y] = slot;
+	}
+}
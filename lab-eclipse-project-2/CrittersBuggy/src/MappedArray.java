@@ -0,0 +1,102 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A MappedArray is a large, zero-filled array of bytes kept outside the
+ * heap in a scratch file mapped into memory.  A single mapping can't be
+ * bigger than 2 GB, so the file is mapped as a sequence of segments of
+ * SEGMENT_SIZE bytes, and the array is indexed by long offsets.  Ints are
+ * aligned to four bytes and so never straddle two segments.
+ *
+ * The file is created sparse and unlinked as soon as it is mapped, so it
+ * never outlives the process, takes disk space only where something was
+ * written, and the OS pages the parts that aren't in use out to it rather
+ * than to swap.
+ */
+public class MappedArray {
+	/** The size of each mapped segment. */
+	public static final long SEGMENT_SIZE = 1L << 30;
+
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private long length;
+	private MappedByteBuffer[] segments;
+
+	/**
+	 * Constructs a new array in a scratch file in the given directory.
+	 * @param dir the directory to put the file in, or null for the default
+	 * temporary directory
+	 * @param length the length of the array in bytes
+	 * @throws IOException if the file can't be created or mapped
+	 */
+	public MappedArray(File dir, long length) throws IOException {
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length " + length);
+		}
+		this.length = length;
+		this.segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		File file = File.createTempFile("critters", ".map", dir);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(length);
+				FileChannel channel = raf.getChannel();
+				for (int i = 0; i < segments.length; i++) {
+					long start = i * SEGMENT_SIZE;
+					segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+					                          Math.min(SEGMENT_SIZE, length - start));
+					segments[i].order(ByteOrder.nativeOrder());
+				}
+			} finally {
+				// The mappings stay valid after the file is closed.
+				raf.close();
+			}
+		} finally {
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	/** @return the length of the array in bytes */
+	public long length() { return length; }
+
+	/**
+	 * @return the byte at the given offset
+	 * @param offset the offset
+	 */
+	public byte getByte(long offset) {
+		return segments[(int) (offset >>> SEGMENT_SHIFT)].get((int) (offset & SEGMENT_MASK));
+	}
+
+	/**
+	 * Sets the byte at the given offset.
+	 * @param offset the offset
+	 * @param value the byte
+	 */
+	public void putByte(long offset, byte value) {
+		segments[(int) (offset >>> SEGMENT_SHIFT)].put((int) (offset & SEGMENT_MASK), value);
+	}
+
+	/**
+	 * @return the int at the given offset, a multiple of four
+	 * @param offset the offset
+	 */
+	public int getInt(long offset) {
+		return segments[(int) (offset >>> SEGMENT_SHIFT)].getInt((int) (offset & SEGMENT_MASK));
+	}
+
+	/**
+	 * Sets the int at the given offset, a multiple of four.
+	 * @param offset the offset
+	 * @param value the int
+	 */
+	public void putInt(long offset, int value) {
+		segments[(int) (offset >>> SEGMENT_SHIFT)].putInt((int) (offset & SEGMENT_MASK), value);
+	}
+}
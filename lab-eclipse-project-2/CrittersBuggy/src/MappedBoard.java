@@ -0,0 +1,41 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A Board kept outside the heap in a MappedArray, four bytes per position,
+ * for worlds too big to keep on the heap or even to index with an int.  A
+ * 50,000 x 50,000 world takes 10 GB of address space but only as much
+ * memory as the OS chooses to keep paged in; positions that were never
+ * occupied take no disk space either.
+ */
+public class MappedBoard implements Board {
+	private int width;
+	private int height;
+	private MappedArray slots;
+
+	/**
+	 * Constructs a new, empty board.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @param dir the directory for the board's scratch file, or null for the
+	 * default temporary directory
+	 * @throws IOException if the scratch file can't be created or mapped
+	 */
+	public MappedBoard(int width, int height, File dir) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.slots = new MappedArray(dir, 4L * width * height);
+	}
+
+	public int getWidth() { return width; }
+
+	public int getHeight() { return height; }
+
+	public int get(int x, int y) {
+		return slots.getInt(4 * ((long) x * height + y));
+	}
+
+	public void set(int x, int y, int slot) {
+		slots.putInt(4 * ((long) x * height + y), slot);
+	}
+}
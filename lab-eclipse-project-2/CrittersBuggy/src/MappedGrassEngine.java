@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A GrassEngine that keeps its grass outside the heap in MappedArrays, for
+ * worlds too big for a StripedGrassEngine's int grids.  It spreads and
+ * spawns grass by exactly the rules of a StripedGrassEngine with a single
+ * stripe, and from the same seed grows exactly the same grass, but stores
+ * each position's value in a byte: grass only ever starts at 1 and
+ * doubles, so a byte holding 1 + log2 of the value, or 0 for no grass,
+ * loses nothing.  With the double buffer and each position's spread
+ * direction, that is three bytes per position instead of nine.
+ *
+ * Propagating visits every position, on the calling thread, so a step of a
+ * huge world takes a while; most of its time goes to streaming the arrays
+ * through the page cache.  The grass can't be checkpointed.
+ */
+public class MappedGrassEngine implements GrassEngine {
+	// Marks a position that does not spread this step.
+	private static final byte NO_SPREAD = -1;
+	// The largest stored byte, that of StripedGrassEngine.MAX_VALUE.
+	private static final int MAX_LEVEL = 31;
+
+	private int width;
+	private int height;
+	private int randomGrassProb;
+	private MappedArray current;
+	private MappedArray next;
+	private MappedArray spreads;
+	private Random rand;
+	private CellBitmap changed;
+
+	/**
+	 * Constructs a new, grass-free engine.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @param randomGrassProb the factor by which grass randomly spawns
+	 * @param seed the seed from which the engine's random stream is derived,
+	 * as for a StripedGrassEngine
+	 * @param dir the directory for the engine's scratch files, or null for
+	 * the default temporary directory
+	 * @throws IOException if a scratch file can't be created or mapped
+	 */
+	public MappedGrassEngine(int width, int height, int randomGrassProb, long seed, File dir) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.randomGrassProb = randomGrassProb;
+		long cells = (long) width * height;
+		this.current = new MappedArray(dir, cells);
+		this.next = new MappedArray(dir, cells);
+		this.spreads = new MappedArray(dir, cells);
+		this.rand = new Random(new Random(seed).nextLong());
+	}
+
+	public boolean hasGrass(int x, int y) {
+		return current.getByte((long) x * height + y) != 0;
+	}
+
+	public void plant(int x, int y) {
+		current.putByte((long) x * height + y, (byte) 1);
+	}
+
+	public void clear(int x, int y) {
+		current.putByte((long) x * height + y, (byte) 0);
+	}
+
+	/**
+	 * Records spawns as for any engine; the cell indices only make sense for
+	 * worlds with at most Integer.MAX_VALUE positions.
+	 */
+	public void setChangedCells(CellBitmap changed) {
+		this.changed = changed;
+	}
+
+	public void writeCheckpoint(CheckpointBuffer out) throws IOException {
+		throw new IOException("The grass of a MappedGrassEngine can't be checkpointed");
+	}
+
+	public void readCheckpoint(CheckpointBuffer in) throws IOException {
+		throw new IOException("The grass of a MappedGrassEngine can't be checkpointed");
+	}
+
+	public void propagate() {
+		decide();
+		gather();
+		MappedArray tmp = current;
+		current = next;
+		next = tmp;
+	}
+
+	/**
+	 * Decides which grass spreads (and where to) and which empty positions
+	 * spawn new grass; see StripedGrassEngine.
+	 */
+	private void decide() {
+		byte[] candidates = new byte[Critter.Directions.length];
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				long cell = (long) x * height + y;
+				byte level = current.getByte(cell);
+				spreads.putByte(cell, NO_SPREAD);
+				if (level == 0) {
+					boolean spawned = rand.nextInt(randomGrassProb) == 0;
+					next.putByte(cell, (byte) (spawned ? 1 : 0));
+					if (spawned && changed != null) {
+						changed.add((int) cell);
+					}
+					continue;
+				}
+				next.putByte(cell, level);
+				if (rand.nextInt(1 << level - 1) == 0) {
+					int count = 0;
+					for (int d = 0; d < Critter.Directions.length; d++) {
+						if (current.getByte(neighbor(x, y, Critter.Directions[d])) != 0) {
+							candidates[count++] = (byte) d;
+						}
+					}
+					if (count > 0) {
+						spreads.putByte(cell, candidates[rand.nextInt(count)]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies every spread; when several neighbors spread into the same
+	 * position, the largest value wins, and doubling saturates.
+	 */
+	private void gather() {
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				long cell = (long) x * height + y;
+				int level = next.getByte(cell);
+				for (int d = 0; d < Critter.Directions.length; d++) {
+					long source = neighbor(x, y, Critter.Directions[d]);
+					if (spreads.getByte(source) == opposite(d)) {
+						level = Math.max(level, Math.min(current.getByte(source), MAX_LEVEL - 1) + 1);
+					}
+				}
+				next.putByte(cell, (byte) level);
+			}
+		}
+	}
+
+	/** @return the index of the direction opposite to the given direction index */
+	private static int opposite(int d) {
+		switch (Critter.Directions[d]) {
+			case NORTH: return Critter.Direction.SOUTH.ordinal();
+			case EAST: return Critter.Direction.WEST.ordinal();
+			case SOUTH: return Critter.Direction.NORTH.ordinal();
+			case WEST: return Critter.Direction.EAST.ordinal();
+			default: return d;
+		}
+	}
+
+	/**
+	 * @return the cell index adjacent to (x, y) in the given direction,
+	 * wrapping around the edges of the world
+	 */
+	private long neighbor(int x, int y, Critter.Direction direction) {
+		switch (direction) {
+			case NORTH: return (long) x * height + (y == 0 ? height - 1 : y - 1);
+			case EAST: return (long) (x == width - 1 ? 0 : x + 1) * height + y;
+			case SOUTH: return (long) x * height + (y == height - 1 ? 0 : y + 1);
+			case WEST: return (long) (x == 0 ? width - 1 : x - 1) * height + y;
+			default: return (long) x * height + y;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A ModelCheckpoint is the complete state of a CritterModel as it goes to
+ * and comes from a checkpoint file; see CritterModel.saveCheckpoint() and
+ * restoreCheckpoint().  The model fills one in and writes it, or reads one
+ * and builds itself from it, so all the file format and its validation
+ * live here.
+ *
+ * The format is compact binary: a header, the model's parameters and random
+ * state, the species roster, the free cells, the state and species of every
+ * critter in order, and the name of the grass engine followed by its grass
+ * and random state.
+ */
+class ModelCheckpoint {
+	// Marks the start of a checkpoint file ("CRIT") and its format version.
+	private static final int MAGIC = 0x43524954;
+	private static final int VERSION = 2;
+
+	// The model's parameters.
+	int width;
+	int height;
+	int randomGrassProb;
+	int hungerLimit;
+	int numInitial;
+	int numActiveSpecies;
+	int numSteps;
+	boolean repopulatingWorld;
+	SavableRandom rand;
+	// The roster, with its active species activated in order, and the ids
+	// of the inactive ones.
+	SpeciesRegistry species;
+	List<Integer> inactiveSpecies;
+	CellSet freeCells;
+	// The critters in order: their species ids, positions, hunger and
+	// whether they have mated.
+	int numCritters;
+	int[] critterSpecies;
+	int[] critterXs;
+	int[] critterYs;
+	int[] critterHungers;
+	boolean[] critterMated;
+	GrassEngine grass;
+
+	/**
+	 * Writes this checkpoint to the given file.  The file is written next to
+	 * the destination and then moved into place, so a failed checkpoint
+	 * never clobbers the previous one.
+	 * @param file the file to write
+	 * @throws IOException if writing the file fails
+	 */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		CheckpointBuffer out = CheckpointBuffer.openForWriting(tmp);
+		try {
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(width);
+			out.putInt(height);
+			out.putInt(randomGrassProb);
+			out.putInt(hungerLimit);
+			out.putInt(numInitial);
+			out.putInt(numActiveSpecies);
+			out.putInt(numSteps);
+			out.putByte(repopulatingWorld ? 1 : 0);
+			out.putRandom(rand);
+			// The species roster: every species, by id, then which of them
+			// are inactive and which are active, in order.
+			out.putInt(species.size());
+			for (int id = 0; id < species.size(); id++) {
+				out.putString(species.getSpecies(id).getName());
+			}
+			out.putInt(inactiveSpecies.size());
+			for (int id : inactiveSpecies) {
+				out.putInt(id);
+			}
+			out.putInt(species.getNumActive());
+			for (int i = 0; i < species.getNumActive(); i++) {
+				out.putInt(species.getActiveId(i));
+			}
+			out.putCellSet(freeCells);
+			out.putInt(numCritters);
+			for (int i = 0; i < numCritters; i++) {
+				out.putInt(critterSpecies[i]);
+				out.putInt(critterXs[i]);
+				out.putInt(critterYs[i]);
+				out.putInt(critterHungers[i]);
+				out.putByte(critterMated[i] ? 1 : 0);
+			}
+			out.putString(grass.getClass().getName());
+			grass.writeCheckpoint(out);
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @return the checkpoint in the given file, checked to describe a
+	 * consistent world
+	 * @param file the file to read
+	 * @throws IOException if reading the file fails, it is not a checkpoint,
+	 * or a species cannot be loaded
+	 */
+	public static ModelCheckpoint read(File file) throws IOException {
+		CheckpointBuffer in = CheckpointBuffer.openForReading(file);
+		try {
+			if (in.getInt() != MAGIC) {
+				throw new IOException("Not a critter checkpoint: " + file);
+			}
+			int version = in.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+			}
+			ModelCheckpoint checkpoint = new ModelCheckpoint();
+			checkpoint.read(in);
+			return checkpoint;
+		} finally {
+			in.close();
+		}
+	}
+
+	///// PRIVATE HELPER METHODS /////
+
+	/**
+	 * Reads this checkpoint from the given buffer.
+	 * @param in the checkpoint, just past its version
+	 */
+	private void read(CheckpointBuffer in) throws IOException {
+		this.width = in.getInt();
+		this.height = in.getInt();
+		this.randomGrassProb = in.getInt();
+		this.hungerLimit = in.getInt();
+		this.numInitial = in.getInt();
+		this.numActiveSpecies = in.getInt();
+		this.numSteps = in.getInt();
+		this.repopulatingWorld = in.getByte() != 0;
+		if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+			throw new IOException("Corrupt checkpoint: world is " + width + "x" + height);
+		}
+		this.rand = in.getRandom();
+		List<Class<?>> roster = new ArrayList<Class<?>>();
+		int numSpecies = in.getInt();
+		for (int i = 0; i < numSpecies; i++) {
+			roster.add(loadSpecies(in.getString()));
+		}
+		try {
+			this.species = new SpeciesRegistry(roster);
+		} catch (IllegalArgumentException ex) {
+			throw new IOException("Corrupt checkpoint: " + ex.getMessage(), ex);
+		}
+		this.inactiveSpecies = new ArrayList<Integer>();
+		int numInactive = in.getInt();
+		for (int i = 0; i < numInactive; i++) {
+			inactiveSpecies.add(checkIndex(in.getInt(), roster.size()));
+		}
+		int numActive = in.getInt();
+		for (int i = 0; i < numActive; i++) {
+			int id = checkIndex(in.getInt(), roster.size());
+			if (species.isActive(id) || inactiveSpecies.contains(id)) {
+				throw new IOException("Corrupt checkpoint: species " + id + " listed twice");
+			}
+			species.activate(id);
+		}
+		this.freeCells = new CellSet(width * height);
+		in.getCellSet(freeCells);
+		this.numCritters = in.getInt();
+		if (numCritters < 0 || numCritters + freeCells.size() != width * height) {
+			throw new IOException("Corrupt checkpoint: free cells do not match the critters");
+		}
+		this.critterSpecies = new int[numCritters];
+		this.critterXs = new int[numCritters];
+		this.critterYs = new int[numCritters];
+		this.critterHungers = new int[numCritters];
+		this.critterMated = new boolean[numCritters];
+		BitSet occupied = new BitSet(width * height);
+		for (int i = 0; i < numCritters; i++) {
+			int id = checkIndex(in.getInt(), roster.size());
+			int x = checkIndex(in.getInt(), width);
+			int y = checkIndex(in.getInt(), height);
+			int cell = x * height + y;
+			if (!species.isActive(id) || occupied.get(cell) || freeCells.contains(cell)) {
+				throw new IOException("Corrupt checkpoint: bad critter at (" + x + ", " + y + ")");
+			}
+			occupied.set(cell);
+			critterSpecies[i] = id;
+			critterXs[i] = x;
+			critterYs[i] = y;
+			critterHungers[i] = in.getInt();
+			critterMated[i] = in.getByte() != 0;
+		}
+		String engine = in.getString();
+		if (engine.equals(FrontierGrassEngine.class.getName())) {
+			this.grass = new FrontierGrassEngine(width, height, randomGrassProb, 0);
+		} else if (engine.equals(StripedGrassEngine.class.getName())) {
+			this.grass = new StripedGrassEngine(width, height, randomGrassProb, 1, 0);
+		} else if (engine.equals(ChunkedGrassEngine.class.getName())) {
+			this.grass = new ChunkedGrassEngine(width, height, randomGrassProb, 0);
+		} else {
+			throw new IOException("Unknown grass engine in checkpoint: " + engine);
+		}
+		grass.readCheckpoint(in);
+	}
+
+	/**
+	 * @return the species with the given name, loaded through the class loader
+	 * that loaded this class
+	 * @param name the name of the species
+	 * @throws IOException if the class cannot be loaded or is not a species
+	 */
+	private static Class<?> loadSpecies(String name) throws IOException {
+		Class<?> cls;
+		try {
+			cls = Class.forName(name, true, ModelCheckpoint.class.getClassLoader());
+		} catch (ClassNotFoundException ex) {
+			throw new IOException("Cannot load species from checkpoint: " + name, ex);
+		}
+		if (!CritterMain.isValidCritterClass(cls)) {
+			throw new IOException("Not a valid species in checkpoint: " + name);
+		}
+		return cls;
+	}
+
+	/**
+	 * @return the given index read from a checkpoint
+	 * @param index the index
+	 * @param bound the exclusive upper bound on the index
+	 * @throws IOException if the index is out of bounds
+	 */
+	private static int checkIndex(int index, int bound) throws IOException {
+		if (index < 0 || index >= bound) {
+			throw new IOException("Corrupt checkpoint: index " + index + " is not in [0, " + bound + ")");
+		}
+		return index;
+	}
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * A Neighborhood is what a critter sees around itself out to some radius:
+ * the other critters, each with its String representation and where it is
+ * relative to the critter, and how many of the other positions have grass
+ * and how many are empty.  See CritterInfo.getNeighborhood().
+ *
+ * A critter gets the same Neighborhood back every time it asks, refilled,
+ * so asking every step costs no allocation.  That also means it only holds
+ * the answer to the latest question: read what you need from it before
+ * asking again.
+ */
+public class Neighborhood {
+	private int radius;
+	private long numPositions;
+	private long numGrass;
+	private int numCritters;
+	private String[] critters = new String[16];
+	private int[] dxs = new int[16];
+	private int[] dys = new int[16];
+
+	/** @return the radius asked for */
+	public int getRadius() { return radius; }
+
+	/**
+	 * @return the number of positions in the neighborhood, not counting the
+	 * critter's own.  This is less than (2 * radius + 1)^2 - 1 when the
+	 * neighborhood is cut off by a border or would wrap around the world.
+	 */
+	public long getNumPositions() { return numPositions; }
+
+	/** @return the number of other critters in the neighborhood */
+	public int getNumCritters() { return numCritters; }
+
+	/**
+	 * @return the String representation of the i-th critter in the
+	 * neighborhood, as getNeighbor() would give it; critters come in no
+	 * particular order
+	 * @param i the critter, 0 <= i < getNumCritters()
+	 */
+	public String getCritter(int i) {
+		checkCritter(i);
+		return critters[i];
+	}
+
+	/**
+	 * @return how far east of the critter the i-th critter is; negative if
+	 * it is west
+	 * @param i the critter, 0 <= i < getNumCritters()
+	 */
+	public int getCritterDx(int i) {
+		checkCritter(i);
+		return dxs[i];
+	}
+
+	/**
+	 * @return how far south of the critter the i-th critter is; negative if
+	 * it is north
+	 * @param i the critter, 0 <= i < getNumCritters()
+	 */
+	public int getCritterDy(int i) {
+		checkCritter(i);
+		return dys[i];
+	}
+
+	/**
+	 * @return the number of critters in the neighborhood with the given
+	 * String representation
+	 * @param glyph the String representation
+	 */
+	public int count(String glyph) {
+		int n = 0;
+		for (int i = 0; i < numCritters; i++) {
+			if (critters[i].equals(glyph)) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/** @return the number of positions in the neighborhood with grass and no critter */
+	public long getNumGrass() { return numGrass; }
+
+	/** @return the number of positions in the neighborhood with neither grass nor a critter */
+	public long getNumEmpty() { return numPositions - numCritters - numGrass; }
+
+	///// FILLING IN THE NEIGHBORHOOD /////
+
+	/**
+	 * Empties the neighborhood for a new answer.  Called by the simulation.
+	 * @param radius the radius asked for
+	 * @param numPositions the number of positions in the neighborhood
+	 */
+	void clear(int radius, long numPositions) {
+		this.radius = radius;
+		this.numPositions = numPositions;
+		this.numGrass = 0;
+		this.numCritters = 0;
+	}
+
+	/**
+	 * Adds a critter to the neighborhood.  Called by the simulation.
+	 * @param glyph its String representation
+	 * @param dx how far east of the center it is
+	 * @param dy how far south of the center it is
+	 */
+	void addCritter(String glyph, int dx, int dy) {
+		if (numCritters == critters.length) {
+			critters = Arrays.copyOf(critters, numCritters * 2);
+			dxs = Arrays.copyOf(dxs, numCritters * 2);
+			dys = Arrays.copyOf(dys, numCritters * 2);
+		}
+		critters[numCritters] = glyph;
+		dxs[numCritters] = dx;
+		dys[numCritters] = dy;
+		numCritters++;
+	}
+
+	/**
+	 * Sets the number of positions with grass and no critter.  Called by the
+	 * simulation.
+	 * @param numGrass the number of positions
+	 */
+	void setNumGrass(long numGrass) {
+		this.numGrass = numGrass;
+	}
+
+	/** Checks that there is an i-th critter. */
+	private void checkCritter(int i) {
+		if (i < 0 || i >= numCritters) {
+			throw new IndexOutOfBoundsException("Critter " + i + " of " + numCritters);
+		}
+	}
+}
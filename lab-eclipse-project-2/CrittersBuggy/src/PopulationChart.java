@@ -0,0 +1,109 @@
+import java.awt.*;
+import javax.swing.*;
+
+/**
+ * A PopulationChart plots the history kept by a PopulationRecorder: a line
+ * per species for its population, scaled to the largest population shown,
+ * and a shaded area for the grass coverage, scaled to the whole world.
+ *
+ * The chart samples at most one row per pixel of its width from the rows
+ * the recorder has in memory, so drawing it costs the same however long the
+ * simulation has run.  Call refresh() to resample it.
+ */
+public class PopulationChart extends JPanel {
+	private static final long serialVersionUID = 4305961871232712455L;
+	private static final Color BACKGROUND_COLOR = Color.WHITE;
+	private static final Color GRASS_COLOR = new Color(200, 240, 200);
+	private static final Color[] SPECIES_COLORS = {
+		Color.RED, Color.BLUE, Color.MAGENTA, Color.ORANGE.darker(), Color.CYAN.darker(),
+		Color.BLACK, Color.PINK.darker(), Color.GREEN.darker(), Color.GRAY, new Color(128, 0, 128)
+	};
+
+	private PopulationRecorder recorder;
+	private int[] cols;
+	// samples[c][k] is the k-th sample of column cols[c].
+	private int[][] samples;
+	private int numSamples;
+
+	/**
+	 * Constructs a new chart of the given recorder's history.
+	 * @param recorder the recorder
+	 * @param width the preferred width of the chart in pixels
+	 * @param height the preferred height of the chart in pixels
+	 */
+	public PopulationChart(PopulationRecorder recorder, int width, int height) {
+		this.recorder = recorder;
+		this.cols = new int[recorder.getNumColumns() - PopulationRecorder.SPECIES + 2];
+		cols[0] = PopulationRecorder.STEP;
+		cols[1] = PopulationRecorder.GRASS;
+		for (int c = 2; c < cols.length; c++) {
+			cols[c] = PopulationRecorder.SPECIES + c - 2;
+		}
+		this.samples = new int[cols.length][0];
+		setPreferredSize(new Dimension(width, height));
+		setBackground(BACKGROUND_COLOR);
+	}
+
+	/** Resamples the recorder's history and repaints the chart. */
+	public void refresh() {
+		int points = Math.max(2, getWidth());
+		if (samples[0].length != points) {
+			samples = new int[cols.length][points];
+		}
+		numSamples = recorder.sample(cols, samples);
+		repaint();
+	}
+
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		int w = getWidth();
+		int h = getHeight() - 1;
+		if (numSamples == 0) {
+			return;
+		}
+		int cells = Math.max(1, recorder.getNumCells());
+		for (int k = 0; k < numSamples; k++) {
+			int x = xOf(k, w);
+			g.setColor(GRASS_COLOR);
+			g.drawLine(x, h, x, h - (int) ((long) samples[1][k] * h / cells));
+		}
+		int max = 1;
+		for (int c = 2; c < cols.length; c++) {
+			for (int k = 0; k < numSamples; k++) {
+				max = Math.max(max, samples[c][k]);
+			}
+		}
+		FontMetrics metrics = g.getFontMetrics();
+		int legendY = metrics.getAscent();
+		for (int c = 2; c < cols.length; c++) {
+			boolean seen = false;
+			for (int k = 0; k < numSamples && !seen; k++) {
+				seen = samples[c][k] != 0;
+			}
+			if (!seen) {
+				continue;
+			}
+			int id = c - 2;
+			g.setColor(SPECIES_COLORS[id % SPECIES_COLORS.length]);
+			int lastX = xOf(0, w);
+			int lastY = h - (int) ((long) samples[c][0] * h / max);
+			for (int k = 1; k < numSamples; k++) {
+				int x = xOf(k, w);
+				int y = h - (int) ((long) samples[c][k] * h / max);
+				g.drawLine(lastX, lastY, x, y);
+				lastX = x;
+				lastY = y;
+			}
+			g.drawString(recorder.getSpeciesName(id) + ": " + samples[c][numSamples - 1], 2, legendY);
+			legendY += metrics.getHeight();
+		}
+		g.setColor(Color.BLACK);
+		String range = "steps " + samples[0][0] + "-" + samples[0][numSamples - 1] + ", max " + max;
+		g.drawString(range, w - metrics.stringWidth(range) - 2, h - metrics.getDescent());
+	}
+
+	/** @return the x-coordinate of the k-th sample in a chart of the given width */
+	private int xOf(int k, int width) {
+		return numSamples == 1 ? width - 1 : (int) ((long) k * (width - 1) / (numSamples - 1));
+	}
+}
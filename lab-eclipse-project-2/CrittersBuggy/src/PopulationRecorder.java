@@ -0,0 +1,467 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A PopulationRecorder keeps the history of a CritterModel one row per
+ * step: the step, how many positions have grass, how many births, deaths
+ * and fights the step had, and the population of every species.
+ *
+ * Rows are kept in a ring of int columns, one array per column, so
+ * recording a step is a handful of array stores and no allocation.  Once
+ * the ring is full, the oldest rows are either dropped or, if a spill file
+ * is set, written to it in blocks of SPILL_ROWS rows.  Within a block each
+ * column is stored as zigzag varint deltas from row to row, and a column
+ * that is all zeros (e.g., a species that wasn't active) takes a single
+ * byte, so a row usually costs a few bytes on disk.  The whole history,
+ * spilled and in memory, can be exported as CSV.
+ *
+ * The recorder is updated on the simulation thread; the other methods may
+ * be called from any thread.
+ */
+public class PopulationRecorder extends SimulationAdapter {
+	/** The first int of every spill file ("CPOP"). */
+	public static final int MAGIC = 0x43504f50;
+	/** The version of the spill file format. */
+	public static final int VERSION = 1;
+	/** The number of rows spilled at a time. */
+	public static final int SPILL_ROWS = 4096;
+
+	/** The columns of a row; the population of species id is column SPECIES + id. */
+	public static final int STEP = 0;
+	public static final int GRASS = 1;
+	public static final int BIRTHS = 2;
+	public static final int DEATHS = 3;
+	public static final int FIGHTS = 4;
+	public static final int SPECIES = 5;
+
+	private CritterModel model;
+	private SpeciesRegistry registry;
+	private String[] speciesNames;
+	private int numCells;
+	// The ring: columns[c][slot], with the oldest row in memory at slot
+	// first.
+	private int[][] columns;
+	private int capacity;
+	private int first;
+	private int count;
+	private long spilledRows;
+	private long droppedRows;
+	private int grass;
+	private int births;
+	private int deaths;
+	private int fights;
+	private File spillFile;
+	private DataOutputStream spill;
+	private byte[] block;
+
+	/**
+	 * Starts recording the given model, which must not be stepping, with
+	 * nothing spilled.
+	 * @param model the model to record
+	 * @param capacity the number of rows to keep in memory
+	 */
+	public PopulationRecorder(CritterModel model, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.model = model;
+		this.registry = model.getSpeciesRegistry();
+		this.speciesNames = new String[registry.size()];
+		for (int id = 0; id < speciesNames.length; id++) {
+			speciesNames[id] = registry.getSpecies(id).getName();
+		}
+		this.numCells = model.getWidth() * model.getHeight();
+		this.capacity = capacity;
+		this.columns = new int[SPECIES + speciesNames.length][capacity];
+		for (int x = 0; x < model.getWidth(); x++) {
+			for (int y = 0; y < model.getHeight(); y++) {
+				if (model.hasGrassAt(x, y)) {
+					grass++;
+				}
+			}
+		}
+		model.addListener(this);
+	}
+
+	/**
+	 * Spills rows that no longer fit in memory to the given file from now on,
+	 * instead of dropping them.
+	 * @param file the file, which is replaced
+	 * @throws IOException if the file cannot be written
+	 * @throws IllegalStateException if rows are already being spilled
+	 */
+	public synchronized void spillTo(File file) throws IOException {
+		if (spill != null) {
+			throw new IllegalStateException("Already spilling to " + spillFile);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(speciesNames.length);
+			for (String name : speciesNames) {
+				out.writeUTF(name);
+			}
+			out.writeInt(numCells);
+			out.flush();
+		} catch (IOException ex) {
+			out.close();
+			throw ex;
+		}
+		this.spill = out;
+		this.spillFile = file;
+		this.block = new byte[1 << 16];
+	}
+
+	/**
+	 * Stops recording and closes the spill file, if any.  Call this on the
+	 * thread that steps the model, or while the model is not stepping.
+	 * @throws IOException if closing the spill file fails
+	 */
+	public synchronized void close() throws IOException {
+		model.removeListener(this);
+		if (spill != null) {
+			spill.close();
+			spill = null;
+		}
+	}
+
+	/** @return the number of positions in the world */
+	public int getNumCells() { return numCells; }
+
+	/** @return the number of columns of a row */
+	public int getNumColumns() { return columns.length; }
+
+	/**
+	 * @return the name of the species whose population is in column
+	 * SPECIES + id
+	 * @param id the id of the species in the model's SpeciesRegistry
+	 */
+	public String getSpeciesName(int id) { return speciesNames[id]; }
+
+	/** @return the number of rows recorded, in memory or not */
+	public synchronized long getNumRows() { return spilledRows + droppedRows + count; }
+
+	/** @return the number of rows in memory */
+	public synchronized int getNumRowsInMemory() { return count; }
+
+	/**
+	 * Samples the rows in memory at evenly spaced intervals, oldest first,
+	 * always including the newest row.
+	 * @return the number of rows sampled: the length of the arrays in into,
+	 * or the number of rows in memory if that is smaller
+	 * @param cols the columns to sample
+	 * @param into for each column in cols, the array to sample it into
+	 */
+	public synchronized int sample(int[] cols, int[][] into) {
+		int n = Math.min(into.length == 0 ? 0 : into[0].length, count);
+		for (int k = 0; k < n; k++) {
+			long row = n == 1 ? count - 1 : (long) k * (count - 1) / (n - 1);
+			int slot = slotOf((int) row);
+			for (int c = 0; c < cols.length; c++) {
+				into[c][k] = columns[cols[c]][slot];
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Writes every row recorded, those spilled first, to a CSV file with a
+	 * header row.  Rows that were dropped are not included.
+	 * @param csv the file to write, which is replaced
+	 * @throws IOException if reading the spill file or writing fails
+	 */
+	public synchronized void exportCsv(File csv) throws IOException {
+		Writer out = new BufferedWriter(new FileWriter(csv));
+		try {
+			writeCsvHeader(out, speciesNames);
+			if (spill != null) {
+				spill.flush();
+				DataInputStream in = openSpillFile(spillFile);
+				try {
+					readHeader(in, spillFile);
+					copySpilledRows(in, out, columns.length, in.readInt());
+				} finally {
+					in.close();
+				}
+			}
+			int[][] rows = new int[columns.length][count];
+			for (int k = 0; k < count; k++) {
+				int slot = slotOf(k);
+				for (int c = 0; c < columns.length; c++) {
+					rows[c][k] = columns[c][slot];
+				}
+			}
+			writeCsvRows(out, rows, count, numCells);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Converts a spill file to CSV with a header row, e.g., after the
+	 * simulation that wrote it has ended.
+	 * @param history the spill file
+	 * @param csv the file to write, which is replaced
+	 * @throws IOException if reading or writing fails, or the spill file is
+	 * corrupt
+	 */
+	public static void exportCsv(File history, File csv) throws IOException {
+		DataInputStream in = openSpillFile(history);
+		try {
+			String[] names = readHeader(in, history);
+			Writer out = new BufferedWriter(new FileWriter(csv));
+			try {
+				writeCsvHeader(out, names);
+				copySpilledRows(in, out, SPECIES + names.length, in.readInt());
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	///// SimulationListener /////
+
+	public void critterFought(int winnerX, int winnerY, int loserX, int loserY) { fights++; }
+
+	public void critterBorn(Class<?> species, int x, int y) { births++; }
+
+	public void critterDied(Class<?> species, int x, int y, DeathCause cause, boolean vacated) { deaths++; }
+
+	public void grassChanged(int x, int y, boolean hasGrass) { grass += hasGrass ? 1 : -1; }
+
+	public synchronized void stepEnded(int numSteps) {
+		if (count == capacity) {
+			makeRoom();
+		}
+		int slot = slotOf(count++);
+		columns[STEP][slot] = numSteps;
+		columns[GRASS][slot] = grass;
+		columns[BIRTHS][slot] = births;
+		columns[DEATHS][slot] = deaths;
+		columns[FIGHTS][slot] = fights;
+		for (int id = 0; id < speciesNames.length; id++) {
+			columns[SPECIES + id][slot] = registry.getCount(id);
+		}
+		births = 0;
+		deaths = 0;
+		fights = 0;
+	}
+
+	///// PRIVATE HELPERS /////
+
+	/** @return the slot in the ring of the k-th oldest row in memory */
+	private int slotOf(int k) {
+		int slot = first + k;
+		return slot < capacity ? slot : slot - capacity;
+	}
+
+	/**
+	 * Frees the oldest slots of a full ring, by spilling a block of rows if
+	 * we are spilling and by dropping the oldest row otherwise.
+	 */
+	private void makeRoom() {
+		if (spill != null) {
+			int rows = Math.min(SPILL_ROWS, count);
+			try {
+				writeBlock(rows);
+				spilledRows += rows;
+				first = slotOf(rows);
+				count -= rows;
+				return;
+			} catch (IOException ex) {
+				System.out.println("WARNING: could not spill to " + spillFile + ", dropping old rows instead: " + ex);
+				try {
+					spill.close();
+				} catch (IOException ignored) {
+					// It's broken either way.
+				}
+				spill = null;
+			}
+		}
+		droppedRows++;
+		first = slotOf(1);
+		count--;
+	}
+
+	/**
+	 * Writes the given number of the oldest rows to the spill file as a
+	 * block: the number of rows, then each column, either as a 0 byte if it
+	 * is all zeros or as a 1 byte and the zigzag varint deltas of its values.
+	 * @param rows the number of rows
+	 * @throws IOException if writing fails
+	 */
+	private void writeBlock(int rows) throws IOException {
+		int length = 0;
+		for (int c = 0; c < columns.length; c++) {
+			int[] column = columns[c];
+			boolean zeros = true;
+			for (int k = 0; k < rows && zeros; k++) {
+				zeros = column[slotOf(k)] == 0;
+			}
+			if (block.length - length < 1 + 5 * rows) {
+				block = Arrays.copyOf(block, Math.max(block.length * 2, length + 1 + 5 * rows));
+			}
+			block[length++] = (byte) (zeros ? 0 : 1);
+			if (zeros) {
+				continue;
+			}
+			int last = 0;
+			for (int k = 0; k < rows; k++) {
+				int value = column[slotOf(k)];
+				int delta = value - last;
+				int zigzag = delta << 1 ^ delta >> 31;
+				while ((zigzag & ~0x7f) != 0) {
+					block[length++] = (byte) (zigzag & 0x7f | 0x80);
+					zigzag >>>= 7;
+				}
+				block[length++] = (byte) zigzag;
+				last = value;
+			}
+		}
+		spill.writeInt(rows);
+		spill.writeInt(length);
+		spill.write(block, 0, length);
+		spill.flush();
+	}
+
+	/** @return a stream over the given spill file */
+	private static DataInputStream openSpillFile(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+	}
+
+	/**
+	 * Reads the header of a spill file up to the species names, which are
+	 * followed by the number of positions in the world.
+	 * @return the names of the species
+	 * @param in the stream, at the start of the file
+	 * @param file the file, for error messages
+	 * @throws IOException if reading fails or the file is not a spill file
+	 */
+	private static String[] readHeader(DataInputStream in, File file) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a population history: " + file);
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported population history version " + version + ": " + file);
+		}
+		int numSpecies = in.readInt();
+		if (numSpecies < 0) {
+			throw new IOException("Corrupt population history: " + file);
+		}
+		String[] names = new String[numSpecies];
+		for (int id = 0; id < numSpecies; id++) {
+			names[id] = in.readUTF();
+		}
+		return names;
+	}
+
+	/**
+	 * Decodes the blocks of a spill file and writes their rows as CSV.
+	 * @param in the stream, just after the header
+	 * @param out the CSV
+	 * @param numColumns the number of columns of a row
+	 * @param numCells the number of positions in the world
+	 * @throws IOException if reading or writing fails, or a block is corrupt
+	 */
+	private static void copySpilledRows(DataInputStream in, Writer out, int numColumns, int numCells)
+			throws IOException {
+		byte[] bytes = new byte[0];
+		int[][] rows = new int[numColumns][0];
+		while (true) {
+			int numRows;
+			try {
+				numRows = in.readInt();
+			} catch (EOFException ex) {
+				return;
+			}
+			int length = in.readInt();
+			if (numRows <= 0 || length < numColumns) {
+				throw new IOException("Corrupt population history: bad block of " + numRows + " rows");
+			}
+			if (bytes.length < length) {
+				bytes = new byte[length];
+			}
+			in.readFully(bytes, 0, length);
+			if (rows[0].length < numRows) {
+				rows = new int[numColumns][numRows];
+			}
+			int offset = 0;
+			for (int c = 0; c < numColumns; c++) {
+				boolean zeros = bytes[offset++] == 0;
+				int last = 0;
+				for (int k = 0; k < numRows; k++) {
+					if (zeros) {
+						rows[c][k] = 0;
+						continue;
+					}
+					int zigzag = 0;
+					int shift = 0;
+					byte b;
+					do {
+						if (offset == length || shift > 28) {
+							throw new IOException("Corrupt population history: truncated block");
+						}
+						b = bytes[offset++];
+						zigzag |= (b & 0x7f) << shift;
+						shift += 7;
+					} while (b < 0);
+					last += zigzag >>> 1 ^ -(zigzag & 1);
+					rows[c][k] = last;
+				}
+			}
+			writeCsvRows(out, rows, numRows, numCells);
+		}
+	}
+
+	/** Writes the header row of the CSV. */
+	private static void writeCsvHeader(Writer out, String[] names) throws IOException {
+		out.write("step,grass_coverage,births,deaths,fights");
+		for (String name : names) {
+			out.write(',');
+			out.write(name);
+		}
+		out.write('\n');
+	}
+
+	/**
+	 * Writes rows as CSV, with the grass as the fraction of positions that
+	 * have grass.
+	 * @param out the CSV
+	 * @param rows the columns of the rows
+	 * @param numRows the number of rows
+	 * @param numCells the number of positions in the world
+	 * @throws IOException if writing fails
+	 */
+	private static void writeCsvRows(Writer out, int[][] rows, int numRows, int numCells) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (int k = 0; k < numRows; k++) {
+			line.setLength(0);
+			line.append(rows[STEP][k]).append(',');
+			// Four decimal places without going through String.format.
+			long coverage = numCells == 0 ? 0 : Math.round(rows[GRASS][k] * 10000.0 / numCells);
+			line.append(coverage / 10000).append('.');
+			String fraction = Long.toString(coverage % 10000 + 10000);
+			line.append(fraction, 1, fraction.length());
+			for (int c = BIRTHS; c < rows.length; c++) {
+				line.append(',').append(rows[c][k]);
+			}
+			line.append('\n');
+			out.append(line);
+		}
+	}
+}
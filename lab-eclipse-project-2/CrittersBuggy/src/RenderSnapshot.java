@@ -0,0 +1,282 @@
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A RenderSnapshot is a copy of everything the GUI needs to draw one frame of
+ * the simulation: the glyph and color of every position in the world, the
+ * number of steps taken, and the population of each active species.
+ *
+ * Snapshots are filled in by the simulation thread and then published through
+ * a SnapshotBuffer; once published, a snapshot is never modified until the
+ * GUI has let go of it, so the GUI never sees a half-stepped world.
+ *
+ * Each position is stored as a GlyphPalette code.  The few positions whose
+ * pair didn't fit in the palette have code OVERFLOW, and the snapshot keeps
+ * their glyphs and colors by position on the side.  The snapshot also keeps,
+ * for each square block of positions, the number of critters and grass in
+ * the block and the sum of the critters' colors.  These are updated along
+ * with the positions, so a zoomed-out view of a huge world can be drawn
+ * from the blocks without visiting every position.
+ */
+public class RenderSnapshot {
+	/** The most blocks along either side of the world. */
+	public static final int MAX_BLOCKS_PER_SIDE = 1024;
+
+	private int width;
+	private int height;
+	private GlyphPalette palette;
+	private char[] codes;
+	// The glyphs and colors of the positions with code OVERFLOW, by index.
+	private Map<Integer, String> overflowGlyphs;
+	private Map<Integer, Color> overflowColors;
+	private int numSteps;
+	private int numSpecies;
+	private String[] speciesNames;
+	private int[] speciesCounts;
+	private int blockShift;
+	private int blocksHigh;
+	private int[] blockCritters;
+	private int[] blockGrass;
+	private int[] blockRed;
+	private int[] blockGreen;
+	private int[] blockBlue;
+
+	/**
+	 * Constructs a new snapshot of an empty world.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @param maxSpecies the maximum number of active species in the world
+	 * @param palette the palette of glyph codes
+	 */
+	public RenderSnapshot(int width, int height, int maxSpecies, GlyphPalette palette) {
+		this.width = width;
+		this.height = height;
+		this.palette = palette;
+		this.codes = new char[width * height];
+		this.overflowGlyphs = new HashMap<Integer, String>();
+		this.overflowColors = new HashMap<Integer, Color>();
+		this.numSteps = 0;
+		this.numSpecies = 0;
+		this.speciesNames = new String[maxSpecies];
+		this.speciesCounts = new int[maxSpecies];
+		this.blockShift = 0;
+		while ((Math.max(width, height) - 1 >> blockShift) >= MAX_BLOCKS_PER_SIDE) {
+			blockShift++;
+		}
+		int blocksWide = ((width - 1) >> blockShift) + 1;
+		this.blocksHigh = ((height - 1) >> blockShift) + 1;
+		this.blockCritters = new int[blocksWide * blocksHigh];
+		this.blockGrass = new int[blocksWide * blocksHigh];
+		this.blockRed = new int[blocksWide * blocksHigh];
+		this.blockGreen = new int[blocksWide * blocksHigh];
+		this.blockBlue = new int[blocksWide * blocksHigh];
+	}
+
+	/**
+	 * Copies the current state of the given model into this snapshot.
+	 * @param model the model to copy; its dimensions must match this snapshot
+	 */
+	public void capture(CritterModel model) {
+		for (int cell = 0; cell < width * height; cell++) {
+			captureCell(model, cell);
+		}
+		captureSummary(model);
+	}
+
+	/**
+	 * Copies the current state of a single position of the given model into
+	 * this snapshot.
+	 * @param model the model to copy
+	 * @param cell the index x * height + y of the position
+	 */
+	public void captureCell(CritterModel model, int cell) {
+		int x = cell / height;
+		int y = cell % height;
+		String glyph = model.getGlyphAt(x, y);
+		Color color = model.getColorAt(x, y);
+		char code = palette.codeOf(glyph, color);
+		if (code != codes[cell] || code == GlyphPalette.OVERFLOW) {
+			int block = (x >> blockShift) * blocksHigh + (y >> blockShift);
+			addToBlock(block, codes[cell], colorOf(cell), -1);
+			addToBlock(block, code, color, 1);
+			codes[cell] = code;
+			if (code == GlyphPalette.OVERFLOW) {
+				overflowGlyphs.put(cell, glyph);
+				overflowColors.put(cell, color);
+			} else if (!overflowGlyphs.isEmpty()) {
+				overflowGlyphs.remove(cell);
+				overflowColors.remove(cell);
+			}
+		}
+	}
+
+	/**
+	 * Copies the number of steps and the species counts of the given model
+	 * into this snapshot.
+	 * @param model the model to copy
+	 */
+	public void captureSummary(CritterModel model) {
+		numSteps = model.getNumSteps();
+		SpeciesRegistry species = model.getSpeciesRegistry();
+		numSpecies = Math.min(species.getNumActive(), speciesNames.length);
+		for (int i = 0; i < numSpecies; i++) {
+			int id = species.getActiveId(i);
+			speciesNames[i] = species.getSpecies(id).getName();
+			speciesCounts[i] = species.getCount(id);
+		}
+	}
+
+	/**
+	 * @return true iff this snapshot and the other one look the same at the
+	 * given position
+	 * @param other the other snapshot
+	 * @param cell the index x * height + y of the position
+	 */
+	public boolean sameCell(RenderSnapshot other, int cell) {
+		return codes[cell] == other.codes[cell]
+		       && (codes[cell] != GlyphPalette.OVERFLOW
+		           || Objects.equals(overflowGlyphs.get(cell), other.overflowGlyphs.get(cell))
+		              && Objects.equals(overflowColors.get(cell), other.overflowColors.get(cell)));
+	}
+
+	/** @return the width of the world */
+	public int getWidth() { return width; }
+
+	/** @return the height of the world */
+	public int getHeight() { return height; }
+
+	/** @return the palette of glyph codes */
+	public GlyphPalette getPalette() { return palette; }
+
+	/**
+	 * @return the palette code at position (x, y) in the world
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public char getCodeAt(int x, int y) { return codes[x * height + y]; }
+
+	/**
+	 * @return the glyph at position (x, y) in the world
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public String getGlyphAt(int x, int y) {
+		char code = getCodeAt(x, y);
+		return code == GlyphPalette.OVERFLOW ? overflowGlyphs.get(x * height + y) : palette.getGlyph(code);
+	}
+
+	/**
+	 * @return the color of the glyph at position (x, y) in the world or null
+	 * if the position is empty
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public Color getColorAt(int x, int y) { return colorOf(x * height + y); }
+
+	/** @return log2 of the side of a block, in positions */
+	public int getBlockShift() { return blockShift; }
+
+	/**
+	 * @return the index of the block that holds position (x, y)
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public int getBlockAt(int x, int y) { return (x >> blockShift) * blocksHigh + (y >> blockShift); }
+
+	/**
+	 * @return the number of critters in the given block
+	 * @param block the index of the block
+	 */
+	public int getBlockCritters(int block) { return blockCritters[block]; }
+
+	/**
+	 * @return the number of positions with grass in the given block
+	 * @param block the index of the block
+	 */
+	public int getBlockGrass(int block) { return blockGrass[block]; }
+
+	/**
+	 * @return the average color of the critters in the given block as an RGB
+	 * int, or 0 if there are none
+	 * @param block the index of the block
+	 */
+	public int getBlockColor(int block) {
+		int n = blockCritters[block];
+		if (n == 0) {
+			return 0;
+		}
+		return (blockRed[block] / n) << 16 | (blockGreen[block] / n) << 8 | (blockBlue[block] / n);
+	}
+
+	/**
+	 * @return the sum of the red components of the colors of the critters in
+	 * the given block; see getBlockColor()
+	 * @param block the index of the block
+	 */
+	public int getBlockRed(int block) { return blockRed[block]; }
+
+	/**
+	 * @return the sum of the green components of the colors of the critters
+	 * in the given block; see getBlockColor()
+	 * @param block the index of the block
+	 */
+	public int getBlockGreen(int block) { return blockGreen[block]; }
+
+	/**
+	 * @return the sum of the blue components of the colors of the critters in
+	 * the given block; see getBlockColor()
+	 * @param block the index of the block
+	 */
+	public int getBlockBlue(int block) { return blockBlue[block]; }
+
+	/** @return the number of steps taken when this snapshot was captured */
+	public int getNumSteps() { return numSteps; }
+
+	/** @return the number of active species */
+	public int getNumSpecies() { return numSpecies; }
+
+	/**
+	 * @return the name of the i-th active species
+	 * @param i the index of the species, 0 <= i < getNumSpecies()
+	 */
+	public String getSpeciesName(int i) { return speciesNames[i]; }
+
+	/**
+	 * @return the population of the i-th active species
+	 * @param i the index of the species, 0 <= i < getNumSpecies()
+	 */
+	public int getSpeciesCount(int i) { return speciesCounts[i]; }
+
+	/**
+	 * @return the color of the glyph at the given position or null if the
+	 * position is empty
+	 * @param cell the index x * height + y of the position
+	 */
+	private Color colorOf(int cell) {
+		char code = codes[cell];
+		return code == GlyphPalette.OVERFLOW ? overflowColors.get(cell) : palette.getColor(code);
+	}
+
+	/**
+	 * Adds (or removes) the contribution of a position with the given code
+	 * to the given block.
+	 * @param block the index of the block
+	 * @param code the palette code of the position
+	 * @param color the color of the position
+	 * @param sign 1 to add, -1 to remove
+	 */
+	private void addToBlock(int block, char code, Color color, int sign) {
+		if (code == GlyphPalette.GRASS) {
+			blockGrass[block] += sign;
+		} else if (code != GlyphPalette.EMPTY) {
+			blockCritters[block] += sign;
+			if (color != null) {
+				blockRed[block] += sign * color.getRed();
+				blockGreen[block] += sign * color.getGreen();
+				blockBlue[block] += sign * color.getBlue();
+			}
+		}
+	}
+}
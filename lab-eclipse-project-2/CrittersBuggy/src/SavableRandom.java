@@ -0,0 +1,101 @@
+import java.util.Random;
+
+/**
+ * A SavableRandom is a Random whose whole state is a few plain values that
+ * can be read out and restored, so that checkpoints can save it without
+ * Java serialization.  It is the same linear congruential generator as
+ * Random and draws exactly the same numbers from the same seed.
+ *
+ * Unlike Random, a SavableRandom is not safe to share between threads.
+ */
+public class SavableRandom extends Random {
+	private static final long serialVersionUID = 4154291318204727350L;
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+
+	// These aren't initialized here: Random's constructor sets them through
+	// setSeed() before our initializers would run.
+	private long state;
+	private boolean holdingGaussian;
+	private double heldGaussian;
+
+	/** Constructs a new generator with a seed that is probably unique. */
+	public SavableRandom() {
+		super();
+	}
+
+	/**
+	 * Constructs a new generator with the given seed.
+	 * @param seed the seed
+	 */
+	public SavableRandom(long seed) {
+		super(seed);
+	}
+
+	/**
+	 * @return a new generator in the given state; see getState()
+	 * @param state the state of the linear congruential generator, in
+	 * [0, 2^48)
+	 * @param holdingGaussian whether the next call to nextGaussian() returns
+	 * heldGaussian
+	 * @param heldGaussian the Gaussian held over from the last call to
+	 * nextGaussian()
+	 * @throws IllegalArgumentException if the state is out of range
+	 */
+	public static SavableRandom restore(long state, boolean holdingGaussian, double heldGaussian) {
+		if ((state & ~MASK) != 0) {
+			throw new IllegalArgumentException("Bad random state: " + state);
+		}
+		SavableRandom rand = new SavableRandom(0);
+		rand.state = state;
+		rand.holdingGaussian = holdingGaussian;
+		rand.heldGaussian = heldGaussian;
+		return rand;
+	}
+
+	/** @return the state of the linear congruential generator, in [0, 2^48) */
+	public long getState() { return state; }
+
+	/** @return whether the next call to nextGaussian() returns getHeldGaussian() */
+	public boolean isHoldingGaussian() { return holdingGaussian; }
+
+	/** @return the Gaussian held over from the last call to nextGaussian() */
+	public double getHeldGaussian() { return heldGaussian; }
+
+	@Override
+	public void setSeed(long seed) {
+		state = (seed ^ MULTIPLIER) & MASK;
+		holdingGaussian = false;
+	}
+
+	@Override
+	protected int next(int bits) {
+		state = (state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+
+	/**
+	 * Random keeps the second Gaussian of each pair where we can't save it,
+	 * so this draws them the same way but keeps it here.
+	 */
+	@Override
+	public double nextGaussian() {
+		if (holdingGaussian) {
+			holdingGaussian = false;
+			return heldGaussian;
+		}
+		double v1;
+		double v2;
+		double s;
+		do {
+			v1 = 2 * nextDouble() - 1;
+			v2 = 2 * nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+		heldGaussian = v2 * multiplier;
+		holdingGaussian = true;
+		return v1 * multiplier;
+	}
+}
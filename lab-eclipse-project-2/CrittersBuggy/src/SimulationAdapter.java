@@ -0,0 +1,19 @@
+/**
+ * A SimulationAdapter is a SimulationListener that ignores every
+ * notification; extend it and override just the ones you need.
+ */
+public class SimulationAdapter implements SimulationListener {
+	public void critterMoved(int fromX, int fromY, int toX, int toY) { }
+
+	public void critterFought(int winnerX, int winnerY, int loserX, int loserY) { }
+
+	public void critterMated(int x, int y, int mateX, int mateY) { }
+
+	public void critterBorn(Class<?> species, int x, int y) { }
+
+	public void critterDied(Class<?> species, int x, int y, DeathCause cause, boolean vacated) { }
+
+	public void grassChanged(int x, int y, boolean hasGrass) { }
+
+	public void stepEnded(int numSteps) { }
+}
@@ -0,0 +1,84 @@
+/**
+ * A SimulationListener is notified by a CritterModel of everything that
+ * happens to its board as it steps, in the order it happens.  Together with
+ * the state of the board when the listener was added, the notifications are
+ * enough to rebuild where every critter and blade of grass is after any step.
+ *
+ * Listeners are called on the thread that steps the model, in the middle of
+ * the step, so they must be quick and must not touch the model other than
+ * through the getters.  SimulationAdapter implements every method as a no-op
+ * for listeners that only care about a few of them.
+ */
+public interface SimulationListener {
+	/**
+	 * The ways a critter can die; TIMEOUT is for critters killed by a
+	 * StrategyWatchdog for overrunning their time budget too often, and
+	 * MIGRATED for critters that left the world across one of its borders
+	 * (see CritterModel.setBorders()).
+	 */
+	public static enum DeathCause { FIGHT, STARVATION, SUICIDE, TIMEOUT, MIGRATED }
+
+	/**
+	 * Called when a critter moves to an adjacent position, either into an
+	 * empty position or onto the position of a critter it just beat.
+	 * @param fromX the x-coordinate it moved from
+	 * @param fromY the y-coordinate it moved from
+	 * @param toX the x-coordinate it moved to
+	 * @param toY the y-coordinate it moved to
+	 */
+	public void critterMoved(int fromX, int fromY, int toX, int toY);
+
+	/**
+	 * Called when two adjacent critters fight.  The loser is reported dead
+	 * when it is removed at the end of the step.
+	 * @param winnerX the x-coordinate of the winner
+	 * @param winnerY the y-coordinate of the winner
+	 * @param loserX the x-coordinate of the loser
+	 * @param loserY the y-coordinate of the loser
+	 */
+	public void critterFought(int winnerX, int winnerY, int loserX, int loserY);
+
+	/**
+	 * Called when two adjacent critters mate.  The baby is reported born
+	 * separately.
+	 * @param x the x-coordinate of the critter that moved to mate
+	 * @param y the y-coordinate of the critter that moved to mate
+	 * @param mateX the x-coordinate of its mate
+	 * @param mateY the y-coordinate of its mate
+	 */
+	public void critterMated(int x, int y, int mateX, int mateY);
+
+	/**
+	 * Called when a critter is added to the world, either as a baby or when
+	 * the world is populated with a new species.
+	 * @param species the class of the critter
+	 * @param x the x-coordinate of the critter
+	 * @param y the y-coordinate of the critter
+	 */
+	public void critterBorn(Class<?> species, int x, int y);
+
+	/**
+	 * Called when a critter that died this step is removed from the world.
+	 * @param species the class of the critter
+	 * @param x the x-coordinate of the critter
+	 * @param y the y-coordinate of the critter
+	 * @param cause the reason it (first) died
+	 * @param vacated true iff its position was emptied, i.e., it was not
+	 * already taken over by the critter that beat it
+	 */
+	public void critterDied(Class<?> species, int x, int y, DeathCause cause, boolean vacated);
+
+	/**
+	 * Called when grass is eaten or spawns.
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @param hasGrass true iff the position now has grass
+	 */
+	public void grassChanged(int x, int y, boolean hasGrass);
+
+	/**
+	 * Called at the end of each step.
+	 * @param numSteps the number of steps taken so far, including this one
+	 */
+	public void stepEnded(int numSteps);
+}
@@ -0,0 +1,204 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The SimulationThread steps a CritterModel on its own thread so that the
+ * GUI is never blocked by the simulation.  After each step it captures the
+ * model into the back snapshot of a SnapshotBuffer and publishes it; the GUI
+ * renders whatever snapshot was published last.
+ *
+ * In turbo mode the thread instead runs as many steps as fit in one frame's
+ * time budget before it captures and publishes a snapshot, so the speed of
+ * the simulation is no longer bounded by the cost of rendering every step.
+ *
+ * The thread can also checkpoint the model to a file every so many steps,
+ * so a long run can be resumed later with CritterModel.restoreCheckpoint().
+ *
+ * Once the thread is started, it is the only thread that may touch the
+ * model (with the exception of CritterModel.setRepopulatingWorld()).  If a
+ * step throws, the thread reports it to standard error and stops for good;
+ * the GUI finds out through getFailure().
+ */
+public class SimulationThread extends Thread {
+	/** The time budget for stepping between snapshots in turbo mode. */
+	public static final long FRAME_BUDGET_NANOS = 1000000000L / 60;
+
+	// How often the steps-per-second rate is recomputed.
+	private static final long RATE_SAMPLE_NANOS = 500000000L;
+
+	private CritterModel model;
+	private SnapshotBuffer snapshots;
+	private volatile boolean running;
+	private volatile boolean halted;
+	private volatile boolean turbo;
+	private volatile int delay;
+	private volatile double stepsPerSecond;
+	private volatile File checkpointFile;
+	private volatile Throwable failure;
+	private volatile int checkpointInterval;
+	private int pendingSteps;
+	private int stepsSinceSample;
+	private long sampleStart;
+
+	/**
+	 * Constructs a new, paused simulation thread.
+	 * @param model the model to step
+	 * @param snapshots the buffer to publish snapshots to
+	 */
+	public SimulationThread(CritterModel model, SnapshotBuffer snapshots) {
+		super("critter-simulation");
+		setDaemon(true);
+		this.model = model;
+		this.snapshots = snapshots;
+		this.running = false;
+		this.turbo = false;
+		this.delay = 0;
+		this.stepsPerSecond = 0;
+		this.pendingSteps = 0;
+	}
+
+	/** @return the buffer this thread publishes snapshots to */
+	public SnapshotBuffer getSnapshots() { return snapshots; }
+
+	/** @return true iff the simulation is running continuously */
+	public boolean isRunning() { return running; }
+
+	/**
+	 * Starts or stops running the simulation continuously.
+	 * @param running true to run, false to pause
+	 */
+	public synchronized void setRunning(boolean running) {
+		this.running = running;
+		notifyAll();
+	}
+
+	/**
+	 * Sets the pause between steps while running.
+	 * @param delay the pause in milliseconds
+	 */
+	public void setDelay(int delay) { this.delay = delay; }
+
+	/** @return true iff the simulation runs in turbo mode */
+	public boolean isTurbo() { return turbo; }
+
+	/**
+	 * Turns turbo mode on or off.  While running in turbo mode, the delay
+	 * between steps is ignored.
+	 * @param turbo true for turbo mode
+	 */
+	public void setTurbo(boolean turbo) { this.turbo = turbo; }
+
+	/**
+	 * @return what a step threw that stopped the simulation for good, or
+	 * null if it hasn't failed
+	 */
+	public Throwable getFailure() { return failure; }
+
+	/** @return the number of steps per second over the last sample period */
+	public double getStepsPerSecond() { return stepsPerSecond; }
+
+	/**
+	 * Turns on checkpointing of the model to the given file, replacing the
+	 * previous checkpoint, whenever the number of steps taken is a multiple
+	 * of the given interval.
+	 * @param file the checkpoint file, or null to stop checkpointing
+	 * @param interval the number of steps between checkpoints
+	 */
+	public void setCheckpointing(File file, int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+		}
+		this.checkpointInterval = interval;
+		this.checkpointFile = file;
+	}
+
+	/** Asks the simulation to take a single step. */
+	public synchronized void requestStep() {
+		pendingSteps++;
+		notifyAll();
+	}
+
+	/**
+	 * Stops the simulation for good once the step in progress, if any, is
+	 * done, and waits for that, so that whatever the model writes to can be
+	 * flushed and closed without racing a step.
+	 * @return true iff the thread stopped within the timeout
+	 * @param timeout the longest to wait, in milliseconds
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean halt(long timeout) throws InterruptedException {
+		halted = true;
+		synchronized (this) {
+			notifyAll();
+		}
+		join(timeout);
+		return !isAlive();
+	}
+
+	/** Steps the simulation until the program exits or it is halted. */
+	public void run() {
+		try {
+			while (true) {
+				synchronized (this) {
+					while (!halted && !running && pendingSteps == 0) {
+						wait();
+					}
+					if (halted) {
+						return;
+					}
+					if (pendingSteps > 0) {
+						pendingSteps--;
+					}
+				}
+				if (running && turbo) {
+					stepForOneFrame();
+				} else {
+					stepOnce();
+				}
+				snapshots.captureAndPublish(model);
+				if (running && !turbo && delay > 0) {
+					Thread.sleep(delay);
+				}
+			}
+		} catch (InterruptedException ex) {
+			// Interrupting the thread stops the simulation for good.
+		} catch (RuntimeException | Error ex) {
+			// The model may be halfway through a step, so there's no going
+			// on; the last published snapshot stays up.
+			running = false;
+			failure = ex;
+			System.err.println("WARNING: the simulation stopped at step " + model.getNumSteps() + ": " + ex);
+			ex.printStackTrace();
+		}
+	}
+
+	/** Steps the model until one frame's time budget is spent. */
+	private void stepForOneFrame() {
+		long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+		do {
+			stepOnce();
+		} while (running && turbo && !halted && System.nanoTime() < deadline);
+	}
+
+	/** Steps the model once, keeping track of the rate of stepping. */
+	private void stepOnce() {
+		model.step();
+		File file = checkpointFile;
+		if (file != null && model.getNumSteps() % checkpointInterval == 0) {
+			try {
+				model.saveCheckpoint(file);
+			} catch (IOException ex) {
+				System.err.println("WARNING: could not checkpoint to " + file + ": " + ex);
+			}
+		}
+		stepsSinceSample++;
+		long now = System.nanoTime();
+		if (sampleStart == 0) {
+			sampleStart = now;
+		} else if (now - sampleStart >= RATE_SAMPLE_NANOS) {
+			stepsPerSecond = stepsSinceSample * 1e9 / (now - sampleStart);
+			stepsSinceSample = 0;
+			sampleStart = now;
+		}
+	}
+}
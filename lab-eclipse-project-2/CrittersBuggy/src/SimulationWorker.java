@@ -0,0 +1,370 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SimulationWorker is a process that simulates one band of the world of a
+ * DistributedSimulation, which starts it as
+ *
+ *   java SimulationWorker PORT INDEX
+ *
+ * The worker connects to the coordinator on the loopback address and then
+ * does what it is told, one message at a time, until told to stop or the
+ * connection closes.  Its band is a CritterModel whose west and east edges
+ * border the neighboring bands (see CritterModel.setBorders()).
+ *
+ * Every message is a type byte and a payload, in the order below; blobs
+ * are an int length and that many bytes, which the coordinator passes
+ * between workers without decoding them.
+ *
+ * - HELLO (worker): the worker's index.
+ * - CONFIG (coordinator): the band's parameters and the roster's class
+ *   names.  The worker answers with a STEPPED message for step 0.
+ * - STEP (coordinator): the column beyond each edge of the band and the
+ *   migrants coming in from the west and from the east, as blobs.  The
+ *   worker takes in the migrants, steps, and answers with STEPPED.
+ * - STEPPED (worker): the band's west and east columns and the migrants
+ *   leaving it to the west and to the east, as blobs, then the number of
+ *   migrants that found no room and the count of each species.
+ * - SNAPSHOT (coordinator): the worker answers with SNAPSHOT: every
+ *   column of the band from west to east, as blobs.
+ * - STOP (coordinator): the worker exits.
+ *
+ * A column is a varint number of glyphs, those glyphs, and then a varint
+ * per position from north to south: 0 if it is empty, 1 if it has grass,
+ * or 2 plus the index of the glyph of the critter on it.  A list of
+ * migrants is a varint count and then for each its species id, y and
+ * hunger as varints and whether it has mated as a byte.
+ */
+public class SimulationWorker {
+	/** The first int the coordinator sends ("CDST"). */
+	static final int MAGIC = 0x43445354;
+	/** The version of the protocol. */
+	static final int VERSION = 1;
+
+	// Message types.
+	static final byte HELLO = 1;
+	static final byte CONFIG = 2;
+	static final byte STEP = 3;
+	static final byte STEPPED = 4;
+	static final byte SNAPSHOT = 5;
+	static final byte STOP = 6;
+
+	private CritterModel model;
+	private SpeciesRegistry species;
+	private String[] west;
+	private String[] east;
+	private int lost;
+
+	/**
+	 * Constructs the worker of a band.
+	 * @param model the band, whose borders the worker sets
+	 */
+	public SimulationWorker(CritterModel model) {
+		this.model = model;
+		this.species = model.getSpeciesRegistry();
+		this.west = new String[model.getHeight()];
+		this.east = new String[model.getHeight()];
+		Arrays.fill(west, CritterModel.EMPTY_SYMBOL);
+		Arrays.fill(east, CritterModel.EMPTY_SYMBOL);
+		model.setBorders(west, east);
+	}
+
+	/**
+	 * Serves the coordinator until it says to stop or hangs up.
+	 * @param in the stream from the coordinator, just after CONFIG
+	 * @param out the stream to the coordinator
+	 * @throws IOException if talking to the coordinator fails
+	 */
+	public void serve(DataInputStream in, DataOutputStream out) throws IOException {
+		writeStepped(out);
+		while (true) {
+			byte type;
+			try {
+				type = in.readByte();
+			} catch (EOFException ex) {
+				return;
+			}
+			switch (type) {
+				case STEP:
+					decodeColumn(readBlob(in), west);
+					decodeColumn(readBlob(in), east);
+					immigrate(decodeMigrants(readBlob(in), Critter.Direction.WEST));
+					immigrate(decodeMigrants(readBlob(in), Critter.Direction.EAST));
+					model.step();
+					writeStepped(out);
+					break;
+				case SNAPSHOT:
+					out.writeByte(SNAPSHOT);
+					for (int x = 0; x < model.getWidth(); x++) {
+						writeBlob(out, encodeColumn(model, x));
+					}
+					out.flush();
+					break;
+				case STOP:
+					return;
+				default:
+					throw new IOException("Unknown message type " + type);
+			}
+		}
+	}
+
+	/**
+	 * Takes in the migrants that crossed into the band.
+	 * @param migrants the migrants
+	 */
+	private void immigrate(List<CritterModel.Migrant> migrants) {
+		for (CritterModel.Migrant migrant : migrants) {
+			if (!model.immigrate(migrant)) {
+				lost++;
+			}
+		}
+	}
+
+	/**
+	 * Writes a STEPPED message.
+	 * @param out the stream to the coordinator
+	 * @throws IOException if writing fails
+	 */
+	private void writeStepped(DataOutputStream out) throws IOException {
+		List<CritterModel.Migrant> westward = new ArrayList<CritterModel.Migrant>();
+		List<CritterModel.Migrant> eastward = new ArrayList<CritterModel.Migrant>();
+		for (CritterModel.Migrant migrant : model.takeEmigrants()) {
+			(migrant.getDirection() == Critter.Direction.WEST ? westward : eastward).add(migrant);
+		}
+		out.writeByte(STEPPED);
+		writeBlob(out, encodeColumn(model, 0));
+		writeBlob(out, encodeColumn(model, model.getWidth() - 1));
+		writeBlob(out, encodeMigrants(westward, species));
+		writeBlob(out, encodeMigrants(eastward, species));
+		writeVarint(out, lost);
+		for (int id = 0; id < species.size(); id++) {
+			writeVarint(out, species.getCount(id));
+		}
+		out.flush();
+	}
+
+	///// PROTOCOL HELPERS /////
+
+	/**
+	 * @return the given column of a world, encoded
+	 * @param model the world
+	 * @param x the x-coordinate of the column
+	 */
+	static byte[] encodeColumn(CritterModel model, int x) {
+		int height = model.getHeight();
+		int[] codes = new int[height];
+		List<String> glyphs = new ArrayList<String>();
+		Map<String, Integer> indices = new HashMap<String, Integer>();
+		for (int y = 0; y < height; y++) {
+			String glyph = model.getGlyphAt(x, y);
+			if (glyph.equals(CritterModel.EMPTY_SYMBOL)) {
+				codes[y] = 0;
+			} else if (glyph.equals(CritterModel.GRASS_SYMBOL)) {
+				codes[y] = 1;
+			} else {
+				Integer index = indices.get(glyph);
+				if (index == null) {
+					index = glyphs.size();
+					indices.put(glyph, index);
+					glyphs.add(glyph);
+				}
+				codes[y] = 2 + index;
+			}
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + height);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			writeVarint(out, glyphs.size());
+			for (String glyph : glyphs) {
+				out.writeUTF(glyph);
+			}
+			for (int code : codes) {
+				writeVarint(out, code);
+			}
+		} catch (IOException ex) {
+			throw new IllegalStateException("Writing to memory failed!", ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a column.
+	 * @param blob the encoded column
+	 * @param into where to put the glyph of each position, by y
+	 * @throws IOException if the column is corrupt or the wrong height
+	 */
+	static void decodeColumn(byte[] blob, String[] into) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+		String[] glyphs = new String[readVarint(in) + 2];
+		glyphs[0] = CritterModel.EMPTY_SYMBOL;
+		glyphs[1] = CritterModel.GRASS_SYMBOL;
+		for (int i = 2; i < glyphs.length; i++) {
+			glyphs[i] = in.readUTF();
+		}
+		for (int y = 0; y < into.length; y++) {
+			int code = readVarint(in);
+			if (code >= glyphs.length) {
+				throw new IOException("Bad glyph code " + code + " in a column");
+			}
+			into[y] = glyphs[code];
+		}
+		if (in.available() > 0) {
+			throw new IOException("A column is longer than " + into.length);
+		}
+	}
+
+	/**
+	 * @return the given migrants, encoded
+	 * @param migrants the migrants
+	 * @param species the registry to number their species by
+	 */
+	static byte[] encodeMigrants(List<CritterModel.Migrant> migrants, SpeciesRegistry species) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 + 4 * migrants.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			writeVarint(out, migrants.size());
+			for (CritterModel.Migrant migrant : migrants) {
+				writeVarint(out, species.idOf(migrant.getSpecies()));
+				writeVarint(out, migrant.getY());
+				writeVarint(out, migrant.getHunger());
+				out.writeBoolean(migrant.hasMated());
+			}
+		} catch (IOException ex) {
+			throw new IllegalStateException("Writing to memory failed!", ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return the migrants in the given blob
+	 * @param blob the encoded migrants
+	 * @param direction the way they crossed
+	 * @throws IOException if the blob is corrupt
+	 */
+	private List<CritterModel.Migrant> decodeMigrants(byte[] blob, Critter.Direction direction) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+		int n = readVarint(in);
+		List<CritterModel.Migrant> migrants = new ArrayList<CritterModel.Migrant>(n);
+		for (int i = 0; i < n; i++) {
+			int id = readVarint(in);
+			int y = readVarint(in);
+			if (id >= species.size() || y >= model.getHeight()) {
+				throw new IOException("Bad migrant: species " + id + " at y = " + y);
+			}
+			int hunger = readVarint(in);
+			migrants.add(new CritterModel.Migrant(species.getSpecies(id), direction, y, hunger, in.readBoolean()));
+		}
+		return migrants;
+	}
+
+	/** Writes a blob: its length and then its bytes. */
+	static void writeBlob(DataOutput out, byte[] blob) throws IOException {
+		out.writeInt(blob.length);
+		out.write(blob);
+	}
+
+	/** @return a blob written by writeBlob() */
+	static byte[] readBlob(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Bad blob length " + length);
+		}
+		byte[] blob = new byte[length];
+		in.readFully(blob);
+		return blob;
+	}
+
+	/** Writes a non-negative int as a varint. */
+	static void writeVarint(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte(value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/** @return a varint written by writeVarint() */
+	static int readVarint(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint too long");
+	}
+
+	/**
+	 * Connects to the coordinator, builds the band it describes, and serves
+	 * it.
+	 * @param args the coordinator's port and the worker's index
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: java SimulationWorker PORT INDEX");
+			System.exit(1);
+		}
+		int port = Integer.parseInt(args[0]);
+		int index = Integer.parseInt(args[1]);
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeByte(HELLO);
+			out.writeInt(index);
+			out.flush();
+			if (in.readByte() != CONFIG || in.readInt() != MAGIC) {
+				throw new IOException("Expected a config from the coordinator");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported protocol version " + version);
+			}
+			int width = in.readInt();
+			int height = in.readInt();
+			int randomGrassProb = in.readInt();
+			int hungerLimit = in.readInt();
+			int numInitial = in.readInt();
+			double initialGrassRatio = in.readDouble();
+			long seed = in.readLong();
+			boolean repopulating = in.readBoolean();
+			int numSpecies = in.readInt();
+			List<Class<?>> roster = new ArrayList<Class<?>>();
+			for (int i = 0; i < numSpecies; i++) {
+				String name = in.readUTF();
+				try {
+					roster.add(Class.forName(name));
+				} catch (ClassNotFoundException ex) {
+					throw new IOException("Critter class " + name + " isn't on the class path", ex);
+				}
+			}
+			CritterModel model = new CritterModel(width, height, randomGrassProb, hungerLimit, roster, numInitial,
+			                                      roster.size(), initialGrassRatio, seed);
+			model.setRepopulatingWorld(repopulating);
+			// The other workers are busy with the other bands, so don't split
+			// the grass.
+			model.setGrassEngine(new StripedGrassEngine(width, height, randomGrassProb, 1, seed));
+			new SimulationWorker(model).serve(in, out);
+		} finally {
+			socket.close();
+		}
+	}
+}
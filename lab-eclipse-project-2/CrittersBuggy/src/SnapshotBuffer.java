@@ -0,0 +1,167 @@
+/**
+ * A SnapshotBuffer triple-buffers RenderSnapshots between the simulation
+ * thread (the writer) and the GUI (the reader).
+ *
+ * The writer fills in the back snapshot at its leisure and then publishes
+ * it, making it the front snapshot.  The reader acquires the front snapshot,
+ * draws it for as long as it likes without holding any lock, and then
+ * releases it, e.g.,
+ *
+ *   RenderSnapshot snapshot = buffer.acquire();
+ *   try {
+ *       ...
+ *   } finally {
+ *       buffer.release();
+ *   }
+ *
+ * The writer never fills in the snapshot the reader has acquired; if that
+ * is the one it would reuse, it uses a third snapshot instead, so a slow
+ * reader never holds up the simulation.  Acquiring, releasing and
+ * publishing only take this buffer's lock for a moment.
+ *
+ * Snapshots are captured incrementally: the model tracks which positions may
+ * have changed, and only those positions are copied.  The buffer also keeps
+ * the set of dirty positions, i.e., those that look different in the front
+ * snapshot than in the one the reader acquired before, so that the reader
+ * can redraw just those.
+ *
+ * All of these sets of positions are CellBitmaps, at a bit per position:
+ * one per snapshot for where it lags the model, and one each for the dirty
+ * positions the writer is collecting and those the reader has.
+ */
+public class SnapshotBuffer {
+	// Marks that the reader hasn't acquired a snapshot.
+	private static final int NONE = -1;
+
+	// The snapshots, the third made when first needed, and the positions at
+	// which each is behind the model.  Only the writer touches the sets.
+	private RenderSnapshot[] snapshots;
+	private CellBitmap[] lagging;
+	// Indices into snapshots.  Only the writer changes front and back, and
+	// only while holding the lock.
+	private int front;
+	private int back;
+	private int acquired;
+	// The positions that changed since the reader last acquired a snapshot,
+	// and those that changed before that, which the reader owns.
+	private CellBitmap dirty;
+	private CellBitmap acquiredDirty;
+
+	/**
+	 * Constructs a new buffer whose snapshots hold the current state of the
+	 * given model.  This turns on change tracking in the model.
+	 * @param model the model to take snapshots of
+	 */
+	public SnapshotBuffer(CritterModel model) {
+		int numCells = model.getWidth() * model.getHeight();
+		this.snapshots = new RenderSnapshot[3];
+		this.lagging = new CellBitmap[3];
+		GlyphPalette palette = new GlyphPalette();
+		model.setTrackingChanges(true);
+		model.collectChangedCells().clear();
+		for (int i = 0; i < 2; i++) {
+			snapshots[i] = new RenderSnapshot(model.getWidth(), model.getHeight(), model.getMaxActiveSpecies(), palette);
+			snapshots[i].capture(model);
+			lagging[i] = new CellBitmap(numCells);
+		}
+		this.front = 0;
+		this.back = 1;
+		this.acquired = NONE;
+		this.dirty = new CellBitmap(numCells);
+		this.acquiredDirty = new CellBitmap(numCells);
+		for (int cell = 0; cell < numCells; cell++) {
+			dirty.add(cell);
+		}
+	}
+
+	/**
+	 * @return the most recently published snapshot.  Only call this while
+	 * holding this buffer's lock and do not hold onto the result after
+	 * releasing it; to draw it, acquire() it instead.
+	 */
+	public synchronized RenderSnapshot getFront() { return snapshots[front]; }
+
+	/**
+	 * Acquires the most recently published snapshot for the reader, which
+	 * may use it until it calls release().  The dirty positions are handed
+	 * over to the reader at the same time; see getDirtyCells().  Only the
+	 * reader may call this.
+	 * @return the snapshot
+	 * @throws IllegalStateException if the reader already has a snapshot
+	 */
+	public synchronized RenderSnapshot acquire() {
+		if (acquired != NONE) {
+			throw new IllegalStateException("A snapshot is already acquired!");
+		}
+		acquired = front;
+		CellBitmap tmp = acquiredDirty;
+		acquiredDirty = dirty;
+		dirty = tmp;
+		dirty.clear();
+		return snapshots[acquired];
+	}
+
+	/**
+	 * Lets the writer reuse the snapshot the reader acquired.  Only the
+	 * reader may call this.
+	 */
+	public synchronized void release() {
+		acquired = NONE;
+	}
+
+	/**
+	 * @return the positions that look different in the snapshot the reader
+	 * acquired last than in the one it acquired before, as indices
+	 * x * height + y.  The reader owns this set until it acquires another
+	 * snapshot and may read or clear it without holding any lock.
+	 */
+	public CellBitmap getDirtyCells() { return acquiredDirty; }
+
+	/**
+	 * Captures the changes to the model since the last call into the back
+	 * snapshot and publishes it, making it the new front snapshot.  Only the
+	 * writer may call this.
+	 * @param model the model to capture
+	 */
+	public void captureAndPublish(CritterModel model) {
+		CellBitmap changed = model.collectChangedCells();
+		// Catch the back snapshot up on the changes it missed while it was
+		// published, then on the changes since, which the others miss.
+		RenderSnapshot snapshot = snapshots[back];
+		CellBitmap behind = lagging[back];
+		for (int cell = behind.next(0); cell >= 0; cell = behind.next(cell + 1)) {
+			if (!changed.contains(cell)) {
+				snapshot.captureCell(model, cell);
+			}
+		}
+		behind.clear();
+		for (int cell = changed.next(0); cell >= 0; cell = changed.next(cell + 1)) {
+			snapshot.captureCell(model, cell);
+		}
+		snapshot.captureSummary(model);
+		for (int j = 0; j < snapshots.length; j++) {
+			if (j != back && lagging[j] != null) {
+				lagging[j].addAll(changed);
+			}
+		}
+		synchronized (this) {
+			for (int cell = changed.next(0); cell >= 0; cell = changed.next(cell + 1)) {
+				if (!snapshot.sameCell(snapshots[front], cell)) {
+					dirty.add(cell);
+				}
+			}
+			int old = front;
+			front = back;
+			// Reuse the old front snapshot, which is the least behind, unless
+			// the reader has it.
+			back = old != acquired ? old : 3 - old - front;
+		}
+		if (snapshots[back] == null) {
+			snapshots[back] = new RenderSnapshot(model.getWidth(), model.getHeight(), model.getMaxActiveSpecies(),
+			                                     snapshot.getPalette());
+			snapshots[back].capture(model);
+			lagging[back] = new CellBitmap(model.getWidth() * model.getHeight());
+		}
+		changed.clear();
+	}
+}
@@ -0,0 +1,291 @@
+import java.util.Arrays;
+
+/**
+ * A SpatialIndex keeps track of where a set of ids are in a world of a given
+ * size, so that the ids near a position can be found without looking at
+ * every position around it.  The world is divided into square buckets of
+ * positions, and each bucket keeps a doubly linked list of the ids in it,
+ * threaded through arrays indexed by id.  Putting, moving and removing an
+ * id are O(1); a query visits only the buckets that overlap its window.
+ *
+ * The buckets are 8x8 positions, or bigger for worlds so huge that there
+ * would be more than MAX_BUCKETS of them.  Ids should be small and dense,
+ * like the model's slots, since the arrays grow to the largest id.
+ *
+ * The index is not thread-safe, but any number of threads may query it
+ * while no one changes it.
+ */
+public class SpatialIndex {
+	/** The most buckets an index has, however big its world. */
+	public static final int MAX_BUCKETS = 1 << 22;
+
+	// Marks the end of a bucket's list and an id that isn't in the index.
+	private static final int ABSENT = -1;
+
+	/** The ids found by a query, with where they are; see query(). */
+	public static class Hits {
+		private int size;
+		private int[] ids = new int[16];
+		private int[] xs = new int[16];
+		private int[] ys = new int[16];
+		private int[] dxs = new int[16];
+		private int[] dys = new int[16];
+		// The window of the query, as offsets from its center.
+		private int minDx;
+		private int maxDx;
+		private int minDy;
+		private int maxDy;
+
+		/** @return the number of ids found */
+		public int size() { return size; }
+
+		/** @return the i-th id found */
+		public int getId(int i) { return ids[i]; }
+
+		/** @return the x-coordinate of the i-th id found */
+		public int getX(int i) { return xs[i]; }
+
+		/** @return the y-coordinate of the i-th id found */
+		public int getY(int i) { return ys[i]; }
+
+		/** @return the offset of the i-th id found from the center of the query, west to east */
+		public int getDx(int i) { return dxs[i]; }
+
+		/** @return the offset of the i-th id found from the center of the query, north to south */
+		public int getDy(int i) { return dys[i]; }
+
+		/** @return the smallest x-offset in the window of the query */
+		public int getMinDx() { return minDx; }
+
+		/** @return the largest x-offset in the window of the query */
+		public int getMaxDx() { return maxDx; }
+
+		/** @return the smallest y-offset in the window of the query */
+		public int getMinDy() { return minDy; }
+
+		/** @return the largest y-offset in the window of the query */
+		public int getMaxDy() { return maxDy; }
+
+		/** Records an id found at (x, y), offset (dx, dy) from the center. */
+		private void add(int id, int x, int y, int dx, int dy) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				xs = Arrays.copyOf(xs, size * 2);
+				ys = Arrays.copyOf(ys, size * 2);
+				dxs = Arrays.copyOf(dxs, size * 2);
+				dys = Arrays.copyOf(dys, size * 2);
+			}
+			ids[size] = id;
+			xs[size] = x;
+			ys[size] = y;
+			dxs[size] = dx;
+			dys[size] = dy;
+			size++;
+		}
+	}
+
+	private int width;
+	private int height;
+	private int bucketShift;
+	private int bucketsDown;
+	// The first id in each bucket, by bucket x * bucketsDown + bucket y.
+	private int[] heads;
+	// By id: the next and previous ids in the same bucket, the bucket, or
+	// ABSENT if the id isn't in the index, and the position.
+	private int[] next;
+	private int[] prev;
+	private int[] buckets;
+	private int[] xs;
+	private int[] ys;
+	private int size;
+
+	/**
+	 * Constructs a new, empty index.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 */
+	public SpatialIndex(int width, int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Bad world size: " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		this.bucketShift = 3;
+		while ((((long) width - 1 >> bucketShift) + 1) * (((long) height - 1 >> bucketShift) + 1) > MAX_BUCKETS) {
+			bucketShift++;
+		}
+		int bucketsAcross = ((width - 1) >> bucketShift) + 1;
+		this.bucketsDown = ((height - 1) >> bucketShift) + 1;
+		this.heads = new int[bucketsAcross * bucketsDown];
+		Arrays.fill(heads, ABSENT);
+		this.next = new int[16];
+		this.prev = new int[16];
+		this.buckets = new int[16];
+		this.xs = new int[16];
+		this.ys = new int[16];
+		Arrays.fill(buckets, ABSENT);
+		this.size = 0;
+	}
+
+	/** @return the number of ids in the index */
+	public int size() { return size; }
+
+	/**
+	 * @return the side of the buckets, in positions
+	 */
+	public int getBucketSize() { return 1 << bucketShift; }
+
+	/**
+	 * @return true iff the given id is in the index
+	 * @param id the id
+	 */
+	public boolean contains(int id) {
+		return id >= 0 && id < buckets.length && buckets[id] != ABSENT;
+	}
+
+	/**
+	 * Puts the given id at position (x, y), moving it if it is already in
+	 * the index.
+	 * @param id the id, which must not be negative
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public void put(int id, int x, int y) {
+		if (id >= buckets.length) {
+			int length = Math.max(id + 1, buckets.length * 2);
+			next = Arrays.copyOf(next, length);
+			prev = Arrays.copyOf(prev, length);
+			xs = Arrays.copyOf(xs, length);
+			ys = Arrays.copyOf(ys, length);
+			int old = buckets.length;
+			buckets = Arrays.copyOf(buckets, length);
+			Arrays.fill(buckets, old, length, ABSENT);
+		}
+		int bucket = (x >> bucketShift) * bucketsDown + (y >> bucketShift);
+		xs[id] = x;
+		ys[id] = y;
+		if (buckets[id] == bucket) {
+			return;
+		}
+		remove(id);
+		buckets[id] = bucket;
+		prev[id] = ABSENT;
+		next[id] = heads[bucket];
+		if (heads[bucket] != ABSENT) {
+			prev[heads[bucket]] = id;
+		}
+		heads[bucket] = id;
+		size++;
+	}
+
+	/**
+	 * Removes the given id from the index, if it is there.
+	 * @param id the id
+	 */
+	public void remove(int id) {
+		if (!contains(id)) {
+			return;
+		}
+		if (prev[id] != ABSENT) {
+			next[prev[id]] = next[id];
+		} else {
+			heads[buckets[id]] = next[id];
+		}
+		if (next[id] != ABSENT) {
+			prev[next[id]] = prev[id];
+		}
+		buckets[id] = ABSENT;
+		size--;
+	}
+
+	/**
+	 * Finds the ids within the given radius of position (x, y): those in the
+	 * square of positions at most radius away along each axis.  The world
+	 * wraps around north to south, and west to east if asked to; a window
+	 * wider than the world covers it once, with the offsets closest to the
+	 * center.  The ids come in no particular order.
+	 * @return the number of positions in the window
+	 * @param x the x-coordinate of the center
+	 * @param y the y-coordinate of the center
+	 * @param radius the radius, which must not be negative
+	 * @param wrapX whether the world wraps around west to east
+	 * @param exclude an id to leave out, e.g., the one at the center, or -1
+	 * @param hits where the ids found go, replacing what was there
+	 */
+	public long query(int x, int y, int radius, boolean wrapX, int exclude, Hits hits) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("Negative radius: " + radius);
+		}
+		hits.size = 0;
+		if (wrapX) {
+			hits.minDx = -Math.min(radius, width / 2);
+			hits.maxDx = Math.min(radius, width - 1 + hits.minDx);
+		} else {
+			hits.minDx = -Math.min(radius, x);
+			hits.maxDx = Math.min(radius, width - 1 - x);
+		}
+		hits.minDy = -Math.min(radius, height / 2);
+		hits.maxDy = Math.min(radius, height - 1 + hits.minDy);
+		// Split the window into at most two runs of columns and two of rows
+		// that don't wrap around.
+		int x0 = x + hits.minDx;
+		int x1 = x + hits.maxDx;
+		int y0 = y + hits.minDy;
+		int y1 = y + hits.maxDy;
+		for (int i = 0; i < 2; i++) {
+			int cx0 = i == 0 ? Math.max(x0, 0) : (x0 < 0 ? x0 + width : 0);
+			int cx1 = i == 0 ? Math.min(x1, width - 1) : (x0 < 0 ? width - 1 : x1 - width);
+			if (i == 1 && x0 >= 0 && x1 < width) {
+				break;
+			}
+			for (int j = 0; j < 2; j++) {
+				int cy0 = j == 0 ? Math.max(y0, 0) : (y0 < 0 ? y0 + height : 0);
+				int cy1 = j == 0 ? Math.min(y1, height - 1) : (y0 < 0 ? height - 1 : y1 - height);
+				if (j == 1 && y0 >= 0 && y1 < height) {
+					break;
+				}
+				scan(cx0, cx1, cy0, cy1, x, y, exclude, hits);
+			}
+		}
+		return (long) (hits.maxDx - hits.minDx + 1) * (hits.maxDy - hits.minDy + 1);
+	}
+
+	///// PRIVATE HELPERS /////
+
+	/**
+	 * Adds the ids in the rectangle [x0, x1] x [y0, y1], which doesn't wrap
+	 * around, to the hits of a query.
+	 * @param x the x-coordinate of the center of the query
+	 * @param y the y-coordinate of the center of the query
+	 * @param exclude the id to leave out
+	 * @param hits the hits, with the window of the query set
+	 */
+	private void scan(int x0, int x1, int y0, int y1, int x, int y, int exclude, Hits hits) {
+		for (int bx = x0 >> bucketShift; bx <= x1 >> bucketShift; bx++) {
+			for (int by = y0 >> bucketShift; by <= y1 >> bucketShift; by++) {
+				for (int id = heads[bx * bucketsDown + by]; id != ABSENT; id = next[id]) {
+					int ix = xs[id];
+					int iy = ys[id];
+					if (id == exclude || ix < x0 || ix > x1 || iy < y0 || iy > y1) {
+						continue;
+					}
+					hits.add(id, ix, iy, offset(ix - x, hits.minDx, hits.maxDx, width),
+					         offset(iy - y, hits.minDy, hits.maxDy, height));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the given difference of coordinates, wrapped around the world
+	 * into [min, max]
+	 */
+	private static int offset(int d, int min, int max, int size) {
+		if (d > max) {
+			return d - size;
+		} else if (d < min) {
+			return d + size;
+		}
+		return d;
+	}
+}
@@ -0,0 +1,192 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A SpeciesRegistry numbers the species of a simulation and keeps track of
+ * which of them are active and how many critters each has.  A species' id is
+ * its position in the roster the registry was built from, so ids are small,
+ * dense, and stable for the life of the model; the model's hot paths count
+ * critters and compare species by id rather than by Class.
+ *
+ * The registry also holds the CritterFactory of each species, created the
+ * first time the species is activated.
+ */
+public class SpeciesRegistry {
+	private Class<?>[] species;
+	private Map<Class<?>, Integer> ids;
+	private CritterFactory[] factories;
+	private int[] counts;
+	// The active species' ids in the order they were activated, and the
+	// position of each active species in that list (or -1).
+	private int[] active;
+	private int[] activePositions;
+	private int numActive;
+	private Map<Class<?>, Integer> countsView;
+
+	/**
+	 * Constructs a new registry in which no species is active.
+	 * @param roster the species, in id order; each may appear only once
+	 * @throws IllegalArgumentException if a species appears twice
+	 */
+	public SpeciesRegistry(List<Class<?>> roster) {
+		this.species = roster.toArray(new Class<?>[roster.size()]);
+		this.ids = new HashMap<Class<?>, Integer>();
+		for (int id = 0; id < species.length; id++) {
+			if (ids.put(species[id], id) != null) {
+				throw new IllegalArgumentException(species[id] + " appears in the roster twice");
+			}
+		}
+		this.factories = new CritterFactory[species.length];
+		this.counts = new int[species.length];
+		this.active = new int[species.length];
+		this.activePositions = new int[species.length];
+		Arrays.fill(activePositions, -1);
+	}
+
+	/** @return the number of species, active or not */
+	public int size() { return species.length; }
+
+	/**
+	 * @return the species with the given id
+	 * @param id the id
+	 */
+	public Class<?> getSpecies(int id) { return species[id]; }
+
+	/**
+	 * @return the id of the given species, or -1 if it isn't registered
+	 * @param cls the species
+	 */
+	public int idOf(Class<?> cls) {
+		Integer id = ids.get(cls);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the factory of the species with the given id, which must have
+	 * been active at some point
+	 * @param id the id
+	 */
+	public CritterFactory getFactory(int id) { return factories[id]; }
+
+	/**
+	 * @return the number of critters of the species with the given id
+	 * @param id the id
+	 */
+	public int getCount(int id) { return counts[id]; }
+
+	/**
+	 * Counts a new critter of the species with the given id.
+	 * @param id the id
+	 */
+	public void increment(int id) { counts[id]++; }
+
+	/**
+	 * Counts a dead critter of the species with the given id.
+	 * @param id the id
+	 */
+	public void decrement(int id) { counts[id]--; }
+
+	/** @return the number of active species */
+	public int getNumActive() { return numActive; }
+
+	/**
+	 * @return the id of the i-th active species, in the order they were
+	 * activated
+	 * @param i the index, less than getNumActive()
+	 */
+	public int getActiveId(int i) {
+		if (i >= numActive) {
+			throw new IndexOutOfBoundsException("Only " + numActive + " species are active");
+		}
+		return active[i];
+	}
+
+	/**
+	 * @return true iff the species with the given id is active
+	 * @param id the id
+	 */
+	public boolean isActive(int id) { return activePositions[id] >= 0; }
+
+	/**
+	 * Activates the species with the given id with no critters, creating its
+	 * factory if it doesn't have one yet.
+	 * @param id the id
+	 * @throws IllegalStateException if it is already active
+	 */
+	public void activate(int id) {
+		if (isActive(id)) {
+			throw new IllegalStateException(species[id] + " is already active");
+		}
+		if (factories[id] == null) {
+			factories[id] = new CritterFactory(species[id]);
+		}
+		counts[id] = 0;
+		activePositions[id] = numActive;
+		active[numActive++] = id;
+	}
+
+	/**
+	 * Deactivates the species with the given id.  The others keep their
+	 * order.
+	 * @param id the id
+	 * @throws IllegalStateException if it isn't active
+	 */
+	public void deactivate(int id) {
+		int position = activePositions[id];
+		if (position < 0) {
+			throw new IllegalStateException(species[id] + " is not active");
+		}
+		System.arraycopy(active, position + 1, active, position, numActive - position - 1);
+		numActive--;
+		for (int i = position; i < numActive; i++) {
+			activePositions[active[i]] = i;
+		}
+		activePositions[id] = -1;
+	}
+
+	/**
+	 * @return a read-only map of the active species to their counts, in the
+	 * order they were activated.  The map is a view of the registry, so it
+	 * costs nothing to get and always reflects the current counts.
+	 */
+	public Map<Class<?>, Integer> getCountsView() {
+		if (countsView == null) {
+			countsView = new AbstractMap<Class<?>, Integer>() {
+				public Set<Map.Entry<Class<?>, Integer>> entrySet() {
+					return new AbstractSet<Map.Entry<Class<?>, Integer>>() {
+						public int size() { return numActive; }
+						public Iterator<Map.Entry<Class<?>, Integer>> iterator() {
+							return new Iterator<Map.Entry<Class<?>, Integer>>() {
+								private int next = 0;
+								public boolean hasNext() { return next < numActive; }
+								public Map.Entry<Class<?>, Integer> next() {
+									if (next >= numActive) {
+										throw new NoSuchElementException();
+									}
+									int id = active[next++];
+									return new AbstractMap.SimpleImmutableEntry<Class<?>, Integer>(species[id], counts[id]);
+								}
+							};
+						}
+					};
+				}
+				public Integer get(Object key) {
+					Integer id = ids.get(key);
+					return id == null || !isActive(id) ? null : counts[id];
+				}
+				public boolean containsKey(Object key) {
+					Integer id = ids.get(key);
+					return id != null && isActive(id);
+				}
+			};
+		}
+		return countsView;
+	}
+}
@@ -0,0 +1,97 @@
+import java.util.Random;
+
+/**
+ * Where the effects of stepping a critter go, and where the model gets what
+ * a critter's strategy does this step.  The CritterModel's own contexts
+ * apply the effects to the model directly, calling strategies live or
+ * reading what was sampled, as its profiler, watchdog and tiles need; a
+ * tile of a TileStepper applies what happens on its own positions right
+ * away and logs the rest to apply to the model later.  Choosing the context
+ * once, when the model is configured, keeps those checks off the path of
+ * every strategy call.
+ */
+abstract class StepContext {
+	/** @return the random stream for fights and births */
+	public abstract Random rand();
+
+	/**
+	 * @return true iff position (x, y) has grass
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public abstract boolean hasGrass(int x, int y);
+
+	/**
+	 * Samples the move, speed and food type of the given critter's strategy
+	 * for this step.
+	 * @param critter the critter
+	 */
+	public abstract void sample(CritterModel.ConcreteCritter critter);
+
+	/**
+	 * @return the move of the given critter this step; by default, the one
+	 * sampled, sampling the critter first if it was born this step
+	 * @param critter the critter
+	 */
+	public Critter.Direction moveOf(CritterModel.ConcreteCritter critter) {
+		return sampled(critter).getSampledMove();
+	}
+
+	/**
+	 * @return the speed of the given critter this step; by default, the one
+	 * sampled, sampling the critter first if it was born this step
+	 * @param critter the critter
+	 */
+	public Critter.Speed speedOf(CritterModel.ConcreteCritter critter) {
+		return sampled(critter).getSampledSpeed();
+	}
+
+	/**
+	 * @return the food type of the given critter this step; by default, the
+	 * one sampled, sampling the critter first if it was born this step
+	 * @param critter the critter
+	 */
+	public Critter.FoodType foodTypeOf(CritterModel.ConcreteCritter critter) {
+		return sampled(critter).getSampledFoodType();
+	}
+
+	/** Moves a critter on the board from one position to another. */
+	public abstract void moved(CritterModel.ConcreteCritter critter, int fromX, int fromY, int toX, int toY);
+
+	/** Has the grass at position (x, y) eaten. */
+	public abstract void ateGrass(int x, int y);
+
+	/** Reports a fight; see SimulationListener.critterFought(). */
+	public abstract void fought(int winnerX, int winnerY, int loserX, int loserY);
+
+	/** Reports a mating; see SimulationListener.critterMated(). */
+	public abstract void mated(int x, int y, int mateX, int mateY);
+
+	/** Adds a baby to the world. */
+	public abstract void born(CritterModel.ConcreteCritter baby);
+
+	/** Records a critter that just died in the death buffer. */
+	public abstract void died(CritterModel.ConcreteCritter critter);
+
+	/**
+	 * Runs a callback of a critter's strategy, or arranges for it to run.
+	 * @param critter the critter
+	 * @param call the callback
+	 * @param other the critter's mate, for ON_MATE; ignored otherwise
+	 */
+	public abstract void callback(CritterModel.ConcreteCritter critter, StrategyWatchdog.Call call,
+	                              CritterModel.ConcreteCritter other);
+
+	/**
+	 * @return the given critter, sampled this step
+	 * @param critter the critter
+	 */
+	protected CritterModel.ConcreteCritter sampled(CritterModel.ConcreteCritter critter) {
+		if (!critter.isSampled()) {
+			// Only babies born this step get here; everyone else was
+			// sampled with the others when calculating moves.
+			sample(critter);
+		}
+		return critter;
+	}
+}
@@ -0,0 +1,343 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A StepProfiler measures where the time in each step of a CritterModel
+ * goes: how long each phase of the step takes, how long each species'
+ * getMove(), getSpeed() and getFoodType() take, and how many births, deaths
+ * and fights each step has.
+ *
+ * Attach one with CritterModel.setProfiler().  Without a profiler, which is
+ * the default, the model does no timing at all.  With one, each phase and
+ * each strategy call costs a pair of System.nanoTime() calls.  Latencies
+ * are kept in histograms with power-of-two buckets, so percentiles are
+ * accurate to within a factor of two.
+ *
+ * The numbers can be read through JMX (see register()) and can be printed
+ * as a one-line summary every so often (see setLogging()).  The profiler is
+ * updated on the simulation thread only.
+ */
+public class StepProfiler extends SimulationAdapter implements StepProfilerMBean {
+	/** The phases of a step, in order. */
+	public static enum Phase {
+		CALCULATE_MOVES, STEP_CRITTER_KIND, CLEAR_THE_DEAD, REMOVE_EXTINCT_SPECIES, POPULATE_WORLD, PROPAGATE_GRASS
+	}
+
+	/** The strategy methods whose latency is measured. */
+	public static enum Call { GET_MOVE, GET_SPEED, GET_FOOD_TYPE }
+
+	// The number of histogram buckets; bucket b counts latencies in
+	// [2^b, 2^(b+1)) nanoseconds, with 0 in bucket 0.
+	private static final int NUM_BUCKETS = 64;
+
+	/** The call counts and latency histograms of a single species. */
+	private static class SpeciesProfile {
+		private String name;
+		private long[][] histograms = new long[Call.values().length][NUM_BUCKETS];
+		private long[] counts = new long[Call.values().length];
+		private long[] maxima = new long[Call.values().length];
+
+		public SpeciesProfile(String name) { this.name = name; }
+	}
+
+	private Map<Class<?>, SpeciesProfile> species;
+	private List<SpeciesProfile> speciesList;
+	private long[] phaseTotals;
+	private long[] phaseCurrent;
+	private volatile long[] phaseLast;
+	private volatile long stepsProfiled;
+	private volatile long lastStepNanos;
+	private long totalStepNanos;
+	private int births;
+	private int deaths;
+	private int fights;
+	private volatile int lastBirths;
+	private volatile int lastDeaths;
+	private volatile int lastFights;
+	private volatile long totalBirths;
+	private volatile long totalDeaths;
+	private volatile long totalFights;
+	private volatile boolean resetRequested;
+	private PrintStream log;
+	private long logPeriodNanos;
+	private long lastLogTime;
+	private long stepsAtLastLog;
+	private long nanosAtLastLog;
+
+	/** Constructs a new profiler with nothing profiled yet. */
+	public StepProfiler() {
+		this.species = new HashMap<Class<?>, SpeciesProfile>();
+		this.speciesList = new ArrayList<SpeciesProfile>();
+		this.phaseTotals = new long[Phase.values().length];
+		this.phaseCurrent = new long[Phase.values().length];
+		this.phaseLast = new long[Phase.values().length];
+	}
+
+	/**
+	 * Registers this profiler with the platform MBean server under the name
+	 * "critters:type=StepProfiler,name=" + name.
+	 * @param name the name to register under
+	 * @throws IllegalStateException if registering fails, e.g., because the
+	 * name is taken
+	 */
+	public void register(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+				this, new ObjectName("critters:type=StepProfiler,name=" + ObjectName.quote(name)));
+		} catch (JMException ex) {
+			throw new IllegalStateException("Could not register the profiler as " + name, ex);
+		}
+	}
+
+	/**
+	 * Prints a one-line summary to the given stream at the end of the first
+	 * step after each period has passed.
+	 * @param out the stream, or null to stop logging
+	 * @param periodMillis the period in milliseconds
+	 */
+	public void setLogging(PrintStream out, long periodMillis) {
+		this.log = out;
+		this.logPeriodNanos = periodMillis * 1000000L;
+		this.lastLogTime = System.nanoTime();
+		this.stepsAtLastLog = stepsProfiled;
+		this.nanosAtLastLog = totalStepNanos;
+	}
+
+	///// RECORDING (called by the model) /////
+
+	/**
+	 * Records time spent in a phase of the current step.
+	 * @param phase the phase
+	 * @param nanos the time in nanoseconds
+	 */
+	public void recordPhase(Phase phase, long nanos) {
+		phaseCurrent[phase.ordinal()] += nanos;
+	}
+
+	/**
+	 * Records a call to a strategy method.
+	 * @param cls the species of the strategy
+	 * @param call the method called
+	 * @param nanos the time it took in nanoseconds
+	 */
+	public void recordCall(Class<?> cls, Call call, long nanos) {
+		SpeciesProfile profile = species.get(cls);
+		if (profile == null) {
+			profile = new SpeciesProfile(cls.getName());
+			species.put(cls, profile);
+			synchronized (speciesList) {
+				speciesList.add(profile);
+			}
+		}
+		int c = call.ordinal();
+		profile.histograms[c][bucketOf(nanos)]++;
+		profile.counts[c]++;
+		if (nanos > profile.maxima[c]) {
+			profile.maxima[c] = nanos;
+		}
+	}
+
+	///// SimulationListener /////
+
+	public void critterFought(int winnerX, int winnerY, int loserX, int loserY) { fights++; }
+
+	public void critterBorn(Class<?> cls, int x, int y) { births++; }
+
+	public void critterDied(Class<?> cls, int x, int y, DeathCause cause, boolean vacated) { deaths++; }
+
+	public void stepEnded(int numSteps) {
+		if (resetRequested) {
+			clear();
+		}
+		long stepNanos = 0;
+		for (int i = 0; i < phaseCurrent.length; i++) {
+			phaseTotals[i] += phaseCurrent[i];
+			stepNanos += phaseCurrent[i];
+		}
+		phaseLast = phaseCurrent.clone();
+		Arrays.fill(phaseCurrent, 0);
+		lastStepNanos = stepNanos;
+		totalStepNanos += stepNanos;
+		stepsProfiled++;
+		lastBirths = births;
+		lastDeaths = deaths;
+		lastFights = fights;
+		totalBirths += births;
+		totalDeaths += deaths;
+		totalFights += fights;
+		births = 0;
+		deaths = 0;
+		fights = 0;
+		if (log != null && System.nanoTime() - lastLogTime >= logPeriodNanos) {
+			log.println(summarize(numSteps));
+			lastLogTime = System.nanoTime();
+			stepsAtLastLog = stepsProfiled;
+			nanosAtLastLog = totalStepNanos;
+		}
+	}
+
+	///// StepProfilerMBean /////
+
+	public long getStepsProfiled() { return stepsProfiled; }
+
+	public long getLastStepNanos() { return lastStepNanos; }
+
+	public double getMeanStepMillis() {
+		long steps = stepsProfiled;
+		return steps == 0 ? 0 : totalStepNanos / 1e6 / steps;
+	}
+
+	public String[] getPhaseNames() {
+		String[] names = new String[Phase.values().length];
+		for (Phase phase : Phase.values()) {
+			names[phase.ordinal()] = phase.name();
+		}
+		return names;
+	}
+
+	public long[] getPhaseTotalNanos() { return phaseTotals.clone(); }
+
+	public long[] getLastPhaseNanos() { return phaseLast.clone(); }
+
+	public int getLastBirths() { return lastBirths; }
+
+	public int getLastDeaths() { return lastDeaths; }
+
+	public int getLastFights() { return lastFights; }
+
+	public long getTotalBirths() { return totalBirths; }
+
+	public long getTotalDeaths() { return totalDeaths; }
+
+	public long getTotalFights() { return totalFights; }
+
+	public String[] getSpeciesReport() {
+		List<String> lines = new ArrayList<String>();
+		synchronized (speciesList) {
+			for (SpeciesProfile profile : speciesList) {
+				for (Call call : Call.values()) {
+					int c = call.ordinal();
+					if (profile.counts[c] > 0) {
+						lines.add(String.format("%s.%s: %d calls, p50 %s, p99 %s, max %s", profile.name,
+						                        methodName(call), profile.counts[c],
+						                        formatNanos(percentile(profile.histograms[c], 0.5)),
+						                        formatNanos(percentile(profile.histograms[c], 0.99)),
+						                        formatNanos(profile.maxima[c])));
+					}
+				}
+			}
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	/** Forgets everything profiled so far, at the end of the current step. */
+	public void reset() { resetRequested = true; }
+
+	///// PRIVATE HELPERS /////
+
+	/** Forgets everything profiled so far; called on the simulation thread. */
+	private void clear() {
+		resetRequested = false;
+		synchronized (speciesList) {
+			species.clear();
+			speciesList.clear();
+		}
+		Arrays.fill(phaseTotals, 0);
+		stepsProfiled = 0;
+		totalStepNanos = 0;
+		totalBirths = 0;
+		totalDeaths = 0;
+		totalFights = 0;
+		stepsAtLastLog = 0;
+		nanosAtLastLog = 0;
+	}
+
+	/**
+	 * @return a one-line summary of the steps since the last one
+	 * @param numSteps the number of steps taken by the model
+	 */
+	private String summarize(int numSteps) {
+		long steps = stepsProfiled - stepsAtLastLog;
+		StringBuilder line = new StringBuilder();
+		line.append(String.format("step %d: %.3f ms/step [", numSteps,
+		                          steps == 0 ? 0 : (totalStepNanos - nanosAtLastLog) / 1e6 / steps));
+		long[] last = phaseLast;
+		for (Phase phase : Phase.values()) {
+			if (phase.ordinal() > 0) {
+				line.append(", ");
+			}
+			line.append(phase.name().toLowerCase()).append(' ').append(formatNanos(last[phase.ordinal()]));
+		}
+		line.append(String.format("] births %d, deaths %d, fights %d", lastBirths, lastDeaths, lastFights));
+		// Point out the species with the slowest moves.
+		SpeciesProfile slowest = null;
+		long slowestP99 = -1;
+		synchronized (speciesList) {
+			for (SpeciesProfile profile : speciesList) {
+				long p99 = percentile(profile.histograms[Call.GET_MOVE.ordinal()], 0.99);
+				if (p99 > slowestP99) {
+					slowest = profile;
+					slowestP99 = p99;
+				}
+			}
+		}
+		if (slowest != null) {
+			line.append("; slowest getMove(): ").append(slowest.name).append(" p99 ").append(formatNanos(slowestP99));
+		}
+		return line.toString();
+	}
+
+	/** @return the histogram bucket of the given latency */
+	private static int bucketOf(long nanos) {
+		return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+	}
+
+	/**
+	 * @return the upper bound of the bucket that holds the given quantile of
+	 * the histogram, or 0 if it is empty
+	 * @param histogram the histogram
+	 * @param quantile the quantile, in [0, 1]
+	 */
+	private static long percentile(long[] histogram, double quantile) {
+		long total = 0;
+		for (long count : histogram) {
+			total += count;
+		}
+		long rank = (long) Math.ceil(total * quantile);
+		long seen = 0;
+		for (int b = 0; b < histogram.length; b++) {
+			seen += histogram[b];
+			if (seen >= rank && seen > 0) {
+				return b >= 62 ? Long.MAX_VALUE : 2L << b;
+			}
+		}
+		return 0;
+	}
+
+	/** @return the given duration in a human-friendly unit */
+	private static String formatNanos(long nanos) {
+		if (nanos < 10000) {
+			return nanos + "ns";
+		} else if (nanos < 10000000) {
+			return (nanos / 1000) + "us";
+		} else {
+			return (nanos / 1000000) + "ms";
+		}
+	}
+
+	/** @return the name of the strategy method of the given call */
+	private static String methodName(Call call) {
+		switch (call) {
+			case GET_MOVE: return "getMove()";
+			case GET_SPEED: return "getSpeed()";
+			default: return "getFoodType()";
+		}
+	}
+}
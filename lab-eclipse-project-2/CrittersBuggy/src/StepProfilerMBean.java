@@ -0,0 +1,51 @@
+/**
+ * The JMX management interface of a StepProfiler; see there for what the
+ * numbers mean.  Values are read while the simulation runs, so they may be
+ * a step out of date with each other.
+ */
+public interface StepProfilerMBean {
+	/** @return the number of steps profiled */
+	public long getStepsProfiled();
+
+	/** @return the time taken by the last step, in nanoseconds */
+	public long getLastStepNanos();
+
+	/** @return the average time per step, in milliseconds */
+	public double getMeanStepMillis();
+
+	/** @return the names of the phases of a step */
+	public String[] getPhaseNames();
+
+	/** @return the time spent in each phase over all steps, in nanoseconds */
+	public long[] getPhaseTotalNanos();
+
+	/** @return the time spent in each phase in the last step, in nanoseconds */
+	public long[] getLastPhaseNanos();
+
+	/** @return the number of births in the last step */
+	public int getLastBirths();
+
+	/** @return the number of deaths in the last step */
+	public int getLastDeaths();
+
+	/** @return the number of fights in the last step */
+	public int getLastFights();
+
+	/** @return the number of births over all steps */
+	public long getTotalBirths();
+
+	/** @return the number of deaths over all steps */
+	public long getTotalDeaths();
+
+	/** @return the number of fights over all steps */
+	public long getTotalFights();
+
+	/**
+	 * @return one line per species and strategy method: the number of calls
+	 * and the median, 99th percentile and maximum latency
+	 */
+	public String[] getSpeciesReport();
+
+	/** Forgets everything profiled so far. */
+	public void reset();
+}
@@ -0,0 +1,450 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A StrategyWatchdog runs the methods of Critter strategies with a time
+ * budget per call, so that one strategy that loops or sleeps can't stall a
+ * whole step of the simulation.
+ *
+ * Attach one with CritterModel.setWatchdog().  Calls are handed to a runner
+ * thread in batches, and the simulation thread waits for each batch,
+ * waking up whenever the call in progress may have run out of budget.  If
+ * a call overruns, the runner is abandoned to finish the call on its own
+ * and a fresh runner carries on with the rest of the batch; the call
+ * counts as an overrun against its species and its fallback value is used
+ * instead: CENTER for getMove(), SLOW for getSpeed(), and no food type at
+ * all for getFoodType().  Until the abandoned call returns, every further
+ * call to that strategy is skipped the same way, so a strategy is never run
+ * by two threads at once.  The model kills critters that overrun too often
+ * (see getMaxOverruns()).
+ *
+ * A stuck call can't be stopped, only abandoned, so a critter that never
+ * returns keeps a thread busy for good.  To bound how many such threads
+ * pile up, a species is quarantined the first time one of its calls is
+ * abandoned: from then on every call to any of its critters is skipped and
+ * gets its fallback, so each species strands at most one runner.  Should
+ * MAX_STUCK_RUNNERS abandoned runners still be stuck anyway, the watchdog
+ * stops running strategies altogether and every call gets its fallback
+ * until some of them return.
+ *
+ * A watchdog serves one simulation thread at a time.
+ */
+public class StrategyWatchdog {
+	/** The strategy methods run through the watchdog. */
+	public static enum Call { GET_MOVE, GET_SPEED, GET_FOOD_TYPE, ON_EAT, ON_WIN, ON_MATE, ON_DEATH }
+
+	/**
+	 * The number of abandoned runners that may be stuck at once before every
+	 * call gets its fallback.
+	 */
+	public static final int MAX_STUCK_RUNNERS = 16;
+
+	/** A batch of strategy calls to run. */
+	public static interface Batch {
+		/**
+		 * @return the strategy that the given call is made on
+		 * @param i the index of the call
+		 */
+		public Critter strategyOf(int i);
+
+		/**
+		 * @return the method that the given call calls
+		 * @param i the index of the call
+		 */
+		public Call callOf(int i);
+
+		/**
+		 * Makes the given call.  This runs on a runner thread, while the
+		 * simulation thread waits.
+		 * @return the result of the call, or null for callbacks
+		 * @param i the index of the call
+		 */
+		public Object call(int i);
+
+		/**
+		 * Called on the simulation thread when the given call overruns the
+		 * budget.
+		 * @param i the index of the call
+		 */
+		public void overran(int i);
+	}
+
+	private long budgetNanos;
+	private int maxOverruns;
+	private Runner runner;
+	// The strategies whose calls were abandoned but are still running.
+	private Set<Critter> stalled;
+	private volatile int numStalled;
+	// The species that had a call abandoned, whose calls are all skipped.
+	private Set<Class<?>> quarantined;
+	private volatile int numQuarantined;
+	private Map<Class<?>, long[]> overruns;
+	private volatile boolean closed;
+
+	/**
+	 * Constructs a new watchdog.
+	 * @param budgetNanos the time a single call may take, in nanoseconds
+	 * @param maxOverruns the number of overruns after which a critter is
+	 * killed
+	 */
+	public StrategyWatchdog(long budgetNanos, int maxOverruns) {
+		if (budgetNanos <= 0 || maxOverruns <= 0) {
+			throw new IllegalArgumentException("The budget and overrun limit must be positive");
+		}
+		this.budgetNanos = budgetNanos;
+		this.maxOverruns = maxOverruns;
+		this.stalled = Collections.newSetFromMap(new IdentityHashMap<Critter, Boolean>());
+		this.quarantined = new HashSet<Class<?>>();
+		this.overruns = new HashMap<Class<?>, long[]>();
+	}
+
+	/** @return the time a single call may take, in nanoseconds */
+	public long getBudgetNanos() { return budgetNanos; }
+
+	/** @return the number of overruns after which a critter is killed */
+	public int getMaxOverruns() { return maxOverruns; }
+
+	/**
+	 * Runs a batch of calls, each within the budget, in order.
+	 * @return the result of each call, or its fallback if it overran, its
+	 * strategy is still stuck in an earlier call, its species is quarantined
+	 * or too many runners are stuck
+	 * @param batch the calls
+	 * @param count the number of calls
+	 * @param nanos if not null, filled with the time each call took
+	 * @throws IllegalStateException if the watchdog has been closed
+	 */
+	public Object[] run(Batch batch, int count, long[] nanos) {
+		if (closed) {
+			throw new IllegalStateException("The watchdog is closed");
+		}
+		Object[] results = new Object[count];
+		int next = 0;
+		while (next < count) {
+			if (numStalled >= MAX_STUCK_RUNNERS) {
+				// Don't strand any more threads; skip the rest of the batch.
+				for (int i = next; i < count; i++) {
+					results[i] = fallbackOf(batch.callOf(i));
+				}
+				break;
+			}
+			if (runner == null) {
+				runner = new Runner();
+				runner.start();
+			}
+			int stuck = runner.runCalls(batch, results, nanos, next, count);
+			if (stuck < 0) {
+				break;
+			}
+			// The runner is stuck in a strategy; leave it to finish alone.
+			runner = null;
+			Call call = batch.callOf(stuck);
+			results[stuck] = fallbackOf(call);
+			if (nanos != null) {
+				nanos[stuck] = budgetNanos;
+			}
+			synchronized (overruns) {
+				long[] counts = overruns.get(batch.strategyOf(stuck).getClass());
+				if (counts == null) {
+					counts = new long[Call.values().length];
+					overruns.put(batch.strategyOf(stuck).getClass(), counts);
+				}
+				counts[call.ordinal()]++;
+			}
+			batch.overran(stuck);
+			next = stuck + 1;
+		}
+		return results;
+	}
+
+	/**
+	 * @return true if the current thread is running a call that has been
+	 * abandoned, in which case it must not touch the model
+	 */
+	public static boolean isAbandonedCall() {
+		Thread thread = Thread.currentThread();
+		return thread instanceof Runner && ((Runner) thread).abandoned;
+	}
+
+	/**
+	 * @return the number of overruns of the given species, over all methods
+	 * @param species the species
+	 */
+	public long getOverruns(Class<?> species) {
+		synchronized (overruns) {
+			long total = 0;
+			long[] counts = overruns.get(species);
+			if (counts != null) {
+				for (long count : counts) {
+					total += count;
+				}
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * @return one line per species and method that overran: the number of
+	 * overruns, followed by one line per quarantined species
+	 */
+	public String[] getOverrunReport() {
+		List<String> lines = new ArrayList<String>();
+		synchronized (overruns) {
+			for (Map.Entry<Class<?>, long[]> entry : overruns.entrySet()) {
+				for (Call call : Call.values()) {
+					long count = entry.getValue()[call.ordinal()];
+					if (count > 0) {
+						lines.add(entry.getKey().getName() + "." + methodName(call) + ": " + count + " overruns");
+					}
+				}
+			}
+		}
+		synchronized (quarantined) {
+			for (Class<?> species : quarantined) {
+				lines.add(species.getName() + ": quarantined, every call falls back");
+			}
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	/**
+	 * @return true if a call to the given species has been abandoned, so
+	 * that all calls to it are skipped for good
+	 * @param species the species
+	 */
+	public boolean isQuarantined(Class<?> species) {
+		if (numQuarantined == 0) {
+			return false;
+		}
+		synchronized (quarantined) {
+			return quarantined.contains(species);
+		}
+	}
+
+	/**
+	 * @return true if the given strategy is stuck in an abandoned call, so
+	 * that calls to it are skipped
+	 * @param strategy the strategy
+	 */
+	public boolean isStalled(Critter strategy) {
+		if (numStalled == 0) {
+			return false;
+		}
+		synchronized (stalled) {
+			return stalled.contains(strategy);
+		}
+	}
+
+	/**
+	 * Stops the current runner.  Runners stuck in abandoned calls are daemon
+	 * threads and exit when their calls return.
+	 */
+	public void close() {
+		closed = true;
+		if (runner != null) {
+			synchronized (runner) {
+				runner.notifyAll();
+			}
+			runner = null;
+		}
+	}
+
+	///// PRIVATE HELPERS /////
+
+	/**
+	 * Marks a strategy as stuck in an abandoned call, or not.
+	 * @param strategy the strategy
+	 * @param isStalled true if it is stuck
+	 */
+	private void setStalled(Critter strategy, boolean isStalled) {
+		synchronized (stalled) {
+			if (isStalled) {
+				stalled.add(strategy);
+			} else {
+				stalled.remove(strategy);
+			}
+			numStalled = stalled.size();
+		}
+	}
+
+	/**
+	 * Quarantines a species, so that all calls to it are skipped.
+	 * @param species the species
+	 */
+	private void quarantine(Class<?> species) {
+		synchronized (quarantined) {
+			quarantined.add(species);
+			numQuarantined = quarantined.size();
+		}
+	}
+
+	/** @return the value used in place of the result of a call that didn't finish */
+	private static Object fallbackOf(Call call) {
+		switch (call) {
+			case GET_MOVE: return Critter.Direction.CENTER;
+			case GET_SPEED: return Critter.Speed.SLOW;
+			default: return null;
+		}
+	}
+
+	/** @return the name of the strategy method of the given call */
+	private static String methodName(Call call) {
+		switch (call) {
+			case GET_MOVE: return "getMove()";
+			case GET_SPEED: return "getSpeed()";
+			case GET_FOOD_TYPE: return "getFoodType()";
+			case ON_EAT: return "onEat()";
+			case ON_WIN: return "onWin()";
+			case ON_MATE: return "onMate()";
+			default: return "onDeath()";
+		}
+	}
+
+	/**
+	 * A thread that runs the batches handed to it by the simulation thread.
+	 * Its monitor guards the batch in progress: the runner holds it between
+	 * calls and the simulation thread holds it to decide whether to abandon
+	 * the call in progress, so a call either finishes or is abandoned, never
+	 * both.
+	 */
+	private class Runner extends Thread {
+		private Batch batch;
+		private Object[] results;
+		private long[] nanos;
+		private int current;
+		private int end;
+		private long callStart;
+		private boolean done;
+		// Whether the runner has picked up the batch in progress.
+		private boolean started;
+		private Throwable failure;
+		private volatile boolean abandoned;
+
+		public Runner() {
+			super("StrategyWatchdog runner");
+			setDaemon(true);
+		}
+
+		/**
+		 * Runs calls of a batch on this runner until they are done or one of
+		 * them overruns.
+		 * @return -1 if they are done, or the index of the call that overran
+		 * @param batch the batch
+		 * @param results the results of the calls
+		 * @param nanos the times the calls took, or null
+		 * @param start the index of the first call to run
+		 * @param end the index after the last call to run
+		 */
+		public synchronized int runCalls(Batch batch, Object[] results, long[] nanos, int start, int end) {
+			this.batch = batch;
+			this.results = results;
+			this.nanos = nanos;
+			this.current = start;
+			this.end = end;
+			this.done = false;
+			this.started = false;
+			notifyAll();
+			boolean interrupted = false;
+			try {
+				while (!done) {
+					// The budget of the first call starts once the runner is
+					// actually running it.
+					long remaining = started ? budgetNanos - (System.nanoTime() - callStart) : budgetNanos;
+					if (started && remaining <= 0) {
+						abandoned = true;
+						setStalled(batch.strategyOf(current), true);
+						quarantine(batch.strategyOf(current).getClass());
+						return current;
+					}
+					try {
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					} catch (InterruptedException ex) {
+						// The wait is bounded anyway; pass it on afterwards.
+						interrupted = true;
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			this.batch = null;
+			this.results = null;
+			this.nanos = null;
+			Throwable thrown = failure;
+			failure = null;
+			if (thrown instanceof RuntimeException) {
+				throw (RuntimeException) thrown;
+			} else if (thrown instanceof Error) {
+				throw (Error) thrown;
+			}
+			return -1;
+		}
+
+		public void run() {
+			while (true) {
+				Batch batch;
+				int i;
+				synchronized (this) {
+					while (this.batch == null || done) {
+						if (closed) {
+							return;
+						}
+						try {
+							wait();
+						} catch (InterruptedException ex) {
+							return;
+						}
+					}
+					batch = this.batch;
+					i = current;
+					started = true;
+					callStart = System.nanoTime();
+				}
+				while (true) {
+					Critter strategy = batch.strategyOf(i);
+					long start = System.nanoTime();
+					Object result = null;
+					Throwable thrown = null;
+					if (isStalled(strategy) || isQuarantined(strategy.getClass())) {
+						result = fallbackOf(batch.callOf(i));
+					} else {
+						try {
+							result = batch.call(i);
+						} catch (Throwable t) {
+							thrown = t;
+						}
+					}
+					long end = System.nanoTime();
+					synchronized (this) {
+						if (abandoned) {
+							// The strategy is free again, but we're done for.  Its
+							// species stays quarantined.
+							setStalled(strategy, false);
+							return;
+						}
+						results[i] = result;
+						if (nanos != null) {
+							nanos[i] = end - start;
+						}
+						if (thrown != null || ++i == this.end) {
+							failure = thrown;
+							done = true;
+							notifyAll();
+							break;
+						}
+						current = i;
+						callStart = end;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,294 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A GrassEngine that keeps grass in a double-buffered grid and updates it in
+ * parallel stripes.  The world is cut into stripes of adjacent columns, each
+ * of which is owned by a single worker with its own random number stream.
+ * Every stripe reads only from the previous generation of the grid and writes
+ * only its own cells of the next generation, so the result of a step does not
+ * depend on the order in which cells or stripes are visited and is
+ * reproducible for a given seed and number of stripes.
+ *
+ * A step happens in two phases separated by a barrier:
+ *
+ * 1. Each stripe decides, for each of its cells, whether an existing blade of
+ *    grass spreads and in which direction, and whether an empty cell spawns a
+ *    new blade.
+ * 2. Each stripe gathers the spreads aimed at its own cells from the (possibly
+ *    neighboring) cells that decided to spread into them.
+ */
+public class StripedGrassEngine implements GrassEngine {
+	/** The largest value a blade of grass can reach by spreading. */
+	public static final int MAX_VALUE = 1 << 30;
+
+	// Marks a cell that does not spread this step.
+	private static final byte NO_SPREAD = -1;
+
+	// The shared pool of stripe workers.  Daemon threads so that an idle pool
+	// never keeps the program alive.
+	private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+		Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "grass-stripe");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+	private int width;
+	private int height;
+	private int randomGrassProb;
+	private int[] current;
+	private int[] next;
+	private byte[] spreads;
+	private int[] stripeStarts;
+	private SavableRandom[] stripeRands;
+	private CellBitmap changed;
+	private int[][] stripeSpawns;
+	private int[] stripeSpawnCounts;
+	private List<Callable<Void>> decidePhase;
+	private List<Callable<Void>> gatherPhase;
+
+	/**
+	 * Constructs a new, grass-free engine.
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @param randomGrassProb the factor by which grass randomly spawns
+	 * @param numStripes the number of stripes to split the world into
+	 * @param seed the seed from which every stripe's random stream is derived
+	 */
+	public StripedGrassEngine(int width, int height, int randomGrassProb, int numStripes, long seed) {
+		if (numStripes < 1) {
+			throw new IllegalArgumentException("Need at least one stripe: " + numStripes);
+		}
+		this.width = width;
+		this.height = height;
+		this.randomGrassProb = randomGrassProb;
+		this.current = new int[width * height];
+		this.next = new int[width * height];
+		this.spreads = new byte[width * height];
+		setStripes(Math.min(numStripes, width), seed);
+	}
+
+	/** @return the number of stripes the world is split into */
+	public int getNumStripes() { return stripeRands.length; }
+
+	public boolean hasGrass(int x, int y) {
+		return current[x * height + y] != 0;
+	}
+
+	public void plant(int x, int y) {
+		current[x * height + y] = 1;
+	}
+
+	public void clear(int x, int y) {
+		current[x * height + y] = 0;
+	}
+
+	public void writeCheckpoint(CheckpointBuffer out) throws IOException {
+		out.putInts(current, 0, current.length);
+		out.putInt(stripeRands.length);
+		for (SavableRandom rand : stripeRands) {
+			out.putRandom(rand);
+		}
+	}
+
+	public void readCheckpoint(CheckpointBuffer in) throws IOException {
+		in.getInts(current, 0, current.length);
+		int numStripes = in.getInt();
+		if (numStripes < 1 || numStripes > width) {
+			throw new IOException("Corrupt checkpoint: " + numStripes + " stripes");
+		}
+		// Adopt the checkpoint's striping, since each stripe has its own stream.
+		setStripes(numStripes, 0);
+		for (int k = 0; k < numStripes; k++) {
+			stripeRands[k] = in.getRandom();
+		}
+	}
+
+	public void setChangedCells(CellBitmap changed) {
+		this.changed = changed;
+		for (int k = 0; k < stripeSpawns.length; k++) {
+			stripeSpawns[k] = changed == null ? null : new int[16];
+		}
+	}
+
+	public void propagate() {
+		runPhase(decidePhase);
+		runPhase(gatherPhase);
+		if (changed != null) {
+			// Spreading only lands on existing grass, so spawns are the only
+			// cells whose grass appeared.
+			for (int k = 0; k < stripeSpawns.length; k++) {
+				for (int i = 0; i < stripeSpawnCounts[k]; i++) {
+					changed.add(stripeSpawns[k][i]);
+				}
+			}
+		}
+		int[] tmp = current;
+		current = next;
+		next = tmp;
+	}
+
+	/**
+	 * Splits the world into the given number of stripes, each with its own
+	 * random stream and its own task in each phase.
+	 * @param numStripes the number of stripes, 1 <= numStripes <= width
+	 * @param seed the seed from which every stripe's random stream is derived
+	 */
+	private void setStripes(int numStripes, long seed) {
+		this.stripeStarts = new int[numStripes + 1];
+		this.stripeRands = new SavableRandom[numStripes];
+		this.stripeSpawns = new int[numStripes][];
+		this.stripeSpawnCounts = new int[numStripes];
+		Random seeder = new Random(seed);
+		for (int k = 0; k < numStripes; k++) {
+			stripeStarts[k] = (int) ((long) width * k / numStripes);
+			stripeRands[k] = new SavableRandom(seeder.nextLong());
+			stripeSpawns[k] = changed == null ? null : new int[16];
+		}
+		stripeStarts[numStripes] = width;
+		this.decidePhase = new ArrayList<Callable<Void>>();
+		this.gatherPhase = new ArrayList<Callable<Void>>();
+		for (int k = 0; k < numStripes; k++) {
+			final int stripe = k;
+			decidePhase.add(new Callable<Void>() {
+				public Void call() { decide(stripe); return null; }
+			});
+			gatherPhase.add(new Callable<Void>() {
+				public Void call() { gather(stripe); return null; }
+			});
+		}
+	}
+
+	/**
+	 * Runs one task per stripe and waits for all of them to finish.  A single
+	 * stripe is run directly on the calling thread.
+	 * @param phase the per-stripe tasks to run
+	 */
+	private void runPhase(List<Callable<Void>> phase) {
+		try {
+			if (phase.size() == 1) {
+				phase.get(0).call();
+				return;
+			}
+			for (Future<Void> f : WORKERS.invokeAll(phase)) {
+				f.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while propagating grass", ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException("Propagating grass gave an exception!", ex.getCause());
+		} catch (Exception ex) {
+			throw new IllegalStateException("Propagating grass gave an exception!", ex);
+		}
+	}
+
+	/**
+	 * Phase 1: decides which of the stripe's grass spreads (and where to) and
+	 * which of its empty cells spawn new grass.
+	 * @param stripe the stripe to decide for
+	 */
+	private void decide(int stripe) {
+		Random rand = stripeRands[stripe];
+		byte[] candidates = new byte[Critter.Directions.length];
+		stripeSpawnCounts[stripe] = 0;
+		for (int x = stripeStarts[stripe]; x < stripeStarts[stripe + 1]; x++) {
+			for (int y = 0; y < height; y++) {
+				int cell = x * height + y;
+				int value = current[cell];
+				spreads[cell] = NO_SPREAD;
+				if (value == 0) {
+					next[cell] = rand.nextInt(randomGrassProb) == 0 ? 1 : 0;
+					if (next[cell] != 0 && stripeSpawns[stripe] != null) {
+						recordSpawn(stripe, cell);
+					}
+					continue;
+				}
+				next[cell] = value;
+				if (rand.nextInt(value) == 0) {
+					int count = 0;
+					for (int d = 0; d < Critter.Directions.length; d++) {
+						if (current[neighbor(x, y, Critter.Directions[d])] != 0) {
+							candidates[count++] = (byte) d;
+						}
+					}
+					if (count > 0) {
+						spreads[cell] = candidates[rand.nextInt(count)];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records that the given cell of the given stripe spawned grass.
+	 * @param stripe the stripe
+	 * @param cell the cell index
+	 */
+	private void recordSpawn(int stripe, int cell) {
+		int[] spawns = stripeSpawns[stripe];
+		if (stripeSpawnCounts[stripe] == spawns.length) {
+			spawns = stripeSpawns[stripe] = Arrays.copyOf(spawns, spawns.length * 2);
+		}
+		spawns[stripeSpawnCounts[stripe]++] = cell;
+	}
+
+	/**
+	 * Phase 2: applies every spread aimed at one of the stripe's cells.  When
+	 * several neighbors spread into the same cell, the largest value wins.
+	 * Doubling saturates at MAX_VALUE rather than overflowing.
+	 * @param stripe the stripe to gather for
+	 */
+	private void gather(int stripe) {
+		for (int x = stripeStarts[stripe]; x < stripeStarts[stripe + 1]; x++) {
+			for (int y = 0; y < height; y++) {
+				int cell = x * height + y;
+				for (int d = 0; d < Critter.Directions.length; d++) {
+					// The neighbor in direction d reaches us by spreading in the
+					// opposite direction.
+					int source = neighbor(x, y, Critter.Directions[d]);
+					if (spreads[source] == opposite(d)) {
+						next[cell] = Math.max(next[cell], Math.min(current[source], MAX_VALUE / 2) * 2);
+					}
+				}
+			}
+		}
+	}
+
+	/** @return the index of the direction opposite to the given direction index */
+	private static int opposite(int d) {
+		switch (Critter.Directions[d]) {
+			case NORTH: return Critter.Direction.SOUTH.ordinal();
+			case EAST: return Critter.Direction.WEST.ordinal();
+			case SOUTH: return Critter.Direction.NORTH.ordinal();
+			case WEST: return Critter.Direction.EAST.ordinal();
+			default: return d;
+		}
+	}
+
+	/**
+	 * @return the cell index adjacent to (x, y) in the given direction,
+	 * wrapping around the edges of the world
+	 */
+	private int neighbor(int x, int y, Critter.Direction direction) {
+		switch (direction) {
+			case NORTH: return x * height + (y == 0 ? height - 1 : y - 1);
+			case EAST: return (x == width - 1 ? 0 : x + 1) * height + y;
+			case SOUTH: return x * height + (y == height - 1 ? 0 : y + 1);
+			case WEST: return (x == 0 ? width - 1 : x - 1) * height + y;
+			default: return x * height + y;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The TerminalRenderer is a view of the model for terminals: it draws the
+ * latest snapshot published to a SnapshotBuffer as ANSI-colored text, e.g.,
+ * so a simulation can be watched over SSH without Swing.
+ *
+ * Like the CritterPanel, the renderer only redraws the positions the buffer
+ * reports as dirty.  Each one is drawn by moving the cursor to it and
+ * printing its glyph in its 24-bit color; cursor moves and color changes
+ * are skipped when the terminal is already in the right state.  The bytes
+ * of each palette code's color and glyph are cached, and each frame is
+ * built in a reusable byte buffer and written out in one go.
+ *
+ * The world is drawn with x across and y down, clipped to the given number
+ * of columns and rows, with a status line underneath.
+ */
+public class TerminalRenderer {
+	private static final byte ESC = 27;
+	private static final byte[] CLEAR_SCREEN = bytes("\033[2J\033[?25l");
+	private static final byte[] RESET = bytes("\033[0m");
+	private static final byte[] CLEAR_LINE = bytes("\033[K");
+	private static final byte[] SHOW_CURSOR = bytes("\033[?25h");
+
+	private SnapshotBuffer snapshots;
+	private OutputStream out;
+	private int columns;
+	private int rows;
+	private byte[] buffer;
+	private int length;
+	private byte[][] glyphs;
+	private byte[][] colors;
+	private boolean started;
+	// The state of the terminal after the last write.
+	private int cursorX;
+	private int cursorY;
+	private Color cursorColor;
+
+	/**
+	 * Constructs a new renderer of the given snapshots.
+	 * @param snapshots the snapshots to render
+	 * @param out the stream to write to, e.g., System.out
+	 * @param columns the most columns of the world to draw
+	 * @param rows the most rows of the world to draw
+	 */
+	public TerminalRenderer(SnapshotBuffer snapshots, OutputStream out, int columns, int rows) {
+		this.snapshots = snapshots;
+		this.out = out;
+		this.columns = columns;
+		this.rows = rows;
+		this.buffer = new byte[1 << 16];
+		this.length = 0;
+		this.glyphs = new byte[16][];
+		this.colors = new byte[16][];
+		this.started = false;
+	}
+
+	/**
+	 * Draws the changes to the world since the last call, plus a status line
+	 * with the given text.  The first call clears the screen and draws the
+	 * whole world.
+	 * @param status the text of the status line
+	 * @throws IOException if writing to the stream fails
+	 */
+	public void render(String status) throws IOException {
+		length = 0;
+		RenderSnapshot snapshot = snapshots.acquire();
+		try {
+			CellBitmap dirty = snapshots.getDirtyCells();
+			int height = snapshot.getHeight();
+			if (!started) {
+				started = true;
+				append(CLEAR_SCREEN);
+				cursorX = -1;
+				cursorColor = null;
+				for (int y = 0; y < Math.min(rows, height); y++) {
+					for (int x = 0; x < Math.min(columns, snapshot.getWidth()); x++) {
+						appendCell(snapshot, x, y);
+					}
+				}
+			} else {
+				for (int cell = dirty.next(0); cell >= 0; cell = dirty.next(cell + 1)) {
+					int x = cell / height;
+					int y = cell % height;
+					if (x < columns && y < rows) {
+						appendCell(snapshot, x, y);
+					}
+				}
+			}
+			moveTo(0, Math.min(rows, height));
+		} finally {
+			snapshots.release();
+		}
+		append(RESET);
+		cursorColor = null;
+		append(bytes(status));
+		append(CLEAR_LINE);
+		// Printing the status line moves the cursor somewhere we don't track.
+		cursorX = -1;
+		out.write(buffer, 0, length);
+		out.flush();
+	}
+
+	/**
+	 * Resets the colors and shows the cursor again.
+	 * @throws IOException if writing to the stream fails
+	 */
+	public void close() throws IOException {
+		out.write(RESET);
+		out.write(SHOW_CURSOR);
+		out.write('\n');
+		out.flush();
+	}
+
+	/**
+	 * Appends the escapes and glyph that draw position (x, y) of the world.
+	 * @param snapshot the snapshot to draw
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	private void appendCell(RenderSnapshot snapshot, int x, int y) {
+		char code = snapshot.getCodeAt(x, y);
+		Color color = snapshot.getColorAt(x, y);
+		byte[] glyphBytes;
+		byte[] colorBytes;
+		if (code == GlyphPalette.OVERFLOW) {
+			// Pairs that didn't fit in the palette aren't cached.
+			glyphBytes = glyphBytes(snapshot.getGlyphAt(x, y));
+			colorBytes = colorBytes(color);
+		} else {
+			if (code >= glyphs.length) {
+				glyphs = Arrays.copyOf(glyphs, Math.max(glyphs.length * 2, code + 1));
+				colors = Arrays.copyOf(colors, glyphs.length);
+			}
+			if (glyphs[code] == null) {
+				glyphs[code] = glyphBytes(snapshot.getGlyphAt(x, y));
+				colors[code] = colorBytes(color);
+			}
+			glyphBytes = glyphs[code];
+			colorBytes = colors[code];
+		}
+		moveTo(x, y);
+		if (color == null ? cursorColor != null : !color.equals(cursorColor)) {
+			append(colorBytes);
+			cursorColor = color;
+		}
+		append(glyphBytes);
+		cursorX++;
+	}
+
+	/**
+	 * @return the bytes that draw the given glyph in a single column
+	 * @param glyph the glyph
+	 */
+	private static byte[] glyphBytes(String glyph) {
+		// Only the first character fits in a single column.
+		return bytes(glyph.isEmpty() ? " " : glyph.substring(0, glyph.offsetByCodePoints(0, 1)));
+	}
+
+	/**
+	 * @return the escape that switches to the given color
+	 * @param color the color, or null for the default
+	 */
+	private static byte[] colorBytes(Color color) {
+		return color == null ? RESET
+		                     : bytes("\033[38;2;" + color.getRed() + ";" + color.getGreen() + ";" + color.getBlue() + "m");
+	}
+
+	/**
+	 * Appends the escape that moves the cursor to position (x, y) of the
+	 * world, unless it is already there.
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	private void moveTo(int x, int y) {
+		if (x != cursorX || y != cursorY) {
+			ensureRoom(24);
+			buffer[length++] = ESC;
+			buffer[length++] = '[';
+			appendInt(y + 1);
+			buffer[length++] = ';';
+			appendInt(x + 1);
+			buffer[length++] = 'H';
+			cursorX = x;
+			cursorY = y;
+		}
+	}
+
+	/**
+	 * Appends the decimal digits of the given number.
+	 * @param n the number, n > 0
+	 */
+	private void appendInt(int n) {
+		int start = length;
+		while (n > 0) {
+			buffer[length++] = (byte) ('0' + n % 10);
+			n /= 10;
+		}
+		for (int i = start, j = length - 1; i < j; i++, j--) {
+			byte tmp = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = tmp;
+		}
+	}
+
+	/**
+	 * Appends the given bytes to the frame.
+	 * @param bytes the bytes
+	 */
+	private void append(byte[] bytes) {
+		ensureRoom(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	/**
+	 * Makes sure the frame buffer has room for the given number of bytes.
+	 * @param n the number of bytes
+	 */
+	private void ensureRoom(int n) {
+		if (length + n > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + n));
+		}
+	}
+
+	/**
+	 * @return the UTF-8 bytes of the given string
+	 * @param s the string
+	 */
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,380 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A TileStepper steps the critters of a CritterModel in parallel, in square
+ * tiles; see CritterModel.setTileSize().  Only critters far enough from the
+ * border of their tile that nothing they do can reach past it are stepped
+ * by their tile, on a worker thread; the critters near the borders make up
+ * the halo, which is sampled and stepped afterwards on the calling thread,
+ * in critter order, through the model's direct context.
+ *
+ * Each tile applies what it does to its own positions right away, on the
+ * board and in a private record of the grass eaten, and logs everything,
+ * to be replayed through the direct context once all tiles are done.
+ * Replaying a move writes the board again, in the same order, so the board
+ * ends up the same.
+ */
+class TileStepper {
+	/**
+	 * How far stepping a critter can reach from its position: to its
+	 * destination, to where it drops a baby, and to what that baby sees.
+	 */
+	public static final int MARGIN = 3;
+
+	/** The smallest tile size. */
+	public static final int MIN_SIZE = 2 * MARGIN + 2;
+
+	// The shared pool of tile workers.  Daemon threads so that an idle pool
+	// never keeps the program alive.
+	private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+		Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "critter-tile");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+	private CritterModel model;
+	private Board board;
+	// The tiles by tile x * tilesDown + tile y.
+	private Tile[] tiles;
+	private int tileSize;
+	private int tilesDown;
+	// The critters near the borders of their tiles, which are stepped after
+	// the tiles in critter order, and the tiles with critters of their own.
+	private List<CritterModel.ConcreteCritter> haloCritters;
+	private List<Tile> busyTiles;
+	// The speed of the critters the tiles are stepping, or null while they
+	// sample their critters' strategies.
+	private Critter.Speed tileSpeed;
+	// True while the tiles run in parallel, when critters must not touch
+	// the model except through their tile.
+	private boolean inParallelPhase;
+
+	/**
+	 * Constructs a new stepper for the given model.
+	 * @param model the model
+	 * @param board the model's board
+	 * @param tileSize the width and height of a tile, at least MIN_SIZE
+	 */
+	public TileStepper(CritterModel model, Board board, int tileSize) {
+		if (tileSize < MIN_SIZE) {
+			throw new IllegalArgumentException("Tiles must be at least " + MIN_SIZE + " wide: " + tileSize);
+		}
+		this.model = model;
+		this.board = board;
+		this.tileSize = tileSize;
+		int width = model.getWidth();
+		int height = model.getHeight();
+		int tilesAcross = (width + tileSize - 1) / tileSize;
+		this.tilesDown = (height + tileSize - 1) / tileSize;
+		this.tiles = new Tile[tilesAcross * tilesDown];
+		for (int i = 0; i < tilesAcross; i++) {
+			for (int j = 0; j < tilesDown; j++) {
+				tiles[i * tilesDown + j] = new Tile(i * tileSize, Math.min(width, (i + 1) * tileSize),
+				                                    j * tileSize, Math.min(height, (j + 1) * tileSize));
+			}
+		}
+		this.haloCritters = new ArrayList<CritterModel.ConcreteCritter>();
+		this.busyTiles = new ArrayList<Tile>();
+	}
+
+	/** @return the width and height of a tile */
+	public int getTileSize() { return tileSize; }
+
+	/**
+	 * @return true while the tiles run in parallel, when critters must not
+	 * touch the model except through their tile
+	 */
+	public boolean isInParallelPhase() { return inParallelPhase; }
+
+	/**
+	 * Sorts the given critters into their tiles and the halo and samples
+	 * them all, the first phase of a step.  Critters only move in their own
+	 * speed's turn, so they stay where they are sorted until their tile
+	 * steps them.
+	 * @param critters the live critters, in order
+	 * @param seeds the stream each tile's random stream is reseeded from
+	 * @param direct the model's direct context
+	 */
+	public void sample(List<CritterModel.ConcreteCritter> critters, Random seeds, StepContext direct) {
+		for (Tile tile : tiles) {
+			tile.members.clear();
+			tile.rand.setSeed(seeds.nextLong());
+		}
+		haloCritters.clear();
+		busyTiles.clear();
+		for (CritterModel.ConcreteCritter critter : critters) {
+			int x = critter.getX();
+			int y = critter.getY();
+			Tile tile = tiles[x / tileSize * tilesDown + y / tileSize];
+			if (tile.isInterior(x, y)) {
+				tile.members.add(critter);
+			} else {
+				haloCritters.add(critter);
+			}
+		}
+		for (Tile tile : tiles) {
+			if (!tile.members.isEmpty()) {
+				busyTiles.add(tile);
+			}
+		}
+		runTiles(null, direct);
+		for (CritterModel.ConcreteCritter critter : haloCritters) {
+			direct.sample(critter);
+		}
+	}
+
+	/**
+	 * Steps the sampled critters of the given speed, tiles first and then
+	 * the halo.
+	 * @param speed the speed
+	 * @param direct the model's direct context
+	 */
+	public void step(Critter.Speed speed, StepContext direct) {
+		runTiles(speed, direct);
+		for (CritterModel.ConcreteCritter critter : haloCritters) {
+			if (critter.getSampledSpeed() == speed) {
+				model.stepSampled(critter, direct);
+			}
+		}
+	}
+
+	/**
+	 * Runs the busy tiles in parallel and then replays what they did to the
+	 * rest of the model, in tile order.
+	 * @param speed the speed of the critters to step, or null to sample the
+	 * critters' strategies
+	 * @param direct the model's direct context
+	 */
+	private void runTiles(Critter.Speed speed, StepContext direct) {
+		tileSpeed = speed;
+		inParallelPhase = true;
+		try {
+			for (Future<Void> f : WORKERS.invokeAll(busyTiles)) {
+				f.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while stepping tiles", ex);
+		} catch (ExecutionException ex) {
+			// Let the strategies' exceptions through as if stepped directly.
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IllegalStateException("Stepping a tile gave an exception!", ex.getCause());
+		} finally {
+			inParallelPhase = false;
+		}
+		for (Tile tile : busyTiles) {
+			tile.replay(direct);
+		}
+	}
+
+	/**
+	 * A tile of the world that samples and steps the critters well inside it
+	 * on a worker thread.
+	 */
+	private class Tile extends StepContext implements Callable<Void> {
+		// Log opcodes and the number of ints that follow each.
+		private static final int MOVED = 0;
+		private static final int ATE_GRASS = 1;
+		private static final int FOUGHT = 2;
+		private static final int MATED = 3;
+		private static final int BORN = 4;
+		private static final int DIED = 5;
+		private static final int CALLBACK = 6;
+
+		private int x0;
+		private int x1;
+		private int y0;
+		private int y1;
+		private Random rand;
+		// The critters the tile steps, in critter order.
+		private List<CritterModel.ConcreteCritter> members;
+		// The grass eaten this phase, by position within the tile.
+		private long[] eaten;
+		private int[] eatenCells;
+		private int numEaten;
+		// The log: opcodes and their ints, and the critters they refer to.
+		private int[] log;
+		private int logLength;
+		private List<CritterModel.ConcreteCritter> logCritters;
+
+		/**
+		 * Constructs a new tile covering [x0, x1) x [y0, y1).
+		 */
+		public Tile(int x0, int x1, int y0, int y1) {
+			this.x0 = x0;
+			this.x1 = x1;
+			this.y0 = y0;
+			this.y1 = y1;
+			this.rand = new Random();
+			this.members = new ArrayList<CritterModel.ConcreteCritter>();
+			this.eaten = new long[((x1 - x0) * (y1 - y0) + 63) / 64];
+			this.eatenCells = new int[16];
+			this.log = new int[64];
+			this.logCritters = new ArrayList<CritterModel.ConcreteCritter>();
+		}
+
+		/**
+		 * @return true iff nothing a critter at position (x, y) does while
+		 * stepping can reach outside the tile
+		 */
+		public boolean isInterior(int x, int y) {
+			return x - x0 >= MARGIN && x1 - x > MARGIN && y - y0 >= MARGIN && y1 - y > MARGIN;
+		}
+
+		/** Samples or steps the tile's critters, depending on the phase. */
+		public Void call() {
+			Critter.Speed speed = tileSpeed;
+			for (CritterModel.ConcreteCritter critter : members) {
+				if (speed == null) {
+					sample(critter);
+				} else if (critter.getSampledSpeed() == speed) {
+					model.stepSampled(critter, this);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Applies what the tile logged to the model, in order, and clears the
+		 * log.  Called on the thread that steps the model.
+		 * @param direct the model's direct context
+		 */
+		public void replay(StepContext direct) {
+			int i = 0;
+			int refs = 0;
+			while (i < logLength) {
+				switch (log[i++]) {
+					case MOVED:
+						direct.moved(logCritters.get(refs++), log[i], log[i + 1], log[i + 2], log[i + 3]);
+						i += 4;
+						break;
+					case ATE_GRASS:
+						direct.ateGrass(log[i], log[i + 1]);
+						i += 2;
+						break;
+					case FOUGHT:
+						direct.fought(log[i], log[i + 1], log[i + 2], log[i + 3]);
+						i += 4;
+						break;
+					case MATED:
+						direct.mated(log[i], log[i + 1], log[i + 2], log[i + 3]);
+						i += 4;
+						break;
+					case BORN:
+						direct.born(logCritters.get(refs++));
+						break;
+					case DIED:
+						direct.died(logCritters.get(refs++));
+						break;
+					default:
+						CritterModel.ConcreteCritter critter = logCritters.get(refs++);
+						CritterModel.ConcreteCritter other = log[i + 1] != 0 ? logCritters.get(refs++) : null;
+						direct.callback(critter, StrategyWatchdog.Call.values()[log[i]], other);
+						i += 2;
+						break;
+				}
+			}
+			logLength = 0;
+			logCritters.clear();
+			for (int k = 0; k < numEaten; k++) {
+				eaten[eatenCells[k] >>> 6] = 0;
+			}
+			numEaten = 0;
+		}
+
+		public Random rand() { return rand; }
+
+		public boolean hasGrass(int x, int y) {
+			int cell = (x - x0) * (y1 - y0) + (y - y0);
+			return (eaten[cell >>> 6] & 1L << cell) == 0 && model.hasGrassAt(x, y);
+		}
+
+		// Profilers only time the calls on the calling thread.
+		public void sample(CritterModel.ConcreteCritter critter) { model.sample(critter, this); }
+
+		public void moved(CritterModel.ConcreteCritter critter, int fromX, int fromY, int toX, int toY) {
+			board.set(fromX, fromY, 0);
+			board.set(toX, toY, critter.getSlot());
+			append(MOVED, fromX, fromY);
+			append(toX, toY);
+			logCritters.add(critter);
+		}
+
+		public void ateGrass(int x, int y) {
+			int cell = (x - x0) * (y1 - y0) + (y - y0);
+			eaten[cell >>> 6] |= 1L << cell;
+			if (numEaten == eatenCells.length) {
+				eatenCells = Arrays.copyOf(eatenCells, numEaten * 2);
+			}
+			eatenCells[numEaten++] = cell;
+			append(ATE_GRASS, x, y);
+		}
+
+		public void fought(int winnerX, int winnerY, int loserX, int loserY) {
+			append(FOUGHT, winnerX, winnerY);
+			append(loserX, loserY);
+		}
+
+		public void mated(int x, int y, int mateX, int mateY) {
+			append(MATED, x, y);
+			append(mateX, mateY);
+		}
+
+		public void born(CritterModel.ConcreteCritter baby) {
+			board.set(baby.getX(), baby.getY(), baby.getSlot());
+			append(BORN);
+			logCritters.add(baby);
+		}
+
+		public void died(CritterModel.ConcreteCritter critter) {
+			append(DIED);
+			logCritters.add(critter);
+		}
+
+		public void callback(CritterModel.ConcreteCritter critter, StrategyWatchdog.Call call,
+		                     CritterModel.ConcreteCritter other) {
+			append(CALLBACK, call.ordinal(), other != null ? 1 : 0);
+			logCritters.add(critter);
+			if (other != null) {
+				logCritters.add(other);
+			}
+		}
+
+		/** Appends an opcode to the log. */
+		private void append(int op) {
+			if (logLength == log.length) {
+				log = Arrays.copyOf(log, log.length * 2);
+			}
+			log[logLength++] = op;
+		}
+
+		/** Appends an opcode and two ints to the log. */
+		private void append(int op, int a, int b) {
+			append(op);
+			append(a, b);
+		}
+
+		/** Appends two ints to the log. */
+		private void append(int a, int b) {
+			if (logLength + 2 > log.length) {
+				log = Arrays.copyOf(log, log.length * 2);
+			}
+			log[logLength++] = a;
+			log[logLength++] = b;
+		}
+	}
+}
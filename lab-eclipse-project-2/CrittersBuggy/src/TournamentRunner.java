@@ -0,0 +1,298 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A TournamentRunner ranks species by pitting the same roster against
+ * itself in many independent worlds, e.g.,
+ *
+ *   java TournamentRunner 200 5000
+ *
+ * runs 200 worlds of the critters in the current directory for up to 5000
+ * steps each.  Every species starts in every world, nothing repopulates, and
+ * a world ends when at most one species is left or it runs out of steps.
+ * The winner of a world is its last species standing, or the largest of
+ * the survivors if several are left; ties split the win.
+ *
+ * Worlds run concurrently on a work-stealing pool, so threads that finish
+ * short worlds early pick up waiting ones instead of idling.  Each world
+ * has its own model, random streams and species registry, seeded from the
+ * tournament's seed by the world's number, and propagates its grass on its
+ * own thread, so a tournament gives the same results for the same seed
+ * however many threads run it.  Critters that keep state in static fields
+ * are shared between worlds, though, and can break that.
+ */
+public class TournamentRunner {
+	/** A species' results over the whole tournament. */
+	public static class Standing {
+		private String name;
+		private int worlds;
+		private double wins;
+		private int survivals;
+		private long totalSurvivalSteps;
+		private long totalPeak;
+		private int maxPeak;
+
+		public Standing(String name) { this.name = name; }
+
+		/** @return the name of the species */
+		public String getName() { return name; }
+
+		/** @return the number of worlds the species played in */
+		public int getWorlds() { return worlds; }
+
+		/** @return the worlds the species won, counting shared wins fractionally */
+		public double getWins() { return wins; }
+
+		/** @return the fraction of its worlds the species won */
+		public double getWinRate() { return worlds == 0 ? 0 : wins / worlds; }
+
+		/** @return the number of worlds in which the species was alive at the end */
+		public int getSurvivals() { return survivals; }
+
+		/** @return the average number of steps the species stayed alive */
+		public double getMeanSurvivalSteps() { return worlds == 0 ? 0 : (double) totalSurvivalSteps / worlds; }
+
+		/** @return the average of the species' peak population per world */
+		public double getMeanPeakPopulation() { return worlds == 0 ? 0 : (double) totalPeak / worlds; }
+
+		/** @return the species' largest population in any world */
+		public int getMaxPeakPopulation() { return maxPeak; }
+	}
+
+	/** The outcome of one world, by species id. */
+	private static class WorldResult {
+		private int[] survivalSteps;
+		private int[] peaks;
+		private boolean[] survived;
+		private double[] wins;
+	}
+
+	private List<Class<?>> roster;
+	private int width;
+	private int height;
+	private int randomGrassProb;
+	private int hungerLimit;
+	private int numInitial;
+	private double initialGrassRatio;
+	private int maxSteps;
+
+	/**
+	 * Constructs a new tournament; see the CritterModel constructor for the
+	 * world parameters.
+	 * @param roster the species to rank
+	 * @param width the width of each world
+	 * @param height the height of each world
+	 * @param randomGrassProb the factor by which grass randomly spawns
+	 * @param hungerLimit the hunger count at which a Critter dies
+	 * @param numInitial the number of critters each species starts with
+	 * @param initialGrassRatio the initial ratio of grass to not-grass
+	 * @param maxSteps the number of steps after which a world ends
+	 */
+	public TournamentRunner(List<Class<?>> roster, int width, int height, int randomGrassProb, int hungerLimit,
+	                        int numInitial, double initialGrassRatio, int maxSteps) {
+		if (roster.size() < 2) {
+			throw new IllegalArgumentException("A tournament needs at least two species");
+		}
+		if ((long) roster.size() * numInitial > (long) width * height) {
+			throw new IllegalArgumentException("The starting critters don't fit in a " + width + "x" + height + " world");
+		}
+		if (maxSteps < 1) {
+			throw new IllegalArgumentException("Worlds need at least one step: " + maxSteps);
+		}
+		this.roster = new ArrayList<Class<?>>(roster);
+		this.width = width;
+		this.height = height;
+		this.randomGrassProb = randomGrassProb;
+		this.hungerLimit = hungerLimit;
+		this.numInitial = numInitial;
+		this.initialGrassRatio = initialGrassRatio;
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * Runs the tournament.
+	 * @return the standing of every species, best first: by win rate, then
+	 * by how long it survived
+	 * @param numWorlds the number of worlds to run
+	 * @param seed the seed from which every world's seed is drawn
+	 * @param parallelism the number of worlds to run at once
+	 * @throws IllegalStateException if a world fails, e.g., because a
+	 * critter throws
+	 */
+	public List<Standing> run(int numWorlds, long seed, int parallelism) {
+		Random seeder = new Random(seed);
+		List<Callable<WorldResult>> worlds = new ArrayList<Callable<WorldResult>>();
+		for (int i = 0; i < numWorlds; i++) {
+			final long worldSeed = seeder.nextLong();
+			worlds.add(new Callable<WorldResult>() {
+				public WorldResult call() { return runWorld(worldSeed); }
+			});
+		}
+		ExecutorService pool = Executors.newWorkStealingPool(parallelism);
+		List<Standing> standings = new ArrayList<Standing>();
+		for (Class<?> species : roster) {
+			standings.add(new Standing(species.getName()));
+		}
+		try {
+			for (Future<WorldResult> future : pool.invokeAll(worlds)) {
+				add(standings, future.get());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while running the tournament", ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException("A world of the tournament failed!", ex.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		Collections.sort(standings, new Comparator<Standing>() {
+			public int compare(Standing a, Standing b) {
+				int byWins = Double.compare(b.getWinRate(), a.getWinRate());
+				return byWins != 0 ? byWins : Double.compare(b.getMeanSurvivalSteps(), a.getMeanSurvivalSteps());
+			}
+		});
+		return standings;
+	}
+
+	/**
+	 * @return one line per species of the given standings: its rank, win
+	 * rate, survivals, mean survival time and peak population
+	 * @param standings the standings, best first
+	 */
+	public static String[] format(List<Standing> standings) {
+		String[] lines = new String[standings.size()];
+		for (int i = 0; i < lines.length; i++) {
+			Standing s = standings.get(i);
+			lines[i] = String.format("%2d. %-30s win %5.1f%%, survived %d/%d, mean survival %.0f steps, "
+			                         + "mean peak %.1f, max peak %d", i + 1, s.getName(), 100 * s.getWinRate(),
+			                         s.getSurvivals(), s.getWorlds(), s.getMeanSurvivalSteps(),
+			                         s.getMeanPeakPopulation(), s.getMaxPeakPopulation());
+		}
+		return lines;
+	}
+
+	///// PRIVATE HELPERS /////
+
+	/**
+	 * Runs one world to the end.
+	 * @return its outcome
+	 * @param seed the world's seed
+	 */
+	private WorldResult runWorld(long seed) {
+		CritterModel model = new CritterModel(width, height, randomGrassProb, hungerLimit, roster, numInitial,
+		                                      roster.size(), initialGrassRatio, seed);
+		model.setRepopulatingWorld(false);
+		// The pool is busy with other worlds, so don't split the grass.
+		model.setGrassEngine(new StripedGrassEngine(width, height, randomGrassProb, 1, seed));
+		SpeciesRegistry species = model.getSpeciesRegistry();
+		int n = species.size();
+		WorldResult result = new WorldResult();
+		result.survivalSteps = new int[n];
+		result.peaks = new int[n];
+		result.survived = new boolean[n];
+		result.wins = new double[n];
+		int alive = record(species, result, 0);
+		while (alive > 1 && model.getNumSteps() < maxSteps) {
+			model.step();
+			alive = record(species, result, model.getNumSteps());
+		}
+		// The winners are the largest survivors, or if none survived, the
+		// species that died last.
+		int best = -1;
+		int numBest = 0;
+		for (int id = 0; id < n; id++) {
+			result.survived[id] = species.getCount(id) > 0;
+			int score = alive > 0 ? species.getCount(id) : result.survivalSteps[id];
+			if (score > best) {
+				best = score;
+				numBest = 1;
+			} else if (score == best) {
+				numBest++;
+			}
+		}
+		for (int id = 0; id < n; id++) {
+			int score = alive > 0 ? species.getCount(id) : result.survivalSteps[id];
+			if (score == best) {
+				result.wins[id] = 1.0 / numBest;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Records the populations of a world after a step.
+	 * @return the number of species still alive
+	 * @param species the world's species
+	 * @param result the outcome of the world so far
+	 * @param step the number of steps taken
+	 */
+	private static int record(SpeciesRegistry species, WorldResult result, int step) {
+		int alive = 0;
+		for (int id = 0; id < species.size(); id++) {
+			int count = species.getCount(id);
+			if (count > 0) {
+				alive++;
+				result.survivalSteps[id] = step;
+				if (count > result.peaks[id]) {
+					result.peaks[id] = count;
+				}
+			}
+		}
+		return alive;
+	}
+
+	/**
+	 * Adds the outcome of a world to the standings.
+	 * @param standings the standings, by species id
+	 * @param result the outcome
+	 */
+	private static void add(List<Standing> standings, WorldResult result) {
+		for (int id = 0; id < standings.size(); id++) {
+			Standing s = standings.get(id);
+			s.worlds++;
+			s.wins += result.wins[id];
+			s.survivals += result.survived[id] ? 1 : 0;
+			s.totalSurvivalSteps += result.survivalSteps[id];
+			s.totalPeak += result.peaks[id];
+			s.maxPeak = Math.max(s.maxPeak, result.peaks[id]);
+		}
+	}
+
+	/**
+	 * Runs a tournament of the critters in the current directory with the
+	 * world parameters of CritterMain.
+	 * @param args the number of worlds, the number of steps per world, and
+	 * optionally the seed and the number of threads
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: java TournamentRunner WORLDS STEPS [SEED [THREADS]]");
+			System.exit(1);
+		}
+		int numWorlds = Integer.parseInt(args[0]);
+		int maxSteps = Integer.parseInt(args[1]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : new Random().nextLong();
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		List<Class<?>> species = CritterMain.discoverCritters(new File(System.getProperty("user.dir")));
+		System.out.println("Running " + numWorlds + " worlds of " + species.size() + " critters (seed " + seed + ")...");
+		TournamentRunner tournament = new TournamentRunner(species, CritterMain.WIDTH, CritterMain.HEIGHT,
+		                                                   CritterMain.RANDOM_GRASS_PROB, CritterMain.HUNGER_LIMIT,
+		                                                   CritterMain.NUM_INITIAL_CRITTERS,
+		                                                   CritterMain.INITIAL_GRASS_RATIO, maxSteps);
+		long start = System.nanoTime();
+		List<Standing> standings = tournament.run(numWorlds, seed, threads);
+		for (String line : format(standings)) {
+			System.out.println(line);
+		}
+		System.out.printf("%d worlds in %.1f s%n", numWorlds, (System.nanoTime() - start) / 1e9);
+	}
+}
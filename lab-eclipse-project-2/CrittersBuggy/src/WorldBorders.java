@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The west and east borders of a world that borders on other worlds instead
+ * of wrapping around, e.g., a band of a DistributedSimulation; see
+ * CritterModel.setBorders().  It holds the glyphs beyond each edge, which
+ * its owner keeps up to date between steps, and the critters that have
+ * left across either edge, until they are taken.
+ */
+class WorldBorders {
+	// What lies beyond the west and east edges, by y.
+	private String[] west;
+	private String[] east;
+	private List<CritterModel.Migrant> emigrants;
+
+	/**
+	 * Constructs new borders for a world of the given size.
+	 * @param west the glyphs beyond x = 0
+	 * @param east the glyphs beyond x = width - 1
+	 * @param width the width of the world
+	 * @param height the height of the world
+	 * @throws IllegalArgumentException if the arrays aren't as long as the
+	 * world is high, or the world is less than 3 wide
+	 */
+	public WorldBorders(String[] west, String[] east, int width, int height) {
+		if (west.length != height || east.length != height) {
+			throw new IllegalArgumentException("Borders must be " + height + " high");
+		}
+		if (width < 3) {
+			throw new IllegalArgumentException("A world with borders must be at least 3 wide: " + width);
+		}
+		this.west = west;
+		this.east = east;
+		this.emigrants = new ArrayList<CritterModel.Migrant>();
+	}
+
+	/**
+	 * @return true iff a step from x-coordinate fromX to the adjacent toX
+	 * crosses a border rather than wrapping around
+	 * @param fromX the x-coordinate stepped from
+	 * @param toX the x-coordinate stepped to
+	 */
+	public boolean crosses(int fromX, int toX) {
+		return Math.abs(toX - fromX) > 1;
+	}
+
+	/**
+	 * @return the glyph beyond the border next to (x, y), where x is 0 or
+	 * width - 1
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 */
+	public String glyphBeyond(int x, int y) {
+		return x == 0 ? west[y] : east[y];
+	}
+
+	/**
+	 * Queues a critter that left the world across a border.
+	 * @param migrant the critter
+	 */
+	public void emigrated(CritterModel.Migrant migrant) {
+		emigrants.add(migrant);
+	}
+
+	/**
+	 * @return the critters that left the world since the last call, in the
+	 * order they left
+	 */
+	public List<CritterModel.Migrant> takeEmigrants() {
+		List<CritterModel.Migrant> taken = emigrants;
+		emigrants = new ArrayList<CritterModel.Migrant>();
+		return taken;
+	}
+}